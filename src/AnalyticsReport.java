@@ -0,0 +1,118 @@
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * 借阅历史分析结果
+ * 由Library.getAnalyticsReport()生成，只包含数据，显示由调用者负责
+ */
+public class AnalyticsReport {
+    // 定义成员变量
+    private final long loanCount;                           // 参与分析的借阅记录数
+    private final SortedMap<YearMonth, Long> borrowsByMonth;  // 每月借阅次数
+    private final List<Map.Entry<String, Long>> popularAuthors;  // 借阅次数最多的作者
+    private final long durationSamples;                     // 知道归还日期的记录数
+    private final double averageLoanDays;                   // 平均借阅天数
+    private final List<Cohort> cohorts;                     // 按学号前缀分组的逾期情况
+    private final List<Book> neverBorrowed;                 // 从未被借过的图书
+
+    // 构造方法
+    public AnalyticsReport(long loanCount, SortedMap<YearMonth, Long> borrowsByMonth,
+                           List<Map.Entry<String, Long>> popularAuthors, long durationSamples,
+                           double averageLoanDays, List<Cohort> cohorts, List<Book> neverBorrowed) {
+        this.loanCount = loanCount;
+        this.borrowsByMonth = borrowsByMonth;
+        this.popularAuthors = popularAuthors;
+        this.durationSamples = durationSamples;
+        this.averageLoanDays = averageLoanDays;
+        this.cohorts = cohorts;
+        this.neverBorrowed = neverBorrowed;
+    }
+
+    public long getLoanCount() {
+        return loanCount;
+    }
+
+    public SortedMap<YearMonth, Long> getBorrowsByMonth() {
+        return borrowsByMonth;
+    }
+
+    public List<Map.Entry<String, Long>> getPopularAuthors() {
+        return popularAuthors;
+    }
+
+    public long getDurationSamples() {
+        return durationSamples;
+    }
+
+    public double getAverageLoanDays() {
+        return averageLoanDays;
+    }
+
+    public List<Cohort> getCohorts() {
+        return cohorts;
+    }
+
+    public List<Book> getNeverBorrowed() {
+        return neverBorrowed;
+    }
+
+    // 对象转换成字符串
+    @Override
+    public String toString() {
+        return "AnalyticsReport{loans=" + loanCount +
+                ", months=" + borrowsByMonth.size() +
+                ", averageLoanDays=" + averageLoanDays +
+                ", cohorts=" + cohorts.size() +
+                ", neverBorrowed=" + neverBorrowed.size() +
+                '}';
+    }
+
+    /**
+     * 一组学生（学号前缀相同）的逾期情况
+     * 只统计结果已知的借阅：知道归还日期的已归还记录，以及还没归还的记录（到期日已过算逾期）
+     */
+    public static class Cohort {
+        // 定义成员变量
+        private final String prefix;  // 学号前缀
+        private final long loans;     // 借阅次数
+        private final long overdue;   // 逾期次数
+
+        // 构造方法
+        public Cohort(String prefix, long loans, long overdue) {
+            this.prefix = prefix;
+            this.loans = loans;
+            this.overdue = overdue;
+        }
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public long getLoans() {
+            return loans;
+        }
+
+        public long getOverdue() {
+            return overdue;
+        }
+
+        /**
+         * 逾期率
+         * @return 逾期次数 / 借阅次数，没有借阅时为0
+         */
+        public double getOverdueRate() {
+            return loans == 0 ? 0 : (double) overdue / loans;
+        }
+
+        // 对象转换成字符串
+        @Override
+        public String toString() {
+            return "Cohort{prefix='" + prefix + '\'' +
+                    ", loans=" + loans +
+                    ", overdue=" + overdue +
+                    '}';
+        }
+    }
+}
@@ -3,7 +3,7 @@ public class Book {
     public String title; // 书名
     public String author; // 作者
     public String isbn; // 唯一标识
-    public int stock; // 当前可借库存
+    public volatile int stock; // 当前可借库存（只在Library的分段锁内修改）
 
     // 构造方法
     public Book(String title, String author, String isbn, int stock) {
@@ -40,10 +40,10 @@ public class Book {
     // 对象转换成字符串
     @Override
     public String toString() {
-        return "Book{title='" + title + '\'' +
-                ", author='" + author + '\'' +
-                ", isbn='" + isbn + '\'' +
-                ", stock=" + stock +
+        return "Book{title='" + getTitle() + '\'' +
+                ", author='" + getAuthor() + '\'' +
+                ", isbn='" + getIsbn() + '\'' +
+                ", stock=" + getStock() +
                 '}';
     }
 }
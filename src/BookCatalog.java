@@ -0,0 +1,30 @@
+/**
+ * 图书目录的只读接口
+ * 查询、列表、统计只需要读目录；BookStore在此基础上增加修改操作
+ */
+public interface BookCatalog {
+    /**
+     * 按ISBN查找图书
+     * @param isbn 图书ISBN
+     * @return 图书，不存在返回null
+     */
+    Book get(String isbn);
+
+    /**
+     * 图书数量
+     * @return 图书数量
+     */
+    int size();
+
+    /**
+     * 是否没有图书
+     * @return 没有图书返回true
+     */
+    boolean isEmpty();
+
+    /**
+     * 遍历所有图书
+     * @return 所有图书
+     */
+    Iterable<Book> values();
+}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 图书存储接口
+ * Library只通过这个接口访问图书，存储可以是内存中的Map，也可以是内存映射文件
+ * 结构性修改（add、remove）和库存修改由Library在对应ISBN的锁内调用
+ */
+public interface BookStore extends BookCatalog {
+    /**
+     * 添加图书
+     * @param book 新图书
+     * @return 添加成功返回true，ISBN已存在返回false
+     */
+    boolean add(Book book);
+
+    /**
+     * 添加一本确定不存在的图书，不再查重（调用者已经用KeyFilter确认这个ISBN一定不在存储里）
+     * @param book 新图书，ISBN必须不在存储里
+     * @return 添加成功返回true
+     */
+    boolean addAbsent(Book book);
+
+    /**
+     * 删除图书
+     * @param isbn 图书ISBN
+     * @return 被删除的图书，不存在返回null
+     */
+    Book remove(String isbn);
+
+    /**
+     * 是否包含某个ISBN
+     * @param isbn 图书ISBN
+     * @return 存在返回true
+     */
+    boolean containsKey(String isbn);
+
+    /**
+     * 遍历所有图书（弱一致：遍历期间的并发修改可能看得到也可能看不到）
+     * @return 所有图书
+     */
+    @Override
+    Iterable<Book> values();
+
+    /**
+     * 取当前目录的只读视图，用于查询、列表和统计
+     * 能提供不可变快照的存储返回某一时刻的版本：之后的添加、删除都看不到，多次读取看到的是同一批书、同样的书名作者；
+     * 库存不在快照里，读到的总是当前值。不能提供快照的存储返回存储本身（弱一致）
+     * @return 目录视图
+     */
+    BookCatalog snapshot();
+
+    /**
+     * 图书是否由存储自己保存在磁盘上（例如MappedBookStore）
+     * 这样的存储不把借还书改的库存直接写入文件：Library做快照时只写入还没落到存储里的库存（pendingStock），
+     * 快照落盘后再逐本写入存储（flushStock）并落盘（force）；重启时按快照和之后的日志接着存储里的库存恢复
+     * @return 默认false：图书随快照一起保存
+     */
+    default boolean isPersistent() {
+        return false;
+    }
+
+    /**
+     * 还没有写入存储文件的库存（拷贝），Library在暂停修改时调用
+     * @return ISBN -> 库存
+     */
+    default Map<String, Integer> pendingStock() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * 把已经写进快照的库存写入存储文件（调用者持有这本书的ISBN锁）
+     * @param isbn 图书ISBN
+     * @param stock 快照里的库存
+     */
+    default void flushStock(String isbn, int stock) {
+    }
+
+    /**
+     * 把存储文件的修改落盘
+     */
+    default void force() throws IOException {
+    }
+}
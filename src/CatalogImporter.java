@@ -0,0 +1,402 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * 图书目录批量导入
+ * 支持两种格式：
+ * CSV：每行一本书 "书名,作者,ISBN,库存"，字段可以用双引号包起来，第一行是表头时自动跳过
+ * MARC文本格式（.mrk）：每条记录若干行，记录之间用空行分隔，
+ *     读取 =020 $a（ISBN）、=100 $a（作者）、=245 $a（书名），库存取默认值
+ *
+ * 读线程顺序读取文件，每凑够一批记录就交给解析线程池；
+ * 解析线程校验ISBN并调用Library.addBooks()成批插入；ISBN去掉'-'和空格后再查重和插入，
+ * "978-7-115-34567-8"和"9787115345678"是同一本书
+ * 线程池的队列有上限，读得太快时读线程自己来解析（背压），所以内存占用与文件大小无关
+ * 错误记录只计数和保存少量明细，不会中断导入：解析或插入时出现意外错误也只记下出错的行，其余记录照常导入
+ */
+public class CatalogImporter {
+    // 每批的记录数
+    private static final int BATCH_SIZE = 5000;
+
+    // 文件格式
+    public enum Format { CSV, MARC }
+
+    private final Library library;
+    private final int threads;
+    private final int defaultStock;
+
+    /**
+     * 构造函数
+     * @param library 导入到的图书馆
+     * @param threads 解析线程数
+     * @param defaultStock MARC记录没有库存字段时使用的库存数量
+     */
+    public CatalogImporter(Library library, int threads, int defaultStock) {
+        this.library = library;
+        this.threads = Math.max(1, threads);
+        this.defaultStock = defaultStock;
+    }
+
+    /**
+     * 根据扩展名判断格式：.mrk、.marc为MARC，其余按CSV处理
+     * @param file 文件
+     * @return 文件格式
+     */
+    public static Format detectFormat(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".mrk") || name.endsWith(".marc") ? Format.MARC : Format.CSV;
+    }
+
+    /**
+     * 导入文件
+     * @param file 文件路径
+     * @param format 文件格式
+     * @return 导入结果统计
+     */
+    public ImportReport importFile(Path file, Format format) throws IOException {
+        ImportReport report = new ImportReport();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), r -> {
+                    Thread t = new Thread(r, "catalog-import");
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<?>> pending = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>();
+            long firstLine = 1;
+            long lineNo = 0;
+            int recordsInChunk = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (lineNo == 1 && format == Format.CSV && isHeader(line)) {
+                    firstLine = 2;
+                    continue;
+                }
+                lines.add(line);
+                // CSV每行一条记录，MARC以空行结束一条记录
+                if (format == Format.CSV || line.trim().isEmpty()) {
+                    recordsInChunk++;
+                }
+                if (recordsInChunk >= BATCH_SIZE) {
+                    pending.add(submit(pool, lines, firstLine, format, report));
+                    lines = new ArrayList<>();
+                    firstLine = lineNo + 1;
+                    recordsInChunk = 0;
+                    removeDone(pending);
+                }
+            }
+            if (!lines.isEmpty()) {
+                pending.add(submit(pool, lines, firstLine, format, report));
+            }
+            for (Future<?> f : pending) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("导入被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("导入失败：" + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return report;
+    }
+
+    private Future<?> submit(ExecutorService pool, List<String> lines, long firstLine, Format format,
+                             ImportReport report) {
+        return pool.submit(() -> {
+            if (format == Format.CSV) {
+                parseCsv(lines, firstLine, report);
+            } else {
+                parseMarc(lines, firstLine, report);
+            }
+        });
+    }
+
+    /**
+     * 已经完成的任务不再保留，避免pending列表随文件变大
+     */
+    private static void removeDone(List<Future<?>> pending) throws InterruptedException, ExecutionException {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            if (pending.get(i).isDone()) {
+                pending.remove(i).get();
+            }
+        }
+    }
+
+    // ==================== CSV ====================
+
+    private void parseCsv(List<String> lines, long firstLine, ImportReport report) {
+        List<Book> batch = new ArrayList<>(lines.size());
+        List<Long> lineNumbers = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            long lineNo = firstLine + i;
+            try {
+                Book book = parseCsvLine(lines.get(i), lineNo, report);
+                if (book != null) {
+                    batch.add(book);
+                    lineNumbers.add(lineNo);
+                }
+            } catch (RuntimeException e) {
+                report.addInvalid(lineNo, "无法解析：" + e);
+            }
+        }
+        insert(batch, lineNumbers, report);
+    }
+
+    /**
+     * 解析一行CSV
+     * @return 图书，空行或错误记录返回null（错误已记入report）
+     */
+    private static Book parseCsvLine(String line, long lineNo, ImportReport report) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        List<String> fields = splitCsv(line);
+        if (fields == null || fields.size() < 4) {
+            report.addInvalid(lineNo, "字段数量不足，应为：书名,作者,ISBN,库存");
+            return null;
+        }
+        int stock;
+        try {
+            stock = Integer.parseInt(fields.get(3).trim());
+        } catch (NumberFormatException e) {
+            report.addInvalid(lineNo, "库存数量必须是数字：" + fields.get(3));
+            return null;
+        }
+        return validate(fields.get(0), fields.get(1), fields.get(2), stock, lineNo, report);
+    }
+
+    /**
+     * 拆分一行CSV，支持双引号包起来的字段和字段内的两个双引号
+     * @return 字段列表，引号不匹配时返回null
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static boolean isHeader(String line) {
+        return line.toLowerCase(Locale.ROOT).contains("isbn");
+    }
+
+    // ==================== MARC ====================
+
+    private void parseMarc(List<String> lines, long firstLine, ImportReport report) {
+        List<Book> batch = new ArrayList<>();
+        List<Long> lineNumbers = new ArrayList<>();
+        String title = null;
+        String author = null;
+        String isbn = null;
+        long recordLine = firstLine;
+        boolean inRecord = false;
+        for (int i = 0; i <= lines.size(); i++) {
+            String line = i < lines.size() ? lines.get(i) : "";
+            long lineNo = firstLine + i;
+            if (line.trim().isEmpty()) {
+                if (inRecord) {
+                    try {
+                        Book book = validate(title, author, isbn, defaultStock, recordLine, report);
+                        if (book != null) {
+                            batch.add(book);
+                            lineNumbers.add(recordLine);
+                        }
+                    } catch (RuntimeException e) {
+                        report.addInvalid(recordLine, "无法解析：" + e);
+                    }
+                }
+                title = null;
+                author = null;
+                isbn = null;
+                inRecord = false;
+                continue;
+            }
+            if (!inRecord) {
+                inRecord = true;
+                recordLine = lineNo;
+            }
+            try {
+                if (line.startsWith("=020") && isbn == null) {
+                    isbn = subfieldA(line);
+                } else if (line.startsWith("=100")) {
+                    author = subfieldA(line);
+                } else if (line.startsWith("=245")) {
+                    title = subfieldA(line);
+                }
+            } catch (RuntimeException e) {
+                report.addInvalid(lineNo, "无法解析：" + e);
+            }
+        }
+        insert(batch, lineNumbers, report);
+    }
+
+    /**
+     * 取出MARC字段中$a子字段的内容，并去掉结尾的标点（" /"、" :"、"."、","）
+     */
+    private static String subfieldA(String line) {
+        int start = line.indexOf("$a");
+        if (start < 0) {
+            return null;
+        }
+        int end = line.indexOf('$', start + 2);
+        String value = (end < 0 ? line.substring(start + 2) : line.substring(start + 2, end)).trim();
+        while (!value.isEmpty() && "/:.,;".indexOf(value.charAt(value.length() - 1)) >= 0) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        // 020字段中ISBN后面可能跟着说明，例如"9787111213826 (pbk.)"
+        int space = value.indexOf(' ');
+        if (line.startsWith("=020") && space > 0) {
+            value = value.substring(0, space);
+        }
+        return value;
+    }
+
+    // ==================== 校验与插入 ====================
+
+    /**
+     * 校验一条记录
+     * @return 图书（ISBN已规范化），错误记录返回null（错误已记入report）
+     */
+    private static Book validate(String title, String author, String isbn, int stock, long lineNo,
+                                 ImportReport report) {
+        if (isbn == null || !isValidIsbn(isbn)) {
+            report.addInvalid(lineNo, "ISBN无效：" + isbn);
+            return null;
+        }
+        if (title == null || title.trim().isEmpty()) {
+            report.addInvalid(lineNo, "缺少书名");
+            return null;
+        }
+        if (stock < 0) {
+            report.addInvalid(lineNo, "库存数量不能为负数：" + stock);
+            return null;
+        }
+        return new Book(title.trim(), author == null ? "" : author.trim(), normalizeIsbn(isbn), stock);
+    }
+
+    /**
+     * 成批插入；整批插入出现意外错误时改为逐本插入，只有出错的那几本记为错误
+     */
+    private void insert(List<Book> batch, List<Long> lineNumbers, ImportReport report) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        OpResult[] results;
+        try {
+            results = library.addBooks(batch);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    record(library.addBooks(List.of(batch.get(i)))[0], batch.get(i), lineNumbers.get(i), report);
+                } catch (RuntimeException single) {
+                    report.addInvalid(lineNumbers.get(i), "插入失败：" + single);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < results.length; i++) {
+            record(results[i], batch.get(i), lineNumbers.get(i), report);
+        }
+    }
+
+    private static void record(OpResult result, Book book, long lineNo, ImportReport report) {
+        if (result.isOk()) {
+            report.addImported();
+        } else {
+            report.addDuplicate(lineNo, book.getIsbn());
+        }
+    }
+
+    /**
+     * 规范化ISBN：去掉首尾空白、连字符和空格，ISBN-10结尾的校验位x写成大写
+     * @param isbn ISBN
+     * @return 规范化后的ISBN
+     */
+    public static String normalizeIsbn(String isbn) {
+        isbn = isbn.trim();
+        StringBuilder digits = new StringBuilder(13);
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c == '-' || c == ' ') {
+                continue;
+            }
+            digits.append(c == 'x' ? 'X' : c);
+        }
+        return digits.toString();
+    }
+
+    /**
+     * 校验ISBN-10或ISBN-13（忽略连字符和空格）
+     * @param isbn ISBN
+     * @return 位数和校验位都正确返回true
+     */
+    public static boolean isValidIsbn(String isbn) {
+        String digits = normalizeIsbn(isbn);
+        if (digits.length() == 13) {
+            int sum = 0;
+            for (int i = 0; i < 13; i++) {
+                char c = digits.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+                sum += (c - '0') * (i % 2 == 0 ? 1 : 3);
+            }
+            return sum % 10 == 0;
+        }
+        if (digits.length() == 10) {
+            int sum = 0;
+            for (int i = 0; i < 10; i++) {
+                char c = digits.charAt(i);
+                int value;
+                if (c >= '0' && c <= '9') {
+                    value = c - '0';
+                } else if (i == 9 && c == 'X') {
+                    value = 10;
+                } else {
+                    return false;
+                }
+                sum += value * (10 - i);
+            }
+            return sum % 11 == 0;
+        }
+        return false;
+    }
+}
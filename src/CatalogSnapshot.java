@@ -0,0 +1,350 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 图书目录的不可变快照（持久化哈希前缀树，HAMT）
+ * 按ISBN哈希值每5位分一层，每个节点用32位位图记录哪些分支存在，数组里只放存在的分支，
+ * 分支要么是一本书，要么是下一层节点；哈希值完全相同的几本书放在冲突节点里
+ *
+ * 快照创建后不再改变：添加、删除返回新的快照，只复制从根到该书的一条路径（几层、每层最多32个引用），
+ * 其余节点与旧快照共用。读取快照不加锁，也不会被并发的修改打断
+ *
+ * 只有目录成员和图书信息是分版本的：快照固定的是"有哪些书、书名作者是什么"；
+ * 库存不分版本，Book对象在各版本间共用，借还书和调整库存（updateStock）都原地修改它，不生成新版本，
+ * 从任何版本读到的库存都是当前值，同一次查询里先后读两次可能不同
+ */
+public final class CatalogSnapshot implements BookCatalog {
+    // 空目录
+    public static final CatalogSnapshot EMPTY = new CatalogSnapshot(new BitmapNode(0, new Object[0]), 0, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // 根节点（BitmapNode）
+    private final BitmapNode root;
+
+    // 图书数量
+    private final int size;
+
+    // 版本号：每次添加、删除加1（库存变化不改变版本号）
+    private final long version;
+
+    // 构造方法
+    private CatalogSnapshot(BitmapNode root, int size, long version) {
+        this.root = root;
+        this.size = size;
+        this.version = version;
+    }
+
+    /**
+     * 按ISBN查找图书
+     * @param isbn 图书ISBN
+     * @return 图书，不存在返回null
+     */
+    @Override
+    public Book get(String isbn) {
+        int hash = hash(isbn);
+        BitmapNode node = root;
+        int shift = 0;
+        while (true) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object entry = node.array[node.index(bit)];
+            if (entry instanceof Book) {
+                Book book = (Book) entry;
+                return book.getIsbn().equals(isbn) ? book : null;
+            }
+            if (entry instanceof CollisionNode) {
+                return ((CollisionNode) entry).get(isbn);
+            }
+            node = (BitmapNode) entry;
+            shift += BITS;
+        }
+    }
+
+    /**
+     * 放入一本书（ISBN相同的书被替换）
+     * @param book 图书
+     * @return 新的快照
+     */
+    public CatalogSnapshot with(Book book) {
+        boolean[] added = new boolean[1];
+        BitmapNode newRoot = (BitmapNode) put(root, 0, hash(book.getIsbn()), book, added);
+        return new CatalogSnapshot(newRoot, added[0] ? size + 1 : size, version + 1);
+    }
+
+    /**
+     * 去掉一本书
+     * @param isbn 图书ISBN
+     * @return 新的快照，没有这本书时返回自身
+     */
+    public CatalogSnapshot without(String isbn) {
+        Object newRoot = remove(root, 0, hash(isbn), isbn);
+        if (newRoot == root) {
+            return this;
+        }
+        // 根节点不会被收成一本书，空了就换成空节点
+        BitmapNode rootNode = newRoot == null ? EMPTY.root : (BitmapNode) newRoot;
+        return new CatalogSnapshot(rootNode, size - 1, version + 1);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 遍历快照中的所有图书（顺序由哈希值决定）
+     * @return 所有图书
+     */
+    @Override
+    public Iterable<Book> values() {
+        return () -> new SnapshotIterator(root);
+    }
+
+    // ==================== 节点 ====================
+
+    /**
+     * 位图节点：bitmap的第i位为1表示第i个分支存在，它在array中的下标是bitmap中低于i的1的个数
+     */
+    private static final class BitmapNode {
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /**
+     * 冲突节点：哈希值32位完全相同的几本书
+     */
+    private static final class CollisionNode {
+        final int hash;
+        final Book[] books;
+
+        CollisionNode(int hash, Book[] books) {
+            this.hash = hash;
+            this.books = books;
+        }
+
+        Book get(String isbn) {
+            for (Book book : books) {
+                if (book.getIsbn().equals(isbn)) {
+                    return book;
+                }
+            }
+            return null;
+        }
+
+        int indexOf(String isbn) {
+            for (int i = 0; i < books.length; i++) {
+                if (books[i].getIsbn().equals(isbn)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static int hash(String isbn) {
+        int h = isbn.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 在node下放入一本书，返回新节点（不修改原节点）
+     * @param added 新增（而不是替换）时置为true
+     */
+    private static Object put(Object node, int shift, int hash, Book book, boolean[] added) {
+        if (node instanceof CollisionNode) {
+            CollisionNode cn = (CollisionNode) node;
+            int i = cn.indexOf(book.getIsbn());
+            Book[] books;
+            if (i >= 0) {
+                books = cn.books.clone();
+                books[i] = book;
+            } else {
+                books = Arrays.copyOf(cn.books, cn.books.length + 1);
+                books[cn.books.length] = book;
+                added[0] = true;
+            }
+            return new CollisionNode(hash, books);
+        }
+
+        BitmapNode bn = (BitmapNode) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = bn.index(bit);
+        if ((bn.bitmap & bit) == 0) {
+            Object[] array = new Object[bn.array.length + 1];
+            System.arraycopy(bn.array, 0, array, 0, index);
+            array[index] = book;
+            System.arraycopy(bn.array, index, array, index + 1, bn.array.length - index);
+            added[0] = true;
+            return new BitmapNode(bn.bitmap | bit, array);
+        }
+
+        Object entry = bn.array[index];
+        Object replacement;
+        if (entry instanceof Book) {
+            Book existing = (Book) entry;
+            if (existing.getIsbn().equals(book.getIsbn())) {
+                replacement = book;
+            } else {
+                replacement = merge(existing, hash(existing.getIsbn()), book, hash, shift + BITS);
+                added[0] = true;
+            }
+        } else {
+            replacement = put(entry, shift + BITS, hash, book, added);
+        }
+        Object[] array = bn.array.clone();
+        array[index] = replacement;
+        return new BitmapNode(bn.bitmap, array);
+    }
+
+    /**
+     * 两本书落在同一个分支上：建一个（或几层）新节点把它们分开
+     */
+    private static Object merge(Book a, int hashA, Book b, int hashB, int shift) {
+        if (shift >= 32) {
+            return new CollisionNode(hashA, new Book[] {a, b});
+        }
+        int bitA = 1 << ((hashA >>> shift) & MASK);
+        int bitB = 1 << ((hashB >>> shift) & MASK);
+        if (bitA == bitB) {
+            return new BitmapNode(bitA, new Object[] {merge(a, hashA, b, hashB, shift + BITS)});
+        }
+        Object[] array = Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[] {a, b} : new Object[] {b, a};
+        return new BitmapNode(bitA | bitB, array);
+    }
+
+    /**
+     * 在node下删除一本书
+     * @return 新节点；没有这本书时返回node本身；节点空了返回null；
+     *         非根节点只剩一本书时直接返回这本书，由上一层把它收进来
+     */
+    private static Object remove(Object node, int shift, int hash, String isbn) {
+        if (node instanceof CollisionNode) {
+            CollisionNode cn = (CollisionNode) node;
+            int i = cn.indexOf(isbn);
+            if (i < 0) {
+                return node;
+            }
+            if (cn.books.length == 2) {
+                return cn.books[1 - i];
+            }
+            Book[] books = new Book[cn.books.length - 1];
+            System.arraycopy(cn.books, 0, books, 0, i);
+            System.arraycopy(cn.books, i + 1, books, i, books.length - i);
+            return new CollisionNode(cn.hash, books);
+        }
+
+        BitmapNode bn = (BitmapNode) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((bn.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = bn.index(bit);
+        Object entry = bn.array[index];
+        Object replacement;
+        if (entry instanceof Book) {
+            if (!((Book) entry).getIsbn().equals(isbn)) {
+                return node;
+            }
+            replacement = null;
+        } else {
+            replacement = remove(entry, shift + BITS, hash, isbn);
+            if (replacement == entry) {
+                return node;
+            }
+        }
+
+        if (replacement != null) {
+            if (shift > 0 && bn.array.length == 1 && replacement instanceof Book) {
+                return replacement;
+            }
+            Object[] array = bn.array.clone();
+            array[index] = replacement;
+            return new BitmapNode(bn.bitmap, array);
+        }
+        if (bn.array.length == 1) {
+            return null;
+        }
+        if (shift > 0 && bn.array.length == 2 && bn.array[1 - index] instanceof Book) {
+            return bn.array[1 - index];
+        }
+        Object[] array = new Object[bn.array.length - 1];
+        System.arraycopy(bn.array, 0, array, 0, index);
+        System.arraycopy(bn.array, index + 1, array, index, array.length - index);
+        return new BitmapNode(bn.bitmap & ~bit, array);
+    }
+
+    /**
+     * 深度优先遍历：用栈记录每一层正在遍历的数组和下标
+     */
+    private static final class SnapshotIterator implements Iterator<Book> {
+        // 32位哈希每层5位，最多7层位图节点，再加一层冲突节点
+        private final Object[][] arrays = new Object[8][];
+        private final int[] positions = new int[8];
+        private int depth;
+        private Book next;
+
+        SnapshotIterator(BitmapNode root) {
+            arrays[0] = root.array;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                if (positions[depth] >= array.length) {
+                    depth--;
+                    continue;
+                }
+                Object entry = array[positions[depth]++];
+                if (entry instanceof Book) {
+                    next = (Book) entry;
+                    return;
+                }
+                depth++;
+                arrays[depth] = entry instanceof BitmapNode
+                        ? ((BitmapNode) entry).array
+                        : ((CollisionNode) entry).books;
+                positions[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Book next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Book result = next;
+            advance();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 命令行参数解析，各个程序入口（服务器、压力测试、性能测试）共用
+ * 参数写成 --名字=值，不是这种形式的参数忽略
+ */
+public final class CommandLine {
+    private CommandLine() {
+    }
+
+    /**
+     * 解析 --名字=值 形式的参数
+     * @param args 命令行参数
+     * @return 名字 -> 值，同名参数以最后一个为准
+     */
+    public static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                int eq = arg.indexOf('=');
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,467 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 事件账本：图书馆所有修改的有序、只追加的事件流（变更数据捕获）
+ * Library写日志的同时把同一个LibraryOp发布到账本，每条事件分配一个连续递增的序号，
+ * 下游系统（统计看板、罚款计费、只读副本）订阅后按序号顺序消费
+ *
+ * 最近的事件放在内存的环形缓冲区里（序号 & mask 就是槽位），后台写线程把它们成批追加到分段文件（LedgerSegmentStore）
+ * 每个订阅者有自己的游标，互不影响：游标还在环形缓冲区里就直接从内存取，
+ * 落后太多、槽位已被新事件覆盖的，从分段文件读（按稀疏索引定位，从任意序号开始重放都很快）
+ *
+ * 发布分两步：Library在该书的锁内用CAS分配序号（claim，不加锁、不等待），释放该书的锁后再把事件放进环形缓冲区（publish），
+ * 序号之前的事件都放进去后才算发布，订阅者看到的序号仍然连续
+ * 背压：环形缓冲区里还没写入文件的事件不会被覆盖，写线程跟不上时publish等待（和预写日志一样只受磁盘限制），
+ * 这时发布者已经不持有图书的锁，同一批锁上的其他借还照常进行；
+ * 订阅者按自己的节奏拉取，慢的订阅者只会从文件读，不会拖慢图书馆的借还，也不会丢事件
+ *
+ * 分段文件每秒落盘一次，不随每次借还同步，宕机时可能缺少最后一小段事件（预写日志里有，状态不受影响）；
+ * 需要与图书馆状态完全一致的下游应从快照重新开始。为此账本记录一个纪元（epoch）：上次没有正常关闭时纪元加1，
+ * 下游发现纪元变了，就知道自己记下的序号已不可靠（丢失的序号会被新事件重新使用）。写文件出错后账本停止接收事件（图书馆照常工作），订阅者会收到异常
+ */
+public class EventLedger implements Closeable {
+    // 默认环形缓冲区大小（必须是2的幂）
+    // 不宜太大：缓冲区引用着事件，太大时事件活得比新生代回收间隔还长，会被提升到老年代，引起频繁的完全回收
+    public static final int DEFAULT_CAPACITY = 1 << 13;
+
+    // 写线程每批最多写入的事件数
+    private static final int MAX_BATCH = 4096;
+
+    // 写线程被唤醒后再等多久才写（攒成一批，避免每条事件一次唤醒、一次系统调用）
+    private static final long WRITE_DELAY_MILLIS = 1;
+
+    // 分段文件落盘的间隔：写入后订阅者马上就能读到，落盘只影响宕机时丢失多少事件
+    private static final long FORCE_INTERVAL_NANOS = 1_000_000_000L;
+
+    // 环形缓冲区
+    private final LedgerEvent[] ring;
+    private final int mask;
+
+    // 纪元文件，以及正常关闭时留下的标记文件
+    private static final String EPOCH_FILE = "epoch";
+    private static final String CLEAN_FILE = "clean-shutdown";
+
+    private final Path dir;
+
+    // 分段文件
+    private final LedgerSegmentStore store;
+
+    // 纪元
+    private final long epoch;
+
+    // 已分配的最后一条序号，可能超前于published（分配了还没放进缓冲区）
+    private final AtomicLong claimed;
+
+    // 已发布的最后一条序号（写入槽位之后才更新，订阅者先读它再读槽位；受this保护地修改）
+    private volatile long published;
+
+    // 已写入分段文件的最后一条序号，以及写线程遇到的错误（受this保护）
+    private long written;
+    // 正在awaitPublished()中等待的订阅者数（受this保护），没有人等待时发布不用唤醒订阅者
+    private int waitingSubscribers;
+    private IOException failure;
+    private boolean closed;
+
+    // 后台写线程
+    private final Thread writer;
+
+    // 当前的订阅
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * 打开（或创建）事件账本，使用默认的缓冲区和分段大小
+     * @param dir 账本目录
+     */
+    public EventLedger(Path dir) throws IOException {
+        this(dir, DEFAULT_CAPACITY, LedgerSegmentStore.DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * 打开（或创建）事件账本，新事件的序号接在已有事件之后
+     * @param dir 账本目录
+     * @param capacity 环形缓冲区大小（2的幂）
+     * @param segmentBytes 分段文件大小
+     */
+    public EventLedger(Path dir, int capacity, long segmentBytes) throws IOException {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("缓冲区大小必须是2的幂：" + capacity);
+        }
+        this.ring = new LedgerEvent[capacity];
+        this.mask = capacity - 1;
+        this.dir = dir;
+        this.store = new LedgerSegmentStore(dir, segmentBytes);
+        this.epoch = openEpoch(dir, store.getLastSeq() > 0);
+        this.published = store.getLastSeq();
+        this.claimed = new AtomicLong(published);
+        this.written = published;
+        this.writer = new Thread(this::writeLoop, "ledger-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // ==================== 发布 ====================
+
+    /**
+     * 为一条事件分配序号，不加锁、不等待
+     * 由Library在修改状态后、持有该书的锁时调用，因此同一本书的事件序号与修改顺序一致；
+     * 事件放进into，释放该书的锁后交给publish()
+     * @param op 修改操作
+     * @param into 收集分配了序号的事件
+     * @return 事件序号
+     */
+    public long claim(LibraryOp op, List<LedgerEvent> into) {
+        long seq = claimed.incrementAndGet();
+        into.add(new LedgerEvent(seq, System.currentTimeMillis(), op));
+        return seq;
+    }
+
+    /**
+     * 为一批事件分配连续的序号，不加锁、不等待
+     * @param ops 修改操作
+     * @param into 收集分配了序号的事件
+     * @return 最后一条事件的序号
+     */
+    public long claimAll(List<LibraryOp> ops, List<LedgerEvent> into) {
+        long last = claimed.addAndGet(ops.size());
+        long now = System.currentTimeMillis();
+        long seq = last - ops.size();
+        for (LibraryOp op : ops) {
+            into.add(new LedgerEvent(++seq, now, op));
+        }
+        return last;
+    }
+
+    /**
+     * 把claim()分配了序号的事件放进环形缓冲区
+     * 应在释放图书的锁之后调用：缓冲区里放不下时在这里等写线程把最旧的事件写入文件；
+     * 序号更小的事件都放进来以后，这些事件才算发布。分配了序号的事件必须都交给这里，否则之后的事件一直发布不了
+     * @param events 事件（按序号递增）
+     */
+    public synchronized void publish(List<LedgerEvent> events) {
+        long before = published;
+        for (LedgerEvent event : events) {
+            // 槽位里的旧事件还没写入文件：等写线程
+            while (event.getSequence() - written > ring.length && failure == null && !closed) {
+                if (published > before) {
+                    notifyAll();
+                    before = published;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("等待事件账本写入时被中断", e);
+                }
+            }
+            if (failure != null || closed) {
+                return;
+            }
+            ring[(int) (event.getSequence() & mask)] = event;
+            // 从已发布的下一条开始，槽位里已经放好的事件都算发布
+            while (true) {
+                LedgerEvent next = ring[(int) ((published + 1) & mask)];
+                if (next == null || next.getSequence() != published + 1) {
+                    break;
+                }
+                published++;
+            }
+        }
+        // 写线程空闲时（从没有待写事件变成有）、缓冲区过半时才唤醒它，其余时候它自己定时来取
+        boolean wakeWriter = before == written || published - written >= ring.length / 2;
+        if (published > before && (wakeWriter || waitingSubscribers > 0)) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * 获取最后一条已发布事件的序号
+     * @return 序号，还没有事件时为0
+     */
+    public long getLastSequence() {
+        return published;
+    }
+
+    /**
+     * 获取纪元：账本每次在非正常关闭后打开时加1
+     * @return 纪元
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * 读取纪元；上次没有留下正常关闭的标记、并且已有事件时，纪元加1并保存
+     */
+    private static long openEpoch(Path dir, boolean hasEvents) throws IOException {
+        Path file = dir.resolve(EPOCH_FILE);
+        long epoch = Files.exists(file) ? Long.parseLong(Files.readString(file).trim()) : 0;
+        boolean clean = Files.deleteIfExists(dir.resolve(CLEAN_FILE));
+        if (!clean && hasEvents) {
+            epoch++;
+            Path tmp = dir.resolve(EPOCH_FILE + ".tmp");
+            Files.writeString(tmp, String.valueOf(epoch));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return epoch;
+    }
+
+    /**
+     * 获取还能读到的最早事件的序号
+     * @return 序号
+     */
+    public long getFirstSequence() {
+        return store.getFirstSeq();
+    }
+
+    // ==================== 订阅 ====================
+
+    /**
+     * 从指定序号开始订阅
+     * @param fromSeq 第一条要读的事件序号；传getLastSequence() + 1只接收之后的新事件
+     * @return 订阅，用完后关闭
+     */
+    public Subscription subscribe(long fromSeq) {
+        if (fromSeq < getFirstSequence()) {
+            throw new IllegalArgumentException("序号" + fromSeq + "的事件已不存在，最早的是" + getFirstSequence());
+        }
+        Subscription subscription = new Subscription(fromSeq);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * 获取最慢的订阅者落后的事件数
+     * @return 事件数，没有订阅者时为0
+     */
+    public long getMaxLag() {
+        long max = 0;
+        for (Subscription subscription : subscriptions) {
+            max = Math.max(max, subscription.getLag());
+        }
+        return max;
+    }
+
+    /**
+     * 一个订阅者：有自己的游标，按序号顺序拉取事件
+     * 同一个订阅只应由一个线程使用，不同订阅之间互不影响
+     */
+    public final class Subscription implements Closeable {
+        // 下一条要读的序号
+        private volatile long position;
+
+        // 构造方法
+        private Subscription(long position) {
+            this.position = position;
+        }
+
+        /**
+         * 拉取事件，没有新事件时最多等待timeoutMillis
+         * 返回后游标移到最后一条之后
+         * @param max 最多几条
+         * @param timeoutMillis 最长等待时间（毫秒），0表示不等待
+         * @return 事件（序号连续），超时时为空
+         */
+        public List<LedgerEvent> poll(int max, long timeoutMillis) throws IOException, InterruptedException {
+            long from = position;
+            long last = awaitPublished(from, timeoutMillis);
+            if (last < from) {
+                return Collections.emptyList();
+            }
+
+            List<LedgerEvent> events = new ArrayList<>((int) Math.min(max, last - from + 1));
+            for (long seq = from; seq <= last && events.size() < max; seq++) {
+                LedgerEvent event = ring[(int) (seq & mask)];
+                if (event == null || event.getSequence() != seq) {
+                    break;
+                }
+                events.add(event);
+            }
+            if (events.isEmpty()) {
+                // 槽位已被覆盖，说明这些事件已经写入文件
+                events = store.read(from, max);
+            }
+            position = from + events.size();
+            return events;
+        }
+
+        /**
+         * 获取下一条要读的序号
+         * @return 序号
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * 移动游标（例如从下游自己保存的位置继续）
+         * @param seq 下一条要读的序号
+         */
+        public void seek(long seq) {
+            if (seq < getFirstSequence()) {
+                throw new IllegalArgumentException("序号" + seq + "的事件已不存在，最早的是" + getFirstSequence());
+            }
+            position = seq;
+        }
+
+        /**
+         * 获取落后的事件数
+         * @return 已发布但还没读到的事件数
+         */
+        public long getLag() {
+            return Math.max(0, published - position + 1);
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+        }
+    }
+
+    /**
+     * 等待序号seq的事件发布
+     * @return 当前最后一条已发布的序号（超时时可能小于seq）
+     */
+    private long awaitPublished(long seq, long timeoutMillis) throws IOException, InterruptedException {
+        if (published >= seq || timeoutMillis <= 0) {
+            return checkedPublished();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            long remaining = timeoutMillis;
+            waitingSubscribers++;
+            try {
+                while (published < seq && remaining > 0 && failure == null && !closed) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } finally {
+                waitingSubscribers--;
+            }
+        }
+        return checkedPublished();
+    }
+
+    private long checkedPublished() throws IOException {
+        synchronized (this) {
+            if (failure != null) {
+                throw new IOException("事件账本写入失败", failure);
+            }
+        }
+        return published;
+    }
+
+    // ==================== 写入文件 ====================
+
+    /**
+     * 写线程主循环：把已发布、还没写入的事件成批追加到分段文件，距上次落盘超过FORCE_INTERVAL_NANOS时落盘一次
+     * 有事件要写时先等WRITE_DELAY_MILLIS（缓冲区过半或关闭时不等），让这段时间里发布的事件一起写
+     */
+    private void writeLoop() {
+        List<LedgerEvent> batch = new ArrayList<>(MAX_BATCH);
+        long lastForce = System.nanoTime();
+        while (true) {
+            long from;
+            long to;
+            synchronized (this) {
+                try {
+                    while (published == written && !closed) {
+                        wait();
+                    }
+                    long deadline = System.currentTimeMillis() + WRITE_DELAY_MILLIS;
+                    long remaining = WRITE_DELAY_MILLIS;
+                    while (remaining > 0 && published - written < ring.length / 2 && !closed) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (published == written) {
+                    return;
+                }
+                from = written + 1;
+                to = Math.min(published, written + MAX_BATCH);
+            }
+
+            // 还没写入的槽位不会被覆盖，可以在锁外读取
+            batch.clear();
+            for (long seq = from; seq <= to; seq++) {
+                batch.add(ring[(int) (seq & mask)]);
+            }
+            try {
+                store.append(batch);
+                if (System.nanoTime() - lastForce > FORCE_INTERVAL_NANOS) {
+                    store.force();
+                    lastForce = System.nanoTime();
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    notifyAll();
+                }
+                System.err.println("错误：事件账本写入失败，已停止记录事件：" + e.getMessage());
+                return;
+            }
+
+            synchronized (this) {
+                written = to;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 写完剩余事件后关闭账本
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+        if (failure == null) {
+            Files.writeString(dir.resolve(CLEAN_FILE), "");
+        }
+    }
+
+    /**
+     * 等待已发布的事件全部写入文件（测试和基准测试用）
+     */
+    public synchronized void flush() {
+        long target = published;
+        while (written < target && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待事件账本写入时被中断", e);
+            }
+        }
+        if (written < target) {
+            throw new UncheckedIOException("事件账本写入失败", failure);
+        }
+    }
+}
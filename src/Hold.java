@@ -0,0 +1,79 @@
+/**
+ * 预约记录
+ * 图书没有库存时学生可以预约排队；有书空出来时按排队顺序为下一位保留一本，
+ * 保留期间claimExpiresAt是保留截止时间（毫秒），在此之前该学生可以直接借走这本书
+ */
+public class Hold {
+    // 定义成员变量
+    private final String studentId;        // 预约人学号
+    private final String isbn;             // 预约图书的ISBN
+    private final long ticket;             // 排队号（全局递增，越小越早）
+    private final long seq;                // 在该书队列中的序号
+    private volatile long claimExpiresAt;  // 保留截止时间（毫秒），0表示还在排队
+    private volatile boolean active;       // 是否有效（取消、过期或借走后为false）
+
+    // 构造方法
+    public Hold(String studentId, String isbn, long claimExpiresAt) {
+        this(studentId, isbn, 0, 0);
+        this.claimExpiresAt = claimExpiresAt;
+    }
+
+    Hold(String studentId, String isbn, long ticket, long seq) {
+        this.studentId = studentId;
+        this.isbn = isbn;
+        this.ticket = ticket;
+        this.seq = seq;
+        this.claimExpiresAt = 0;  // 新预约先排队
+        this.active = true;
+    }
+
+    public String getStudentId() {
+        return studentId;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public long getClaimExpiresAt() {
+        return claimExpiresAt;
+    }
+
+    /**
+     * 是否已经为该学生保留了一本书
+     * @return 保留中返回true，还在排队返回false
+     */
+    public boolean isClaimed() {
+        return claimExpiresAt != 0;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    long getTicket() {
+        return ticket;
+    }
+
+    long getSeq() {
+        return seq;
+    }
+
+    void setClaimExpiresAt(long claimExpiresAt) {
+        this.claimExpiresAt = claimExpiresAt;
+    }
+
+    void setActive(boolean active) {
+        this.active = active;
+    }
+
+    // 对象转换成字符串
+    @Override
+    public String toString() {
+        return "Hold{studentId='" + studentId + '\'' +
+                ", isbn='" + isbn + '\'' +
+                ", claimExpiresAt=" + claimExpiresAt +
+                ", active=" + active +
+                '}';
+    }
+}
@@ -0,0 +1,423 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 预约队列
+ * 每本书（ISBN）一个先进先出的等待队列；有书空出来时为队首的学生保留一本，保留有时限，
+ * 保留中的书不再借给别人：一本书可借的数量 = 库存 - 保留中的数量
+ *
+ * 排队、取消、保留、借走都不遍历队列：
+ *     排队是队尾追加；取消只把预约标记为无效，轮到它时再从队首丢掉；
+ *     每个学生的预约另有一份 学号 -> (ISBN -> 预约) 的索引，查重、取消直接定位；
+ *     保留中的预约按截止时间放在有序集合里，后台线程定期只取已过期的那几条
+ *
+ * 修改方法不自己加锁，由Library在该ISBN的分段锁内调用；
+ * 同一本书的队列另外用自身加锁，保证其他线程查询排队位置时看到一致的状态
+ */
+public class HoldQueue {
+    // 默认保留时限：48小时
+    public static final long DEFAULT_CLAIM_MILLIS = 48 * 60 * 60 * 1000L;
+
+    // 默认过期检查间隔：1分钟
+    public static final long DEFAULT_SWEEP_MILLIS = 60 * 1000L;
+
+    /**
+     * 预约提醒的接收者
+     * 可能在Library的锁内调用，不要做耗时的操作
+     */
+    public interface Listener {
+        /**
+         * 轮到该学生：已为他保留一本书
+         * @param hold 预约
+         */
+        void onClaimGranted(Hold hold);
+
+        /**
+         * 保留过期未借，预约已取消
+         * @param hold 预约
+         */
+        void onClaimExpired(Hold hold);
+    }
+
+    /**
+     * 一本书的等待队列
+     */
+    private static class Waitlist {
+        // 排队中的预约（可能夹着已取消、已保留的，轮到时丢掉）
+        private final ArrayDeque<Hold> queue = new ArrayDeque<>();
+
+        // 下一个队列序号
+        private long nextSeq;
+
+        // 保留中的预约（数量不超过库存）
+        private final List<Hold> claimed = new ArrayList<>();
+
+        // 有效的排队数
+        private int waiting;
+    }
+
+    // ISBN -> 等待队列，队列空了（没有排队也没有保留）就删掉
+    private final Map<String, Waitlist> waitlists = new ConcurrentHashMap<>();
+
+    // 学号 -> (ISBN -> 预约)
+    private final Map<String, Map<String, Hold>> byStudent = new ConcurrentHashMap<>();
+
+    // 保留中的预约，按截止时间排序
+    private final ConcurrentSkipListSet<Hold> claims = new ConcurrentSkipListSet<>(
+            Comparator.comparingLong(Hold::getClaimExpiresAt).thenComparingLong(Hold::getTicket));
+
+    // 有效预约总数：为0时借书路径直接跳过预约检查
+    private final AtomicInteger size = new AtomicInteger();
+
+    // 排队号
+    private final AtomicLong tickets = new AtomicLong();
+
+    // 保留时限（毫秒）
+    private final long claimMillis;
+
+    // 提醒接收者
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // 保留过期时的处理（由Library在锁内取消预约、把书交给下一位并写日志）
+    private final Consumer<Hold> expiryHandler;
+
+    // 后台过期检查线程和检查间隔（毫秒）
+    private final ScheduledExecutorService sweeper;
+    private final long sweepMillis;
+
+    /**
+     * 构造函数：使用默认的保留时限和检查间隔
+     * @param expiryHandler 保留过期时的处理
+     */
+    public HoldQueue(Consumer<Hold> expiryHandler) {
+        this(DEFAULT_CLAIM_MILLIS, DEFAULT_SWEEP_MILLIS, expiryHandler);
+    }
+
+    /**
+     * 构造函数：后台检查由start()启动
+     * @param claimMillis 保留时限（毫秒）
+     * @param sweepMillis 后台检查间隔（毫秒）
+     * @param expiryHandler 保留过期时的处理
+     */
+    public HoldQueue(long claimMillis, long sweepMillis, Consumer<Hold> expiryHandler) {
+        this.claimMillis = claimMillis;
+        this.sweepMillis = sweepMillis;
+        this.expiryHandler = expiryHandler;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hold-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 启动后台过期检查线程
+     */
+    public void start() {
+        sweeper.scheduleWithFixedDelay(() -> sweep(System.currentTimeMillis()),
+                sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 添加提醒接收者
+     * @param listener 接收者
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public long getClaimMillis() {
+        return claimMillis;
+    }
+
+    /**
+     * 获取有效预约总数（排队和保留中的）
+     * @return 数量
+     */
+    public int size() {
+        return size.get();
+    }
+
+    // ==================== 修改（在ISBN锁内调用） ====================
+
+    /**
+     * 排到队尾
+     * @param studentId 学号
+     * @param isbn 图书ISBN
+     * @return 新的预约
+     */
+    Hold place(String studentId, String isbn) {
+        Waitlist list = waitlists.computeIfAbsent(isbn, k -> new Waitlist());
+        Hold hold;
+        synchronized (list) {
+            hold = new Hold(studentId, isbn, tickets.incrementAndGet(), list.nextSeq++);
+            list.queue.addLast(hold);
+            list.waiting++;
+        }
+        // compute()对同一个学号是原子的，不会和该学生另一本书的取消互相覆盖
+        byStudent.compute(studentId, (k, mine) -> {
+            if (mine == null) {
+                mine = new ConcurrentHashMap<>();
+            }
+            mine.put(isbn, hold);
+            return mine;
+        });
+        size.incrementAndGet();
+        return hold;
+    }
+
+    /**
+     * 为排队中的预约保留一本书
+     * @param hold 预约
+     * @param expiresAt 保留截止时间（毫秒）
+     */
+    void grant(Hold hold, long expiresAt) {
+        Waitlist list = waitlists.get(hold.getIsbn());
+        synchronized (list) {
+            hold.setClaimExpiresAt(expiresAt);
+            list.waiting--;
+            list.claimed.add(hold);
+        }
+        claims.add(hold);
+    }
+
+    /**
+     * 移除一条预约（取消、保留过期或已借走）
+     * @param studentId 学号
+     * @param isbn 图书ISBN
+     * @return 被移除的预约，没有则返回null
+     */
+    Hold remove(String studentId, String isbn) {
+        if (size.get() == 0) {
+            return null;
+        }
+        Hold[] removed = new Hold[1];
+        byStudent.computeIfPresent(studentId, (k, mine) -> {
+            removed[0] = mine.remove(isbn);
+            return mine.isEmpty() ? null : mine;
+        });
+        Hold hold = removed[0];
+        if (hold == null) {
+            return null;
+        }
+        if (hold.isClaimed()) {
+            claims.remove(hold);
+        }
+        Waitlist list = waitlists.get(isbn);
+        synchronized (list) {
+            hold.setActive(false);
+            if (hold.isClaimed()) {
+                list.claimed.remove(hold);
+            } else {
+                list.waiting--;
+            }
+            if (list.waiting == 0 && list.claimed.isEmpty()) {
+                waitlists.remove(isbn);
+            }
+        }
+        size.decrementAndGet();
+        return hold;
+    }
+
+    /**
+     * 删除一本书的全部预约（删除图书时调用）
+     * @param isbn 图书ISBN
+     */
+    void removeAll(String isbn) {
+        Waitlist list = waitlists.get(isbn);
+        if (list == null) {
+            return;
+        }
+        List<Hold> holds;
+        synchronized (list) {
+            holds = new ArrayList<>(list.claimed);
+            for (Hold hold : list.queue) {
+                if (hold.isActive() && !hold.isClaimed()) {
+                    holds.add(hold);
+                }
+            }
+        }
+        for (Hold hold : holds) {
+            remove(hold.getStudentId(), isbn);
+        }
+    }
+
+    // ==================== 查询 ====================
+
+    /**
+     * 查找某个学生对某本书的预约
+     * @param studentId 学号
+     * @param isbn 图书ISBN
+     * @return 预约，没有则返回null
+     */
+    public Hold find(String studentId, String isbn) {
+        if (size.get() == 0) {
+            return null;
+        }
+        Map<String, Hold> mine = byStudent.get(studentId);
+        return mine == null ? null : mine.get(isbn);
+    }
+
+    /**
+     * 队首的排队中的预约（顺便丢掉队首已取消、已保留的预约）
+     * @param isbn 图书ISBN
+     * @return 下一位，没有人排队返回null
+     */
+    Hold nextWaiting(String isbn) {
+        Waitlist list = waitlists.get(isbn);
+        if (list == null) {
+            return null;
+        }
+        synchronized (list) {
+            return head(list);
+        }
+    }
+
+    /**
+     * 一本书有没有人在排队
+     * @param isbn 图书ISBN
+     * @return 有人排队返回true
+     */
+    public boolean hasWaiting(String isbn) {
+        if (size.get() == 0) {
+            return false;
+        }
+        Waitlist list = waitlists.get(isbn);
+        if (list == null) {
+            return false;
+        }
+        synchronized (list) {
+            return list.waiting > 0;
+        }
+    }
+
+    /**
+     * 一本书保留中的数量（这些书不能借给别人）
+     * @param isbn 图书ISBN
+     * @return 保留数量
+     */
+    public int reserved(String isbn) {
+        if (size.get() == 0) {
+            return 0;
+        }
+        Waitlist list = waitlists.get(isbn);
+        if (list == null) {
+            return 0;
+        }
+        synchronized (list) {
+            return list.claimed.size();
+        }
+    }
+
+    /**
+     * 排在这条预约前面的人数
+     * 中途取消的预约要等轮到它时才从队列中丢掉，所以这是上限，实际可能更少
+     * @param hold 排队中的预约
+     * @return 前面的人数，已保留或已失效返回0
+     */
+    public long aheadOf(Hold hold) {
+        Waitlist list = waitlists.get(hold.getIsbn());
+        if (list == null || !hold.isActive() || hold.isClaimed()) {
+            return 0;
+        }
+        synchronized (list) {
+            Hold head = head(list);
+            return head == null ? 0 : Math.min(hold.getSeq() - head.getSeq(), list.waiting - 1);
+        }
+    }
+
+    /**
+     * 丢掉队首已取消、已保留的预约，返回第一条排队中的预约（持有队列的锁时调用）
+     */
+    private static Hold head(Waitlist list) {
+        Hold head;
+        while ((head = list.queue.peekFirst()) != null && (!head.isActive() || head.isClaimed())) {
+            list.queue.pollFirst();
+        }
+        return head;
+    }
+
+    /**
+     * 某个学生的全部预约
+     * @param studentId 学号
+     * @return 预约列表（排队号从小到大）
+     */
+    public List<Hold> holdsOf(String studentId) {
+        Map<String, Hold> mine = byStudent.get(studentId);
+        List<Hold> result = mine == null ? new ArrayList<>() : new ArrayList<>(mine.values());
+        result.sort(Comparator.comparingLong(Hold::getTicket));
+        return result;
+    }
+
+    /**
+     * 全部有效预约（写快照时调用，此时没有并发修改）
+     * @return 预约列表，排队号从小到大，恢复时按这个顺序重新排队即可还原各队列的顺序
+     */
+    List<Hold> all() {
+        List<Hold> result = new ArrayList<>(size.get());
+        for (Map<String, Hold> mine : byStudent.values()) {
+            result.addAll(mine.values());
+        }
+        result.sort(Comparator.comparingLong(Hold::getTicket));
+        return result;
+    }
+
+    // ==================== 提醒与过期 ====================
+
+    /**
+     * 通知接收者：已为某人保留一本书（Library在正常操作时调用，重放日志时不调用）
+     * @param hold 预约
+     */
+    void fireGranted(Hold hold) {
+        for (Listener listener : listeners) {
+            listener.onClaimGranted(hold);
+        }
+    }
+
+    /**
+     * 通知接收者：保留已过期
+     * @param hold 预约
+     */
+    void fireExpired(Hold hold) {
+        for (Listener listener : listeners) {
+            listener.onClaimExpired(hold);
+        }
+    }
+
+    /**
+     * 处理截至now已过期的保留
+     * 按截止时间从早到晚，遇到未过期的就停止，开销与过期的数量成正比
+     * @param now 当前时间（毫秒）
+     */
+    public void sweep(long now) {
+        for (Hold hold : claims) {
+            if (hold.getClaimExpiresAt() > now) {
+                break;
+            }
+            try {
+                expiryHandler.accept(hold);
+            } catch (RuntimeException e) {
+                System.err.println("处理过期预约失败：" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 停止后台检查线程
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,139 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * 字符串编号表
+ * 给每个不同的字符串（ISBN、学号）分配一个从0开始连续的整数编号，编号分配后不再改变
+ * 借阅索引、统计、借阅归档等内部结构用编号代替字符串：可以直接当数组下标，比较只需比较整数，
+ * 同一个学号或ISBN在内存中也只保留一份字符串
+ *
+ * 字符串到编号的查找表是int数组上的开放寻址哈希表（线性探测），槽位里存 编号+1，0表示空位，
+ * 不为每个编号创建Integer和哈希表节点；编号到字符串、字符串的哈希值各用一个按编号下标的数组
+ *
+ * 查找不加锁；分配新编号在锁内进行，编号从不回收（删除图书后再加回来仍是原来的编号）
+ */
+public class IdInterner {
+    // 查找表的初始大小（2的幂），装满一半时换成两倍大的新表
+    private static final int INITIAL_SLOTS = 2048;
+
+    // 以int为单位、带内存屏障地读写查找表的槽位
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    // 字符串 -> 编号+1，扩容时换成新数组（旧数组不再修改）
+    private volatile int[] slots = new int[INITIAL_SLOTS];
+
+    // 编号 -> 字符串、编号 -> 哈希值，扩容时换成新数组
+    private volatile String[] names = new String[1024];
+    private volatile int[] hashes = new int[1024];
+
+    // 已分配的编号数量（只在锁内修改）
+    private int size;
+
+    /**
+     * 查找字符串的编号
+     * @param value 字符串
+     * @return 编号，没有分配过返回-1
+     */
+    public int lookup(String value) {
+        int hash = hash(value);
+        int[] table = slots;
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int id = (int) SLOT.getAcquire(table, i) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            // 槽位是先写好字符串和哈希值再发布的，这里一定能取到
+            if (hashes[id] == hash && names[id].equals(value)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 获取字符串的编号，没有则分配一个新编号
+     * @param value 字符串
+     * @return 编号
+     */
+    public int intern(String value) {
+        int id = lookup(value);
+        if (id >= 0) {
+            return id;
+        }
+        synchronized (this) {
+            id = lookup(value);
+            if (id >= 0) {
+                return id;
+            }
+            int next = size;
+            int hash = hash(value);
+            String[] currentNames = names;
+            int[] currentHashes = hashes;
+            if (next == currentNames.length) {
+                currentNames = Arrays.copyOf(currentNames, next * 2);
+                currentHashes = Arrays.copyOf(currentHashes, next * 2);
+            }
+            currentNames[next] = value;
+            currentHashes[next] = hash;
+            // 先发布字符串和哈希值，再发布槽位：查到编号的线程一定能取到字符串
+            names = currentNames;
+            hashes = currentHashes;
+            int[] table = slots;
+            if ((next + 1) * 2 > table.length) {
+                table = rehash(table.length * 2, next);
+                slots = table;
+            }
+            place(table, hash, next);
+            size = next + 1;
+            return next;
+        }
+    }
+
+    /**
+     * 根据编号取回字符串（所有使用该编号的地方共用这一个实例）
+     * @param id 编号
+     * @return 字符串
+     */
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * 获取已分配的编号数量
+     * @return 数量
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    // ==================== 内部实现 ====================
+
+    /**
+     * 按已分配的前count个编号建一张新查找表（调用者持有this的锁）
+     */
+    private int[] rehash(int length, int count) {
+        int[] table = new int[length];
+        for (int id = 0; id < count; id++) {
+            place(table, hashes[id], id);
+        }
+        return table;
+    }
+
+    /**
+     * 把编号放进查找表的第一个空位（调用者持有this的锁）
+     */
+    private static void place(int[] table, int hash, int id) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while ((int) SLOT.getAcquire(table, i) != 0) {
+            i = (i + 1) & mask;
+        }
+        SLOT.setRelease(table, i, id + 1);
+    }
+
+    private static int hash(String value) {
+        int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量导入的结果统计
+ * 计数器记录全部情况；错误明细最多保留MAX_ERRORS条，导入再大的文件内存也不会增长
+ */
+public class ImportReport {
+    // 最多保留的错误明细条数
+    public static final int MAX_ERRORS = 1000;
+
+    // 定义成员变量
+    private long records;      // 读到的记录数
+    private long imported;     // 成功导入数
+    private long duplicates;   // ISBN重复（目录中已有或文件中重复）
+    private long invalid;      // 格式错误或ISBN校验失败
+    private final List<String> errors = new ArrayList<>();
+
+    /**
+     * 记录一条成功导入
+     */
+    synchronized void addImported() {
+        records++;
+        imported++;
+    }
+
+    /**
+     * 记录一条重复的ISBN
+     * @param line 行号
+     * @param isbn 重复的ISBN
+     */
+    synchronized void addDuplicate(long line, String isbn) {
+        records++;
+        duplicates++;
+        addError(line, "ISBN已存在：" + isbn);
+    }
+
+    /**
+     * 记录一条无效记录
+     * @param line 行号
+     * @param message 错误原因
+     */
+    synchronized void addInvalid(long line, String message) {
+        records++;
+        invalid++;
+        addError(line, message);
+    }
+
+    private void addError(long line, String message) {
+        if (errors.size() < MAX_ERRORS) {
+            errors.add("第" + line + "行：" + message);
+        }
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    public synchronized long getImported() {
+        return imported;
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized long getInvalid() {
+        return invalid;
+    }
+
+    /**
+     * 错误明细（最多MAX_ERRORS条）
+     * @return 错误明细
+     */
+    public synchronized List<String> getErrors() {
+        return Collections.unmodifiableList(new ArrayList<>(errors));
+    }
+
+    // 对象转换成字符串
+    @Override
+    public synchronized String toString() {
+        return "ImportReport{records=" + records +
+                ", imported=" + imported +
+                ", duplicates=" + duplicates +
+                ", invalid=" + invalid +
+                '}';
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * 键过滤器：挡在ISBN、学号这类键空间前面的布隆过滤器
+ * mightContain返回false时键一定不存在，不用再查主存储；返回true时键可能存在（有少量误报），以主存储为准
+ *
+ * 分块布隆过滤器：一个键的PROBES个比特都落在同一个512位的块（8个long）里，
+ * 判断一个键只读这一块，不像普通布隆过滤器那样每个比特各读一条缓存行
+ *
+ * 容量随键数自动增长：插入后键数超过容量时，从主存储遍历全部键重建一个更大的过滤器
+ * 布隆过滤器不能删除，删掉的键留在过滤器里只会多一些误报，下次重建时清掉
+ * 主存储一开始就有键时（例如打开已有的MappedBookStore），rebuild()之前过滤器放行所有键
+ */
+public class KeyFilter {
+    // 每个键占用的比特数和探测位数，满载时误报率约0.3%
+    private static final int BITS_PER_KEY = 12;
+    private static final int PROBES = 7;
+
+    // 块的大小：512位，每个探测位用9个比特选位置
+    private static final int BLOCK_BITS = 512;
+    private static final int WORDS_PER_BLOCK = BLOCK_BITS / 64;
+
+    // 初始容量（键数）
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // 当前的比特表，重建时整个换新，读时不加锁；null表示还没有建立，所有键都可能存在
+    private volatile Table table;
+
+    // 重建锁：插入持读锁（插入之间互不阻塞），重建持写锁，
+    // 重建遍历主存储期间没有正在进行的插入，不会漏掉键
+    private final ReentrantReadWriteLock rebuildLock = new ReentrantReadWriteLock();
+
+    // 主存储中的键数和全部键，重建时按键数定容量，再遍历一遍全部键
+    private final IntSupplier size;
+    private final Consumer<Consumer<String>> keys;
+
+    /**
+     * 放入主存储的操作
+     */
+    public interface Insertion {
+        /**
+         * @param maybePresent 键是否可能已经存在：false时键一定不在主存储里，可以跳过查重
+         *                     （同一个键的插入必须由调用者串行执行，否则两个并发插入可能都得到false）
+         * @return 放入成功返回true，键已存在返回false
+         */
+        boolean insert(boolean maybePresent);
+    }
+
+    /**
+     * @param size 主存储中的键数
+     * @param keys 遍历主存储中全部键的方法，重建时调用
+     */
+    public KeyFilter(IntSupplier size, Consumer<Consumer<String>> keys) {
+        this.size = size;
+        this.keys = keys;
+        if (size.getAsInt() == 0) {
+            table = new Table(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * 判断键是否可能存在
+     * @param key 键
+     * @return 一定不存在返回false
+     */
+    public boolean mightContain(String key) {
+        Table current = table;
+        return current == null || current.contains(hash(key));
+    }
+
+    /**
+     * 插入一个键：先在过滤器里置位，再由insertion放入主存储
+     * 先置位后放入，并发的mightContain不会对已经放入主存储的键返回false
+     * @param key 键
+     * @param insertion 放入主存储的操作
+     * @return insertion的结果
+     */
+    public boolean add(String key, Insertion insertion) {
+        long hash = hash(key);
+        Table current;
+        boolean inserted;
+        rebuildLock.readLock().lock();
+        try {
+            current = table;
+            if (current == null) {
+                // 还没有建立，不知道键在不在
+                return insertion.insert(true);
+            }
+            inserted = insertion.insert(current.set(hash));
+            if (inserted) {
+                current.count.incrementAndGet();
+            }
+        } finally {
+            rebuildLock.readLock().unlock();
+        }
+        if (inserted && current.count.get() > current.capacity) {
+            rebuild(current);
+        }
+        return inserted;
+    }
+
+    /**
+     * 按主存储中现有的键建立过滤器（主存储不经过add就有了键时使用，例如打开已有的MappedBookStore）
+     */
+    public void rebuild() {
+        rebuild(null);
+    }
+
+    /**
+     * 重建过滤器：按主存储的键数定容量，遍历一遍全部键放进新表
+     * @param full 触发重建的表，已经被别的线程换掉时不再重建；null表示无条件重建
+     */
+    private void rebuild(Table full) {
+        rebuildLock.writeLock().lock();
+        try {
+            if (full != null && table != full) {
+                return;
+            }
+            // 留出一倍的余量，键数翻倍前不用再重建（持有写锁时没有插入，键数只会因为删除变少）
+            int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(size.getAsInt()) * 2);
+            Table rebuilt = new Table(capacity);
+            keys.accept(key -> {
+                rebuilt.set(hash(key));
+                rebuilt.count.incrementAndGet();
+            });
+            table = rebuilt;
+        } finally {
+            rebuildLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * String.hashCode经过64位混合，高32位选块，再混合一次得到探测位
+     */
+    private static long hash(String key) {
+        long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * 一张固定大小的比特表
+     */
+    private static final class Table {
+        // 比特数组，每WORDS_PER_BLOCK个long是一块
+        final AtomicLongArray words;
+        final int blocks;
+
+        // 容量和已插入的键数（删除不减少）
+        final int capacity;
+        final AtomicInteger count = new AtomicInteger();
+
+        Table(int capacity) {
+            this.capacity = capacity;
+            this.blocks = (int) ((long) capacity * BITS_PER_KEY / BLOCK_BITS) + 1;
+            this.words = new AtomicLongArray(blocks * WORDS_PER_BLOCK);
+        }
+
+        boolean contains(long hash) {
+            int base = blockOf(hash);
+            long probes = probesOf(hash);
+            for (int i = 0; i < PROBES; i++, probes >>>= 9) {
+                int bit = (int) probes & (BLOCK_BITS - 1);
+                if ((words.get(base + (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 置位
+         * @return 所有探测位原来都已经是1（键可能已经存在）返回true
+         */
+        boolean set(long hash) {
+            int base = blockOf(hash);
+            long probes = probesOf(hash);
+            boolean present = true;
+            for (int i = 0; i < PROBES; i++, probes >>>= 9) {
+                int bit = (int) probes & (BLOCK_BITS - 1);
+                int index = base + (bit >>> 6);
+                long mask = 1L << bit;
+                long word = words.get(index);
+                while ((word & mask) == 0) {
+                    present = false;
+                    long witness = words.compareAndExchange(index, word, word | mask);
+                    if (witness == word) {
+                        break;
+                    }
+                    word = witness;
+                }
+            }
+            return present;
+        }
+
+        /**
+         * 块的起始下标：用高32位乘块数取高位，块数不必是2的幂
+         */
+        private int blockOf(long hash) {
+            return (int) (((hash >>> 32) * blocks) >>> 32) * WORDS_PER_BLOCK;
+        }
+
+        /**
+         * 探测位：每9个比特是块内的一个位置
+         */
+        private static long probesOf(long hash) {
+            long p = hash * 0xC4CEB9FE1A85EC53L;
+            return p ^ (p >>> 29);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 延迟直方图（HDR风格的对数-线性分桶）
+ * 把数值按2的幂分段，每段再等分成32格：小于64纳秒的值精确记录，更大的值相对误差不超过1/32（约3%），
+ * 最大记录到2^40纳秒（约18分钟），更大的值记在最后一格
+ *
+ * 记录时只做几次位运算和一次原子加，不分配对象
+ * 计数数组按线程分成若干份，不同线程大多写不同的数组，减少多核下的缓存行争用；
+ * 取快照时再把各份加起来
+ */
+public class LatencyHistogram {
+    // 每段的格数为2^SUB_BITS
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    // 能区分的最大数值的位数
+    private static final int MAX_BITS = 40;
+
+    // 总格数
+    static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_COUNT;
+
+    // 按线程分开的计数数组
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    // 总和（用于求平均值）与最大值
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 构造函数：计数数组的份数取CPU核数向上取到2的幂
+     */
+    public LatencyHistogram() {
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        this.stripes = new AtomicLongArray[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.stripeMask = n - 1;
+    }
+
+    /**
+     * 记录一个数值
+     * @param value 数值（纳秒），负数按0处理
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int stripe = (int) Thread.currentThread().threadId() & stripeMask;
+        stripes[stripe].incrementAndGet(bucketOf(value));
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * 取当前数据的快照
+     * 与并发的record()之间没有锁，快照里各项之间可能差几次记录
+     * @return 快照
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                counts[i] += c;
+                total += c;
+            }
+        }
+        return new Snapshot(counts, total, sum.sum(), max.get());
+    }
+
+    /**
+     * 计算数值所在的格
+     */
+    static int bucketOf(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_BITS) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (value >>> shift) - SUB_COUNT;
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * 某一格的上界（格内最大的数值）
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long sub = bucket % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * 直方图快照（不可变）
+     */
+    public static class Snapshot {
+        // 定义成员变量
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        // 构造方法
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * 求分位数
+         * @param p 0到1之间，例如0.99
+         * @return 分位数所在格的上界（不超过实际最大值），没有数据时返回0
+         */
+        public long percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(p * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
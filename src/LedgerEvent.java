@@ -0,0 +1,70 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 事件账本中的一条事件：序号 + 发生时间 + 修改操作
+ * 事件的类型就是LibraryOp的类型：ADD_BOOK（图书上架）、UPDATE_STOCK（库存调整）、
+ * BORROW（借出，库存减1）、RETURN（归还，库存加1）、REGISTER_USER（用户注册），
+ * 以及REMOVE_BOOK和预约相关的几种
+ * 序号从1开始连续递增，同一本书、同一个学生的事件按发生的先后排列
+ */
+public class LedgerEvent {
+    // 定义成员变量
+    private final long sequence;   // 序号
+    private final long timestamp;  // 发生时间，毫秒
+    private final LibraryOp op;    // 修改操作
+
+    // 构造方法
+    public LedgerEvent(long sequence, long timestamp, LibraryOp op) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.op = op;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public LibraryOp getOp() {
+        return op;
+    }
+
+    public byte getType() {
+        return op.getType();
+    }
+
+    /**
+     * 写成二进制格式：[序号long][时间long][LibraryOp]
+     * @param out 输出流
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(sequence);
+        out.writeLong(timestamp);
+        op.writeTo(out);
+    }
+
+    /**
+     * 从二进制格式读出一条事件
+     * @param in 输入流
+     * @return 读到的事件
+     */
+    public static LedgerEvent readFrom(DataInput in) throws IOException {
+        long sequence = in.readLong();
+        long timestamp = in.readLong();
+        return new LedgerEvent(sequence, timestamp, LibraryOp.readFrom(in));
+    }
+
+    // 对象转换成字符串
+    @Override
+    public String toString() {
+        return "LedgerEvent{sequence=" + sequence +
+                ", timestamp=" + timestamp +
+                ", op=" + op +
+                '}';
+    }
+}
@@ -0,0 +1,422 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * 事件账本的分段文件存储
+ * 目录中的分段文件ledger-<第一条事件的序号>.seg按序号顺序存放事件，一个分段写满（默认64MB）后换下一个；
+ * 每条记录的格式与预写日志相同：[长度int][CRC32 int][LedgerEvent二进制]
+ *
+ * 每个分段在内存中有一个稀疏索引：每INDEX_INTERVAL条事件记一个文件位置。
+ * 从任意序号开始读时，先按第一条序号找到分段，再跳到不超过该序号的最近索引位置，
+ * 最多顺序跳过INDEX_INTERVAL-1条记录（跳过的记录不解码）
+ * 写满的分段同时写出索引文件ledger-<序号>.idx，打开时直接读入；
+ * 最后一个分段打开时重新扫描，截掉写到一半时宕机留下的不完整记录
+ *
+ * 只有账本的写线程调用append()、force()，读取可以在任意线程同时进行，只读到已写入的记录
+ */
+class LedgerSegmentStore implements Closeable {
+    // 默认分段大小
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    // 每隔多少条事件记一个索引位置
+    private static final int INDEX_INTERVAL = 128;
+
+    // 读取时的缓冲区大小
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final String PREFIX = "ledger-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path dir;
+    private final long segmentBytes;
+
+    // 第一条序号 -> 分段
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // 正在写入的分段及其文件（只有写线程访问）
+    private Segment active;
+    private FileChannel channel;
+
+    // 编码缓冲区（只有写线程访问）
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(64 * 1024);
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+    private final CRC32 crc = new CRC32();
+
+    // 已写入的最后一条序号，没有事件时为0
+    private volatile long lastSeq;
+
+    /**
+     * 打开（或创建）分段存储
+     * @param dir 目录，不存在时自动创建
+     * @param segmentBytes 分段大小
+     */
+    LedgerSegmentStore(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+
+        List<Long> firsts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                firsts.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(firsts);
+
+        long last = 0;
+        for (int i = 0; i < firsts.size(); i++) {
+            long first = firsts.get(i);
+            if (i > 0 && first != last + 1) {
+                throw new IOException("事件账本的分段不连续：" + segmentFile(first));
+            }
+            Segment segment = new Segment(first, segmentFile(first));
+            if (i == firsts.size() - 1) {
+                segment.scan(true);
+            } else if (!segment.loadIndex(indexFile(first))) {
+                segment.scan(false);
+                segment.writeIndex(indexFile(first));
+            }
+            segments.put(first, segment);
+            last = first + segment.count - 1;
+        }
+        this.lastSeq = last;
+
+        if (!segments.isEmpty()) {
+            active = segments.lastEntry().getValue();
+            channel = openForAppend(active.file);
+        }
+    }
+
+    /**
+     * 获取最早的事件序号
+     * @return 第一个分段的第一条序号，没有事件时为lastSeq + 1
+     */
+    long getFirstSeq() {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+        return first == null ? lastSeq + 1 : first.getKey();
+    }
+
+    /**
+     * 获取已写入的最后一条序号
+     * @return 序号，没有事件时为0
+     */
+    long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * 追加一批事件（只由写线程调用，序号必须紧接在getLastSeq()之后）
+     * 写入文件后即可被读到，但不保证落盘，需要时调用force()
+     * @param events 事件
+     */
+    void append(List<LedgerEvent> events) throws IOException {
+        encoded.reset();
+        long position = active == null ? 0 : active.size;
+        long seq = lastSeq;
+        for (LedgerEvent event : events) {
+            if (event.getSequence() != seq + 1) {
+                throw new IllegalArgumentException("事件序号不连续：" + event.getSequence() + "，期望" + (seq + 1));
+            }
+            if (active == null || position >= segmentBytes) {
+                flush(position, seq);
+                roll(event.getSequence());
+                position = 0;
+            }
+            if ((event.getSequence() - active.firstSeq) % INDEX_INTERVAL == 0) {
+                active.addIndex(position);
+            }
+            position += encode(event);
+            seq = event.getSequence();
+        }
+        flush(position, seq);
+    }
+
+    /**
+     * 把已写入的事件落盘
+     */
+    void force() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 从指定序号开始读事件
+     * @param fromSeq 第一条事件的序号
+     * @param max 最多读几条
+     * @return 事件（序号连续），fromSeq之后还没有事件时为空
+     */
+    List<LedgerEvent> read(long fromSeq, int max) throws IOException {
+        long limit = lastSeq;
+        List<LedgerEvent> result = new ArrayList<>(Math.min(max, 1024));
+        long seq = fromSeq;
+        while (result.size() < max && seq <= limit) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(seq);
+            if (entry == null) {
+                throw new IllegalArgumentException("序号" + seq + "的事件已不存在，最早的是" + getFirstSeq());
+            }
+            int before = result.size();
+            entry.getValue().read(seq, max - before, limit, result);
+            if (result.size() == before) {
+                break;
+            }
+            seq += result.size() - before;
+        }
+        return result;
+    }
+
+    /**
+     * 落盘并关闭当前分段（正在写的分段不写索引文件，下次打开时重新扫描）
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * 把编码缓冲区写入当前分段，然后更新分段大小和lastSeq（之后读者才能读到）
+     */
+    private void flush(long position, long seq) throws IOException {
+        if (encoded.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(encoded.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        encoded.reset();
+        active.count += seq - lastSeq;
+        active.size = position;
+        lastSeq = seq;
+    }
+
+    /**
+     * 写满的分段落盘、写出索引，然后开始新分段
+     */
+    private void roll(long firstSeq) throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            active.writeIndex(indexFile(active.firstSeq));
+        }
+        Segment segment = new Segment(firstSeq, segmentFile(firstSeq));
+        channel = openForAppend(segment.file);
+        active = segment;
+        segments.put(firstSeq, segment);
+    }
+
+    /**
+     * 把一条事件编码进缓冲区
+     * @return 记录的字节数
+     */
+    private int encode(LedgerEvent event) throws IOException {
+        payload.reset();
+        event.writeTo(payloadOut);
+        byte[] bytes = payload.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+        DataOutputStream out = new DataOutputStream(encoded);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+        return 8 + bytes.length;
+    }
+
+    private Path segmentFile(long firstSeq) {
+        return dir.resolve(PREFIX + String.format("%020d", firstSeq) + SEGMENT_SUFFIX);
+    }
+
+    private Path indexFile(long firstSeq) {
+        return dir.resolve(PREFIX + String.format("%020d", firstSeq) + INDEX_SUFFIX);
+    }
+
+    private static FileChannel openForAppend(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private static DataInputStream openAt(FileChannel ch, long position) throws IOException {
+        ch.position(position);
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), READ_BUFFER_SIZE));
+    }
+
+    // ==================== 分段 ====================
+
+    /**
+     * 一个分段文件及其稀疏索引
+     */
+    private static final class Segment {
+        final long firstSeq;
+        final Path file;
+
+        // 已写入的事件数和字节数（写线程更新，读者据此判断读到哪里为止）
+        volatile long count;
+        volatile long size;
+
+        // index[k]是第firstSeq + k * INDEX_INTERVAL条事件的文件位置
+        private long[] index = new long[16];
+        private int indexCount;
+
+        Segment(long firstSeq, Path file) {
+            this.firstSeq = firstSeq;
+            this.file = file;
+        }
+
+        synchronized void addIndex(long position) {
+            if (indexCount == index.length) {
+                index = Arrays.copyOf(index, indexCount * 2);
+            }
+            index[indexCount++] = position;
+        }
+
+        synchronized long indexAt(int k) {
+            return index[k];
+        }
+
+        /**
+         * 从fromSeq开始读最多max条、序号不超过limit的事件
+         */
+        void read(long fromSeq, int max, long limit, List<LedgerEvent> out) throws IOException {
+            long end = size;
+            int k = (int) ((fromSeq - firstSeq) / INDEX_INTERVAL);
+            long position = indexAt(k);
+            long seq = firstSeq + (long) k * INDEX_INTERVAL;
+            int read = 0;
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                DataInputStream in = openAt(ch, position);
+                while (position < end && seq <= limit && read < max) {
+                    int length = in.readInt();
+                    in.readInt();
+                    if (seq < fromSeq) {
+                        in.skipNBytes(length);
+                    } else {
+                        byte[] bytes = new byte[length];
+                        in.readFully(bytes);
+                        out.add(LedgerEvent.readFrom(new DataInputStream(new ByteArrayInputStream(bytes))));
+                        read++;
+                    }
+                    position += 8 + length;
+                    seq++;
+                }
+            }
+        }
+
+        /**
+         * 扫描整个分段，重建索引，统计事件数
+         * @param truncate 遇到不完整或校验失败的记录时是否把文件截断到那里（只对最后一个分段）
+         */
+        void scan(boolean truncate) throws IOException {
+            indexCount = 0;
+            long position = 0;
+            long seq = firstSeq;
+            long fileSize = Files.size(file);
+            CRC32 crc = new CRC32();
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                DataInputStream in = openAt(ch, 0);
+                while (position < fileSize) {
+                    byte[] bytes;
+                    int expected;
+                    try {
+                        int length = in.readInt();
+                        expected = in.readInt();
+                        if (length < 0 || position + 8 + length > fileSize) {
+                            break;
+                        }
+                        bytes = new byte[length];
+                        in.readFully(bytes);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(bytes, 0, bytes.length);
+                    if ((int) crc.getValue() != expected
+                            || new DataInputStream(new ByteArrayInputStream(bytes)).readLong() != seq) {
+                        break;
+                    }
+                    if ((seq - firstSeq) % INDEX_INTERVAL == 0) {
+                        addIndex(position);
+                    }
+                    position += 8 + bytes.length;
+                    seq++;
+                }
+            }
+            if (position < fileSize) {
+                if (!truncate) {
+                    throw new IOException("事件账本分段已损坏：" + file);
+                }
+                try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    ch.truncate(position);
+                }
+            }
+            count = seq - firstSeq;
+            size = position;
+        }
+
+        /**
+         * 读入索引文件：[事件数long][索引位置long...]
+         * @return 索引文件存在且与分段一致时返回true
+         */
+        boolean loadIndex(Path indexFile) throws IOException {
+            if (!Files.exists(indexFile)) {
+                return false;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                long events = in.readLong();
+                int entries = (int) ((events + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+                if (Files.size(indexFile) != 8 + 8L * entries) {
+                    return false;
+                }
+                index = new long[Math.max(16, entries)];
+                for (int i = 0; i < entries; i++) {
+                    index[i] = in.readLong();
+                }
+                indexCount = entries;
+                count = events;
+                size = Files.size(file);
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        void writeIndex(Path indexFile) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(indexFile)))) {
+                out.writeLong(count);
+                synchronized (this) {
+                    for (int i = 0; i < indexCount; i++) {
+                        out.writeLong(index[i]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,37 +1,267 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * 图书馆管理系统核心类
  * 负责管理图书、用户、借阅记录等所有业务逻辑
+ * 所有集合都是并发安全的，多个服务台线程可以同时操作同一个Library实例
+ * 本类不做任何控制台输入输出：修改操作返回OpResult，查询操作返回数据，
+ * 显示和交互由调用者（Main控制台等）负责
  */
 public class Library {
-    // 用Map存储图书，key是ISBN，value是Book对象
-    private Map<String, Book> books;
+    // 后台为外部存储中已有图书建索引时每批的图书数
+    private static final int INDEX_BATCH = 4096;
+
+    // 图书存储，按ISBN查找（默认是内存Map，也可以是内存映射文件）
+    private final BookStore books;
 
     // 用Map存储用户，key是学号，value是User对象
     private Map<String, User> users;
 
-    // 用List存储借阅记录
-    private List<LoanRecord> loanRecords;
+    // 已归还借阅记录的列式归档（堆外），堆内只保留未归还的记录
+    private final LoanArchive archive;
+
+    // 学号、ISBN的编号表：注册用户、添加图书时分配连续的整数编号
+    // 内部的借阅索引和统计都按编号存取，每次操作只在入口处把字符串换成编号
+    private final IdInterner studentIds;
+    private final IdInterner isbnIds;
+
+    // 未归还借阅索引：学生编号 -> 该学生的未归还记录，只保存未归还的记录
+    // 借阅查重、归还、查看我的借阅都直接查这里，不用遍历全部历史记录
+    private final OpenLoanTable activeLoans;
+
+    // 借阅统计：借还书时实时更新
+    private final LoanStatistics statistics;
+
+    // 逾期跟踪：未归还借阅按到期日分桶，查逾期不用遍历全部历史记录
+    private final OverdueTracker overdue;
+
+    // 预约队列：没有库存时排队，有书空出来时按顺序限时保留给排队的学生
+    private final HoldQueue holds;
+
+    // 书名、作者的n-gram倒排索引，模糊查询不再逐本扫描
+    private final NGramIndex titleIndex;
+    private final NGramIndex authorIndex;
+
+    // ISBN、书名的前缀联想索引，按借阅次数排序
+    private final PrefixIndex isbnPrefixes;
+    private final PrefixIndex titlePrefixes;
+
+    // ISBN、学号的布隆过滤器：一定不存在的键不用再查图书存储、用户表
+    private final KeyFilter bookKeys;
+    private final KeyFilter userKeys;
+
+    // 按ISBN分段的锁：同一本书的借、还、改库存串行执行，不同的书互不影响
+    private final Object[] bookLocks;
+
+    // 性能指标：各操作的耗时分布和结果计数
+    private final LibraryMetrics metrics;
+
+    // 会话表：每个登录的终端一个会话，取代原来唯一的currentUser
+    private final SessionManager sessions;
+
+    // 持久化引擎，纯内存模式下为null
+    private final PersistenceEngine persistence;
+
+    // 是否是分片（见newShard）：借书、预约的学生可以注册在别的分片上
+    private final boolean shard;
+
+    // 是否是只读副本（见newReplica）
+    private final boolean replica;
+
+    // 事件账本（可选）：每次修改在写日志的同时发布一条事件，供下游订阅
+    private volatile EventLedger ledger;
 
-    // 当前登录的用户
-    private User currentUser;
+    // 当前线程这次修改在事件账本里分配了序号、还没发布的事件（见endMutation）
+    private final ThreadLocal<List<LedgerEvent>> unpublished = ThreadLocal.withInitial(ArrayList::new);
+
+    // 为外部存储中已有图书建立索引的后台线程（见open），建完或不需要时为null
+    private volatile Thread indexer;
 
     /**
      * 构造函数：初始化图书馆系统
-     * 创建空的集合来存储数据，并加载测试数据
+     * 创建空的集合来存储数据，并加载测试数据（纯内存模式，退出后数据丢失）
      */
     public Library() {
-        this.books = new HashMap<>();
-        this.users = new HashMap<>();
-        this.loanRecords = new ArrayList<>();
-        this.currentUser = null;
+        this(new MemoryBookStore(), null, false, false);
 
         // 初始化一些测试数据
         initTestData();
     }
 
+    /**
+     * 打开持久化模式的图书馆
+     * 从数据目录读取最近的快照并重放之后的日志，之后的每次修改都写入日志
+     * 数据目录为空（第一次启动）时才加载测试数据
+     * @param dataDir 数据目录
+     * @return 图书馆
+     */
+    public static Library open(Path dataDir) throws IOException {
+        Library library = new Library(new MemoryBookStore(), new PersistenceEngine(dataDir), false, false);
+        boolean restored = library.persistence.recover(library);
+        library.persistence.startPeriodicCheckpoints(library, PersistenceEngine.DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+        if (!restored) {
+            library.initTestData();
+        }
+        return library;
+    }
+
+    /**
+     * 使用外部的图书存储（例如MappedBookStore）打开持久化模式的图书馆
+     * 图书由存储自己保存，打开时不逐本读取；用户、借阅记录和预约与持久化模式一样保存在数据目录的快照和日志里，
+     * 借还书改的库存也随快照写入存储（见BookStore.isPersistent），重启后库存和借阅记录一致
+     * 存储和数据目录都为空（第一次启动）时加载测试数据
+     * 已有图书的ISBN过滤器和书名、作者、前缀索引由后台线程建立（见awaitIndexes），
+     * 建好之前按书名、作者搜索和联想可能暂时查不到这些书，按ISBN查询、借还不受影响；
+     * 这些索引在堆上，随目录增长，图书本身（书名、作者、库存）不占堆
+     * @param bookStore 图书存储
+     * @param dataDir 数据目录
+     * @return 图书馆
+     */
+    public static Library open(BookStore bookStore, Path dataDir) throws IOException {
+        boolean stored = !bookStore.isEmpty();
+        Library library = new Library(bookStore, new PersistenceEngine(dataDir), false, false);
+        // 先恢复再建索引：重放日志时还没有别的线程
+        boolean restored = library.persistence.recover(library);
+        library.persistence.startPeriodicCheckpoints(library, PersistenceEngine.DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+        if (stored) {
+            library.indexer = new Thread(library::indexStore, "catalog-indexer");
+            library.indexer.setDaemon(true);
+            library.indexer.start();
+        } else if (!restored) {
+            library.initTestData();
+        }
+        return library;
+    }
+
+    /**
+     * 创建一个分片（纯内存，不加载测试数据）
+     * 分片只保存ISBN哈希到本分片的图书、学号哈希到本分片的用户，借阅记录和预约跟着图书走；
+     * 借书、预约的学生可能注册在别的分片上，由路由器（LibraryRouter）先到他所在的分片确认，
+     * 本分片第一次见到这个学号时为他分配编号，不再检查用户表
+     * @return 分片
+     */
+    public static Library newShard() {
+        return new Library(new MemoryBookStore(), null, true, false);
+    }
+
+    /**
+     * 打开一个持久化的分片（不加载测试数据），见newShard()
+     * @param dataDir 本分片的数据目录
+     * @return 分片
+     */
+    public static Library openShard(Path dataDir) throws IOException {
+        Library library = new Library(new MemoryBookStore(), new PersistenceEngine(dataDir), true, false);
+        library.persistence.recover(library);
+        library.persistence.startPeriodicCheckpoints(library, PersistenceEngine.DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+        return library;
+    }
+
+    /**
+     * 创建只读副本（纯内存，不加载测试数据），内容是主馆发来的快照，
+     * 之后由ReplicaFollower按顺序应用主馆的事件（applyReplicated）
+     * 副本不自己处理预约保留过期：主馆过期时会发来取消预约的事件
+     * @param snapshot 主馆的快照
+     * @return 副本
+     */
+    static Library newReplica(SnapshotFile snapshot) {
+        Library library = new Library(new MemoryBookStore(), null, false, true);
+        library.restoreSnapshot(snapshot);
+        return library;
+    }
+
+    /**
+     * 创建空的集合
+     * @param bookStore 图书存储
+     * @param persistence 持久化引擎，纯内存模式传null
+     * @param shard 是否是分片
+     * @param replica 是否是只读副本
+     */
+    private Library(BookStore bookStore, PersistenceEngine persistence, boolean shard, boolean replica) {
+        this.books = bookStore;
+        this.users = new ConcurrentHashMap<>();
+        this.studentIds = new IdInterner();
+        this.isbnIds = new IdInterner();
+        this.archive = new LoanArchive(studentIds, isbnIds);
+        this.activeLoans = new OpenLoanTable();
+        this.statistics = new LoanStatistics(isbnIds);
+        this.overdue = new OverdueTracker();
+        overdue.start();
+        this.holds = new HoldQueue(this::expireClaim);
+        holds.start();
+        this.titleIndex = new NGramIndex();
+        this.authorIndex = new NGramIndex();
+        this.isbnPrefixes = new PrefixIndex(isbnIds, statistics::getBorrowCount, true);
+        this.titlePrefixes = new PrefixIndex(isbnIds, statistics::getBorrowCount, false);
+        this.bookKeys = new KeyFilter(books::size, key -> books.values().forEach(book -> key.accept(book.getIsbn())));
+        this.userKeys = new KeyFilter(users::size, users.keySet()::forEach);
+        this.bookLocks = new Object[lockCount()];
+        for (int i = 0; i < bookLocks.length; i++) {
+            bookLocks[i] = new Object();
+        }
+        this.sessions = new SessionManager();
+        sessions.start();
+        this.metrics = new LibraryMetrics();
+        this.persistence = persistence;
+        this.shard = shard;
+        this.replica = replica;
+    }
+
+    /**
+     * 关闭图书馆：持久化模式下做最后一次快照并关闭日志
+     */
+    public void close() throws IOException {
+        Thread building = indexer;
+        if (building != null) {
+            building.interrupt();
+            try {
+                building.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sessions.shutdown();
+        overdue.shutdown();
+        holds.shutdown();
+        if (persistence != null) {
+            persistence.close(this);
+        }
+        if (ledger != null) {
+            ledger.close();
+        }
+    }
+
+    /**
+     * 接上事件账本：之后的每次修改都会发布到账本，关闭图书馆时一起关闭
+     * 应在开始提供服务之前调用；之前已有的数据（测试数据、从磁盘恢复的数据）不会出现在账本里
+     * @param ledger 事件账本
+     */
+    public void attachLedger(EventLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * 获取事件账本
+     * @return 事件账本，没有接上时为null
+     */
+    public EventLedger getLedger() {
+        return ledger;
+    }
+
+    /**
+     * 手动做一次快照（纯内存模式下什么也不做）
+     */
+    public void checkpoint() throws IOException {
+        if (persistence != null) {
+            persistence.checkpoint(this);
+        }
+    }
+
     /**
      * 初始化测试数据
      * 添加几本测试图书和一个测试用户，方便系统测试
@@ -46,6 +276,91 @@ public class Library {
         registerUser("张三", "20230001");
     }
 
+    /**
+     * 计算分段锁的数量
+     * 取CPU核数的4倍并向上取到2的幂，至少16段
+     */
+    private static int lockCount() {
+        int n = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * 获取某个ISBN对应的锁
+     * @param isbn 图书ISBN
+     * @return 该ISBN所在分段的锁对象
+     */
+    private Object lockFor(String isbn) {
+        return bookLocks[stripeOf(isbn)];
+    }
+
+    private int stripeOf(String isbn) {
+        int h = isbn.hashCode();
+        h ^= (h >>> 16);
+        return h & (bookLocks.length - 1);
+    }
+
+    /**
+     * 同时持有一批ISBN对应的所有分段锁，执行action
+     * 分段按下标从小到大加锁，两个批量操作同时进行也不会互相死锁；
+     * 单本操作只持有一个分段锁，同样不会和批量操作形成环
+     * @param isbns 图书ISBN
+     * @param action 持锁期间执行的操作
+     * @return action的返回值
+     */
+    private <T> T withBookLocks(Collection<String> isbns, Supplier<T> action) {
+        int[] stripes = new int[isbns.size()];
+        int n = 0;
+        for (String isbn : isbns) {
+            stripes[n++] = stripeOf(isbn);
+        }
+        Arrays.sort(stripes);
+        int distinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || stripes[i] != stripes[i - 1]) {
+                stripes[distinct++] = stripes[i];
+            }
+        }
+        return lockStripes(stripes, 0, distinct, action);
+    }
+
+    private <T> T lockStripes(int[] stripes, int from, int to, Supplier<T> action) {
+        if (from == to) {
+            return action.get();
+        }
+        synchronized (bookLocks[stripes[from]]) {
+            return lockStripes(stripes, from + 1, to, action);
+        }
+    }
+
+    /**
+     * 批量操作里查重用的集合：long数组上的开放寻址哈希表，-1表示空位，大小至少是元素数的两倍
+     * @param count 最多放入的元素数
+     * @return 空集合
+     */
+    private static long[] newKeySet(int count) {
+        long[] table = new long[Integer.highestOneBit(Math.max(1, count) * 2) << 1];
+        Arrays.fill(table, -1L);
+        return table;
+    }
+
+    /**
+     * 放入一个键（键必须不小于0）
+     * @return 第一次放入返回true，已经有了返回false
+     */
+    private static boolean addKey(long[] table, long key) {
+        int mask = table.length - 1;
+        int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (table[i] != -1L) {
+            if (table[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = key;
+        return true;
+    }
+
     // ==================== 图书管理方法 ====================
 
     /**
@@ -54,509 +369,1482 @@ public class Library {
      * @param author 作者
      * @param isbn 图书唯一标识码
      * @param stock 初始库存数量
+     * @return OK，或BOOK_EXISTS
      */
-    public void addBook(String title, String author, String isbn, int stock) {
+    public OpResult addBook(String title, String author, String isbn, int stock) {
         /*
-        containsKey() 检查指定的键是否存在
+        putIfAbsent() 键不存在时才放入，已存在则返回原来的值
         new Book() 创建Book对象
-        put() 将键值对象添加到Book中
-        
+        log() 把这次修改写入日志，释放锁后再等待落盘
         */
-        if (books.containsKey(isbn)) {
-            System.out.println("错误：ISBN已存在！");
-            return;
+        long seq;
+        beginMutation();
+        try {
+            synchronized (lockFor(isbn)) {
+                if (!applyAddBook(title, author, isbn, stock)) {
+                    return OpResult.BOOK_EXISTS;
+                }
+                seq = log(LibraryOp.addBook(title, author, isbn, stock));
+            }
+        } finally {
+            endMutation();
+        }
+        awaitDurable(seq);
+        return OpResult.OK;
+    }
+
+    /**
+     * 批量添加图书（批量导入时使用）
+     * 整批只进入一次修改区，日志也只在最后等待一次落盘
+     * 书名、作者索引在整批放入后一次性建立，建好之前这些书可能暂时查不到
+     * @param batch 要添加的图书
+     * @return 与batch一一对应的结果：OK或BOOK_EXISTS
+     */
+    public OpResult[] addBooks(List<Book> batch) {
+        OpResult[] results = new OpResult[batch.size()];
+        List<Book> added = new ArrayList<>(batch.size());
+        long seq = 0;
+        beginMutation();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Book book = batch.get(i);
+                String isbn = isbnIds.nameOf(isbnIds.intern(book.getIsbn()));
+                synchronized (lockFor(isbn)) {
+                    if (addToStore(new Book(book.getTitle(), book.getAuthor(), isbn, book.getStock()))) {
+                        seq = log(LibraryOp.addBook(book.getTitle(), book.getAuthor(), isbn, book.getStock()));
+                        added.add(book);
+                        results[i] = OpResult.OK;
+                    } else {
+                        results[i] = OpResult.BOOK_EXISTS;
+                    }
+                }
+            }
+            indexBatch(added);
+        } finally {
+            endMutation();
+        }
+        awaitDurable(seq);
+        return results;
+    }
+
+    /**
+     * 等待后台线程为外部存储中已有的图书建完索引（见open）
+     */
+    public void awaitIndexes() throws InterruptedException {
+        Thread building = indexer;
+        if (building != null) {
+            building.join();
+        }
+    }
+
+    /**
+     * 后台线程：先建立ISBN过滤器，再按INDEX_BATCH本一批建立书名、作者、前缀索引
+     * 与此同时的增删图书照常进行，indexBatch最后在锁内核对修正
+     */
+    private void indexStore() {
+        bookKeys.rebuild();
+        List<Book> batch = new ArrayList<>(INDEX_BATCH);
+        for (Book book : books.values()) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            // 复制一份：存储里的槽位之后可能被删除或换成别的书
+            batch.add(new Book(book.getTitle(), book.getAuthor(), book.getIsbn(), 0));
+            if (batch.size() == INDEX_BATCH) {
+                indexBatch(batch);
+                batch.clear();
+            }
+        }
+        indexBatch(batch);
+        indexer = null;
+    }
+
+    /**
+     * 给一批刚放入的图书建立索引
+     * 建索引时没有持有ISBN锁，其间如果有书被删除或换成了别的书，
+     * 删除方清理不到这里后加的片段，所以最后在锁内逐本核对并修正
+     */
+    private void indexBatch(List<Book> added) {
+        List<String> isbns = new ArrayList<>(added.size());
+        List<String> titles = new ArrayList<>(added.size());
+        List<String> authors = new ArrayList<>(added.size());
+        for (Book book : added) {
+            isbns.add(book.getIsbn());
+            titles.add(book.getTitle());
+            authors.add(book.getAuthor());
+        }
+        titleIndex.addAll(isbns, titles);
+        authorIndex.addAll(isbns, authors);
+
+        for (Book book : added) {
+            String isbn = book.getIsbn();
+            synchronized (lockFor(isbn)) {
+                Book current = books.get(isbn);
+                if (current != null) {
+                    // 前缀索引重复加入同一本书不会重复，直接按当前的书名加入
+                    // 外部存储中已有的图书此前可能还没有编号
+                    int id = isbnIds.intern(isbn);
+                    isbnPrefixes.add(isbn, id);
+                    titlePrefixes.add(current.getTitle(), id);
+                }
+                if (current != null && Objects.equals(current.getTitle(), book.getTitle())
+                        && Objects.equals(current.getAuthor(), book.getAuthor())) {
+                    continue;
+                }
+                titleIndex.remove(isbn, book.getTitle());
+                authorIndex.remove(isbn, book.getAuthor());
+                if (current != null) {
+                    titleIndex.add(isbn, current.getTitle());
+                    authorIndex.add(isbn, current.getAuthor());
+                }
+            }
         }
-        books.put(isbn, new Book(title, author, isbn, stock));
-        System.out.println("成功添加图书：" + title);
     }
 
     /**
      * 从图书馆删除图书
      * @param isbn 要删除的图书ISBN
+     * @return OK，或BOOK_NOT_FOUND
      */
-    public void removeBook(String isbn) {
-        if (books.remove(isbn) != null) {
-            System.out.println("成功删除图书，ISBN：" + isbn);
-        } else {
-            System.out.println("错误：找不到该图书！");
+    public OpResult removeBook(String isbn) {
+        Book removed;
+        long seq = 0;
+        beginMutation();
+        try {
+            synchronized (lockFor(isbn)) {
+                removed = applyRemoveBook(isbn);
+                if (removed != null) {
+                    seq = log(LibraryOp.removeBook(isbn));
+                }
+            }
+        } finally {
+            endMutation();
         }
+        if (removed == null) {
+            return OpResult.BOOK_NOT_FOUND;
+        }
+        awaitDurable(seq);
+        return OpResult.OK;
     }
 
     /**
      * 更新图书库存数量
      * @param isbn 图书ISBN
      * @param newStock 新的库存数量
+     * @return OK，或BOOK_NOT_FOUND
      */
-    public void updateStock(String isbn, int newStock) {
-        Book book = books.get(isbn);
-        if (book != null) {
-            book.setStock(newStock);
-            System.out.println("成功更新库存：" + book.getTitle() + " -> " + newStock + "本");
-        } else {
-            System.out.println("错误：找不到该图书！");
+    public OpResult updateStock(String isbn, int newStock) {
+        Book book;
+        long seq = 0;
+        beginMutation();
+        try {
+            synchronized (lockFor(isbn)) {
+                book = applyUpdateStock(isbn, newStock);
+                if (book != null) {
+                    // 库存增加时先满足排队的预约
+                    seq = logWithClaims(LibraryOp.updateStock(isbn, newStock), isbn);
+                }
+            }
+        } finally {
+            endMutation();
+        }
+        if (book == null) {
+            return OpResult.BOOK_NOT_FOUND;
         }
+        awaitDurable(seq);
+        return OpResult.OK;
     }
 
     /**
-     * 显示所有图书信息
-     * 遍历books集合，打印每本书的详细信息
+     * 按ISBN精确查询图书
+     * @param isbn 图书ISBN
+     * @return 图书，不存在返回null
      */
-    public void listAllBooks() {
-        System.out.println("\n=== 所有图书 ===");
-        if (books.isEmpty()) {
-            System.out.println("暂无图书");
-            return;
-        }
-        for (Book book : books.values()) {
-            System.out.println(book);
-        }
+    public Book getBook(String isbn) {
+        return bookKeys.mightContain(isbn) ? books.get(isbn) : null;
     }
 
     /**
-     * 显示图书管理菜单
-     * 提供图书管理的各种操作选项
+     * 遍历所有图书（不复制整个目录，边遍历边返回）
+     * 遍历的是调用时的目录版本，期间增删图书不影响这次遍历；库存是读取时的当前值
+     * @return 所有图书，只读
      */
-    public void showBookManagementMenu() {
-        System.out.println("\n=== 图书管理 ===");
-        System.out.println("1. 添加图书");
-        System.out.println("2. 删除图书");
-        System.out.println("3. 修改库存");
-        System.out.println("4. 查看所有图书");
-        System.out.println("0. 返回主菜单");
+    public Iterable<Book> listBooks() {
+        return readOnly(books.snapshot().values());
     }
 
     /**
-     * 从用户输入添加图书
-     * 提示用户输入图书信息，然后调用addBook方法
+     * 获取当前的图书目录视图
+     * 内存存储返回不可变快照，同一次查询里多次读取看到的是同一批书；库存不分版本，读到的是当前值
+     * @return 目录视图
      */
-    public void addBookFromInput() {
-        System.out.println("\n=== 添加图书 ===");
-        Scanner scanner = new Scanner(System.in);
-
-        System.out.print("请输入书名：");
-        String title = scanner.nextLine();
+    public BookCatalog getCatalog() {
+        return books.snapshot();
+    }
 
-        System.out.print("请输入作者：");
-        String author = scanner.nextLine();
+    /**
+     * 图书总数
+     * @return 图书总数
+     */
+    public int getBookCount() {
+        return books.size();
+    }
 
-        System.out.print("请输入ISBN：");
-        String isbn = scanner.nextLine();
+    // ==================== 用户管理方法 ====================
 
-        System.out.print("请输入库存数量：");
+    /**
+     * 注册新用户
+     * @param name 用户姓名
+     * @param studentId 学号（唯一标识）
+     * @return OK，或USER_EXISTS
+     */
+    public OpResult registerUser(String name, String studentId) {
+        long seq;
+        beginMutation();
         try {
-            int stock = Integer.parseInt(scanner.nextLine());
-            addBook(title, author, isbn, stock);
-        } catch (NumberFormatException e) {
-            System.out.println("错误：库存数量必须是数字！");
+            if (!applyRegisterUser(name, studentId)) {
+                return OpResult.USER_EXISTS;
+            }
+            seq = log(LibraryOp.registerUser(name, studentId));
+        } finally {
+            endMutation();
         }
+        awaitDurable(seq);
+        return OpResult.OK;
+    }
+
+    /**
+     * 用户登录
+     * @param studentId 学号
+     * @return 登录成功返回新的会话，用户不存在返回null
+     */
+    public Session login(String studentId) {
+        long start = metrics.start();
+        User user = userKeys.mightContain(studentId) ? users.get(studentId) : null;
+        Session session = user == null ? null : sessions.open(user);
+        metrics.record(LibraryMetrics.LOGIN, start, session == null ? OpResult.USER_NOT_FOUND : OpResult.OK);
+        return session;
     }
 
     /**
-     * 从用户输入删除图书
-     * 先显示所有图书，让用户选择要删除的图书，并确认删除操作
+     * 用户退出登录
+     * 关闭会话，之后该会话不能再使用
+     * @param session 要退出的会话
+     * @return 会话之前是否在线
      */
-    public void removeBookFromInput() {
-        System.out.println("\n=== 删除图书 ===");
-        listAllBooks();
-        Scanner scanner = new Scanner(System.in);
+    public boolean logout(Session session) {
+        return sessions.close(session);
+    }
 
-        System.out.print("请输入要删除的图书ISBN：");
-        String isbn = scanner.nextLine();
+    /**
+     * 检查会话是否仍然有效（已登录且未过期）
+     * @param session 会话
+     * @return 会话有效返回true
+     */
+    public boolean isLoggedIn(Session session) {
+        return sessions.validate(session);
+    }
 
-        System.out.print("确认删除？(y/n)：");
-        String confirm = scanner.nextLine();
-        if ("y".equalsIgnoreCase(confirm)) {
-            removeBook(isbn);
-        } else {
-            System.out.println("取消删除");
+    /**
+     * 按学号查找用户
+     * @param studentId 学号
+     * @return 用户，不存在返回null
+     */
+    public User getUser(String studentId) {
+        return userKeys.mightContain(studentId) ? users.get(studentId) : null;
+    }
+
+    /**
+     * 遍历所有用户
+     * @return 所有用户，只读
+     */
+    public Iterable<User> listUsers() {
+        return readOnly(users.values());
+    }
+
+    /**
+     * 获取会话表（网络服务端等需要按令牌查找会话时使用）
+     * @return 会话表
+     */
+    public SessionManager getSessions() {
+        return sessions;
+    }
+
+    // ==================== 借阅管理方法 ====================
+
+    /**
+     * 借阅图书
+     * @param session 登录会话
+     * @param isbn 要借阅的图书ISBN
+     * 检查用户是否登录、图书是否存在、库存是否充足、是否重复借阅
+     * @return 借阅结果，成功后可用findLoan()查看到期日期
+     */
+    public OpResult borrowBook(Session session, String isbn) {
+        if (!sessions.validate(session)) {
+            return notLoggedIn(LibraryMetrics.BORROW);
         }
+        return borrowBook(session.getUser().getStudentId(), isbn);
     }
 
     /**
-     * 从用户输入更新库存
-     * 先显示所有图书，让用户选择要修改的图书，然后输入新库存数量
+     * 为指定学生借阅图书（可被多个线程同时调用）
+     * 库存检查、查重和扣减库存在该ISBN的锁内一次完成，最后一本书不会被借出两次
+     * @param studentId 借书人学号
+     * @param isbn 要借阅的图书ISBN
+     * @return 借阅结果
      */
-    public void updateStockFromInput() {
-        System.out.println("\n=== 修改库存 ===");
-        listAllBooks();
-        Scanner scanner = new Scanner(System.in);
+    public OpResult borrowBook(String studentId, String isbn) {
+        long start = metrics.start();
+        OpResult result = doBorrowBook(studentId, isbn);
+        metrics.record(LibraryMetrics.BORROW, start, result);
+        return result;
+    }
 
-        System.out.print("请输入图书ISBN：");
-        String isbn = scanner.nextLine();
+    private OpResult doBorrowBook(String studentId, String isbn) {
+        int student = borrowerHandle(studentId);
+        if (student < 0) {
+            return OpResult.USER_NOT_FOUND;
+        }
 
-        System.out.print("请输入新库存数量：");
+        long seq;
+        beginMutation();
         try {
-            int newStock = Integer.parseInt(scanner.nextLine());
-            updateStock(isbn, newStock);
-        } catch (NumberFormatException e) {
-            System.out.println("错误：库存数量必须是数字！");
+            synchronized (lockFor(isbn)) {
+                Book book = books.get(isbn);
+                if (book == null) {
+                    return OpResult.BOOK_NOT_FOUND;
+                }
+
+                // 没有库存，或者剩下的都为预约的学生保留了
+                if (!hasCopyFor(studentId, isbn, book)) {
+                    return OpResult.OUT_OF_STOCK;
+                }
+
+                // 检查是否已经借过这本书且未归还（没有编号的书还没有人借过）
+                int bookHandle = isbnIds.lookup(isbn);
+                if (bookHandle >= 0 && activeLoans.find(student, bookHandle) != null) {
+                    return OpResult.ALREADY_BORROWED;
+                }
+
+                // 创建借阅记录并更新库存
+                LocalDate borrowDate = LocalDate.now();
+                LocalDate dueDate = borrowDate.plusDays(30); // 30天后到期
+                applyBorrow(studentId, isbn, borrowDate, dueDate);
+                seq = log(LibraryOp.borrow(studentId, isbn, borrowDate, dueDate));
+            }
+        } finally {
+            endMutation();
         }
+        awaitDurable(seq);
+        return OpResult.OK;
     }
 
-    // ==================== 用户管理方法 ====================
+    /**
+     * 批量借阅（一次借一摞书）
+     * @param session 登录会话
+     * @param isbns 要借阅的图书ISBN
+     * @return 与isbns一一对应的结果，见borrowBooks(String, List)
+     */
+    public OpResult[] borrowBooks(Session session, List<String> isbns) {
+        if (!sessions.validate(session)) {
+            return fill(isbns.size(), notLoggedIn(LibraryMetrics.BORROW_BATCH));
+        }
+        return borrowBooks(session.getUser().getStudentId(), isbns);
+    }
 
     /**
-     * 注册新用户
-     * @param name 用户姓名
-     * @param studentId 学号（唯一标识）
+     * 为指定学生批量借阅，整批要么全部借出，要么一本也不借
+     * 持有所有相关分段锁后一次检查全部图书（存在、有库存、没有重复借阅），
+     * 全部通过才扣减库存、生成借阅记录，所有借阅写成一条日志记录，只等待一次落盘
+     * @param studentId 借书人学号
+     * @param isbns 要借阅的图书ISBN（同一本书出现两次，第二次按重复借阅处理）
+     * @return 与isbns一一对应的结果；全部是OK表示已借出，
+     *         否则整批都没有借出，不是OK的那几项说明了原因
      */
-    public void registerUser(String name, String studentId) {
-        if (users.containsKey(studentId)) {
-            System.out.println("错误：学号已存在！");
-            return;
+    public OpResult[] borrowBooks(String studentId, List<String> isbns) {
+        long start = metrics.start();
+        OpResult[] results = doBorrowBooks(studentId, isbns);
+        metrics.record(LibraryMetrics.BORROW_BATCH, start, overall(results));
+        return results;
+    }
+
+    private OpResult[] doBorrowBooks(String studentId, List<String> isbns) {
+        int student = borrowerHandle(studentId);
+        if (student < 0) {
+            return fill(isbns.size(), OpResult.USER_NOT_FOUND);
+        }
+        if (isbns.isEmpty()) {
+            return new OpResult[0];
+        }
+
+        OpResult[] results = new OpResult[isbns.size()];
+        long seq;
+        beginMutation();
+        try {
+            seq = withBookLocks(isbns, () -> {
+                boolean ok = true;
+                long[] seen = newKeySet(isbns.size());
+                for (int i = 0; i < isbns.size(); i++) {
+                    String isbn = isbns.get(i);
+                    Book book = books.get(isbn);
+                    // 外部存储中已有的图书此前可能还没有编号
+                    int bookHandle = book == null ? -1 : isbnIds.intern(isbn);
+                    if (book == null) {
+                        results[i] = OpResult.BOOK_NOT_FOUND;
+                    } else if (!hasCopyFor(studentId, isbn, book)) {
+                        results[i] = OpResult.OUT_OF_STOCK;
+                    } else if (!addKey(seen, bookHandle) || activeLoans.find(student, bookHandle) != null) {
+                        results[i] = OpResult.ALREADY_BORROWED;
+                    } else {
+                        results[i] = OpResult.OK;
+                    }
+                    ok &= results[i].isOk();
+                }
+                if (!ok) {
+                    return 0L;
+                }
+
+                LocalDate borrowDate = LocalDate.now();
+                LocalDate dueDate = borrowDate.plusDays(30); // 30天后到期
+                List<LibraryOp> ops = new ArrayList<>(isbns.size());
+                for (String isbn : isbns) {
+                    applyBorrow(studentId, isbn, borrowDate, dueDate);
+                    ops.add(LibraryOp.borrow(studentId, isbn, borrowDate, dueDate));
+                }
+                return logAll(ops);
+            });
+        } finally {
+            endMutation();
         }
-        users.put(studentId, new User(name, studentId));
-        System.out.println("成功注册用户：" + name + " (学号：" + studentId + ")");
+        awaitDurable(seq);
+        return results;
     }
 
     /**
-     * 用户登录
-     * @param studentId 学号
-     * @return 登录是否成功
+     * 归还图书
+     * @param session 登录会话
+     * @param isbn 要归还的图书ISBN
+     * 查找借阅记录，标记为已归还，并更新库存
+     * @return 归还结果
      */
-    public boolean login(String studentId) {
-        User user = users.get(studentId);
-        if (user != null) {
-            currentUser = user;
-            System.out.println("登录成功！欢迎，" + user.getName());
-            return true;
-        } else {
-            System.out.println("错误：用户不存在！");
-            return false;
+    public OpResult returnBook(Session session, String isbn) {
+        if (!sessions.validate(session)) {
+            return notLoggedIn(LibraryMetrics.RETURN);
         }
+        return returnBook(session.getUser().getStudentId(), isbn);
     }
 
     /**
-     * 用户退出登录
-     * 清除当前登录用户信息
+     * 为指定学生归还图书（可被多个线程同时调用）
+     * @param studentId 借书人学号
+     * @param isbn 要归还的图书ISBN
+     * @return 归还结果
      */
-    public void logout() {
-        if (currentUser != null) {
-            System.out.println("再见，" + currentUser.getName() + "！");
-            currentUser = null;
+    public OpResult returnBook(String studentId, String isbn) {
+        long start = metrics.start();
+        OpResult result = doReturnBook(studentId, isbn);
+        metrics.record(LibraryMetrics.RETURN, start, result);
+        return result;
+    }
+
+    private OpResult doReturnBook(String studentId, String isbn) {
+        LocalDate returnDate = LocalDate.now();
+        long seq;
+        beginMutation();
+        try {
+            synchronized (lockFor(isbn)) {
+                // 取出借阅记录，标记为已归还并更新库存
+                if (applyReturn(studentId, isbn, (int) returnDate.toEpochDay()) == null) {
+                    return OpResult.NOT_BORROWED;
+                }
+                // 有人排队时这本书直接保留给下一位
+                seq = logWithClaims(LibraryOp.returnBook(studentId, isbn, returnDate), isbn);
+            }
+        } finally {
+            endMutation();
         }
+        awaitDurable(seq);
+        return OpResult.OK;
     }
 
     /**
-     * 获取当前登录的用户
-     * @return 当前登录的User对象，如果未登录则返回null
+     * 批量归还当前用户借阅的图书
+     * @param session 登录会话
+     * @param isbns 要归还的图书ISBN
+     * @return 与isbns一一对应的结果，见returnBooks(List, List)
      */
-    public User getCurrentUser() {
-        return currentUser;
+    public OpResult[] returnBooks(Session session, List<String> isbns) {
+        if (!sessions.validate(session)) {
+            return fill(isbns.size(), notLoggedIn(LibraryMetrics.RETURN_BATCH));
+        }
+        return returnBooks(Collections.nCopies(isbns.size(), session.getUser().getStudentId()), isbns);
     }
 
     /**
-     * 显示用户管理菜单
-     * 提供用户管理的各种操作选项
+     * 批量归还（例如处理还书箱里不同学生的一批书），整批要么全部归还，要么一本也不还
+     * 持有所有相关分段锁后先检查每一项都有未归还的借阅记录，全部通过才归还，
+     * 所有归还写成一条日志记录，只等待一次落盘
+     * @param studentIds 每本书的借书人学号
+     * @param isbns 要归还的图书ISBN，与studentIds一一对应
+     * @return 与isbns一一对应的结果；全部是OK表示已归还，
+     *         否则整批都没有归还，不是OK的那几项说明了原因
      */
-    public void showUserManagementMenu() {
-        System.out.println("\n=== 用户管理 ===");
-        System.out.println("1. 注册新用户");
-        System.out.println("2. 查看所有用户");
-        System.out.println("0. 返回主菜单");
+    public OpResult[] returnBooks(List<String> studentIds, List<String> isbns) {
+        long start = metrics.start();
+        OpResult[] results = doReturnBooks(studentIds, isbns);
+        metrics.record(LibraryMetrics.RETURN_BATCH, start, overall(results));
+        return results;
+    }
+
+    private OpResult[] doReturnBooks(List<String> studentIds, List<String> isbns) {
+        if (studentIds.size() != isbns.size()) {
+            throw new IllegalArgumentException("学号和ISBN的数量不一致");
+        }
+        if (isbns.isEmpty()) {
+            return new OpResult[0];
+        }
+
+        OpResult[] results = new OpResult[isbns.size()];
+        LocalDate returnDate = LocalDate.now();
+        long seq;
+        beginMutation();
+        try {
+            seq = withBookLocks(isbns, () -> {
+                boolean ok = true;
+                // 已检查过的(学生编号, 图书编号)，两个编号拼成一个long
+                long[] seen = newKeySet(isbns.size());
+                for (int i = 0; i < isbns.size(); i++) {
+                    int student = this.studentIds.lookup(studentIds.get(i));
+                    int book = isbnIds.lookup(isbns.get(i));
+                    results[i] = student >= 0 && book >= 0 && addKey(seen, (long) student << 32 | book)
+                            && activeLoans.find(student, book) != null
+                            ? OpResult.OK
+                            : OpResult.NOT_BORROWED;
+                    ok &= results[i].isOk();
+                }
+                if (!ok) {
+                    return 0L;
+                }
+
+                List<LibraryOp> ops = new ArrayList<>(isbns.size());
+                for (int i = 0; i < isbns.size(); i++) {
+                    applyReturn(studentIds.get(i), isbns.get(i), (int) returnDate.toEpochDay());
+                    ops.add(LibraryOp.returnBook(studentIds.get(i), isbns.get(i), returnDate));
+                }
+                for (String isbn : new LinkedHashSet<>(isbns)) {
+                    if (holds.hasWaiting(isbn)) {
+                        grantClaims(isbn, ops);
+                    }
+                }
+                return logAll(ops);
+            });
+        } finally {
+            endMutation();
+        }
+        awaitDurable(seq);
+        return results;
     }
 
     /**
-     * 从用户输入注册新用户
-     * 提示用户输入姓名和学号，然后调用registerUser方法
+     * 记录一次因未登录而失败的操作
      */
-    public void registerUserFromInput() {
-        System.out.println("\n=== 注册新用户 ===");
-        Scanner scanner = new Scanner(System.in);
+    private OpResult notLoggedIn(int op) {
+        metrics.record(op, metrics.start(), OpResult.NOT_LOGGED_IN);
+        return OpResult.NOT_LOGGED_IN;
+    }
 
-        System.out.print("请输入姓名：");
-        String name = scanner.nextLine();
+    /**
+     * 批量操作的总体结果：全部成功为OK，否则为第一项失败的原因
+     */
+    private static OpResult overall(OpResult[] results) {
+        for (OpResult result : results) {
+            if (!result.isOk()) {
+                return result;
+            }
+        }
+        return OpResult.OK;
+    }
+
+    private static OpResult[] fill(int size, OpResult result) {
+        OpResult[] results = new OpResult[size];
+        Arrays.fill(results, result);
+        return results;
+    }
 
-        System.out.print("请输入学号：");
-        String studentId = scanner.nextLine();
+    // ==================== 预约 ====================
 
-        registerUser(name, studentId);
+    /**
+     * 预约图书（当前用户）
+     * @param session 登录会话
+     * @param isbn 图书ISBN
+     * @return 预约结果，见placeHold(String, String)
+     */
+    public OpResult placeHold(Session session, String isbn) {
+        if (!sessions.validate(session)) {
+            return OpResult.NOT_LOGGED_IN;
+        }
+        return placeHold(session.getUser().getStudentId(), isbn);
     }
 
     /**
-     * 显示所有用户信息
-     * 遍历users集合，打印每个用户的详细信息
+     * 为指定学生预约图书：排到该书等待队列的队尾
+     * 有书空出来时按排队顺序为学生保留一本，保留期内（默认48小时）只有他能借走这一本
+     * @param studentId 学号
+     * @param isbn 图书ISBN
+     * @return OK；USER_NOT_FOUND、BOOK_NOT_FOUND；ALREADY_BORROWED（正借着这本书）；
+     *         HOLD_EXISTS（已在排队或已为他保留）；BOOK_AVAILABLE（有库存，不需要预约）
      */
-    public void listAllUsers() {
-        System.out.println("\n=== 所有用户 ===");
-        if (users.isEmpty()) {
-            System.out.println("暂无用户");
-            return;
+    public OpResult placeHold(String studentId, String isbn) {
+        if (borrowerHandle(studentId) < 0) {
+            return OpResult.USER_NOT_FOUND;
         }
-        for (User user : users.values()) {
-            System.out.println(user);
+        long seq;
+        beginMutation();
+        try {
+            synchronized (lockFor(isbn)) {
+                Book book = books.get(isbn);
+                if (book == null) {
+                    return OpResult.BOOK_NOT_FOUND;
+                }
+                if (findActiveLoan(studentId, isbn) != null) {
+                    return OpResult.ALREADY_BORROWED;
+                }
+                if (holds.find(studentId, isbn) != null) {
+                    return OpResult.HOLD_EXISTS;
+                }
+                if (book.getStock() > holds.reserved(isbn)) {
+                    return OpResult.BOOK_AVAILABLE;
+                }
+                applyPlaceHold(studentId, isbn);
+                seq = log(LibraryOp.placeHold(studentId, isbn));
+            }
+        } finally {
+            endMutation();
         }
+        awaitDurable(seq);
+        return OpResult.OK;
     }
 
-    // ==================== 借阅管理方法 ====================
+    /**
+     * 取消预约（当前用户）
+     * @param session 登录会话
+     * @param isbn 图书ISBN
+     * @return 取消结果，见cancelHold(String, String)
+     */
+    public OpResult cancelHold(Session session, String isbn) {
+        if (!sessions.validate(session)) {
+            return OpResult.NOT_LOGGED_IN;
+        }
+        return cancelHold(session.getUser().getStudentId(), isbn);
+    }
 
     /**
-     * 借阅图书
-     * @param isbn 要借阅的图书ISBN
-     * 检查用户是否登录、图书是否存在、库存是否充足、是否重复借阅
+     * 取消指定学生的预约；如果已为他保留了一本，这一本转给下一位排队的学生
+     * @param studentId 学号
+     * @param isbn 图书ISBN
+     * @return OK，或NOT_ON_HOLD
+     */
+    public OpResult cancelHold(String studentId, String isbn) {
+        long seq;
+        beginMutation();
+        try {
+            synchronized (lockFor(isbn)) {
+                if (applyCancelHold(studentId, isbn) == null) {
+                    return OpResult.NOT_ON_HOLD;
+                }
+                seq = logWithClaims(LibraryOp.cancelHold(studentId, isbn), isbn);
+            }
+        } finally {
+            endMutation();
+        }
+        awaitDurable(seq);
+        return OpResult.OK;
+    }
+
+    /**
+     * 查询当前用户的预约
+     * @param session 登录会话
+     * @return 预约列表（按预约先后）；会话无效时返回null
      */
-    public void borrowBook(String isbn) {
-        if (currentUser == null) {
-            System.out.println("错误：请先登录！");
+    public List<Hold> getMyHolds(Session session) {
+        if (!sessions.validate(session)) {
+            return null;
+        }
+        return holds.holdsOf(session.getUser().getStudentId());
+    }
+
+    /**
+     * 获取预约队列（查询排队位置、注册预约提醒时使用）
+     * @return 预约队列
+     */
+    public HoldQueue getHoldQueue() {
+        return holds;
+    }
+
+    /**
+     * 保留过期（后台线程调用）：取消这条预约，书转给下一位排队的学生
+     * @param hold 已过期的预约
+     */
+    private void expireClaim(Hold hold) {
+        if (replica) {
             return;
         }
+        String isbn = hold.getIsbn();
+        long seq;
+        beginMutation();
+        try {
+            synchronized (lockFor(isbn)) {
+                // 检查期间可能已经借走或取消了
+                if (holds.find(hold.getStudentId(), isbn) != hold) {
+                    return;
+                }
+                applyCancelHold(hold.getStudentId(), isbn);
+                holds.fireExpired(hold);
+                seq = logWithClaims(LibraryOp.cancelHold(hold.getStudentId(), isbn), isbn);
+            }
+        } finally {
+            endMutation();
+        }
+        awaitDurable(seq);
+    }
 
+    /**
+     * 这本书现在能不能借给该学生：
+     * 库存中除去为预约保留的还有剩余，或者保留的其中一本正是给他的
+     */
+    private boolean hasCopyFor(String studentId, String isbn, Book book) {
+        int stock = book.getStock();
+        if (stock <= 0) {
+            return false;
+        }
+        if (stock > holds.reserved(isbn)) {
+            return true;
+        }
+        Hold hold = holds.find(studentId, isbn);
+        return hold != null && hold.isClaimed();
+    }
+
+    /**
+     * 把空出来的书依次保留给排队的学生（在ISBN锁内调用）
+     * @param isbn 图书ISBN
+     * @param ops 每保留一本生成一条GRANT_HOLD日志记录，加到这里
+     */
+    private void grantClaims(String isbn, List<LibraryOp> ops) {
         Book book = books.get(isbn);
         if (book == null) {
-            System.out.println("错误：找不到该图书！");
             return;
         }
+        while (book.getStock() > holds.reserved(isbn)) {
+            Hold next = holds.nextWaiting(isbn);
+            if (next == null) {
+                return;
+            }
+            long expiresAt = System.currentTimeMillis() + holds.getClaimMillis();
+            applyGrantHold(next.getStudentId(), isbn, expiresAt);
+            ops.add(LibraryOp.grantHold(next.getStudentId(), isbn, expiresAt));
+            holds.fireGranted(next);
+        }
+    }
 
-        if (book.getStock() <= 0) {
-            System.out.println("错误：图书库存不足！");
-            return;
+    /**
+     * 写日志：这次修改之后如果有书可以保留给排队的学生，保留记录和这次修改写成同一条日志记录
+     * 没有人排队时和log()一样
+     */
+    private long logWithClaims(LibraryOp op, String isbn) {
+        if (!holds.hasWaiting(isbn)) {
+            return log(op);
         }
+        List<LibraryOp> ops = new ArrayList<>();
+        ops.add(op);
+        grantClaims(isbn, ops);
+        return ops.size() == 1 ? log(op) : logAll(ops);
+    }
 
-        // 检查是否已经借过这本书且未归还
-        for (LoanRecord record : loanRecords) {
-            if (record.getStudentId().equals(currentUser.getStudentId())
-                    && record.getIsbn().equals(isbn)
-                    && !record.isReturned()) {
-                System.out.println("错误：您已经借过这本书了！");
-                return;
-            }
+    /**
+     * 查询当前用户未归还的借阅记录
+     * @param session 登录会话
+     * @return 未归还的借阅记录；会话无效时返回null
+     */
+    public Collection<LoanRecord> getMyLoans(Session session) {
+        if (!sessions.validate(session)) {
+            return null;
         }
+        int student = studentIds.lookup(session.getUser().getStudentId());
+        if (student < 0) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(activeLoans.loansOf(student)));
+    }
 
-        // 创建借阅记录
-        LocalDate borrowDate = LocalDate.now();
-        LocalDate dueDate = borrowDate.plusDays(30); // 30天后到期
-        LoanRecord record = new LoanRecord(currentUser.getStudentId(), isbn, borrowDate, dueDate);
-        loanRecords.add(record);
+    /**
+     * 查询某个学生对某本书的未归还借阅记录
+     * @param studentId 学号
+     * @param isbn 图书ISBN
+     * @return 未归还的借阅记录，没有则返回null
+     */
+    public LoanRecord findLoan(String studentId, String isbn) {
+        return findActiveLoan(studentId, isbn);
+    }
 
-        // 更新库存
-        book.setStock(book.getStock() - 1);
+    /**
+     * 遍历所有借阅记录（包括已归还的）
+     * 先是归档中的已归还记录（按归还先后顺序），再是未归还的记录
+     * 已归还的记录在遍历时才从归档中解码出来
+     * @return 所有借阅记录，只读
+     */
+    public Iterable<LoanRecord> listLoanRecords() {
+        return concat(archive.view(), openLoans());
+    }
 
-        System.out.println("借阅成功！");
-        System.out.println("图书：" + book.getTitle());
-        System.out.println("到期时间：" + dueDate);
+    /**
+     * 获取已归还借阅的归档
+     * @return 归档
+     */
+    public LoanArchive getArchive() {
+        return archive;
     }
 
     /**
-     * 归还图书
-     * @param isbn 要归还的图书ISBN
-     * 查找借阅记录，标记为已归还，并更新库存
+     * 查询截至某天已逾期的借阅（到期日早于date且未归还）
+     * 只查逾期跟踪中的到期日桶，不遍历已归还的记录
+     * @param date 日期
+     * @return 逾期借阅，按到期日从早到晚排列
      */
-    public void returnBook(String isbn) {
-        if (currentUser == null) {
-            System.out.println("错误：请先登录！");
-            return;
+    public List<LoanRecord> getOverdueLoans(LocalDate date) {
+        return overdue.overdueAsOf(date);
+    }
+
+    /**
+     * 查询今后几天内到期的未归还借阅
+     * @param today 当前日期
+     * @param days 天数
+     * @return 到期日在[today, today + days]之间的借阅
+     */
+    public List<LoanRecord> getLoansDueWithin(LocalDate today, int days) {
+        return overdue.dueBetween(today, today.plusDays(days));
+    }
+
+    /**
+     * 获取性能指标
+     * @return 性能指标
+     */
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 获取逾期跟踪（注册逾期提醒时使用）
+     * @return 逾期跟踪
+     */
+    public OverdueTracker getOverdueTracker() {
+        return overdue;
+    }
+
+    /**
+     * 查找某个学生对某本书的未归还借阅记录
+     * @param studentId 学号
+     * @param isbn 图书ISBN
+     * @return 未归还的借阅记录，没有则返回null
+     */
+    private LoanRecord findActiveLoan(String studentId, String isbn) {
+        int student = studentIds.lookup(studentId);
+        int book = isbnIds.lookup(isbn);
+        return student < 0 || book < 0 ? null : activeLoans.find(student, book);
+    }
+
+    /**
+     * 把一条借阅记录加入未归还索引（借阅时调用）
+     * 同一学生的另一本书可能同时在别的分段锁下借还，OpenLoanTable用CAS保证不会互相覆盖
+     * @param record 新的借阅记录（带有学生编号和图书编号）
+     */
+    private void addActiveLoan(LoanRecord record) {
+        activeLoans.add(record);
+        overdue.add(record);
+    }
+
+    /**
+     * 从未归还索引中移除一条借阅记录（归还时调用）
+     * @param studentId 学号
+     * @param isbn 图书ISBN
+     * @return 被移除的借阅记录，没有则返回null
+     */
+    private LoanRecord removeActiveLoan(String studentId, String isbn) {
+        int student = studentIds.lookup(studentId);
+        int book = isbnIds.lookup(isbn);
+        if (student < 0 || book < 0) {
+            return null;
         }
+        LoanRecord removed = activeLoans.remove(student, book);
+        if (removed != null) {
+            overdue.remove(removed);
+        }
+        return removed;
+    }
 
-        // 查找借阅记录
-        LoanRecord record = null;
-        for (LoanRecord r : loanRecords) {
-            if (r.getStudentId().equals(currentUser.getStudentId())
-                    && r.getIsbn().equals(isbn)
-                    && !r.isReturned()) {
-                record = r;
+    // ==================== 状态修改与持久化 ====================
+    // 下面的apply方法只修改内存状态，不打印、不检查登录、不写日志
+    // 正常操作在锁内调用它们，启动恢复时重放日志也调用它们
+
+    /**
+     * 重放一条日志记录
+     * @param op 日志中的操作
+     */
+    void applyOp(LibraryOp op) {
+        switch (op.getType()) {
+            case LibraryOp.ADD_BOOK:
+                applyAddBook(op.getTitle(), op.getAuthor(), op.getIsbn(), op.getStock());
+                break;
+            case LibraryOp.REMOVE_BOOK:
+                applyRemoveBook(op.getIsbn());
                 break;
+            case LibraryOp.UPDATE_STOCK:
+                applyUpdateStock(op.getIsbn(), op.getStock());
+                break;
+            case LibraryOp.REGISTER_USER:
+                applyRegisterUser(op.getName(), op.getStudentId());
+                break;
+            case LibraryOp.BORROW:
+                applyBorrow(op.getStudentId(), op.getIsbn(), op.getBorrowDate(), op.getDueDate());
+                break;
+            case LibraryOp.RETURN:
+                applyReturn(op.getStudentId(), op.getIsbn(), (int) op.getReturnDay());
+                break;
+            case LibraryOp.PLACE_HOLD:
+                applyPlaceHold(op.getStudentId(), op.getIsbn());
+                break;
+            case LibraryOp.CANCEL_HOLD:
+                applyCancelHold(op.getStudentId(), op.getIsbn());
+                break;
+            case LibraryOp.GRANT_HOLD:
+                applyGrantHold(op.getStudentId(), op.getIsbn(), op.getExpiresAt());
+                break;
+            default:
+                throw new IllegalArgumentException("未知的操作类型：" + op.getType());
+        }
+    }
+
+    private boolean applyAddBook(String title, String author, String isbn, int stock) {
+        // 先分配编号（编号不回收，添加失败也无妨），图书里保存编号表中的那个ISBN实例
+        isbn = isbnIds.nameOf(isbnIds.intern(isbn));
+        if (!addToStore(new Book(title, author, isbn, stock))) {
+            return false;
+        }
+        titleIndex.add(isbn, title);
+        authorIndex.add(isbn, author);
+        int id = isbnIds.lookup(isbn);
+        isbnPrefixes.add(isbn, id);
+        titlePrefixes.add(title, id);
+        return true;
+    }
+
+    /**
+     * 经过ISBN过滤器放入图书存储：过滤器确认ISBN一定不存在时不再在存储里查重
+     * 调用者持有这本书的ISBN锁，同一个ISBN的添加是串行的
+     */
+    private boolean addToStore(Book book) {
+        return bookKeys.add(book.getIsbn(), maybePresent -> maybePresent ? books.add(book) : books.addAbsent(book));
+    }
+
+    private Book applyRemoveBook(String isbn) {
+        Book removed = books.remove(isbn);
+        if (removed != null) {
+            titleIndex.remove(isbn, removed.getTitle());
+            authorIndex.remove(isbn, removed.getAuthor());
+            int id = isbnIds.lookup(isbn);
+            // 外部存储中还没建索引的图书没有编号，也不在前缀索引里
+            if (id >= 0) {
+                isbnPrefixes.remove(isbn, id);
+                titlePrefixes.remove(removed.getTitle(), id);
+                statistics.remove(id);
             }
+            holds.removeAll(isbn);
         }
+        return removed;
+    }
 
-        if (record == null) {
-            System.out.println("错误：您没有借过这本书！");
-            return;
+    private Book applyUpdateStock(String isbn, int newStock) {
+        Book book = books.get(isbn);
+        if (book != null) {
+            book.setStock(newStock);
+        }
+        return book;
+    }
+
+    private boolean applyRegisterUser(String name, String studentId) {
+        // 用户表的putIfAbsent本身就是一次查找，这里只让过滤器和用户表保持一致
+        if (!userKeys.add(studentId, maybePresent -> users.putIfAbsent(studentId, new User(name, studentId)) == null)) {
+            return false;
+        }
+        // 先放入用户再分配编号：借书时按编号判断用户是否存在，有编号的用户一定已经在表里
+        // 学号第一次出现，编号表保存的就是这个User里的学号实例
+        studentIds.intern(studentId);
+        return true;
+    }
+
+    private LoanRecord applyBorrow(String studentId, String isbn, LocalDate borrowDate, LocalDate dueDate) {
+        LoanRecord record = internLoan(studentId, isbn, borrowDate, dueDate);
+        addActiveLoan(record);
+        // 借走的是为他保留的那一本，预约到此完成
+        holds.remove(studentId, isbn);
+        Book book = books.get(isbn);
+        recordBorrow(record.getBookHandle(), book);
+        if (book != null) {
+            book.setStock(book.getStock() - 1);
         }
+        return record;
+    }
 
-        // 标记为已归还
-        record.setReturned(true);
+    /**
+     * 借阅次数加1，同时更新前缀联想索引中的排序
+     * @param bookId 图书编号
+     * @param book 图书，已删除的为null
+     */
+    private void recordBorrow(int bookId, Book book) {
+        long count = statistics.recordBorrow(bookId);
+        if (book != null) {
+            isbnPrefixes.recordBorrow(book.getIsbn(), bookId, count);
+            titlePrefixes.recordBorrow(book.getTitle(), bookId, count);
+        }
+    }
 
-        // 更新库存
+    private LoanRecord applyReturn(String studentId, String isbn, int returnDay) {
+        LoanRecord record = removeActiveLoan(studentId, isbn);
+        if (record == null) {
+            return null;
+        }
+        record.markReturned(returnDay);
+        archive.add(record);
+        statistics.recordReturn();
         Book book = books.get(isbn);
         if (book != null) {
             book.setStock(book.getStock() + 1);
         }
+        return record;
+    }
+
+    private Hold applyPlaceHold(String studentId, String isbn) {
+        return holds.place(studentId, isbn);
+    }
+
+    private Hold applyCancelHold(String studentId, String isbn) {
+        return holds.remove(studentId, isbn);
+    }
 
-        System.out.println("归还成功！图书：" + book.getTitle());
+    private void applyGrantHold(String studentId, String isbn, long expiresAt) {
+        Hold hold = holds.find(studentId, isbn);
+        if (hold != null && !hold.isClaimed()) {
+            holds.grant(hold, expiresAt);
+        }
     }
 
     /**
-     * 显示当前用户的借阅记录
-     * 只显示未归还的图书
+     * 加载快照（启动恢复时调用，此时还没有其他线程）
+     * @param snapshot 快照
      */
-    public void showMyLoans() {
-        if (currentUser == null) {
-            System.out.println("错误：请先登录！");
-            return;
+    void restoreSnapshot(SnapshotFile snapshot) {
+        for (Book book : snapshot.getBooks()) {
+            // 图书由存储自己保存时，快照里只有还没写入存储的库存，书已经在存储里
+            if (!applyAddBook(book.getTitle(), book.getAuthor(), book.getIsbn(), book.getStock())) {
+                applyUpdateStock(book.getIsbn(), book.getStock());
+            }
         }
-
-        System.out.println("\n=== 我的借阅记录 ===");
-        boolean hasLoans = false;
-        for (LoanRecord record : loanRecords) {
-            if (record.getStudentId().equals(currentUser.getStudentId()) && !record.isReturned()) {
-                Book book = books.get(record.getIsbn());
-                System.out.println("图书：" + book.getTitle() +
-                        " | 借阅日期：" + record.getBorrowDate() +
-                        " | 到期日期：" + record.getDueDate());
-                hasLoans = true;
+        for (User user : snapshot.getUsers()) {
+            applyRegisterUser(user.getName(), user.getStudentId());
+        }
+        for (LoanRecord record : snapshot.getLoanRecords()) {
+            if (record.isReturned()) {
+                recordBorrow(isbnIds.intern(record.getIsbn()), books.get(record.getIsbn()));
+                archive.add(record);
+                statistics.recordReturn();
+            } else {
+                LoanRecord open = internLoan(record.getStudentId(), record.getIsbn(),
+                        record.getBorrowDate(), record.getDueDate());
+                recordBorrow(open.getBookHandle(), books.get(open.getIsbn()));
+                addActiveLoan(open);
             }
         }
-        if (!hasLoans) {
-            System.out.println("暂无借阅记录");
+        // 预约按排队先后重新排队，再恢复保留
+        for (Hold hold : snapshot.getHolds()) {
+            applyPlaceHold(hold.getStudentId(), hold.getIsbn());
+            if (hold.isClaimed()) {
+                applyGrantHold(hold.getStudentId(), hold.getIsbn(), hold.getClaimExpiresAt());
+            }
         }
     }
 
     /**
-     * 显示借阅管理菜单
-     * 提供借阅相关的各种操作选项
+     * 拷贝当前状态发给新的只读副本（见ReplicationServer）
+     * 与做快照一样在暂停修改的片刻内拷贝，快照的generation字段存放这份状态对应的最后一条事件序号，
+     * 副本从下一条事件开始接着应用
+     * @return 快照内容
      */
-    public void showBorrowManagementMenu() {
-        System.out.println("\n=== 借阅管理 ===");
-        System.out.println("1. 借阅图书");
-        System.out.println("2. 归还图书");
-        System.out.println("3. 查看我的借阅记录");
-        System.out.println("4. 查看所有借阅记录（管理员）");
-        System.out.println("0. 返回主菜单");
+    SnapshotFile copyStateForReplica() {
+        if (persistence == null || ledger == null) {
+            throw new IllegalStateException("主馆需要数据目录和事件账本");
+        }
+        if (books.isPersistent()) {
+            throw new IllegalStateException("图书在外部存储中的图书馆不能作为主馆");
+        }
+        return persistence.exclusive(() -> copyState(ledger.getLastSequence()));
     }
 
     /**
-     * 显示所有借阅记录（管理员功能）
-     * 显示所有用户的借阅记录，包括已归还和未归还的
+     * 应用主馆发来的一次修改（只读副本上由ReplicaFollower按事件顺序调用）
+     * 和主馆一样在该书的锁内修改
+     * @param op 修改操作
      */
-    public void showAllLoanRecords() {
-        System.out.println("\n=== 所有借阅记录 ===");
-        if (loanRecords.isEmpty()) {
-            System.out.println("暂无借阅记录");
+    void applyReplicated(LibraryOp op) {
+        if (op.getIsbn() == null) {
+            applyOp(op);
             return;
         }
-
-        for (LoanRecord record : loanRecords) {
-            Book book = books.get(record.getIsbn());
-            User user = users.get(record.getStudentId());
-            String status = record.isReturned() ? "已归还" : "未归还";
-
-            System.out.println("用户：" + (user != null ? user.getName() : "未知") +
-                    " | 图书：" + (book != null ? book.getTitle() : "未知") +
-                    " | 借阅日期：" + record.getBorrowDate() +
-                    " | 到期日期：" + record.getDueDate() +
-                    " | 状态：" + status);
+        synchronized (lockFor(op.getIsbn())) {
+            applyOp(op);
         }
     }
 
-    // ==================== 查询功能 ====================
-
     /**
-     * 显示图书查询菜单
-     * 提供不同的查询方式选项
+     * 借书、预约的学生的编号
+     * 分片上学生可能注册在别的分片，第一次见到时分配编号；否则必须是已注册的用户
+     * @return 编号，用户不存在返回-1
      */
-    public void showSearchMenu() {
-        System.out.println("\n=== 图书查询 ===");
-        System.out.println("1. 按书名查询");
-        System.out.println("2. 按作者查询");
-        System.out.println("3. 按ISBN查询");
-        System.out.println("0. 返回主菜单");
+    private int borrowerHandle(String studentId) {
+        return shard ? studentIds.intern(studentId) : studentIds.lookup(studentId);
     }
 
     /**
-     * 按书名查询图书
-     * 支持模糊查询，不区分大小写
+     * 创建带内部编号的借阅记录，学号和ISBN换成编号表中的字符串实例
      */
-    public void searchByTitle() {
-        System.out.println("\n=== 按书名查询 ===");
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("请输入书名关键词：");
-        String keyword = scanner.nextLine().toLowerCase();
+    private LoanRecord internLoan(String studentId, String isbn, LocalDate borrowDate, LocalDate dueDate) {
+        int student = studentIds.intern(studentId);
+        int book = isbnIds.intern(isbn);
+        return new LoanRecord(studentIds.nameOf(student), isbnIds.nameOf(book), borrowDate, dueDate, student, book);
+    }
 
-        System.out.println("\n查询结果：");
-        boolean found = false;
-        for (Book book : books.values()) {
-            if (book.getTitle().toLowerCase().contains(keyword)) {
-                System.out.println(book);
-                found = true;
+    /**
+     * 拷贝当前的全部状态用于写快照（持久化引擎在写锁内调用，此时没有进行中的修改）
+     * @param generation 快照之后的日志代号
+     * @return 快照内容
+     */
+    SnapshotFile copyState(long generation) {
+        List<Book> bookCopies = new ArrayList<>();
+        if (books.isPersistent()) {
+            // 图书在存储里，快照只带上还没写入存储的库存（书名、作者也带上，恢复时这本书可能已被删除）
+            for (Map.Entry<String, Integer> entry : books.pendingStock().entrySet()) {
+                Book book = books.get(entry.getKey());
+                if (book != null) {
+                    bookCopies.add(new Book(book.getTitle(), book.getAuthor(), book.getIsbn(), entry.getValue()));
+                }
+            }
+        } else {
+            for (Book book : books.values()) {
+                bookCopies.add(new Book(book.getTitle(), book.getAuthor(), book.getIsbn(), book.getStock()));
             }
         }
-        if (!found) {
-            System.out.println("未找到相关图书");
+        List<User> userCopies = new ArrayList<>(users.values());
+        // 归档部分直接用只读视图，写快照时边解码边写，不在堆内展开
+        List<LoanRecord> openCopies = new ArrayList<>();
+        for (LoanRecord record : openLoans()) {
+            openCopies.add(new LoanRecord(record.getStudentId(), record.getIsbn(),
+                    record.getBorrowDate(), record.getDueDate()));
+        }
+        List<Hold> holdCopies = new ArrayList<>(holds.size());
+        for (Hold hold : holds.all()) {
+            holdCopies.add(new Hold(hold.getStudentId(), hold.getIsbn(), hold.getClaimExpiresAt()));
         }
+        return new SnapshotFile(generation, bookCopies, userCopies, concat(archive.view(), openCopies), holdCopies);
     }
 
     /**
-     * 按作者查询图书
-     * 支持模糊查询，不区分大小写
+     * 快照已经落盘（持久化引擎在写完快照后调用）：把快照里的库存写入图书存储并落盘
+     * 之后这些库存不用再进下一次快照；在每本书的锁内写，不会和这本书的删除、重新添加交错
+     * @param snapshot 刚写完的快照
      */
-    public void searchByAuthor() {
-        System.out.println("\n=== 按作者查询 ===");
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("请输入作者关键词：");
-        String keyword = scanner.nextLine().toLowerCase();
-
-        System.out.println("\n查询结果：");
-        boolean found = false;
-        for (Book book : books.values()) {
-            if (book.getAuthor().toLowerCase().contains(keyword)) {
-                System.out.println(book);
-                found = true;
+    void checkpointWritten(SnapshotFile snapshot) throws IOException {
+        if (!books.isPersistent()) {
+            return;
+        }
+        for (Book book : snapshot.getBooks()) {
+            synchronized (lockFor(book.getIsbn())) {
+                books.flushStock(book.getIsbn(), book.getStock());
             }
         }
-        if (!found) {
-            System.out.println("未找到相关图书");
+        books.force();
+    }
+
+    private void beginMutation() {
+        if (persistence != null) {
+            persistence.beginMutation();
         }
     }
 
     /**
-     * 按ISBN精确查询图书
-     * @param isbn 图书ISBN
+     * 修改结束：先把这次修改分配了序号的事件放进事件账本（此时已经释放了图书的锁，账本满时在这里等待），再允许做快照
+     * 快照拷贝状态时没有分配了序号却还没发布的事件，副本的快照序号（见copyStateForReplica）与事件对得上
      */
-    public void searchByIsbn() {
-        System.out.println("\n=== 按ISBN查询 ===");
-        Scanner scanner = new Scanner(System.in);
-        System.out.print("请输入ISBN：");
-        String isbn = scanner.nextLine();
+    private void endMutation() {
+        List<LedgerEvent> events = unpublished.get();
+        try {
+            if (!events.isEmpty()) {
+                ledger.publish(events);
+            }
+        } finally {
+            events.clear();
+            if (persistence != null) {
+                persistence.endMutation();
+            }
+        }
+    }
 
-        Book book = books.get(isbn);
-        if (book != null) {
-            System.out.println("\n查询结果：");
-            System.out.println(book);
-        } else {
-            System.out.println("未找到该图书");
+    /**
+     * 写日志，同时在事件账本里分配序号（在该书的锁内调用，事件顺序与修改顺序一致；事件在endMutation()里发布）
+     */
+    private long log(LibraryOp op) {
+        EventLedger events = ledger;
+        if (events != null) {
+            events.claim(op, unpublished.get());
         }
+        return persistence == null ? 0 : persistence.append(op);
     }
 
-    // ==================== 统计功能 ====================
+    private long logAll(List<LibraryOp> ops) {
+        EventLedger events = ledger;
+        if (events != null) {
+            events.claimAll(ops, unpublished.get());
+        }
+        return persistence == null ? 0 : persistence.appendAll(ops);
+    }
+
+    private void awaitDurable(long seq) {
+        if (persistence != null && seq > 0) {
+            persistence.awaitDurable(seq);
+        }
+    }
+
+    // ==================== 查询功能 ====================
+
+    /**
+     * 按书名关键词查找图书（不区分大小写的子串匹配）
+     * @param keyword 书名关键词
+     * @return 匹配的图书列表
+     */
+    public List<Book> findByTitle(String keyword) {
+        long start = metrics.start();
+        List<Book> result = findByIndex(titleIndex, keyword, true);
+        metrics.record(LibraryMetrics.FIND_BY_TITLE, start, OpResult.OK);
+        return result;
+    }
+
+    /**
+     * 按作者关键词查找图书（不区分大小写的子串匹配）
+     * @param keyword 作者关键词
+     * @return 匹配的图书列表
+     */
+    public List<Book> findByAuthor(String keyword) {
+        long start = metrics.start();
+        List<Book> result = findByIndex(authorIndex, keyword, false);
+        metrics.record(LibraryMetrics.FIND_BY_AUTHOR, start, OpResult.OK);
+        return result;
+    }
 
     /**
-     * 显示系统统计信息
-     * 包括图书总数、用户总数、借阅统计、最受欢迎图书等
+     * ISBN联想：以输入开头的图书，按借阅次数从多到少（忽略'-'和空格，"9787115"和"978-7-115"一样）
+     * @param prefix 已输入的部分ISBN
+     * @param limit 最多几条（不超过PrefixIndex.MAX_COMPLETIONS）
+     * @return 联想到的图书
      */
-    public void showStatistics() {
-        System.out.println("\n=== 系统统计 ===");
-        System.out.println("图书总数：" + books.size());
-        System.out.println("用户总数：" + users.size());
+    public List<Book> suggestByIsbn(String prefix, int limit) {
+        return suggest(isbnPrefixes, prefix, limit);
+    }
 
-        int totalLoans = 0;
-        int activeLoans = 0;
-        for (LoanRecord record : loanRecords) {
-            totalLoans++;
-            if (!record.isReturned()) {
-                activeLoans++;
+    /**
+     * 书名联想：书名以输入开头（不区分大小写）的图书，按借阅次数从多到少
+     * @param prefix 已输入的书名开头
+     * @param limit 最多几条（不超过PrefixIndex.MAX_COMPLETIONS）
+     * @return 联想到的图书
+     */
+    public List<Book> suggestByTitle(String prefix, int limit) {
+        return suggest(titlePrefixes, prefix, limit);
+    }
+
+    /**
+     * 联想，结果写入调用者反复使用的out，不分配对象（逐字输入时每敲一个字调用一次）
+     * @param prefix 已输入的部分
+     * @param byIsbn true按ISBN，false按书名
+     * @param limit 最多几条
+     * @param out 结果，用out.next()、out.isbn()读取
+     * @return 结果条数
+     */
+    public int complete(CharSequence prefix, boolean byIsbn, int limit, PrefixIndex.Completions out) {
+        long start = metrics.start();
+        int count = (byIsbn ? isbnPrefixes : titlePrefixes).complete(prefix, limit, out);
+        metrics.record(LibraryMetrics.SUGGEST, start, OpResult.OK);
+        return count;
+    }
+
+    private List<Book> suggest(PrefixIndex index, String prefix, int limit) {
+        long start = metrics.start();
+        PrefixIndex.Completions completions = new PrefixIndex.Completions();
+        index.complete(prefix, limit, completions);
+        List<Book> result = new ArrayList<>(completions.size());
+        while (completions.next()) {
+            Book book = books.get(completions.isbn());
+            if (book != null) {
+                result.add(book);
             }
         }
-        System.out.println("总借阅次数：" + totalLoans);
-        System.out.println("当前借出图书：" + activeLoans);
+        metrics.record(LibraryMetrics.SUGGEST, start, OpResult.OK);
+        return result;
+    }
 
-        // 显示最受欢迎的图书
-        Map<String, Integer> bookPopularity = new HashMap<>();
-        for (LoanRecord record : loanRecords) {
-            String isbn = record.getIsbn();
-            bookPopularity.put(isbn, bookPopularity.getOrDefault(isbn, 0) + 1);
+    /**
+     * 用n-gram索引查出候选图书，再核对是否真的包含关键词
+     * @param index 书名或作者索引
+     * @param keyword 关键词
+     * @param byTitle true按书名核对，false按作者核对
+     * @return 匹配的图书列表
+     */
+    private List<Book> findByIndex(NGramIndex index, String keyword, boolean byTitle) {
+        // 整次查询用同一个目录版本
+        BookCatalog catalog = books.snapshot();
+        List<String> candidates = index.candidates(keyword);
+        if (candidates == null) {
+            // 空关键词匹配所有图书
+            List<Book> all = new ArrayList<>(catalog.size());
+            for (Book book : catalog.values()) {
+                all.add(book);
+            }
+            return all;
         }
+        String query = NGramIndex.normalize(keyword);
+        List<Book> result = new ArrayList<>();
+        for (String isbn : candidates) {
+            Book book = catalog.get(isbn);
+            if (book == null) {
+                continue;
+            }
+            String text = byTitle ? book.getTitle() : book.getAuthor();
+            if (query.length() <= 2 || NGramIndex.normalize(text).contains(query)) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    // ==================== 统计功能 ====================
 
-        if (!bookPopularity.isEmpty()) {
-            System.out.println("\n最受欢迎的图书：");
-            bookPopularity.entrySet().stream()
-                    .sorted((e1, e2) -> e2.getValue().compareTo(e1.getValue()))
-                    .limit(3)
-                    .forEach(entry -> {
-                        Book book = books.get(entry.getKey());
-                        if (book != null) {
-                            System.out.println(book.getTitle() + " - 借阅次数：" + entry.getValue());
-                        }
-                    });
+    /**
+     * 生成系统统计
+     * 借阅次数直接读计数器，不再遍历借阅记录
+     * @return 统计结果，最受欢迎的图书最多3本
+     */
+    public StatisticsReport getStatisticsReport() {
+        BookCatalog catalog = books.snapshot();
+        List<Map.Entry<Book, Long>> popular = new ArrayList<>();
+        // 取整个候选集合，跳过目录里已经没有的书（例如刚下架），再取前3本
+        for (Map.Entry<String, Long> entry : statistics.topBooks(LoanStatistics.TOP_CAPACITY)) {
+            Book book = catalog.get(entry.getKey());
+            if (book != null) {
+                popular.add(new AbstractMap.SimpleEntry<>(book, entry.getValue()));
+                if (popular.size() == 3) {
+                    break;
+                }
+            }
         }
+        return new StatisticsReport(catalog.size(), users.size(),
+                statistics.getTotalLoans(), statistics.getActiveLoans(), popular);
+    }
+
+    /**
+     * 分析全部借阅历史（每月借阅次数、作者排行、平均借阅天数、各组学生逾期率、从未被借过的图书）
+     * 在公共fork-join线程池中按归档分段并行计算
+     * @param today 当前日期（判断未归还的借阅是否逾期）
+     * @param cohortPrefix 按学号前几位分组
+     * @return 分析结果
+     */
+    public AnalyticsReport getAnalyticsReport(LocalDate today, int cohortPrefix) {
+        return getAnalyticsReport(ForkJoinPool.commonPool(), today, cohortPrefix);
+    }
+
+    /**
+     * 在指定的线程池中分析全部借阅历史
+     * @param pool fork-join线程池
+     * @param today 当前日期
+     * @param cohortPrefix 按学号前几位分组
+     * @return 分析结果
+     */
+    public AnalyticsReport getAnalyticsReport(ForkJoinPool pool, LocalDate today, int cohortPrefix) {
+        // 先取目录和归档，再取未归还借阅
+        BookCatalog catalog = books.snapshot();
+        LoanArchive.Slice history = archive.slice();
+        return new LoanAnalytics(pool, today, cohortPrefix)
+                .run(catalog, history, openLoans(), LoanAnalytics.DEFAULT_TOP_AUTHORS);
+    }
+
+    /**
+     * 获取借阅统计计数器
+     * @return 借阅统计
+     */
+    public LoanStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * 收集所有未归还的借阅记录
+     * @return 未归还借阅记录的列表（只复制引用）
+     */
+    private List<LoanRecord> openLoans() {
+        List<LoanRecord> result = new ArrayList<>();
+        activeLoans.forEach(result::add);
+        return result;
+    }
+
+    /**
+     * 把两个集合首尾相接成一个只读集合，不复制元素
+     */
+    private static <T> Collection<T> concat(Collection<T> first, Collection<T> second) {
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                Iterator<T> a = first.iterator();
+                Iterator<T> b = second.iterator();
+                return new Iterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        return a.hasNext() || b.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return a.hasNext() ? a.next() : b.next();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return first.size() + second.size();
+            }
+        };
+    }
+
+    /**
+     * 包装成只读的Iterable，防止调用者通过iterator.remove()绕过锁修改数据
+     */
+    private static <T> Iterable<T> readOnly(Iterable<T> source) {
+        return () -> {
+            Iterator<T> it = source.iterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    return it.next();
+                }
+            };
+        };
     }
-}
\ No newline at end of file
+}
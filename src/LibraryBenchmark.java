@@ -0,0 +1,459 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 图书馆热点操作的性能基准测试
+ * 覆盖借书、还书、按书名/作者查询、统计汇总、注册用户，以及借阅历史分析
+ * 按不同的目录规模、借阅历史规模、线程数组合运行，每组先预热再测量，输出：
+ * 吞吐量（ops/s）、延迟分位数（p50/p90/p99/p99.9/max）、每次操作分配的字节数和GC次数
+ * borrowBook和returnBook每轮都是借一本再还一本，吞吐量按轮计算，延迟只统计各自那一半
+ *
+ * 用法：java LibraryBenchmark [--books=1000,100000] [--loans=100000] [--threads=1,8]
+ *                            [--bench=borrow,lanes,search,suggest,miss,stats,register,analytics] [--warmup=2] [--seconds=5]
+ *                            [--metrics=on,off] [--ledger=目录]
+ * lanes是经StudentLanes按学号分道的借还书，所有线程共用一组学生：laneCall依次等待借书、还书完成（网络服务的用法，
+ * 道空闲时在调用线程里执行），lanePipelined提交借书后不等待就提交还书（交给道的虚拟线程执行）；
+ * 和borrow的两项耗时之和比较就是分道的开销
+ * suggest是输入ISBN、书名的开头联想（complete，每个线程反复使用自己的结果对象，B/op应为0）
+ * miss是不存在的键：按不存在的ISBN查书、用不存在的学号登录（大多由KeyFilter直接挡掉），以及添加新ISBN的图书
+ * analytics由一个线程发起，线程数是fork-join线程池的大小，用来看并行分析随核数的扩展情况；
+ * 它的B/op只统计发起线程的分配
+ * --metrics=on,off 时每组分别在开启和关闭性能指标（LibraryMetrics）的情况下各测一次，用来比较指标记录的开销
+ * --ledger=目录 时给每个被测图书馆接上事件账本（在该目录下新建子目录），借还书的耗时包含发布事件；
+ * 此时可以加上--bench=replay：每次从账本中随机一个序号开始读REPLAY_BATCH条事件（较早的从分段文件读），
+ * 应排在borrow之后，让账本里先有事件
+ * 大规模（例如--books=10000000 --loans=100000000）需要相应调大堆内存（-Xmx）
+ */
+public class LibraryBenchmark {
+    // 每个线程最多保留的延迟样本数
+    private static final int MAX_SAMPLES = 2_000_000;
+
+    // replay基准每次读的事件数
+    private static final int REPLAY_BATCH = 1000;
+
+    // suggest基准预先生成的前缀数
+    private static final int PREFIXES = 1024;
+
+    // miss基准预先生成的不存在的键数
+    private static final int MISSING_KEYS = 65536;
+
+    // 生成书名和作者用的词表
+    private static final String[] WORDS = {
+            "java", "算法", "数据", "结构", "网络", "系统", "设计", "模式", "编程", "思想",
+            "database", "network", "compiler", "导论", "分析", "原理", "实践", "linux", "python", "机器"
+    };
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLine.parseArgs(args);
+        int[] bookSizes = parseInts(options.getOrDefault("books", "1000,100000"));
+        int[] loanSizes = parseInts(options.getOrDefault("loans", "100000"));
+        int[] threadCounts = parseInts(options.getOrDefault("threads",
+                "1," + Runtime.getRuntime().availableProcessors()));
+        List<String> benches = Arrays.asList(options.getOrDefault("bench", "borrow,search,stats,register").split(","));
+        long warmupMillis = Long.parseLong(options.getOrDefault("warmup", "2")) * 1000;
+        long measureMillis = Long.parseLong(options.getOrDefault("seconds", "5")) * 1000;
+        List<String> metricsModes = Arrays.asList(options.getOrDefault("metrics", "on").split(","));
+        String ledgerDir = options.get("ledger");
+
+        System.out.printf("%-14s %9s %10s %4s %7s %14s %9s %9s %9s %9s %10s %10s %6s%n",
+                "benchmark", "books", "loans", "thr", "metrics", "ops/s", "p50(us)", "p90(us)", "p99(us)",
+                "p99.9(us)", "max(us)", "B/op", "gc");
+        for (int books : bookSizes) {
+            for (int loans : loanSizes) {
+                Library library = buildLibrary(books, loans);
+                if (ledgerDir != null) {
+                    Files.createDirectories(Paths.get(ledgerDir));
+                    library.attachLedger(new EventLedger(Files.createTempDirectory(Paths.get(ledgerDir), "bench-")));
+                }
+                for (String mode : metricsModes) {
+                    library.getMetrics().setEnabled("on".equals(mode.trim()));
+                    for (int threads : threadCounts) {
+                        if (benches.contains("borrow")) {
+                            run("borrowBook", library, books, loans, threads, warmupMillis, measureMillis,
+                                    borrowReturn(library, books, threads, true));
+                            run("returnBook", library, books, loans, threads, warmupMillis, measureMillis,
+                                    borrowReturn(library, books, threads, false));
+                        }
+                        if (benches.contains("lanes")) {
+                            StudentLanes lanes = new StudentLanes();
+                            run("laneCall", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> laneBorrowReturn(library, lanes, books, threads, r, false)));
+                            run("lanePipelined", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> laneBorrowReturn(library, lanes, books, threads, r, true)));
+                            lanes.close();
+                        }
+                        if (benches.contains("search")) {
+                            run("searchByTitle", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.findByTitle(randomKeyword(r))));
+                            run("searchByAuthor", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.findByAuthor(randomKeyword(r))));
+                        }
+                        if (benches.contains("suggest")) {
+                            String[] isbnPrefixes = isbnPrefixes(books);
+                            String[] titlePrefixes = titlePrefixes();
+                            PrefixIndex.Completions[] outs = new PrefixIndex.Completions[threads];
+                            for (int t = 0; t < threads; t++) {
+                                outs[t] = new PrefixIndex.Completions();
+                            }
+                            run("suggestIsbn", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.complete(isbnPrefixes[r.nextInt(PREFIXES)], true,
+                                            PrefixIndex.MAX_COMPLETIONS, outs[t])));
+                            run("suggestTitle", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.complete(titlePrefixes[r.nextInt(PREFIXES)], false,
+                                            PrefixIndex.MAX_COMPLETIONS, outs[t])));
+                        }
+                        if (benches.contains("miss")) {
+                            String[] missingIsbns = new String[MISSING_KEYS];
+                            String[] missingIds = new String[MISSING_KEYS];
+                            for (int i = 0; i < MISSING_KEYS; i++) {
+                                missingIsbns[i] = isbnOf(books + i);
+                                missingIds[i] = "M" + i;
+                            }
+                            run("getBookMiss", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.getBook(missingIsbns[r.nextInt(MISSING_KEYS)])));
+                            run("loginMiss", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.login(missingIds[r.nextInt(MISSING_KEYS)])));
+                            run("addBookNew", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.addBook("bench", "bench", "N" + t + "-" + r.nextLong(), 1)));
+                        }
+                        if (benches.contains("stats")) {
+                            run("showStatistics", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.getStatisticsReport()));
+                        }
+                        if (benches.contains("register")) {
+                            run("registerUser", library, books, loans, threads, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.registerUser("bench", "R" + t + "-" + r.nextLong())));
+                        }
+                        if (benches.contains("replay") && library.getLedger() != null) {
+                            EventLedger ledger = library.getLedger();
+                            ledger.flush();
+                            if (ledger.getLastSequence() > 0) {
+                                run("ledgerReplay", library, books, loans, threads, warmupMillis, measureMillis,
+                                        whole((t, r) -> replay(ledger, r)));
+                            }
+                        }
+                        if (benches.contains("analytics")) {
+                            ForkJoinPool pool = new ForkJoinPool(threads);
+                            LocalDate today = LocalDate.now();
+                            run("analytics", library, books, loans, threads, 1, warmupMillis, measureMillis,
+                                    whole((t, r) -> library.getAnalyticsReport(pool, today,
+                                            LoanAnalytics.DEFAULT_COHORT_PREFIX)));
+                            pool.shutdown();
+                        }
+                    }
+                }
+                library.close();
+            }
+        }
+    }
+
+    /**
+     * 一次被测操作
+     */
+    private interface Operation {
+        /**
+         * 执行一次操作
+         * @param thread 线程编号
+         * @param random 该线程的随机数
+         * @return 不计入延迟的准备时间（纳秒），一般为0
+         */
+        long run(int thread, Random random);
+    }
+
+    /**
+     * 无返回值的被测操作
+     */
+    private interface SimpleOperation {
+        void run(int thread, Random random);
+    }
+
+    /**
+     * 把无返回值的操作包装成Operation（整段时间都计入延迟）
+     */
+    private static Operation whole(SimpleOperation op) {
+        return (t, r) -> {
+            op.run(t, r);
+            return 0;
+        };
+    }
+
+    /**
+     * 借还书基准：每次循环先借一本再还掉
+     * 每个线程使用自己的一组学生，不会出现重复借阅
+     * @param measureBorrow true只计借书的耗时，false只计还书的耗时
+     */
+    private static Operation borrowReturn(Library library, int books, int threads, boolean measureBorrow) {
+        return (t, r) -> {
+            String studentId = "S" + (t + threads * r.nextInt(1000));
+            String isbn = isbnOf(r.nextInt(books));
+            long start = System.nanoTime();
+            library.borrowBook(studentId, isbn);
+            long middle = System.nanoTime();
+            library.returnBook(studentId, isbn);
+            long end = System.nanoTime();
+            // 返回不计入本项测量的那一半时间
+            return measureBorrow ? end - middle : middle - start;
+        };
+    }
+
+    /**
+     * 分道借还：还书总是等待完成（同一条道里借书一定先执行完）
+     * @param pipelined 借书只提交不等待
+     */
+    private static void laneBorrowReturn(Library library, StudentLanes lanes, int books, int threads, Random random,
+                                         boolean pipelined) {
+        String studentId = "S" + random.nextInt(1000 * threads);
+        String isbn = isbnOf(random.nextInt(books));
+        if (pipelined) {
+            lanes.submit(studentId, () -> library.borrowBook(studentId, isbn));
+        } else {
+            lanes.call(studentId, () -> library.borrowBook(studentId, isbn));
+        }
+        lanes.call(studentId, () -> library.returnBook(studentId, isbn));
+    }
+
+    /**
+     * 从账本中随机一个序号开始读REPLAY_BATCH条事件
+     */
+    private static void replay(EventLedger ledger, Random random) {
+        long first = ledger.getFirstSequence();
+        long from = first + (long) (random.nextDouble() * (ledger.getLastSequence() - first + 1));
+        try (EventLedger.Subscription subscription = ledger.subscribe(from)) {
+            subscription.poll(REPLAY_BATCH, 0);
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 运行一组测量：预热后多线程同时执行，统计吞吐量、延迟、内存分配
+     */
+    private static void run(String name, Library library, int books, int loans, int threads,
+                            long warmupMillis, long measureMillis, Operation op) throws Exception {
+        run(name, library, books, loans, threads, threads, warmupMillis, measureMillis, op);
+    }
+
+    /**
+     * 运行一组测量
+     * @param threads 输出中显示的线程数
+     * @param callers 同时执行操作的线程数
+     */
+    private static void run(String name, Library library, int books, int loans, int threads, int callers,
+                            long warmupMillis, long measureMillis, Operation op) throws Exception {
+        // 预热
+        runThreads(callers, warmupMillis, op, false);
+
+        long gcBefore = gcCount();
+        Worker[] workers = runThreads(callers, measureMillis, op, true);
+        long gcAfter = gcCount();
+
+        long ops = 0;
+        long allocated = 0;
+        long elapsed = 0;
+        int sampleCount = 0;
+        for (Worker w : workers) {
+            ops += w.ops;
+            allocated += w.allocatedBytes;
+            elapsed = Math.max(elapsed, w.elapsedNanos);
+            sampleCount += w.sampleCount;
+        }
+        long[] all = new long[sampleCount];
+        int pos = 0;
+        for (Worker w : workers) {
+            System.arraycopy(w.samples, 0, all, pos, w.sampleCount);
+            pos += w.sampleCount;
+        }
+        Arrays.sort(all);
+
+        double throughput = ops * 1e9 / Math.max(1, elapsed);
+        System.out.printf("%-14s %9d %10d %4d %7s %14.0f %9.2f %9.2f %9.2f %9.2f %10.2f %10.0f %6d%n",
+                name, books, loans, threads, library.getMetrics().isEnabled() ? "on" : "off", throughput,
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+                percentile(all, 0.999), all.length == 0 ? 0 : all[all.length - 1] / 1000.0,
+                ops == 0 ? 0.0 : (double) allocated / ops, gcAfter - gcBefore);
+    }
+
+    private static Worker[] runThreads(int threads, long millis, Operation op, boolean record) throws Exception {
+        Worker[] workers = new Worker[threads];
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(i, op, millis, record, start);
+            workers[i].start();
+        }
+        start.countDown();
+        for (Worker w : workers) {
+            w.join();
+        }
+        return workers;
+    }
+
+    /**
+     * 测量线程：在规定时间内反复执行操作，记录每次的延迟和线程分配的字节数
+     */
+    private static class Worker extends Thread {
+        private final int index;
+        private final Operation op;
+        private final long millis;
+        private final boolean record;
+        private final CountDownLatch start;
+
+        long ops;
+        long elapsedNanos;
+        long allocatedBytes;
+        long[] samples;
+        int sampleCount;
+
+        Worker(int index, Operation op, long millis, boolean record, CountDownLatch start) {
+            super("bench-" + index);
+            this.index = index;
+            this.op = op;
+            this.millis = millis;
+            this.record = record;
+            this.start = start;
+            this.samples = new long[record ? MAX_SAMPLES : 0];
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Random random = ThreadLocalRandom.current();
+            long allocBefore = allocatedBytes();
+            long begin = System.nanoTime();
+            long deadline = begin + millis * 1_000_000L;
+            long now = begin;
+            while (now < deadline) {
+                long excluded = op.run(index, random);
+                long end = System.nanoTime();
+                if (record && sampleCount < samples.length) {
+                    samples[sampleCount++] = end - now - excluded;
+                }
+                ops++;
+                now = end;
+            }
+            elapsedNanos = now - begin;
+            allocatedBytes = allocatedBytes() - allocBefore;
+        }
+    }
+
+    // ==================== 测试数据 ====================
+
+    /**
+     * 构造测试用的图书馆：books本书、books/10个学生、loans条已归还的历史借阅记录
+     * 通过快照接口批量加载，不逐条调用addBook
+     */
+    private static Library buildLibrary(int bookCount, int loanCount) {
+        Random random = new Random(42);
+        List<Book> books = new ArrayList<>(bookCount);
+        String[] isbns = new String[bookCount];
+        for (int i = 0; i < bookCount; i++) {
+            isbns[i] = isbnOf(i);
+            String title = WORDS[random.nextInt(WORDS.length)] + WORDS[random.nextInt(WORDS.length)] + i;
+            String author = WORDS[random.nextInt(WORDS.length)] + " " + (i % 997);
+            books.add(new Book(title, author, isbns[i], 1_000_000));
+        }
+
+        int userCount = Math.max(10_000, bookCount / 10);
+        List<User> users = new ArrayList<>(userCount);
+        String[] studentIds = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            studentIds[i] = "S" + i;
+            users.add(new User("学生" + i, studentIds[i]));
+        }
+
+        List<LoanRecord> records = new ArrayList<>(loanCount);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < loanCount; i++) {
+            LocalDate borrowDate = today.minusDays(random.nextInt(3650));
+            LoanRecord record = new LoanRecord(studentIds[random.nextInt(userCount)],
+                    isbns[random.nextInt(bookCount)], borrowDate, borrowDate.plusDays(30));
+            // 借阅0~44天后归还，约三分之一逾期
+            record.markReturned((int) borrowDate.toEpochDay() + random.nextInt(45));
+            records.add(record);
+        }
+
+        Library library = new Library();
+        library.restoreSnapshot(new SnapshotFile(0, books, users, records));
+        return library;
+    }
+
+    private static String isbnOf(int i) {
+        return "978-" + i;
+    }
+
+    private static String randomKeyword(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    /**
+     * 联想用的ISBN前缀："978-"加上某本书编号的前1~4位（预先生成，测量时不拼字符串）
+     */
+    private static String[] isbnPrefixes(int books) {
+        Random random = new Random(7);
+        String[] prefixes = new String[PREFIXES];
+        for (int i = 0; i < PREFIXES; i++) {
+            String digits = String.valueOf(random.nextInt(books));
+            prefixes[i] = "978-" + digits.substring(0, Math.min(digits.length(), 1 + random.nextInt(4)));
+        }
+        return prefixes;
+    }
+
+    /**
+     * 联想用的书名前缀：一个词，或一个词加下一个词的第一个字
+     */
+    private static String[] titlePrefixes() {
+        Random random = new Random(7);
+        String[] prefixes = new String[PREFIXES];
+        for (int i = 0; i < PREFIXES; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            prefixes[i] = random.nextBoolean() ? word : word + WORDS[random.nextInt(WORDS.length)].charAt(0);
+        }
+        return prefixes;
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int i = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, i)] / 1000.0;
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
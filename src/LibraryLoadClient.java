@@ -0,0 +1,232 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 图书馆服务器的压力测试客户端
+ * 建立大量连接（每条连接一个虚拟线程），每条连接注册并登录一个测试用户，
+ * 然后按流水线方式每次连发pipeline个请求（搜索、借书+还书、统计混合），再依次读回响应
+ * 结束后输出：建立的连接数、吞吐量（请求/秒）、错误响应数、延迟分位数
+ *
+ * 用法：java LibraryLoadClient [--host=localhost] [--port=7070] [--connections=1000]
+ *                             [--pipeline=8] [--seconds=30] [--mix=search,borrow,stats]
+ * 单机测几万条连接时，除了ulimit -n，还可能需要扩大本地端口范围（net.ipv4.ip_local_port_range）
+ */
+public class LibraryLoadClient {
+    // 延迟直方图：每10微秒一格，共10秒，最后一格放10秒以上的
+    private static final int BUCKET_MICROS = 10;
+    private static final int BUCKETS = 1_000_000;
+
+    // 搜索用的关键词
+    private static final String[] KEYWORDS = {"java", "算法", "数据", "结构", "网络", "a", "e", "导论"};
+
+    private final String host;
+    private final int port;
+    private final int pipeline;
+    private final List<String> mix;
+    private final List<String> isbns;
+
+    private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS + 1);
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger connected = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private volatile boolean measuring;
+    private volatile boolean stopping;
+
+    public LibraryLoadClient(String host, int port, int pipeline, List<String> mix, List<String> isbns) {
+        this.host = host;
+        this.port = port;
+        this.pipeline = pipeline;
+        this.mix = mix;
+        this.isbns = isbns;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLine.parseArgs(args);
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(LibraryProtocol.DEFAULT_PORT)));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "1000"));
+        int pipeline = Integer.parseInt(options.getOrDefault("pipeline", "8"));
+        long seconds = Long.parseLong(options.getOrDefault("seconds", "30"));
+        List<String> mix = Arrays.asList(options.getOrDefault("mix", "search,borrow,stats").split(","));
+
+        List<String> isbns = fetchIsbns(host, port);
+        if (isbns.isEmpty() && mix.contains("borrow")) {
+            System.out.println("服务器上没有图书，跳过借还请求");
+            mix = new ArrayList<>(mix);
+            mix.remove("borrow");
+        }
+        new LibraryLoadClient(host, port, pipeline, mix, isbns).run(connections, seconds);
+    }
+
+    /**
+     * 先用一条连接取一批ISBN，借还请求从中随机挑选
+     */
+    private static List<String> fetchIsbns(String host, int port) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write((LibraryProtocol.join(LibraryProtocol.SEARCH, "T", "", "1000") + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            List<String> fields = LibraryProtocol.split(
+                    new LibraryProtocol.LineReader(socket.getInputStream(), 8192).readLine());
+            List<String> isbns = new ArrayList<>();
+            for (int i = 2; i + 3 < fields.size(); i += 4) {
+                isbns.add(fields.get(i));
+            }
+            return isbns;
+        }
+    }
+
+    private void run(int connections, long seconds) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(connections);
+        CountDownLatch done = new CountDownLatch(connections);
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            int id = i;
+            Thread.ofVirtual().name("load-" + i).start(() -> {
+                try {
+                    connection(id, ready);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        ready.await();
+        long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+        System.out.printf("连接：成功%d，失败%d，用时%dms%n", connected.get(), failed.get(), connectMillis);
+
+        measuring = true;
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(seconds);
+        measuring = false;
+        long elapsed = System.nanoTime() - start;
+        stopping = true;
+        done.await();
+        report(elapsed);
+    }
+
+    /**
+     * 一条连接：注册、登录，然后循环发送流水线请求直到测试结束
+     */
+    private void connection(int id, CountDownLatch ready) {
+        boolean counted = false;
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            LibraryProtocol.LineReader reader = new LibraryProtocol.LineReader(socket.getInputStream(), 1024);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1024);
+            String studentId = "load-" + id;
+            send(out, LibraryProtocol.join(LibraryProtocol.REGISTER, "压测用户" + id, studentId));
+            send(out, LibraryProtocol.join(LibraryProtocol.LOGIN, studentId));
+            out.flush();
+            reader.readLine();
+            if (!reader.readLine().startsWith(LibraryProtocol.OK)) {
+                throw new IOException("登录失败");
+            }
+            connected.incrementAndGet();
+            counted = true;
+            ready.countDown();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<String> batch = new ArrayList<>(pipeline + 1);
+            while (!stopping) {
+                batch.clear();
+                while (batch.size() < pipeline) {
+                    addRequest(batch, random);
+                }
+                long sent = System.nanoTime();
+                for (String request : batch) {
+                    send(out, request);
+                }
+                out.flush();
+                for (int i = 0; i < batch.size(); i++) {
+                    String response = reader.readLine();
+                    if (response == null) {
+                        throw new IOException("服务器关闭了连接");
+                    }
+                    if (measuring) {
+                        record(System.nanoTime() - sent, response.startsWith(LibraryProtocol.OK));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!counted) {
+                failed.incrementAndGet();
+            }
+        } finally {
+            if (!counted) {
+                ready.countDown();
+            }
+        }
+    }
+
+    private void addRequest(List<String> batch, ThreadLocalRandom random) {
+        String kind = mix.get(random.nextInt(mix.size()));
+        switch (kind) {
+            case "borrow":
+                // 借一本马上还掉，库存保持不变
+                String isbn = isbns.get(random.nextInt(isbns.size()));
+                batch.add(LibraryProtocol.join(LibraryProtocol.BORROW, isbn));
+                batch.add(LibraryProtocol.join(LibraryProtocol.RETURN, isbn));
+                break;
+            case "stats":
+                batch.add(LibraryProtocol.STATS);
+                break;
+            case "search":
+            default:
+                batch.add(LibraryProtocol.join(LibraryProtocol.SEARCH, random.nextBoolean() ? "T" : "A",
+                        KEYWORDS[random.nextInt(KEYWORDS.length)], "20"));
+                break;
+        }
+    }
+
+    private static void send(OutputStream out, String request) throws IOException {
+        out.write(request.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    private void record(long nanos, boolean ok) {
+        requests.incrementAndGet();
+        if (!ok) {
+            errors.incrementAndGet();
+        }
+        latencies.incrementAndGet((int) Math.min(BUCKETS, nanos / 1000 / BUCKET_MICROS));
+        maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void report(long elapsedNanos) {
+        long total = requests.get();
+        System.out.printf("请求：%d，错误响应：%d，吞吐量：%.0f 请求/秒%n",
+                total, errors.get(), total * 1e9 / elapsedNanos);
+        System.out.printf("延迟(us)：p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+                percentile(total, 0.50), percentile(total, 0.90), percentile(total, 0.99),
+                percentile(total, 0.999), maxLatencyNanos.get() / 1000);
+    }
+
+    private long percentile(long total, double p) {
+        long target = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i <= BUCKETS; i++) {
+            seen += latencies.get(i);
+            if (seen >= target && seen > 0) {
+                return (long) i * BUCKET_MICROS;
+            }
+        }
+        return (long) BUCKETS * BUCKET_MICROS;
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 图书馆操作的性能指标
+ * 每种操作一个延迟直方图，再按OpResult分别计数（成功、找不到图书、库存不足、重复借阅等）
+ *
+ * 热点路径上的用法：
+ *     long start = metrics.start();
+ *     ...执行操作...
+ *     metrics.record(LibraryMetrics.BORROW, start, result);
+ * 记录只是一次nanoTime、一次直方图累加、一次计数器累加，不分配对象；
+ * 关闭后start()返回0，record()直接返回
+ *
+ * 另外可以登记若干瞬时值（gauge，例如只读副本的延迟），导出时逐个读取当前值
+ *
+ * 导出为Prometheus文本格式（延迟用summary类型，结果计数用counter类型），
+ * 可以写到文件里由node_exporter的textfile收集器读取
+ */
+public class LibraryMetrics {
+    // 操作编号
+    public static final int BORROW = 0;
+    public static final int RETURN = 1;
+    public static final int BORROW_BATCH = 2;
+    public static final int RETURN_BATCH = 3;
+    public static final int LOGIN = 4;
+    public static final int FIND_BY_TITLE = 5;
+    public static final int FIND_BY_AUTHOR = 6;
+    public static final int SUGGEST = 7;
+
+    // 操作名称（导出时用作标签），下标即操作编号
+    private static final String[] NAMES = {
+            "borrow", "return", "borrow_batch", "return_batch", "login", "find_by_title", "find_by_author", "suggest"
+    };
+
+    // 导出的分位数
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final OpResult[] RESULTS = OpResult.values();
+
+    // 每种操作的延迟直方图
+    private final LatencyHistogram[] latencies;
+
+    // 每种操作、每种结果的次数：下标为 操作编号 * 结果种数 + 结果序号
+    private final LongAdder[] results;
+
+    // 登记的瞬时值
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    private volatile boolean enabled = true;
+
+    // 构造方法
+    public LibraryMetrics() {
+        this.latencies = new LatencyHistogram[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        this.results = new LongAdder[NAMES.length * RESULTS.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 开启或关闭指标记录
+     * @param enabled true开启
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 操作开始时调用
+     * @return 开始时间（纳秒），关闭时返回0
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 操作结束时调用，记录耗时和结果
+     * @param op 操作编号
+     * @param start start()的返回值
+     * @param result 操作结果
+     */
+    public void record(int op, long start, OpResult result) {
+        if (start == 0) {
+            return;
+        }
+        latencies[op].record(System.nanoTime() - start);
+        results[op * RESULTS.length + result.ordinal()].increment();
+    }
+
+    /**
+     * 获取操作名称
+     * @param op 操作编号
+     * @return 名称
+     */
+    public static String nameOf(int op) {
+        return NAMES[op];
+    }
+
+    /**
+     * 获取操作种数
+     * @return 操作种数
+     */
+    public static int operationCount() {
+        return NAMES.length;
+    }
+
+    /**
+     * 获取某种操作的延迟快照
+     * @param op 操作编号
+     * @return 快照
+     */
+    public LatencyHistogram.Snapshot latency(int op) {
+        return latencies[op].snapshot();
+    }
+
+    /**
+     * 获取某种操作某种结果的累计次数
+     * @param op 操作编号
+     * @param result 结果
+     * @return 次数
+     */
+    public long count(int op, OpResult result) {
+        return results[op * RESULTS.length + result.ordinal()].sum();
+    }
+
+    // ==================== 导出 ====================
+
+    /**
+     * 登记一个瞬时值指标
+     * @param name 指标名（Prometheus格式）
+     * @param help 说明
+     * @param value 读取当前值
+     */
+    public void addGauge(String name, String help, DoubleSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    /**
+     * 以Prometheus文本格式写出所有指标
+     * @param out 输出
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        out.append("# HELP library_op_duration_seconds Latency of library operations.\n");
+        out.append("# TYPE library_op_duration_seconds summary\n");
+        for (int op = 0; op < NAMES.length; op++) {
+            LatencyHistogram.Snapshot snapshot = latencies[op].snapshot();
+            for (double q : QUANTILES) {
+                out.append("library_op_duration_seconds{op=\"").append(NAMES[op])
+                        .append("\",quantile=\"").append(String.valueOf(q)).append("\"} ")
+                        .append(seconds(snapshot.percentile(q))).append('\n');
+            }
+            out.append("library_op_duration_seconds_sum{op=\"").append(NAMES[op]).append("\"} ")
+                    .append(seconds(snapshot.getSum())).append('\n');
+            out.append("library_op_duration_seconds_count{op=\"").append(NAMES[op]).append("\"} ")
+                    .append(String.valueOf(snapshot.getCount())).append('\n');
+        }
+
+        out.append("# HELP library_op_results_total Library operations by result.\n");
+        out.append("# TYPE library_op_results_total counter\n");
+        for (int op = 0; op < NAMES.length; op++) {
+            for (OpResult result : RESULTS) {
+                long n = count(op, result);
+                if (n == 0) {
+                    continue;
+                }
+                out.append("library_op_results_total{op=\"").append(NAMES[op])
+                        .append("\",result=\"").append(result.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                        .append(String.valueOf(n)).append('\n');
+            }
+        }
+
+        for (Gauge gauge : gauges) {
+            out.append("# HELP ").append(gauge.name).append(' ').append(gauge.help).append('\n');
+            out.append("# TYPE ").append(gauge.name).append(" gauge\n");
+            out.append(gauge.name).append(' ')
+                    .append(String.format(Locale.ROOT, "%.3f", gauge.value.getAsDouble())).append('\n');
+        }
+    }
+
+    /**
+     * 以Prometheus文本格式写入文件
+     * 先写临时文件再改名，读取方不会读到写了一半的文件
+     * @param file 目标文件
+     */
+    public void writePrometheus(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writePrometheus(writer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    /**
+     * 一个瞬时值指标
+     */
+    private static final class Gauge {
+        final String name;
+        final String help;
+        final DoubleSupplier value;
+
+        Gauge(String name, String help, DoubleSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * 一次对图书馆状态的修改操作
+ * 预写日志里每条记录就是一个LibraryOp，启动时按顺序重放即可恢复状态
+ */
+public class LibraryOp {
+    // 操作类型
+    public static final byte ADD_BOOK = 1;
+    public static final byte REMOVE_BOOK = 2;
+    public static final byte UPDATE_STOCK = 3;
+    public static final byte REGISTER_USER = 4;
+    public static final byte BORROW = 5;
+    public static final byte RETURN = 6;
+    public static final byte PLACE_HOLD = 7;
+    public static final byte CANCEL_HOLD = 8;
+    public static final byte GRANT_HOLD = 9;
+
+    // 带归还日期的RETURN在日志中的类型码；旧日志里的RETURN(6)没有归还日期，读出后归还日期未知
+    private static final byte RETURN_DATED = 10;
+
+    // 定义成员变量（不同类型只用到其中一部分）
+    private final byte type;
+    private final String isbn;       // 图书ISBN
+    private final String title;      // 书名（ADD_BOOK）
+    private final String author;     // 作者（ADD_BOOK）
+    private final int stock;         // 库存（ADD_BOOK、UPDATE_STOCK）
+    private final String studentId;  // 学号（REGISTER_USER、BORROW、RETURN、预约）
+    private final String name;       // 姓名（REGISTER_USER）
+    private final long borrowDay;    // 借阅日期的epochDay（BORROW）
+    private final long dueDay;       // 到期日期的epochDay（BORROW）
+    private final long expiresAt;    // 保留截止时间，毫秒（GRANT_HOLD）
+    private final long returnDay;    // 归还日期的epochDay（RETURN），LoanRecord.NO_DAY表示未知
+
+    // 构造方法（外部用下面的静态工厂方法创建）
+    private LibraryOp(byte type, String isbn, String title, String author, int stock,
+                      String studentId, String name, long borrowDay, long dueDay, long expiresAt,
+                      long returnDay) {
+        this.type = type;
+        this.isbn = isbn;
+        this.title = title;
+        this.author = author;
+        this.stock = stock;
+        this.studentId = studentId;
+        this.name = name;
+        this.borrowDay = borrowDay;
+        this.dueDay = dueDay;
+        this.expiresAt = expiresAt;
+        this.returnDay = returnDay;
+    }
+
+    public static LibraryOp addBook(String title, String author, String isbn, int stock) {
+        return new LibraryOp(ADD_BOOK, isbn, title, author, stock, null, null, 0, 0, 0, 0);
+    }
+
+    public static LibraryOp removeBook(String isbn) {
+        return new LibraryOp(REMOVE_BOOK, isbn, null, null, 0, null, null, 0, 0, 0, 0);
+    }
+
+    public static LibraryOp updateStock(String isbn, int newStock) {
+        return new LibraryOp(UPDATE_STOCK, isbn, null, null, newStock, null, null, 0, 0, 0, 0);
+    }
+
+    public static LibraryOp registerUser(String name, String studentId) {
+        return new LibraryOp(REGISTER_USER, null, null, null, 0, studentId, name, 0, 0, 0, 0);
+    }
+
+    public static LibraryOp borrow(String studentId, String isbn, LocalDate borrowDate, LocalDate dueDate) {
+        return new LibraryOp(BORROW, isbn, null, null, 0, studentId, null,
+                borrowDate.toEpochDay(), dueDate.toEpochDay(), 0, 0);
+    }
+
+    public static LibraryOp returnBook(String studentId, String isbn, LocalDate returnDate) {
+        return new LibraryOp(RETURN, isbn, null, null, 0, studentId, null, 0, 0, 0, returnDate.toEpochDay());
+    }
+
+    public static LibraryOp placeHold(String studentId, String isbn) {
+        return new LibraryOp(PLACE_HOLD, isbn, null, null, 0, studentId, null, 0, 0, 0, 0);
+    }
+
+    public static LibraryOp cancelHold(String studentId, String isbn) {
+        return new LibraryOp(CANCEL_HOLD, isbn, null, null, 0, studentId, null, 0, 0, 0, 0);
+    }
+
+    public static LibraryOp grantHold(String studentId, String isbn, long expiresAt) {
+        return new LibraryOp(GRANT_HOLD, isbn, null, null, 0, studentId, null, 0, 0, expiresAt, 0);
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public int getStock() {
+        return stock;
+    }
+
+    public String getStudentId() {
+        return studentId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LocalDate getBorrowDate() {
+        return LocalDate.ofEpochDay(borrowDay);
+    }
+
+    public LocalDate getDueDate() {
+        return LocalDate.ofEpochDay(dueDay);
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * 获取归还日期
+     * @return 归还日期的epochDay，旧日志中的归还为LoanRecord.NO_DAY
+     */
+    public long getReturnDay() {
+        return returnDay;
+    }
+
+    /**
+     * 写成二进制格式
+     * @param out 输出流
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type == RETURN ? RETURN_DATED : type);
+        switch (type) {
+            case ADD_BOOK:
+                out.writeUTF(title);
+                out.writeUTF(author);
+                out.writeUTF(isbn);
+                out.writeInt(stock);
+                break;
+            case REMOVE_BOOK:
+                out.writeUTF(isbn);
+                break;
+            case UPDATE_STOCK:
+                out.writeUTF(isbn);
+                out.writeInt(stock);
+                break;
+            case REGISTER_USER:
+                out.writeUTF(name);
+                out.writeUTF(studentId);
+                break;
+            case BORROW:
+                out.writeUTF(studentId);
+                out.writeUTF(isbn);
+                out.writeLong(borrowDay);
+                out.writeLong(dueDay);
+                break;
+            case RETURN:
+                out.writeUTF(studentId);
+                out.writeUTF(isbn);
+                out.writeLong(returnDay);
+                break;
+            case PLACE_HOLD:
+            case CANCEL_HOLD:
+                out.writeUTF(studentId);
+                out.writeUTF(isbn);
+                break;
+            case GRANT_HOLD:
+                out.writeUTF(studentId);
+                out.writeUTF(isbn);
+                out.writeLong(expiresAt);
+                break;
+            default:
+                throw new IOException("未知的操作类型：" + type);
+        }
+    }
+
+    /**
+     * 从二进制格式读出一个操作
+     * @param in 输入流
+     * @return 读到的操作
+     */
+    public static LibraryOp readFrom(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_BOOK: {
+                String title = in.readUTF();
+                String author = in.readUTF();
+                String isbn = in.readUTF();
+                return addBook(title, author, isbn, in.readInt());
+            }
+            case REMOVE_BOOK:
+                return removeBook(in.readUTF());
+            case UPDATE_STOCK: {
+                String isbn = in.readUTF();
+                return updateStock(isbn, in.readInt());
+            }
+            case REGISTER_USER: {
+                String name = in.readUTF();
+                return registerUser(name, in.readUTF());
+            }
+            case BORROW: {
+                String studentId = in.readUTF();
+                String isbn = in.readUTF();
+                long borrowDay = in.readLong();
+                long dueDay = in.readLong();
+                return new LibraryOp(BORROW, isbn, null, null, 0, studentId, null, borrowDay, dueDay, 0, 0);
+            }
+            case RETURN: {
+                String studentId = in.readUTF();
+                String isbn = in.readUTF();
+                return new LibraryOp(RETURN, isbn, null, null, 0, studentId, null, 0, 0, 0, LoanRecord.NO_DAY);
+            }
+            case RETURN_DATED: {
+                String studentId = in.readUTF();
+                String isbn = in.readUTF();
+                return new LibraryOp(RETURN, isbn, null, null, 0, studentId, null, 0, 0, 0, in.readLong());
+            }
+            case PLACE_HOLD: {
+                String studentId = in.readUTF();
+                return placeHold(studentId, in.readUTF());
+            }
+            case CANCEL_HOLD: {
+                String studentId = in.readUTF();
+                return cancelHold(studentId, in.readUTF());
+            }
+            case GRANT_HOLD: {
+                String studentId = in.readUTF();
+                String isbn = in.readUTF();
+                return grantHold(studentId, isbn, in.readLong());
+            }
+            default:
+                throw new IOException("未知的操作类型：" + type);
+        }
+    }
+
+    // 对象转换成字符串
+    @Override
+    public String toString() {
+        return "LibraryOp{type=" + type +
+                ", isbn='" + isbn + '\'' +
+                ", studentId='" + studentId + '\'' +
+                '}';
+    }
+}
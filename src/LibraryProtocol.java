@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 图书馆网络协议
+ * 基于文本行：每个请求、每个响应都是一行UTF-8文本，以'\n'结束，字段之间用制表符分隔
+ * 字段中的'\\'、制表符、换行分别写成"\\\\"、"\\t"、"\\n"
+ *
+ * 请求（第一个字段是命令）：
+ *   PING
+ *   REGISTER  姓名  学号
+ *   LOGIN     学号                      登录后会话绑定在这条连接上
+ *   LOGOUT
+ *   SEARCH    T|A  关键词  [最多条数]    T按书名，A按作者，默认最多100条
+ *   SUGGEST   I|T  开头    [最多条数]    按ISBN或书名的开头联想，借阅次数多的在前，默认最多10条，响应与SEARCH相同
+ *   BORROW    ISBN [ISBN...]            多本时整批借阅，要么全部成功要么全部不办理
+ *   RETURN    ISBN [ISBN...]            多本时整批归还
+ *   HOLD      ISBN                      没有库存时预约排队，响应 OK 前面的人数
+ *   UNHOLD    ISBN                      取消预约
+ *   STATS
+ *   LIST      [最多条数]                所有图书，响应 OK 条数 然后每本书ISBN、书名、作者、库存，默认最多100条
+ *   LOANS     [最多条数]                所有借阅记录，响应 OK 条数 然后每条学号、ISBN、借阅日期、到期日期、是否归还
+ *   LAG                                只读副本的复制进度，响应 OK 已应用序号 主馆序号 落后条数 落后毫秒
+ * 只读副本（LibraryServer --follow=主机:端口）只接受PING、SEARCH、SUGGEST、STATS、LIST、LOANS、LAG，
+ * 其余命令返回 ERR READ_ONLY；数据落后超过允许的时间时查询返回 ERR REPLICA_STALE
+ * 分片模式（LibraryServer --shard=true）下路由器使用的命令，不需要登录：
+ *   USER        学号                    响应 OK 姓名
+ *   BOOK        ISBN                    响应 OK 书名 作者 库存
+ *   ADDBOOK     书名 作者 ISBN 库存
+ *   BORROW_FOR  学号 ISBN               学生可以注册在别的分片上，由路由器负责确认
+ *   RETURN_FOR  学号 ISBN
+ *   HOLD_FOR    学号 ISBN
+ *   UNHOLD_FOR  学号 ISBN
+ * 响应：
+ *   OK    [结果字段...]
+ *   ERR   错误代码  说明  [出错的ISBN（批量借还时）]
+ *   请求格式不对（包括最多条数为负数）返回 ERR BAD_REQUEST，服务器处理时出现意外错误返回 ERR INTERNAL_ERROR，连接都继续可用
+ * 客户端可以连续发送多个请求而不等待响应（流水线），服务器按请求顺序逐个返回响应
+ */
+public final class LibraryProtocol {
+    // 默认端口
+    public static final int DEFAULT_PORT = 7070;
+
+    // 一行的最大长度（字节），超过则认为是错误请求并断开连接
+    public static final int MAX_LINE_BYTES = 64 * 1024;
+
+    // 命令
+    public static final String PING = "PING";
+    public static final String REGISTER = "REGISTER";
+    public static final String LOGIN = "LOGIN";
+    public static final String LOGOUT = "LOGOUT";
+    public static final String SEARCH = "SEARCH";
+    public static final String SUGGEST = "SUGGEST";
+    public static final String BORROW = "BORROW";
+    public static final String RETURN = "RETURN";
+    public static final String HOLD = "HOLD";
+    public static final String UNHOLD = "UNHOLD";
+    public static final String STATS = "STATS";
+    public static final String LIST = "LIST";
+    public static final String LOANS = "LOANS";
+    public static final String LAG = "LAG";
+
+    // 分片模式下的命令
+    public static final String USER = "USER";
+    public static final String BOOK = "BOOK";
+    public static final String ADDBOOK = "ADDBOOK";
+    public static final String BORROW_FOR = "BORROW_FOR";
+    public static final String RETURN_FOR = "RETURN_FOR";
+    public static final String HOLD_FOR = "HOLD_FOR";
+    public static final String UNHOLD_FOR = "UNHOLD_FOR";
+
+    // 响应状态
+    public static final String OK = "OK";
+    public static final String ERR = "ERR";
+
+    // 协议层的错误代码（其余错误代码就是OpResult的名字）：请求格式不对、服务器处理请求时出现意外错误
+    public static final String BAD_REQUEST = "BAD_REQUEST";
+    public static final String INTERNAL_ERROR = "INTERNAL_ERROR";
+
+    private LibraryProtocol() {
+    }
+
+    /**
+     * 把若干字段拼成一行（不含结尾的换行）
+     * @param fields 字段
+     * @return 一行文本
+     */
+    public static String join(String... fields) {
+        return join(Arrays.asList(fields));
+    }
+
+    /**
+     * 把若干字段拼成一行（不含结尾的换行）
+     * @param fields 字段
+     * @return 一行文本
+     */
+    public static String join(List<String> fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            escape(fields.get(i), sb);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 把一行拆成字段
+     * @param line 一行文本（不含结尾的换行）
+     * @return 字段列表
+     */
+    public static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                field.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static void escape(String value, StringBuilder sb) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\t') {
+                sb.append("\\t");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c != '\r') {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * 按行读取字节流
+     * 不用BufferedReader：它和InputStreamReader各带8KB缓冲，几万条连接时占用太多内存
+     * 这里只用一个小缓冲区，遇到长行时才扩大
+     */
+    static final class LineReader {
+        private final InputStream in;
+        private byte[] buf;
+        private int start;
+        private int end;
+
+        LineReader(InputStream in, int bufferSize) {
+            this.in = in;
+            this.buf = new byte[bufferSize];
+        }
+
+        /**
+         * 读取一行
+         * @return 一行文本（不含换行），连接已关闭返回null
+         */
+        String readLine() throws IOException {
+            int scanned = start;
+            while (true) {
+                for (int i = scanned; i < end; i++) {
+                    if (buf[i] == '\n') {
+                        int lineEnd = i > start && buf[i - 1] == '\r' ? i - 1 : i;
+                        String line = new String(buf, start, lineEnd - start, StandardCharsets.UTF_8);
+                        start = i + 1;
+                        return line;
+                    }
+                }
+                scanned = end;
+                if (start > 0) {
+                    // 已读的部分移到缓冲区开头
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    scanned -= start;
+                    end -= start;
+                    start = 0;
+                }
+                if (end == buf.length) {
+                    if (buf.length >= MAX_LINE_BYTES) {
+                        throw new IOException("请求行过长");
+                    }
+                    buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MAX_LINE_BYTES));
+                }
+                int n = in.read(buf, end, buf.length - end);
+                if (n < 0) {
+                    return null;
+                }
+                end += n;
+            }
+        }
+
+        /**
+         * 缓冲区中是否已经有下一个完整的请求行（客户端流水线发来的后续请求）
+         * @return 有则返回true
+         */
+        boolean hasBufferedLine() {
+            for (int i = start; i < end; i++) {
+                if (buf[i] == '\n') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.Closeable;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * 分片部署的路由器
+ * 图书按ISBN的哈希、用户按学号的哈希分到各个分片，借阅记录和预约跟着图书所在的分片：
+ * 借书、还书、预约只涉及一本书，直接发给这本书所在的分片，和单个Library一样在分片内原子完成；
+ * 借书、预约前先到学生所在的分片确认用户存在（用户不会被删除，确认过的学号记在路由器里，之后不再询问）
+ * 搜索和统计同时发给所有分片，再把结果合并（各分片的图书互不重复，直接拼接、相加即可）
+ *
+ * 分片可以在同一进程内（LocalShard，见inProcess），也可以是其他进程中的LibraryServer（RemoteShard）
+ * 分片数量决定了数据的分布，部署后不能再改变（改变需要重新分布数据，不在这里处理）
+ * 跨分片的批量借还不能保证整批原子完成，路由器不提供批量操作
+ */
+public class LibraryRouter implements Closeable {
+    // 合并后保留的热门图书数（与Library.getStatisticsReport一致）
+    private static final int POPULAR_BOOKS = 3;
+
+    private final List<LibraryShard> shards;
+
+    // 已确认存在的学号
+    private final Set<String> knownUsers = ConcurrentHashMap.newKeySet();
+
+    // 并行查询各分片的线程（每次调用一个虚拟线程，大部分时间在等待分片的响应）
+    private final ExecutorService scatter = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 构造方法
+    public LibraryRouter(List<? extends LibraryShard> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个分片");
+        }
+        this.shards = new ArrayList<>(shards);
+    }
+
+    /**
+     * 创建同一进程内的分片部署（纯内存）
+     * @param count 分片数
+     * @return 路由器
+     */
+    public static LibraryRouter inProcess(int count) {
+        List<LibraryShard> shards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shards.add(new LocalShard(Library.newShard()));
+        }
+        return new LibraryRouter(shards);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public LibraryShard getShard(int index) {
+        return shards.get(index);
+    }
+
+    /**
+     * 计算ISBN或学号所在的分片
+     * String.hashCode的算法是固定的，不同进程、不同次启动算出的分片都一样
+     * @param key ISBN或学号
+     * @return 分片下标
+     */
+    public int shardOf(String key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.size());
+    }
+
+    private LibraryShard shardFor(String key) {
+        return shards.get(shardOf(key));
+    }
+
+    // ==================== 单个分片上的操作 ====================
+
+    public OpResult addBook(String title, String author, String isbn, int stock) {
+        return shardFor(isbn).addBook(title, author, isbn, stock);
+    }
+
+    public Book getBook(String isbn) {
+        return shardFor(isbn).getBook(isbn);
+    }
+
+    public OpResult registerUser(String name, String studentId) {
+        OpResult result = shardFor(studentId).registerUser(name, studentId);
+        if (result.isOk()) {
+            knownUsers.add(studentId);
+        }
+        return result;
+    }
+
+    public User getUser(String studentId) {
+        return shardFor(studentId).getUser(studentId);
+    }
+
+    /**
+     * 借书：确认用户存在后发给图书所在的分片
+     * @return 借阅结果，分片无法访问时为SHARD_UNAVAILABLE
+     */
+    public OpResult borrowBook(String studentId, String isbn) {
+        OpResult user = checkUser(studentId);
+        return user.isOk() ? shardFor(isbn).borrowBook(studentId, isbn) : user;
+    }
+
+    /**
+     * 还书：发给图书所在的分片（没有借阅记录时分片返回NOT_BORROWED，不需要先确认用户）
+     */
+    public OpResult returnBook(String studentId, String isbn) {
+        return shardFor(isbn).returnBook(studentId, isbn);
+    }
+
+    public OpResult placeHold(String studentId, String isbn) {
+        OpResult user = checkUser(studentId);
+        return user.isOk() ? shardFor(isbn).placeHold(studentId, isbn) : user;
+    }
+
+    public OpResult cancelHold(String studentId, String isbn) {
+        return shardFor(isbn).cancelHold(studentId, isbn);
+    }
+
+    /**
+     * 到学生所在的分片确认用户存在
+     * @return OK、USER_NOT_FOUND或SHARD_UNAVAILABLE
+     */
+    private OpResult checkUser(String studentId) {
+        if (knownUsers.contains(studentId)) {
+            return OpResult.OK;
+        }
+        User user;
+        try {
+            user = getUser(studentId);
+        } catch (UncheckedIOException e) {
+            return OpResult.SHARD_UNAVAILABLE;
+        }
+        if (user == null) {
+            return OpResult.USER_NOT_FOUND;
+        }
+        knownUsers.add(studentId);
+        return OpResult.OK;
+    }
+
+    // ==================== 所有分片上的查询 ====================
+
+    public List<Book> findByTitle(String keyword) {
+        return concat(scatter(shard -> shard.findByTitle(keyword)));
+    }
+
+    public List<Book> findByAuthor(String keyword) {
+        return concat(scatter(shard -> shard.findByAuthor(keyword)));
+    }
+
+    /**
+     * 汇总所有分片的统计：数量相加，热门图书取各分片热门图书中借阅次数最多的几本
+     * @return 统计结果
+     */
+    public StatisticsReport getStatisticsReport() {
+        int bookCount = 0;
+        int userCount = 0;
+        long totalLoans = 0;
+        long activeLoans = 0;
+        List<Map.Entry<Book, Long>> popular = new ArrayList<>();
+        for (StatisticsReport report : scatter(LibraryShard::getStatisticsReport)) {
+            bookCount += report.getBookCount();
+            userCount += report.getUserCount();
+            totalLoans += report.getTotalLoans();
+            activeLoans += report.getActiveLoans();
+            for (Map.Entry<Book, Long> entry : report.getPopularBooks()) {
+                popular.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue()));
+            }
+        }
+        popular.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        if (popular.size() > POPULAR_BOOKS) {
+            popular = new ArrayList<>(popular.subList(0, POPULAR_BOOKS));
+        }
+        return new StatisticsReport(bookCount, userCount, totalLoans, activeLoans, popular);
+    }
+
+    /**
+     * 同时在每个分片上执行查询，等全部完成
+     * @param call 查询
+     * @return 每个分片的结果，顺序与分片下标一致
+     */
+    private <T> List<T> scatter(Function<LibraryShard, T> call) {
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (LibraryShard shard : shards) {
+            futures.add(scatter.submit(() -> call.apply(shard)));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待分片响应时被中断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    private static List<Book> concat(List<List<Book>> parts) {
+        int size = 0;
+        for (List<Book> part : parts) {
+            size += part.size();
+        }
+        List<Book> result = new ArrayList<>(size);
+        for (List<Book> part : parts) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    /**
+     * 关闭路由器：停止查询线程，关闭到其他进程分片的连接（不关闭同一进程内的分片）
+     */
+    @Override
+    public void close() {
+        scatter.shutdown();
+        for (LibraryShard shard : shards) {
+            if (shard instanceof RemoteShard) {
+                ((RemoteShard) shard).close();
+            }
+        }
+    }
+}
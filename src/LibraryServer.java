@@ -0,0 +1,772 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图书馆网络服务器
+ * 每条连接一个虚拟线程：代码按阻塞方式顺序读写，等待网络时虚拟线程挂起，不占用系统线程，
+ * 几万条连接只需要几个载体线程，每条连接的开销主要是两个1KB的读写缓冲区
+ *
+ * 同一连接上的请求按顺序处理；响应先写入缓冲区，
+ * 直到缓冲区里没有下一个完整请求时才一次性发送，流水线发来的一批请求只需一次系统调用
+ * 协议见LibraryProtocol
+ *
+ * 用法：java LibraryServer [--port=7070] [--data=data] [--backlog=4096] [--metrics-file=data/metrics.prom]
+ *                         [--shard=false] [--ledger=false] [--replication-port=端口]
+ *                         [--follow=主机:端口] [--max-staleness-ms=5000] [--lanes=0]
+ *                         [--book-store=目录] [--book-store-capacity=1048576] [--bind=地址]
+ *                         [--replication-bind=地址]
+ * 运行期间每15秒把性能指标以Prometheus文本格式写入metrics-file
+ * --shard=true 时作为分片部署中的一个分片运行（见Library.newShard、LibraryRouter）：
+ * 不加载测试数据，并接受路由器使用的USER、BOOK、ADDBOOK、BORROW_FOR等命令。
+ * 这些命令不检查登录，所以分片默认只监听本机回环地址；路由器在别的机器上时用--bind指定监听的地址，并用防火墙只对路由器开放
+ * --bind=地址 时只在这个地址上监听；不指定时分片只监听回环地址，其余模式监听所有地址
+ * --ledger=true 时把所有修改发布到数据目录下ledger子目录中的事件账本（见EventLedger）
+ * --replication-port 时作为主馆，在这个端口上把事件账本里的修改发给只读副本（见ReplicationServer），自动打开事件账本；
+ * 复制连接不认证且会发送包括用户在内的完整快照，默认只监听回环地址，副本在别的机器上时用--replication-bind指定监听的地址
+ * --follow=主机:端口 时作为只读副本运行（见ReplicaFollower）：不使用数据目录，启动时从主馆取得快照，之后跟随主馆的修改；
+ * 只接受查询命令，数据落后超过max-staleness-ms时拒绝查询
+ * --book-store=目录 时图书放在该目录下的内存映射文件里（见MappedBookStore），适合很大的目录，启动时不逐本加载；
+ * 用户、借阅记录和预约仍然保存在数据目录的快照和日志里，库存在做快照时写入存储。book-store-capacity是新建存储时的哈希表容量；
+ * 不能和--follow、--shard、--replication-port、--ledger同时使用
+ * --lanes=N（N>0）时借还、预约、注册按学号进入StudentLanes的道里执行，每条道最多排队N个请求：
+ * 同一学生从多个终端同时发来的请求按到达顺序执行，排不上队时返回BUSY
+ * 连接数很多时需要调大文件描述符上限（ulimit -n）
+ */
+public class LibraryServer implements Closeable {
+    // 每条连接的读写缓冲区大小
+    private static final int BUFFER_SIZE = 1024;
+
+    // 默认搜索结果最多条数
+    private static final int DEFAULT_SEARCH_LIMIT = 100;
+
+    // 性能指标写入文件的间隔（秒）
+    private static final long METRICS_EXPORT_SECONDS = 15;
+
+    // 最多条数不合法时的提示
+    private static final String BAD_LIMIT = "最多条数必须是不小于0的整数";
+
+    // 接受连接失败（例如文件描述符用完）后等待多久再试（毫秒）
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+
+    private final Library library;
+    private final boolean shardMode;
+
+    // 只读副本模式下跟随的主馆，以及允许落后的最长时间（毫秒）
+    private final ReplicaFollower follower;
+    private final long maxStalenessMillis;
+    private final ServerSocket serverSocket;
+
+    // 当前打开的连接
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+
+    // 按学号分道的执行器（可选，见attachLanes）
+    private volatile StudentLanes lanes;
+
+    private volatile boolean closed;
+
+    /**
+     * 构造函数：监听端口，调用start()后开始接受连接
+     * @param library 图书馆
+     * @param port 端口，0表示随机分配
+     * @param backlog 等待接受的连接队列长度
+     */
+    public LibraryServer(Library library, int port, int backlog) throws IOException {
+        this(library, port, backlog, false);
+    }
+
+    /**
+     * 构造函数：监听端口，调用start()后开始接受连接
+     * 分片模式下只监听回环地址（路由器使用的命令不检查登录），否则监听所有地址
+     * @param library 图书馆
+     * @param port 端口，0表示随机分配
+     * @param backlog 等待接受的连接队列长度
+     * @param shardMode 是否接受分片模式下路由器使用的命令
+     */
+    public LibraryServer(Library library, int port, int backlog, boolean shardMode) throws IOException {
+        this(library, shardMode ? InetAddress.getLoopbackAddress() : null, port, backlog, shardMode);
+    }
+
+    /**
+     * 构造函数：在指定地址上监听端口，调用start()后开始接受连接
+     * @param library 图书馆
+     * @param bindAddress 监听的地址，null表示所有地址
+     * @param port 端口，0表示随机分配
+     * @param backlog 等待接受的连接队列长度
+     * @param shardMode 是否接受分片模式下路由器使用的命令
+     */
+    public LibraryServer(Library library, InetAddress bindAddress, int port, int backlog, boolean shardMode)
+            throws IOException {
+        this(library, bindAddress, port, backlog, shardMode, null, 0);
+    }
+
+    /**
+     * 构造函数：作为只读副本监听端口，调用start()后开始接受连接
+     * @param follower 已收到主馆快照的副本
+     * @param bindAddress 监听的地址，null表示所有地址
+     * @param port 端口，0表示随机分配
+     * @param backlog 等待接受的连接队列长度
+     * @param maxStalenessMillis 允许落后的最长时间（毫秒），超过时拒绝查询
+     */
+    public LibraryServer(ReplicaFollower follower, InetAddress bindAddress, int port, int backlog,
+                         long maxStalenessMillis) throws IOException {
+        this(requireLibrary(follower), bindAddress, port, backlog, false, follower, maxStalenessMillis);
+    }
+
+    private LibraryServer(Library library, InetAddress bindAddress, int port, int backlog, boolean shardMode,
+                          ReplicaFollower follower, long maxStalenessMillis) throws IOException {
+        this.library = library;
+        this.shardMode = shardMode;
+        this.follower = follower;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, port), backlog);
+    }
+
+    private static Library requireLibrary(ReplicaFollower follower) {
+        Library library = follower.getLibrary();
+        if (library == null) {
+            throw new IllegalStateException("副本还没有收到主馆的快照");
+        }
+        return library;
+    }
+
+    /**
+     * 让借还、预约、注册按学号进入各自的道里执行（在start()之前调用）
+     * @param lanes 按学号分道的执行器，由调用者关闭
+     */
+    public void attachLanes(StudentLanes lanes) {
+        this.lanes = lanes;
+    }
+
+    /**
+     * 开始接受连接
+     */
+    public void start() {
+        new Thread(this::acceptLoop, "library-server-acceptor").start();
+    }
+
+    /**
+     * 获取实际监听的端口
+     * @return 端口
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 获取当前连接数
+     * @return 连接数
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * 停止接受新连接并关闭所有连接
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (closed || serverSocket.isClosed()) {
+                    return;
+                }
+                System.err.println("接受连接失败：" + e.getMessage());
+                try {
+                    Thread.sleep(ACCEPT_RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            connections.add(socket);
+            Thread.ofVirtual()
+                    .name("library-conn-" + connectionIds.incrementAndGet())
+                    .start(() -> serve(socket));
+        }
+    }
+
+    /**
+     * 处理一条连接，直到对方关闭或出错
+     */
+    private void serve(Socket socket) {
+        Session[] session = new Session[1];
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            LibraryProtocol.LineReader reader = new LibraryProtocol.LineReader(s.getInputStream(), BUFFER_SIZE);
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String response;
+                try {
+                    response = handle(LibraryProtocol.split(line), session);
+                } catch (RuntimeException e) {
+                    // 处理请求时的意外错误只让这个请求失败，连接继续使用
+                    System.err.println("处理请求失败：" + e);
+                    response = LibraryProtocol.join(LibraryProtocol.ERR, LibraryProtocol.INTERNAL_ERROR,
+                            "服务器内部错误");
+                }
+                out.write(response.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+                if (!reader.hasBufferedLine()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // 对方断开或请求行过长，直接关闭连接
+        } finally {
+            connections.remove(socket);
+            if (session[0] != null) {
+                library.logout(session[0]);
+            }
+        }
+    }
+
+    // ==================== 请求处理 ====================
+
+    /**
+     * 处理一个请求
+     * @param request 请求字段
+     * @param session 本连接的会话（LOGIN/LOGOUT会修改它）
+     * @return 响应行（不含换行）
+     */
+    String handle(List<String> request, Session[] session) {
+        String command = request.get(0);
+        if (follower != null) {
+            String rejected = checkReplica(command);
+            if (rejected != null) {
+                return rejected;
+            }
+        }
+        StudentLanes studentLanes = lanes;
+        String studentId = studentLanes == null ? null : laneKey(command, request, session[0]);
+        if (studentId == null) {
+            return dispatch(command, request, session);
+        }
+        try {
+            return studentLanes.call(studentId, () -> dispatch(command, request, session));
+        } catch (RejectedExecutionException | CancellationException e) {
+            return result(OpResult.BUSY);
+        }
+    }
+
+    /**
+     * 请求要进入哪个学号的道：借还、预约按登录的学生，注册按要注册的学号
+     * @return 学号，不需要排队的请求返回null
+     */
+    private static String laneKey(String command, List<String> request, Session session) {
+        switch (command) {
+            case LibraryProtocol.BORROW:
+            case LibraryProtocol.RETURN:
+            case LibraryProtocol.HOLD:
+            case LibraryProtocol.UNHOLD:
+                return session == null ? null : session.getUser().getStudentId();
+            case LibraryProtocol.REGISTER:
+                return request.size() < 3 ? null : request.get(2);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 执行一个请求
+     */
+    private String dispatch(String command, List<String> request, Session[] session) {
+        switch (command) {
+            case LibraryProtocol.PING:
+                return LibraryProtocol.OK;
+            case LibraryProtocol.REGISTER:
+                if (request.size() < 3) {
+                    return badRequest("用法：REGISTER 姓名 学号");
+                }
+                return result(library.registerUser(request.get(1), request.get(2)));
+            case LibraryProtocol.LOGIN:
+                return login(request, session);
+            case LibraryProtocol.LOGOUT:
+                if (session[0] == null || !library.logout(session[0])) {
+                    session[0] = null;
+                    return result(OpResult.NOT_LOGGED_IN);
+                }
+                session[0] = null;
+                return LibraryProtocol.OK;
+            case LibraryProtocol.SEARCH:
+                return search(request);
+            case LibraryProtocol.SUGGEST:
+                return suggest(request);
+            case LibraryProtocol.BORROW:
+                if (request.size() < 2) {
+                    return badRequest("用法：BORROW ISBN [ISBN...]");
+                }
+                if (request.size() > 2) {
+                    List<String> isbns = request.subList(1, request.size());
+                    return batchResult(isbns, library.borrowBooks(session[0], isbns));
+                }
+                return result(library.borrowBook(session[0], request.get(1)));
+            case LibraryProtocol.RETURN:
+                if (request.size() < 2) {
+                    return badRequest("用法：RETURN ISBN [ISBN...]");
+                }
+                if (request.size() > 2) {
+                    List<String> isbns = request.subList(1, request.size());
+                    return batchResult(isbns, library.returnBooks(session[0], isbns));
+                }
+                return result(library.returnBook(session[0], request.get(1)));
+            case LibraryProtocol.HOLD:
+                return hold(request, session);
+            case LibraryProtocol.UNHOLD:
+                if (request.size() < 2) {
+                    return badRequest("用法：UNHOLD ISBN");
+                }
+                return result(library.cancelHold(session[0], request.get(1)));
+            case LibraryProtocol.STATS:
+                return stats();
+            case LibraryProtocol.LIST:
+                return listBooks(request);
+            case LibraryProtocol.LOANS:
+                return listLoans(request);
+            case LibraryProtocol.LAG:
+                return lag();
+            default:
+                String response = shardMode ? handleShard(command, request) : null;
+                return response != null ? response : badRequest("未知命令：" + command);
+        }
+    }
+
+    /**
+     * 只读副本上检查能否处理这个命令
+     * @return 拒绝时的响应行，可以处理时返回null
+     */
+    private String checkReplica(String command) {
+        switch (command) {
+            case LibraryProtocol.PING:
+            case LibraryProtocol.LAG:
+                return null;
+            case LibraryProtocol.SEARCH:
+            case LibraryProtocol.SUGGEST:
+            case LibraryProtocol.STATS:
+            case LibraryProtocol.LIST:
+            case LibraryProtocol.LOANS:
+                return follower.getStalenessMillis() > maxStalenessMillis ? result(OpResult.REPLICA_STALE) : null;
+            default:
+                return result(OpResult.READ_ONLY);
+        }
+    }
+
+    /**
+     * 处理分片模式下路由器使用的命令
+     * @return 响应行，不是这些命令返回null
+     */
+    private String handleShard(String command, List<String> request) {
+        switch (command) {
+            case LibraryProtocol.USER: {
+                if (request.size() < 2) {
+                    return badRequest("用法：USER 学号");
+                }
+                User user = library.getUser(request.get(1));
+                return user == null
+                        ? result(OpResult.USER_NOT_FOUND)
+                        : LibraryProtocol.join(LibraryProtocol.OK, user.getName());
+            }
+            case LibraryProtocol.BOOK: {
+                if (request.size() < 2) {
+                    return badRequest("用法：BOOK ISBN");
+                }
+                Book book = library.getBook(request.get(1));
+                return book == null
+                        ? result(OpResult.BOOK_NOT_FOUND)
+                        : LibraryProtocol.join(LibraryProtocol.OK, book.getTitle(), book.getAuthor(),
+                                String.valueOf(book.getStock()));
+            }
+            case LibraryProtocol.ADDBOOK:
+                if (request.size() < 5) {
+                    return badRequest("用法：ADDBOOK 书名 作者 ISBN 库存");
+                }
+                try {
+                    return result(library.addBook(request.get(1), request.get(2), request.get(3),
+                            Integer.parseInt(request.get(4))));
+                } catch (NumberFormatException e) {
+                    return badRequest("库存必须是数字");
+                }
+            case LibraryProtocol.BORROW_FOR:
+            case LibraryProtocol.RETURN_FOR:
+            case LibraryProtocol.HOLD_FOR:
+            case LibraryProtocol.UNHOLD_FOR: {
+                if (request.size() < 3) {
+                    return badRequest("用法：" + command + " 学号 ISBN");
+                }
+                String studentId = request.get(1);
+                String isbn = request.get(2);
+                switch (command) {
+                    case LibraryProtocol.BORROW_FOR:
+                        return result(library.borrowBook(studentId, isbn));
+                    case LibraryProtocol.RETURN_FOR:
+                        return result(library.returnBook(studentId, isbn));
+                    case LibraryProtocol.HOLD_FOR:
+                        return result(library.placeHold(studentId, isbn));
+                    default:
+                        return result(library.cancelHold(studentId, isbn));
+                }
+            }
+            default:
+                return null;
+        }
+    }
+
+    private String login(List<String> request, Session[] session) {
+        if (request.size() < 2) {
+            return badRequest("用法：LOGIN 学号");
+        }
+        Session newSession = library.login(request.get(1));
+        if (newSession == null) {
+            return result(OpResult.USER_NOT_FOUND);
+        }
+        if (session[0] != null) {
+            library.logout(session[0]);
+        }
+        session[0] = newSession;
+        return LibraryProtocol.join(LibraryProtocol.OK, newSession.getToken(), newSession.getUser().getName());
+    }
+
+    /**
+     * 预约，响应：OK 排在前面的人数
+     */
+    private String hold(List<String> request, Session[] session) {
+        if (request.size() < 2) {
+            return badRequest("用法：HOLD ISBN");
+        }
+        OpResult result = library.placeHold(session[0], request.get(1));
+        if (!result.isOk()) {
+            return result(result);
+        }
+        Hold hold = library.getHoldQueue().find(session[0].getUser().getStudentId(), request.get(1));
+        long ahead = hold == null ? 0 : library.getHoldQueue().aheadOf(hold);
+        return LibraryProtocol.join(LibraryProtocol.OK, String.valueOf(ahead));
+    }
+
+    /**
+     * 搜索，响应：OK 条数 然后每本书依次是ISBN、书名、作者、库存四个字段
+     */
+    private String search(List<String> request) {
+        if (request.size() < 3 || !("T".equals(request.get(1)) || "A".equals(request.get(1)))) {
+            return badRequest("用法：SEARCH T|A 关键词 [最多条数]");
+        }
+        int limit = parseLimit(request, 3, DEFAULT_SEARCH_LIMIT);
+        if (limit < 0) {
+            return badRequest(BAD_LIMIT);
+        }
+        List<Book> books = "T".equals(request.get(1))
+                ? library.findByTitle(request.get(2))
+                : library.findByAuthor(request.get(2));
+        return bookList(books, limit);
+    }
+
+    /**
+     * 联想，响应与搜索相同，借阅次数多的在前
+     */
+    private String suggest(List<String> request) {
+        if (request.size() < 3 || !("I".equals(request.get(1)) || "T".equals(request.get(1)))) {
+            return badRequest("用法：SUGGEST I|T 开头 [最多条数]");
+        }
+        int limit = parseLimit(request, 3, PrefixIndex.MAX_COMPLETIONS);
+        if (limit < 0) {
+            return badRequest(BAD_LIMIT);
+        }
+        List<Book> books = "I".equals(request.get(1))
+                ? library.suggestByIsbn(request.get(2), limit)
+                : library.suggestByTitle(request.get(2), limit);
+        return bookList(books, limit);
+    }
+
+    /**
+     * 图书列表响应：OK 条数 然后每本书依次是ISBN、书名、作者、库存四个字段
+     */
+    private static String bookList(List<Book> books, int limit) {
+        int count = Math.min(limit, books.size());
+        List<String> fields = new ArrayList<>(2 + count * 4);
+        fields.add(LibraryProtocol.OK);
+        fields.add(String.valueOf(count));
+        for (int i = 0; i < count; i++) {
+            Book book = books.get(i);
+            fields.add(book.getIsbn());
+            fields.add(book.getTitle());
+            fields.add(book.getAuthor());
+            fields.add(String.valueOf(book.getStock()));
+        }
+        return LibraryProtocol.join(fields);
+    }
+
+    /**
+     * 统计，响应：OK 图书种类 用户数 累计借阅 当前借出，然后是热门图书的ISBN、书名、借阅次数
+     */
+    private String stats() {
+        StatisticsReport report = library.getStatisticsReport();
+        List<String> fields = new ArrayList<>();
+        fields.add(LibraryProtocol.OK);
+        fields.add(String.valueOf(report.getBookCount()));
+        fields.add(String.valueOf(report.getUserCount()));
+        fields.add(String.valueOf(report.getTotalLoans()));
+        fields.add(String.valueOf(report.getActiveLoans()));
+        for (Map.Entry<Book, Long> entry : report.getPopularBooks()) {
+            fields.add(entry.getKey().getIsbn());
+            fields.add(entry.getKey().getTitle());
+            fields.add(String.valueOf(entry.getValue()));
+        }
+        return LibraryProtocol.join(fields);
+    }
+
+    /**
+     * 所有图书，响应：OK 条数 然后每本书依次是ISBN、书名、作者、库存四个字段
+     */
+    private String listBooks(List<String> request) {
+        int limit = parseLimit(request, 1, DEFAULT_SEARCH_LIMIT);
+        if (limit < 0) {
+            return badRequest(BAD_LIMIT);
+        }
+        List<String> fields = new ArrayList<>();
+        fields.add(LibraryProtocol.OK);
+        fields.add(null);
+        int count = 0;
+        for (Book book : library.listBooks()) {
+            if (count == limit) {
+                break;
+            }
+            fields.add(book.getIsbn());
+            fields.add(book.getTitle());
+            fields.add(book.getAuthor());
+            fields.add(String.valueOf(book.getStock()));
+            count++;
+        }
+        fields.set(1, String.valueOf(count));
+        return LibraryProtocol.join(fields);
+    }
+
+    /**
+     * 所有借阅记录，响应：OK 条数 然后每条依次是学号、ISBN、借阅日期、到期日期、是否归还五个字段
+     */
+    private String listLoans(List<String> request) {
+        int limit = parseLimit(request, 1, DEFAULT_SEARCH_LIMIT);
+        if (limit < 0) {
+            return badRequest(BAD_LIMIT);
+        }
+        List<String> fields = new ArrayList<>();
+        fields.add(LibraryProtocol.OK);
+        fields.add(null);
+        int count = 0;
+        for (LoanRecord record : library.listLoanRecords()) {
+            if (count == limit) {
+                break;
+            }
+            fields.add(record.getStudentId());
+            fields.add(record.getIsbn());
+            fields.add(record.getBorrowDate().toString());
+            fields.add(record.getDueDate().toString());
+            fields.add(String.valueOf(record.isReturned()));
+            count++;
+        }
+        fields.set(1, String.valueOf(count));
+        return LibraryProtocol.join(fields);
+    }
+
+    /**
+     * 复制进度，响应：OK 已应用序号 主馆序号 落后条数 落后毫秒
+     * 主馆上返回事件账本的最后一条序号，落后为0
+     */
+    private String lag() {
+        if (follower == null) {
+            EventLedger ledger = library.getLedger();
+            String seq = String.valueOf(ledger == null ? 0 : ledger.getLastSequence());
+            return LibraryProtocol.join(LibraryProtocol.OK, seq, seq, "0", "0");
+        }
+        return LibraryProtocol.join(LibraryProtocol.OK,
+                String.valueOf(follower.getAppliedSequence()),
+                String.valueOf(follower.getLeaderSequence()),
+                String.valueOf(follower.getLagEvents()),
+                String.valueOf(follower.getStalenessMillis()));
+    }
+
+    private static String result(OpResult result) {
+        return result.isOk()
+                ? LibraryProtocol.OK
+                : LibraryProtocol.join(LibraryProtocol.ERR, result.name(), result.getMessage());
+    }
+
+    /**
+     * 批量借还的结果：全部成功返回OK，否则返回第一项失败的原因和它的ISBN
+     */
+    private static String batchResult(List<String> isbns, OpResult[] results) {
+        for (int i = 0; i < results.length; i++) {
+            if (!results[i].isOk()) {
+                return LibraryProtocol.join(LibraryProtocol.ERR, results[i].name(), results[i].getMessage(),
+                        isbns.get(i));
+            }
+        }
+        return LibraryProtocol.OK;
+    }
+
+    /**
+     * 读取请求中的最多条数
+     * @param index 最多条数所在的字段
+     * @param defaultLimit 请求没有这个字段时的默认值
+     * @return 最多条数，不是数字或为负数时返回-1
+     */
+    private static int parseLimit(List<String> request, int index, int defaultLimit) {
+        if (request.size() <= index) {
+            return defaultLimit;
+        }
+        try {
+            return Math.max(-1, Integer.parseInt(request.get(index)));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String badRequest(String message) {
+        return LibraryProtocol.join(LibraryProtocol.ERR, LibraryProtocol.BAD_REQUEST, message);
+    }
+
+    // ==================== 启动入口 ====================
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLine.parseArgs(args);
+        int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(LibraryProtocol.DEFAULT_PORT)));
+        int backlog = Integer.parseInt(options.getOrDefault("backlog", "4096"));
+        Path dataDir = Paths.get(options.getOrDefault("data", "data"));
+        Path metricsFile = Paths.get(options.getOrDefault("metrics-file", dataDir.resolve("metrics.prom").toString()));
+        boolean shardMode = Boolean.parseBoolean(options.getOrDefault("shard", "false"));
+        String follow = options.get("follow");
+        String replicationPort = options.get("replication-port");
+        String bookStoreDir = options.get("book-store");
+        InetAddress bindAddress = options.containsKey("bind")
+                ? InetAddress.getByName(options.get("bind"))
+                : shardMode ? InetAddress.getLoopbackAddress() : null;
+        if (follow != null && (replicationPort != null || shardMode)) {
+            throw new IllegalArgumentException("--follow不能和--replication-port、--shard同时使用");
+        }
+        if (bookStoreDir != null && (follow != null || shardMode || replicationPort != null
+                || Boolean.parseBoolean(options.getOrDefault("ledger", "false")))) {
+            throw new IllegalArgumentException("--book-store不能和--follow、--shard、--replication-port、--ledger同时使用");
+        }
+
+        Library library;
+        LibraryServer server;
+        ReplicaFollower follower = null;
+        ReplicationServer replication = null;
+        MappedBookStore bookStore = null;
+        if (follow != null) {
+            int colon = follow.lastIndexOf(':');
+            follower = new ReplicaFollower(follow.substring(0, colon), Integer.parseInt(follow.substring(colon + 1)));
+            follower.start();
+            System.out.println("等待主馆" + follow + "的快照...");
+            library = follower.awaitLibrary(0);
+            follower.registerMetrics(library.getMetrics());
+            long maxStaleness = Long.parseLong(options.getOrDefault("max-staleness-ms", "5000"));
+            server = new LibraryServer(follower, bindAddress, port, backlog, maxStaleness);
+        } else {
+            if (bookStoreDir != null) {
+                int capacity = Integer.parseInt(options.getOrDefault("book-store-capacity", "1048576"));
+                bookStore = new MappedBookStore(Paths.get(bookStoreDir), capacity);
+                library = Library.open(bookStore, dataDir);
+            } else {
+                library = shardMode ? Library.openShard(dataDir) : Library.open(dataDir);
+            }
+            if (Boolean.parseBoolean(options.getOrDefault("ledger", "false")) || replicationPort != null) {
+                library.attachLedger(new EventLedger(dataDir.resolve("ledger")));
+            }
+            if (replicationPort != null) {
+                InetAddress replicationBind = InetAddress.getByName(
+                        options.getOrDefault("replication-bind", InetAddress.getLoopbackAddress().getHostAddress()));
+                replication = new ReplicationServer(library, replicationBind, Integer.parseInt(replicationPort));
+                replication.registerMetrics(library.getMetrics());
+            }
+            // 提醒由主馆（或分馆）发出，只读副本不发
+            new ReminderLog(System.out::println).attachTo(library);
+            server = new LibraryServer(library, bindAddress, port, backlog, shardMode);
+        }
+        int laneCapacity = Integer.parseInt(options.getOrDefault("lanes", "0"));
+        StudentLanes lanes = laneCapacity > 0
+                ? new StudentLanes(laneCapacity, StudentLanes.DEFAULT_MAX_PENDING,
+                        StudentLanes.DEFAULT_OFFER_TIMEOUT_MILLIS)
+                : null;
+        if (lanes != null) {
+            server.attachLanes(lanes);
+        }
+
+        ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-exporter");
+            t.setDaemon(true);
+            return t;
+        });
+        exporter.scheduleWithFixedDelay(() -> {
+            try {
+                library.getMetrics().writePrometheus(metricsFile);
+            } catch (IOException e) {
+                System.err.println("写入性能指标失败：" + e.getMessage());
+            }
+        }, METRICS_EXPORT_SECONDS, METRICS_EXPORT_SECONDS, TimeUnit.SECONDS);
+
+        ReplicaFollower replicaFollower = follower;
+        ReplicationServer replicationServer = replication;
+        MappedBookStore mappedStore = bookStore;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                exporter.shutdownNow();
+                server.close();
+                if (lanes != null) {
+                    lanes.close();
+                }
+                if (replicaFollower != null) {
+                    replicaFollower.close();
+                }
+                if (replicationServer != null) {
+                    replicationServer.close();
+                }
+                library.close();
+                if (mappedStore != null) {
+                    mappedStore.close();
+                }
+            } catch (IOException e) {
+                System.err.println("关闭失败：" + e.getMessage());
+            }
+        }, "library-server-shutdown"));
+        if (replication != null) {
+            replication.start();
+            System.out.println("复制服务已启动，端口：" + replication.getPort());
+        }
+        server.start();
+        System.out.println("图书馆服务器已启动，端口：" + server.getPort());
+    }
+}
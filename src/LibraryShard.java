@@ -0,0 +1,69 @@
+import java.util.List;
+
+/**
+ * 分片部署中的一个分片
+ * 路由器（LibraryRouter）只通过这个接口访问分片：同一进程内的分片（LocalShard）直接调用Library，
+ * 其他进程中的分片（RemoteShard）通过网络协议访问以--shard模式启动的LibraryServer
+ *
+ * 借书、还书、预约的学号不要求注册在本分片上，调用前由路由器到学生所在的分片确认
+ */
+public interface LibraryShard {
+    /**
+     * 添加图书
+     * @return OK或BOOK_EXISTS
+     */
+    OpResult addBook(String title, String author, String isbn, int stock);
+
+    /**
+     * 按ISBN查询图书
+     * @return 图书，不存在返回null
+     */
+    Book getBook(String isbn);
+
+    /**
+     * 注册用户
+     * @return OK或USER_EXISTS
+     */
+    OpResult registerUser(String name, String studentId);
+
+    /**
+     * 查询用户
+     * @return 用户，不存在返回null
+     */
+    User getUser(String studentId);
+
+    /**
+     * 为指定学生借书
+     */
+    OpResult borrowBook(String studentId, String isbn);
+
+    /**
+     * 为指定学生还书
+     */
+    OpResult returnBook(String studentId, String isbn);
+
+    /**
+     * 为指定学生预约
+     */
+    OpResult placeHold(String studentId, String isbn);
+
+    /**
+     * 为指定学生取消预约
+     */
+    OpResult cancelHold(String studentId, String isbn);
+
+    /**
+     * 按书名关键词查找本分片的图书
+     */
+    List<Book> findByTitle(String keyword);
+
+    /**
+     * 按作者关键词查找本分片的图书
+     */
+    List<Book> findByAuthor(String keyword);
+
+    /**
+     * 本分片的统计
+     */
+    StatisticsReport getStatisticsReport();
+}
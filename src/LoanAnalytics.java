@@ -0,0 +1,346 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 借阅历史分析
+ * 一次遍历全部借阅记录（归档中的已归还记录和未归还记录），得出每月借阅次数、作者受欢迎程度、
+ * 平均借阅天数、各组学生（按学号前缀分组，例如入学年份）的逾期率和从未被借过的图书
+ *
+ * 归档按段划分给fork-join任务：每个任务把自己那几段整段解码成int数组，累加到自己的计数器（Tally），
+ * 任务之间不共享任何可变状态，最后两两合并计数器。计数都是可以相加的量（次数、天数之和、位图），
+ * 合并与划分方式无关，结果和单线程遍历一样
+ *
+ * 学号、ISBN在归档里是字典编号：开始前把编号一次性换算成分组下标、图书下标，
+ * 遍历时每条记录只做几次数组访问，不做字符串哈希，也不创建对象
+ * 分析期间的借还不影响结果，但刚好在开始时归还的借阅可能没有被统计到
+ */
+class LoanAnalytics {
+    // 默认按学号前4位分组
+    static final int DEFAULT_COHORT_PREFIX = 4;
+
+    // 默认列出的作者数
+    static final int DEFAULT_TOP_AUTHORS = 10;
+
+    // 每个工作线程大约分到的任务数：足够多才能在线程之间均衡，又不至于每个任务只有一两段
+    private static final int TASKS_PER_THREAD = 8;
+
+    private final ForkJoinPool pool;
+    private final LocalDate today;
+    private final int cohortPrefix;
+
+    // 图书目录：图书下标 -> 图书、作者下标
+    private final List<Book> books = new ArrayList<>();
+    private final Map<String, Integer> bookIndex = new HashMap<>();
+    private final List<String> authors = new ArrayList<>();
+    private int[] bookAuthor;
+
+    // 学生分组：分组下标 -> 学号前缀
+    private final List<String> cohorts = new ArrayList<>();
+    private final Map<String, Integer> cohortIndex = new HashMap<>();
+
+    // 归档字典编号的换算表：ISBN编号 -> 图书下标（-1表示已不在目录中），学号编号 -> 分组下标
+    private int[] isbnBook;
+    private int[] studentCohort;
+
+    // 构造方法
+    LoanAnalytics(ForkJoinPool pool, LocalDate today, int cohortPrefix) {
+        if (cohortPrefix <= 0) {
+            throw new IllegalArgumentException("学号前缀长度必须大于0");
+        }
+        this.pool = pool;
+        this.today = today;
+        this.cohortPrefix = cohortPrefix;
+    }
+
+    /**
+     * 分析借阅历史
+     * @param catalog 图书目录
+     * @param archive 已归还借阅的分段视图
+     * @param openLoans 未归还的借阅
+     * @param topAuthors 列出的作者数
+     * @return 分析结果
+     */
+    AnalyticsReport run(BookCatalog catalog, LoanArchive.Slice archive, Collection<LoanRecord> openLoans,
+                        int topAuthors) {
+        prepare(catalog, archive, openLoans);
+        Tally total = pool.invoke(new ScanTask(archive, 0, archive.parts(),
+                Math.max(1, archive.parts() / (pool.getParallelism() * TASKS_PER_THREAD))));
+        total.merge(scanOpen(openLoans));
+        return report(total, topAuthors);
+    }
+
+    // ==================== 换算表 ====================
+
+    /**
+     * 建立图书、作者、分组的下标和归档编号的换算表
+     */
+    private void prepare(BookCatalog catalog, LoanArchive.Slice archive, Collection<LoanRecord> openLoans) {
+        Map<String, Integer> authorIndex = new HashMap<>();
+        List<Integer> authorOfBook = new ArrayList<>();
+        for (Book book : catalog.values()) {
+            bookIndex.put(book.getIsbn(), books.size());
+            books.add(book);
+            authorOfBook.add(authorIndex.computeIfAbsent(book.getAuthor(), author -> {
+                authors.add(author);
+                return authors.size() - 1;
+            }));
+        }
+        bookAuthor = authorOfBook.stream().mapToInt(Integer::intValue).toArray();
+
+        isbnBook = new int[archive.isbnCount()];
+        for (int code = 0; code < isbnBook.length; code++) {
+            isbnBook[code] = bookIndex.getOrDefault(archive.isbnName(code), -1);
+        }
+        studentCohort = new int[archive.studentCount()];
+        for (int code = 0; code < studentCohort.length; code++) {
+            studentCohort[code] = cohortOf(archive.studentName(code));
+        }
+        // 未归还借阅的学生可能不在归档里，分组也要在开始遍历前定下来
+        for (LoanRecord record : openLoans) {
+            cohortOf(record.getStudentId());
+        }
+    }
+
+    private int cohortOf(String studentId) {
+        String prefix = studentId.length() > cohortPrefix ? studentId.substring(0, cohortPrefix) : studentId;
+        return cohortIndex.computeIfAbsent(prefix, key -> {
+            cohorts.add(key);
+            return cohorts.size() - 1;
+        });
+    }
+
+    // ==================== 遍历 ====================
+
+    /**
+     * 处理归档中第from到to-1部分的任务，部分数不超过leafParts时直接处理，否则对半拆分
+     */
+    private final class ScanTask extends RecursiveTask<Tally> {
+        // ForkJoinTask实现了Serializable，任务只在本进程的线程池里执行，不会被序列化
+        private static final long serialVersionUID = 1L;
+
+        private final transient LoanArchive.Slice archive;
+        private final int from;
+        private final int to;
+        private final int leafParts;
+
+        ScanTask(LoanArchive.Slice archive, int from, int to, int leafParts) {
+            this.archive = archive;
+            this.from = from;
+            this.to = to;
+            this.leafParts = leafParts;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (to - from <= leafParts) {
+                Tally tally = new Tally();
+                LoanArchive.Block block = new LoanArchive.Block();
+                for (int part = from; part < to; part++) {
+                    archive.decode(part, block);
+                    tally.addBlock(block);
+                }
+                return tally;
+            }
+            int mid = (from + to) >>> 1;
+            ScanTask left = new ScanTask(archive, from, mid, leafParts);
+            left.fork();
+            Tally right = new ScanTask(archive, mid, to, leafParts).compute();
+            Tally result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+
+    /**
+     * 处理未归还的借阅（数量不超过馆藏册数，在调用线程中直接处理）
+     */
+    private Tally scanOpen(Collection<LoanRecord> openLoans) {
+        Tally tally = new Tally();
+        int todayDay = (int) today.toEpochDay();
+        for (LoanRecord record : openLoans) {
+            int cohort = cohortOf(record.getStudentId());
+            tally.add(bookIndex.getOrDefault(record.getIsbn(), -1), record.getBorrowDay());
+            tally.cohortLoans[cohort]++;
+            if (record.getDueDay() < todayDay) {
+                tally.cohortOverdue[cohort]++;
+            }
+        }
+        return tally;
+    }
+
+    // ==================== 计数器 ====================
+
+    /**
+     * 一个任务的计数，可以与其他任务的计数合并
+     */
+    private final class Tally {
+        long loans;
+
+        // 每月借阅次数：months[i]是第 monthBase + i 个月（年 * 12 + 月 - 1）
+        int monthBase;
+        long[] months = new long[0];
+
+        final long[] authorLoans = new long[authors.size()];
+        long durationDays;
+        long durationSamples;
+        final long[] cohortLoans = new long[cohorts.size()];
+        final long[] cohortOverdue = new long[cohorts.size()];
+
+        // 被借过的图书（按图书下标的位图）
+        final long[] borrowed = new long[(books.size() + 63) >>> 6];
+
+        /**
+         * 累加一段解码后的归档记录
+         */
+        void addBlock(LoanArchive.Block block) {
+            for (int i = 0; i < block.size; i++) {
+                add(isbnBook[block.isbns[i]], block.borrowDays[i]);
+                int returnDay = block.returnDays[i];
+                if (returnDay == LoanRecord.NO_DAY) {
+                    continue;
+                }
+                durationDays += returnDay - block.borrowDays[i];
+                durationSamples++;
+                int cohort = studentCohort[block.students[i]];
+                cohortLoans[cohort]++;
+                if (returnDay > block.dueDays[i]) {
+                    cohortOverdue[cohort]++;
+                }
+            }
+        }
+
+        /**
+         * 累加一次借阅的次数部分（月份、作者、是否被借过）
+         * @param book 图书下标，-1表示已不在目录中
+         * @param borrowDay 借阅日期
+         */
+        void add(int book, int borrowDay) {
+            loans++;
+            addMonth(monthOf(borrowDay), 1);
+            if (book >= 0) {
+                authorLoans[bookAuthor[book]]++;
+                borrowed[book >>> 6] |= 1L << book;
+            }
+        }
+
+        void addMonth(int month, long count) {
+            if (months.length == 0) {
+                monthBase = month;
+                months = new long[12];
+            } else if (month < monthBase) {
+                // 向前扩展，至少多留一年
+                int shift = Math.max(monthBase - month, 12);
+                long[] grown = new long[months.length + shift];
+                System.arraycopy(months, 0, grown, shift, months.length);
+                months = grown;
+                monthBase -= shift;
+            } else if (month - monthBase >= months.length) {
+                months = Arrays.copyOf(months, Math.max(months.length * 2, month - monthBase + 1));
+            }
+            months[month - monthBase] += count;
+        }
+
+        /**
+         * 把另一个任务的计数加到本计数器
+         */
+        void merge(Tally other) {
+            loans += other.loans;
+            for (int i = 0; i < other.months.length; i++) {
+                if (other.months[i] != 0) {
+                    addMonth(other.monthBase + i, other.months[i]);
+                }
+            }
+            for (int i = 0; i < authorLoans.length; i++) {
+                authorLoans[i] += other.authorLoans[i];
+            }
+            durationDays += other.durationDays;
+            durationSamples += other.durationSamples;
+            for (int i = 0; i < cohortLoans.length; i++) {
+                cohortLoans[i] += other.cohortLoans[i];
+                cohortOverdue[i] += other.cohortOverdue[i];
+            }
+            for (int i = 0; i < borrowed.length; i++) {
+                borrowed[i] |= other.borrowed[i];
+            }
+        }
+    }
+
+    /**
+     * 把epochDay换算成月份序号（年 * 12 + 月 - 1）
+     * 与LocalDate.ofEpochDay相同的算法（以3月1日为一年的开始，闰日落在年末），只取年月，不创建对象
+     */
+    static int monthOf(int epochDay) {
+        // 换算成从公元0年3月1日起的天数，按400年（146097天）一个周期
+        long zeroDay = epochDay + 719528L - 60;
+        long adjust = 0;
+        if (zeroDay < 0) {
+            long cycles = (zeroDay + 1) / 146097 - 1;
+            adjust = cycles * 400;
+            zeroDay -= cycles * 146097;
+        }
+        long year = (400 * zeroDay + 591) / 146097;
+        long dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+        if (dayOfYear < 0) {
+            year--;
+            dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+        }
+        year += adjust;
+        // 从3月开始数的月份，0 ~ 11
+        int marchMonth = (int) ((dayOfYear * 5 + 2) / 153);
+        int month = (marchMonth + 2) % 12;
+        return (int) (year + marchMonth / 10) * 12 + month;
+    }
+
+    // ==================== 结果 ====================
+
+    private AnalyticsReport report(Tally total, int topAuthors) {
+        SortedMap<YearMonth, Long> byMonth = new TreeMap<>();
+        for (int i = 0; i < total.months.length; i++) {
+            if (total.months[i] != 0) {
+                int month = total.monthBase + i;
+                byMonth.put(YearMonth.of(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1), total.months[i]);
+            }
+        }
+
+        List<Map.Entry<String, Long>> popular = new ArrayList<>();
+        for (int i = 0; i < authors.size(); i++) {
+            if (total.authorLoans[i] > 0) {
+                popular.add(new AbstractMap.SimpleEntry<>(authors.get(i), total.authorLoans[i]));
+            }
+        }
+        popular.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        if (popular.size() > topAuthors) {
+            popular = new ArrayList<>(popular.subList(0, topAuthors));
+        }
+
+        List<AnalyticsReport.Cohort> cohortStats = new ArrayList<>();
+        for (int i = 0; i < cohorts.size(); i++) {
+            if (total.cohortLoans[i] > 0) {
+                cohortStats.add(new AnalyticsReport.Cohort(cohorts.get(i), total.cohortLoans[i], total.cohortOverdue[i]));
+            }
+        }
+        cohortStats.sort((a, b) -> a.getPrefix().compareTo(b.getPrefix()));
+
+        List<Book> neverBorrowed = new ArrayList<>();
+        for (int i = 0; i < books.size(); i++) {
+            if ((total.borrowed[i >>> 6] & (1L << i)) == 0) {
+                neverBorrowed.add(books.get(i));
+            }
+        }
+
+        double averageDays = total.durationSamples == 0 ? 0 : (double) total.durationDays / total.durationSamples;
+        return new AnalyticsReport(total.loans, byMonth, popular, total.durationSamples, averageDays,
+                cohortStats, neverBorrowed);
+    }
+}
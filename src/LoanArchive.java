@@ -0,0 +1,366 @@
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 已归还借阅记录的列式归档
+ * 已归还的记录不会再被借还操作用到，没必要每条都保留一个LoanRecord对象
+ * （两个String、两个LocalDate，约200字节），归档后每条只占几个字节：
+ *
+ * 学号、ISBN直接用Library的编号表（IdInterner）里的编号，归档不另外保存字典；
+ * 日期存成epochDay整数；
+ * 新记录先追加到堆内的尾段（五个int数组），满SEGMENT_SIZE条后封存：
+ * 每列单独编码（编号用变长整数，借阅日期存相邻两条的差值，到期日存借阅天数，
+ * 归还日期存与到期日的差值），写入一块堆外的DirectByteBuffer，之后只读不改
+ *
+ * 追加在锁内进行；读取时先取已封存段的列表，再在锁内复制一份尾段，
+ * 遍历过程中的新追加不影响正在进行的遍历
+ * 统计分析用slice()按段读取：每段整段解码成int数组，不创建LoanRecord，各段可以由不同线程同时处理
+ */
+public class LoanArchive {
+    // 每段的记录数
+    static final int SEGMENT_SIZE = 8192;
+
+    // 段头：记录数和四个列偏移
+    private static final int HEADER_SIZE = 20;
+
+    // 已封存的段（只读），替换整个数组发布新段
+    private volatile ByteBuffer[] sealed = new ByteBuffer[0];
+
+    // 学号、ISBN的编号表（与Library共用）
+    private final IdInterner studentIds;
+    private final IdInterner isbnIds;
+
+    // 堆内尾段
+    private final int[] tailStudent = new int[SEGMENT_SIZE];
+    private final int[] tailIsbn = new int[SEGMENT_SIZE];
+    private final int[] tailBorrow = new int[SEGMENT_SIZE];
+    private final int[] tailDue = new int[SEGMENT_SIZE];
+    private final int[] tailReturn = new int[SEGMENT_SIZE];
+    private int tailSize;
+
+    // 记录总数
+    private volatile long size;
+
+    // 已封存段占用的堆外字节数
+    private volatile long sealedBytes;
+
+    /**
+     * 构造函数
+     * @param studentIds 学号的编号表
+     * @param isbnIds ISBN的编号表
+     */
+    public LoanArchive(IdInterner studentIds, IdInterner isbnIds) {
+        this.studentIds = studentIds;
+        this.isbnIds = isbnIds;
+    }
+
+    /**
+     * 归档一条已归还的借阅记录
+     * @param record 借阅记录，带编号时直接使用，否则在编号表里查找或分配
+     */
+    public synchronized void add(LoanRecord record) {
+        int student = record.getStudentHandle();
+        int isbn = record.getBookHandle();
+        tailStudent[tailSize] = student >= 0 ? student : studentIds.intern(record.getStudentId());
+        tailIsbn[tailSize] = isbn >= 0 ? isbn : isbnIds.intern(record.getIsbn());
+        tailBorrow[tailSize] = record.getBorrowDay();
+        tailDue[tailSize] = record.getDueDay();
+        tailReturn[tailSize] = record.getReturnDay();
+        tailSize++;
+        if (tailSize == SEGMENT_SIZE) {
+            seal();
+        }
+        size++;
+    }
+
+    /**
+     * 获取归档记录数
+     * @return 记录数
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * 获取已封存段占用的堆外字节数
+     * @return 字节数
+     */
+    public long getSealedBytes() {
+        return sealedBytes;
+    }
+
+    /**
+     * 获取归档当前内容的只读视图
+     * 视图创建时固定下来，之后追加的记录不在其中；遍历时逐条解码出LoanRecord
+     * @return 只读集合
+     */
+    public Collection<LoanRecord> view() {
+        Slice slice = slice();
+        return new AbstractCollection<LoanRecord>() {
+            @Override
+            public Iterator<LoanRecord> iterator() {
+                return new ArchiveIterator(slice);
+            }
+
+            @Override
+            public int size() {
+                return (int) slice.size();
+            }
+        };
+    }
+
+    /**
+     * 获取归档当前内容的分段视图（供并行统计使用）
+     * 与view()一样在创建时固定下来
+     * @return 分段视图
+     */
+    Slice slice() {
+        ByteBuffer[] segments;
+        int[][] tail;
+        synchronized (this) {
+            segments = sealed;
+            tail = new int[][] {
+                    Arrays.copyOf(tailStudent, tailSize),
+                    Arrays.copyOf(tailIsbn, tailSize),
+                    Arrays.copyOf(tailBorrow, tailSize),
+                    Arrays.copyOf(tailDue, tailSize),
+                    Arrays.copyOf(tailReturn, tailSize)
+            };
+        }
+        // 先取段再取编号数量，段里的编号都小于这个数量
+        return new Slice(segments, tail, studentIds, isbnIds, studentIds.size(), isbnIds.size());
+    }
+
+    // ==================== 段编码 ====================
+
+    /**
+     * 把尾段编码后写入堆外内存
+     * 段格式：记录数、ISBN列偏移、借阅日期列偏移、借阅天数列偏移、归还列偏移（各4字节），随后依次是五列：
+     * 学号编号、ISBN编号（变长整数），借阅日期（第一条为原值，之后为与上一条的差值，zigzag变长整数），
+     * 借阅天数（到期日 - 借阅日期，zigzag变长整数），
+     * 归还（0表示归还日期未知，否则为 zigzag(归还日期 - 到期日) + 1 的变长整数）
+     */
+    private void seal() {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + tailSize * 5 * 5);
+        buf.position(HEADER_SIZE);
+        for (int i = 0; i < tailSize; i++) {
+            writeVarInt(buf, tailStudent[i]);
+        }
+        int isbnOffset = buf.position();
+        for (int i = 0; i < tailSize; i++) {
+            writeVarInt(buf, tailIsbn[i]);
+        }
+        int borrowOffset = buf.position();
+        int previous = 0;
+        for (int i = 0; i < tailSize; i++) {
+            writeVarInt(buf, zigzag(tailBorrow[i] - previous));
+            previous = tailBorrow[i];
+        }
+        int periodOffset = buf.position();
+        for (int i = 0; i < tailSize; i++) {
+            writeVarInt(buf, zigzag(tailDue[i] - tailBorrow[i]));
+        }
+        int returnOffset = buf.position();
+        for (int i = 0; i < tailSize; i++) {
+            writeVarInt(buf, tailReturn[i] == LoanRecord.NO_DAY ? 0 : zigzag(tailReturn[i] - tailDue[i]) + 1);
+        }
+        buf.putInt(0, tailSize).putInt(4, isbnOffset).putInt(8, borrowOffset).putInt(12, periodOffset)
+                .putInt(16, returnOffset);
+        buf.flip();
+
+        ByteBuffer segment = ByteBuffer.allocateDirect(buf.remaining());
+        segment.put(buf).flip();
+        ByteBuffer[] next = Arrays.copyOf(sealed, sealed.length + 1);
+        next[next.length - 1] = segment.asReadOnlyBuffer();
+        sealed = next;
+        sealedBytes += segment.capacity();
+        tailSize = 0;
+    }
+
+    private static void writeVarInt(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static int readVarInt(ByteBuffer buf, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get(pos[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // ==================== 分段读取 ====================
+
+    /**
+     * 归档某一时刻的内容：已封存的各段加上尾段的副本，以及当时的编号数量
+     * 第0 ~ parts()-2部分是已封存段，最后一部分是尾段；各部分互不相关，可以在不同线程中解码
+     */
+    static final class Slice {
+        private final ByteBuffer[] segments;
+        private final int[][] tail;
+        private final IdInterner studentIds;
+        private final IdInterner isbnIds;
+        private final int studentCount;
+        private final int isbnCount;
+
+        private Slice(ByteBuffer[] segments, int[][] tail, IdInterner studentIds, IdInterner isbnIds,
+                      int studentCount, int isbnCount) {
+            this.segments = segments;
+            this.tail = tail;
+            this.studentIds = studentIds;
+            this.isbnIds = isbnIds;
+            this.studentCount = studentCount;
+            this.isbnCount = isbnCount;
+        }
+
+        /**
+         * 部分数（已封存段数 + 1个尾段）
+         */
+        int parts() {
+            return segments.length + 1;
+        }
+
+        /**
+         * 记录总数
+         */
+        long size() {
+            return (long) segments.length * SEGMENT_SIZE + tail[0].length;
+        }
+
+        /**
+         * 学号编号的数量，学号编号在[0, studentCount())之间
+         */
+        int studentCount() {
+            return studentCount;
+        }
+
+        /**
+         * ISBN编号的数量，ISBN编号在[0, isbnCount())之间
+         */
+        int isbnCount() {
+            return isbnCount;
+        }
+
+        String studentName(int code) {
+            return studentIds.nameOf(code);
+        }
+
+        String isbnName(int code) {
+            return isbnIds.nameOf(code);
+        }
+
+        /**
+         * 把一部分整段解码到block中
+         * @param part 部分下标
+         * @param block 解码目标，可以反复使用
+         */
+        void decode(int part, Block block) {
+            if (part == segments.length) {
+                int count = tail[0].length;
+                System.arraycopy(tail[0], 0, block.students, 0, count);
+                System.arraycopy(tail[1], 0, block.isbns, 0, count);
+                System.arraycopy(tail[2], 0, block.borrowDays, 0, count);
+                System.arraycopy(tail[3], 0, block.dueDays, 0, count);
+                System.arraycopy(tail[4], 0, block.returnDays, 0, count);
+                block.size = count;
+                return;
+            }
+            ByteBuffer buf = segments[part];
+            int count = buf.getInt(0);
+            int[] pos = {HEADER_SIZE};
+            for (int i = 0; i < count; i++) {
+                block.students[i] = readVarInt(buf, pos);
+            }
+            pos[0] = buf.getInt(4);
+            for (int i = 0; i < count; i++) {
+                block.isbns[i] = readVarInt(buf, pos);
+            }
+            pos[0] = buf.getInt(8);
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                previous += unzigzag(readVarInt(buf, pos));
+                block.borrowDays[i] = previous;
+            }
+            pos[0] = buf.getInt(12);
+            for (int i = 0; i < count; i++) {
+                block.dueDays[i] = block.borrowDays[i] + unzigzag(readVarInt(buf, pos));
+            }
+            pos[0] = buf.getInt(16);
+            for (int i = 0; i < count; i++) {
+                int value = readVarInt(buf, pos);
+                block.returnDays[i] = value == 0 ? LoanRecord.NO_DAY : block.dueDays[i] + unzigzag(value - 1);
+            }
+            block.size = count;
+        }
+    }
+
+    /**
+     * 解码后的一段记录，按列存放（第i条记录是各数组的第i个元素）
+     */
+    static final class Block {
+        final int[] students = new int[SEGMENT_SIZE];
+        final int[] isbns = new int[SEGMENT_SIZE];
+        final int[] borrowDays = new int[SEGMENT_SIZE];
+        final int[] dueDays = new int[SEGMENT_SIZE];
+        final int[] returnDays = new int[SEGMENT_SIZE];
+        int size;
+    }
+
+    /**
+     * 依次解码每一部分，逐条转换成LoanRecord
+     */
+    private static class ArchiveIterator implements Iterator<LoanRecord> {
+        private final Slice slice;
+        private final Block block = new Block();
+
+        // 下一个要解码的部分，和当前部分中的下标
+        private int part;
+        private int index;
+
+        ArchiveIterator(Slice slice) {
+            this.slice = slice;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (index == block.size && part < slice.parts()) {
+                slice.decode(part++, block);
+                index = 0;
+            }
+            return index < block.size;
+        }
+
+        @Override
+        public LoanRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = index++;
+            LoanRecord record = new LoanRecord(slice.studentName(block.students[i]), slice.isbnName(block.isbns[i]),
+                    LocalDate.ofEpochDay(block.borrowDays[i]), LocalDate.ofEpochDay(block.dueDays[i]));
+            record.markReturned(block.returnDays[i]);
+            return record;
+        }
+    }
+}
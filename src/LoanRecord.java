@@ -1,20 +1,38 @@
 import java.time.LocalDate;
 
 public class LoanRecord {
+    // 归还日期未知（还没归还，或者是记录归还日期之前的旧数据）
+    static final int NO_DAY = Integer.MIN_VALUE;
+
     // 定义成员变量
-    private String studentId;      // 借书人学号
-    private String isbn;           // 借阅图书的ISBN
-    private LocalDate borrowDate;  // 借阅日期
-    private LocalDate dueDate;     // 到期日期
-    private boolean returned;
+    private final String studentId;  // 借书人学号
+    private final String isbn;       // 借阅图书的ISBN
+    private final int borrowDay;     // 借阅日期（epochDay）
+    private final int dueDay;        // 到期日期（epochDay）
+    private final int studentHandle; // 学号的内部编号（IdInterner），-1表示没有编号
+    private final int bookHandle;    // ISBN的内部编号（IdInterner），-1表示没有编号
+    private volatile boolean returned;
+    private volatile int returnDay;  // 归还日期（epochDay），NO_DAY表示未知
 
     // 构造方法
     public LoanRecord(String studentId, String isbn, LocalDate borrowDate, LocalDate dueDate) {
+        this(studentId, isbn, borrowDate, dueDate, -1, -1);
+    }
+
+    /**
+     * 构造方法：带内部编号的借阅记录（放入未归还借阅表时使用）
+     * studentId、isbn应当是编号表中的那一个字符串实例，同一学号、ISBN的记录共用它们
+     */
+    LoanRecord(String studentId, String isbn, LocalDate borrowDate, LocalDate dueDate,
+               int studentHandle, int bookHandle) {
         this.studentId = studentId;
         this.isbn = isbn;
-        this.borrowDate = borrowDate;
-        this.dueDate = dueDate;
+        this.borrowDay = (int) borrowDate.toEpochDay();
+        this.dueDay = (int) dueDate.toEpochDay();
+        this.studentHandle = studentHandle;
+        this.bookHandle = bookHandle;
         this.returned = false;  // 新借阅记录默认未归还
+        this.returnDay = NO_DAY;
     }// 是否已归还
 
     public String getStudentId() {
@@ -26,11 +44,27 @@ public class LoanRecord {
     }
 
     public LocalDate getBorrowDate() {
-        return borrowDate;
+        return LocalDate.ofEpochDay(borrowDay);
     }
 
     public LocalDate getDueDate() {
-        return dueDate;
+        return LocalDate.ofEpochDay(dueDay);
+    }
+
+    int getBorrowDay() {
+        return borrowDay;
+    }
+
+    int getDueDay() {
+        return dueDay;
+    }
+
+    int getStudentHandle() {
+        return studentHandle;
+    }
+
+    int getBookHandle() {
+        return bookHandle;
     }
 
     public boolean isReturned() {
@@ -41,13 +75,35 @@ public class LoanRecord {
         this.returned = returned;
     }
 
+    /**
+     * 获取归还日期
+     * @return 归还日期，未归还或旧数据中没有记录时返回null
+     */
+    public LocalDate getReturnDate() {
+        int day = returnDay;
+        return day == NO_DAY ? null : LocalDate.ofEpochDay(day);
+    }
+
+    int getReturnDay() {
+        return returnDay;
+    }
+
+    /**
+     * 标记为已归还并记下归还日期
+     * @param returnDay 归还日期（epochDay），NO_DAY表示未知
+     */
+    void markReturned(int returnDay) {
+        this.returnDay = returnDay;
+        this.returned = true;
+    }
+
     // 对象转换成字符串
     @Override
     public String toString() {
         return "LoanRecord{studentId='" + studentId + '\'' +
                 ", isbn='" + isbn + '\'' +
-                ", borrowDate=" + borrowDate +
-                ", dueDate=" + dueDate +
+                ", borrowDate=" + getBorrowDate() +
+                ", dueDate=" + getDueDate() +
                 ", returned=" + returned +
                 '}';
     }
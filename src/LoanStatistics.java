@@ -0,0 +1,248 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 借阅统计计数器
+ * 借书、还书时实时更新，显示统计时不再遍历借阅记录
+ * 总数用LongAdder，多个线程同时借书时不会争抢同一个变量
+ *
+ * 每本书的借阅次数按图书编号（IdInterner分配的连续整数）存放在分块的计数数组里，
+ * 借书时只做一次数组下标的原子加，不用字符串哈希，也不为每本书分配计数器对象
+ *
+ * 最受欢迎图书：维护一个最多TOP_CAPACITY本书的候选集合
+ * 借阅次数只增不减，所以一本书只有在次数超过集合中的最小值时才可能进入集合，
+ * 集合始终是借阅次数最多的那几本书；查询时只需要对这几本排序
+ * 图书下架时清零它的次数并移出集合，集合因此空出位置时扫描一遍计数数组补满
+ */
+public class LoanStatistics {
+    // 候选集合的大小
+    public static final int TOP_CAPACITY = 10;
+
+    // 每块计数数组的长度
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // 图书编号与ISBN的对应关系
+    private final IdInterner isbns;
+
+    // 总借阅次数、当前借出数量
+    private final LongAdder totalLoans = new LongAdder();
+    private final LongAdder activeLoans = new LongAdder();
+
+    // 图书编号 -> 借阅次数，下标为 编号 >>> CHUNK_BITS 的块里第 编号 & (CHUNK_SIZE - 1) 个
+    private volatile AtomicLongArray[] borrowCounts = new AtomicLongArray[16];
+    private final Object chunkLock = new Object();
+
+    // 最受欢迎图书候选集合：图书编号（只在锁内替换，整个数组换新，读时不加锁）
+    private volatile int[] top = new int[0];
+
+    // 候选集合中的最小借阅次数（可能偏小，只用来快速跳过不可能进入集合的书）
+    private volatile long topMin = 0;
+
+    /**
+     * 构造函数
+     * @param isbns 图书编号表，用来把编号换回ISBN
+     */
+    public LoanStatistics(IdInterner isbns) {
+        this.isbns = isbns;
+    }
+
+    /**
+     * 记录一次借阅
+     * @param book 图书编号
+     * @return 这本书新的借阅次数
+     */
+    public long recordBorrow(int book) {
+        totalLoans.increment();
+        activeLoans.increment();
+        long count = chunkFor(book, true).incrementAndGet(book & (CHUNK_SIZE - 1));
+        offer(book, count);
+        return count;
+    }
+
+    /**
+     * 记录一次归还
+     */
+    public void recordReturn() {
+        activeLoans.decrement();
+    }
+
+    public long getTotalLoans() {
+        return totalLoans.sum();
+    }
+
+    public long getActiveLoans() {
+        return activeLoans.sum();
+    }
+
+    /**
+     * 查询某本书的借阅次数
+     * @param isbn 图书ISBN
+     * @return 借阅次数
+     */
+    public long getBorrowCount(String isbn) {
+        int book = isbns.lookup(isbn);
+        return book < 0 ? 0 : countOf(book);
+    }
+
+    /**
+     * 按图书编号查询借阅次数
+     * @param book 图书编号
+     * @return 借阅次数
+     */
+    public long getBorrowCount(int book) {
+        return countOf(book);
+    }
+
+    /**
+     * 借阅次数最多的k本书（k不超过TOP_CAPACITY）
+     * @param k 数量
+     * @return 按借阅次数从多到少排列的 ISBN -> 借阅次数
+     */
+    public List<Map.Entry<String, Long>> topBooks(int k) {
+        int[] current = top;
+        List<Map.Entry<String, Long>> result = new ArrayList<>(current.length);
+        for (int book : current) {
+            result.add(new AbstractMap.SimpleEntry<>(isbns.nameOf(book), countOf(book)));
+        }
+        result.sort((e1, e2) -> e2.getValue().compareTo(e1.getValue()));
+        return result.size() > k ? result.subList(0, k) : result;
+    }
+
+    /**
+     * 图书下架：清零它的借阅次数，并从候选集合中移出
+     * 由Library在该ISBN的锁内调用，和这本书的借阅不会同时进行
+     * @param book 图书编号
+     */
+    public synchronized void remove(int book) {
+        AtomicLongArray chunk = chunkFor(book, false);
+        if (chunk != null) {
+            chunk.set(book & (CHUNK_SIZE - 1), 0);
+        }
+        if (indexOf(top, book) >= 0) {
+            refillTop();
+        }
+    }
+
+    /**
+     * 扫描全部计数，重新选出借阅次数最多的TOP_CAPACITY本书（只在下架时调用，开销与图书编号数成正比）
+     */
+    private void refillTop() {
+        int[] best = new int[TOP_CAPACITY];
+        long[] counts = new long[TOP_CAPACITY];
+        int size = 0;
+        AtomicLongArray[] chunks = borrowCounts;
+        for (int c = 0; c < chunks.length; c++) {
+            AtomicLongArray chunk = chunks[c];
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                long count = chunk.get(i);
+                if (count == 0 || (size == TOP_CAPACITY && count <= counts[size - 1])) {
+                    continue;
+                }
+                // 插入排序，counts从大到小
+                int pos = size < TOP_CAPACITY ? size++ : size - 1;
+                while (pos > 0 && counts[pos - 1] < count) {
+                    best[pos] = best[pos - 1];
+                    counts[pos] = counts[pos - 1];
+                    pos--;
+                }
+                best[pos] = (c << CHUNK_BITS) | i;
+                counts[pos] = count;
+            }
+        }
+        top = Arrays.copyOf(best, size);
+        topMin = size == 0 ? 0 : counts[size - 1];
+    }
+
+    private long countOf(int book) {
+        AtomicLongArray chunk = chunkFor(book, false);
+        return chunk == null ? 0 : chunk.get(book & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * 借阅次数增加后，检查这本书是否应该进入候选集合
+     */
+    private void offer(int book, long count) {
+        int[] current = top;
+        if (current.length >= TOP_CAPACITY && count <= topMin) {
+            return;
+        }
+        if (indexOf(current, book) >= 0) {
+            return;
+        }
+        synchronized (this) {
+            current = top;
+            if (indexOf(current, book) >= 0) {
+                return;
+            }
+            int[] next;
+            if (current.length < TOP_CAPACITY) {
+                next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = book;
+            } else {
+                // 找出集合中次数最少的书，被新书超过时替换掉
+                int minIndex = -1;
+                long min = Long.MAX_VALUE;
+                for (int i = 0; i < current.length; i++) {
+                    long c = countOf(current[i]);
+                    if (c < min) {
+                        min = c;
+                        minIndex = i;
+                    }
+                }
+                if (count <= min) {
+                    topMin = min;
+                    return;
+                }
+                next = current.clone();
+                next[minIndex] = book;
+            }
+            top = next;
+            if (next.length >= TOP_CAPACITY) {
+                long min = Long.MAX_VALUE;
+                for (int b : next) {
+                    min = Math.min(min, countOf(b));
+                }
+                topMin = min;
+            }
+        }
+    }
+
+    private static int indexOf(int[] books, int book) {
+        for (int i = 0; i < books.length; i++) {
+            if (books[i] == book) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 取图书编号所在的计数块
+     * @param create 块不存在时是否创建
+     */
+    private AtomicLongArray chunkFor(int book, boolean create) {
+        int index = book >>> CHUNK_BITS;
+        AtomicLongArray[] chunks = borrowCounts;
+        AtomicLongArray chunk = index < chunks.length ? chunks[index] : null;
+        if (chunk != null || !create) {
+            return chunk;
+        }
+        synchronized (chunkLock) {
+            chunks = borrowCounts;
+            if (index < chunks.length && chunks[index] != null) {
+                return chunks[index];
+            }
+            // 复制出新目录再发布，读的一方不加锁也不会看到写了一半的目录
+            chunks = Arrays.copyOf(chunks, Math.max(chunks.length, Integer.highestOneBit(index) << 1));
+            chunk = new AtomicLongArray(CHUNK_SIZE);
+            chunks[index] = chunk;
+            borrowCounts = chunks;
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.List;
+
+/**
+ * 同一进程内的分片：直接调用Library
+ */
+public class LocalShard implements LibraryShard {
+    private final Library library;
+
+    // 构造方法
+    public LocalShard(Library library) {
+        this.library = library;
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    @Override
+    public OpResult addBook(String title, String author, String isbn, int stock) {
+        return library.addBook(title, author, isbn, stock);
+    }
+
+    @Override
+    public Book getBook(String isbn) {
+        return library.getBook(isbn);
+    }
+
+    @Override
+    public OpResult registerUser(String name, String studentId) {
+        return library.registerUser(name, studentId);
+    }
+
+    @Override
+    public User getUser(String studentId) {
+        return library.getUser(studentId);
+    }
+
+    @Override
+    public OpResult borrowBook(String studentId, String isbn) {
+        return library.borrowBook(studentId, isbn);
+    }
+
+    @Override
+    public OpResult returnBook(String studentId, String isbn) {
+        return library.returnBook(studentId, isbn);
+    }
+
+    @Override
+    public OpResult placeHold(String studentId, String isbn) {
+        return library.placeHold(studentId, isbn);
+    }
+
+    @Override
+    public OpResult cancelHold(String studentId, String isbn) {
+        return library.cancelHold(studentId, isbn);
+    }
+
+    @Override
+    public List<Book> findByTitle(String keyword) {
+        return library.findByTitle(keyword);
+    }
+
+    @Override
+    public List<Book> findByAuthor(String keyword) {
+        return library.findByAuthor(keyword);
+    }
+
+    @Override
+    public StatisticsReport getStatisticsReport() {
+        return library.getStatisticsReport();
+    }
+}
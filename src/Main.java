@@ -1,17 +1,46 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * 图书馆管理系统主程序
  * 负责用户界面交互和程序流程控制
  * 通过控制台菜单与用户交互，调用Library类的方法完成各种功能
+ * Library只返回结果，所有的输入提示和结果显示都在这里完成
  */
 public class Main {
+    // 数据目录：快照和日志保存在这里，下次启动时自动恢复
+    private static final String DATA_DIR = "data";
+
+    // 联想最多显示的条数
+    private static final int SUGGEST_LIMIT = 5;
+
     // 图书馆系统实例，管理所有业务逻辑
-    private static Library library = new Library();
+    private static Library library;
 
     // 扫描器对象，用于读取用户输入
     private static Scanner scanner = new Scanner(System.in);
 
+    // 当前终端的登录会话，未登录时为null
+    private static Session session;
+
+    // 后台线程发出的逾期、预约提醒，显示主菜单前打印，不打断正在进行的输入
+    private static final ConcurrentLinkedQueue<String> reminders = new ConcurrentLinkedQueue<>();
+
     /**
      * 程序入口点
      * 显示欢迎信息，启动主循环，处理用户选择
@@ -19,9 +48,12 @@ public class Main {
      */
     public static void main(String[] args) {
         System.out.println("=== 欢迎使用图书馆管理系统 ===");
+        library = openLibrary();
+        new ReminderLog(reminders::add).attachTo(library);
 
         // 主循环：持续显示菜单并处理用户选择，直到用户选择退出
         while (true) {
+            showReminders();
             showMainMenu();
             int choice = getIntInput("请选择操作：");
 
@@ -46,12 +78,13 @@ public class Main {
                     searchBooks();
                     break;
                 case 7:
-                    library.showStatistics();
+                    showStatistics();
                     break;
                 case 8:
-                    library.logout();
+                    userLogout();
                     break;
                 case 0:
+                    closeLibrary();
                     System.out.println("感谢使用，再见！");
                     return; // 退出程序
                 default:
@@ -88,7 +121,34 @@ public class Main {
     private static void userLogin() {
         System.out.println("\n=== 用户登录 ===");
         String studentId = getStringInput("请输入学号：");
-        library.login(studentId);
+        Session newSession = library.login(studentId);
+        if (newSession == null) {
+            System.out.println(OpResult.USER_NOT_FOUND.getMessage());
+            return;
+        }
+        // 同一终端重新登录时，先关闭旧会话
+        library.logout(session);
+        session = newSession;
+        System.out.println("登录成功！欢迎，" + session.getUser().getName());
+        // 提醒已经为他保留的预约图书
+        for (Hold hold : library.getMyHolds(session)) {
+            if (hold.isClaimed()) {
+                Book book = library.getBook(hold.getIsbn());
+                System.out.println("您预约的《" + (book != null ? book.getTitle() : hold.getIsbn()) +
+                        "》已为您保留，请在" + formatTime(hold.getClaimExpiresAt()) + "之前借阅");
+            }
+        }
+    }
+
+    /**
+     * 用户退出登录
+     * 关闭当前终端的会话
+     */
+    private static void userLogout() {
+        if (session != null && library.logout(session)) {
+            System.out.println("再见，" + session.getUser().getName() + "！");
+        }
+        session = null;
     }
 
     /**
@@ -96,7 +156,15 @@ public class Main {
      * 调用Library的listAllBooks方法显示图书馆中的所有图书
      */
     private static void showAllBooks() {
-        library.listAllBooks();
+        System.out.println("\n=== 所有图书 ===");
+        boolean empty = true;
+        for (Book book : library.listBooks()) {
+            System.out.println(book);
+            empty = false;
+        }
+        if (empty) {
+            System.out.println("暂无图书");
+        }
     }
 
     /**
@@ -107,25 +175,29 @@ public class Main {
     private static void bookManagement() {
         // 图书管理子菜单循环
         while (true) {
-            library.showBookManagementMenu();
+            showBookManagementMenu();
             int choice = getIntInput("请选择操作：");
 
             switch (choice) {
                 case 1:
                     // 添加图书
-                    library.addBookFromInput();
+                    addBookFromInput();
                     break;
                 case 2:
                     // 删除图书
-                    library.removeBookFromInput();
+                    removeBookFromInput();
                     break;
                 case 3:
                     // 修改库存
-                    library.updateStockFromInput();
+                    updateStockFromInput();
                     break;
                 case 4:
                     // 查看所有图书
-                    library.listAllBooks();
+                    showAllBooks();
+                    break;
+                case 5:
+                    // 批量导入图书
+                    importBooksFromFile();
                     break;
                 case 0:
                     // 返回主菜单
@@ -148,17 +220,17 @@ public class Main {
     private static void userManagement() {
         // 用户管理子菜单循环
         while (true) {
-            library.showUserManagementMenu();
+            showUserManagementMenu();
             int choice = getIntInput("请选择操作：");
 
             switch (choice) {
                 case 1:
                     // 注册新用户
-                    library.registerUserFromInput();
+                    registerUserFromInput();
                     break;
                 case 2:
                     // 查看所有用户
-                    library.listAllUsers();
+                    listAllUsers();
                     break;
                 case 0:
                     // 返回主菜单
@@ -181,14 +253,14 @@ public class Main {
      */
     private static void borrowManagement() {
         // 检查用户是否已登录
-        if (library.getCurrentUser() == null) {
+        if (!library.isLoggedIn(session)) {
             System.out.println("请先登录！");
             return;
         }
 
         // 借阅管理子菜单循环
         while (true) {
-            library.showBorrowManagementMenu();
+            showBorrowManagementMenu();
             int choice = getIntInput("请选择操作：");
 
             switch (choice) {
@@ -202,11 +274,27 @@ public class Main {
                     break;
                 case 3:
                     // 查看我的借阅记录
-                    library.showMyLoans();
+                    showMyLoans();
                     break;
                 case 4:
                     // 查看所有借阅记录（管理员功能）
-                    library.showAllLoanRecords();
+                    showAllLoanRecords();
+                    break;
+                case 5:
+                    // 查看逾期借阅
+                    showOverdueLoans();
+                    break;
+                case 6:
+                    // 预约图书
+                    placeHold(getStringInput("请输入要预约的图书ISBN："));
+                    break;
+                case 7:
+                    // 查看我的预约
+                    showMyHolds();
+                    break;
+                case 8:
+                    // 取消预约
+                    cancelHold();
                     break;
                 case 0:
                     // 返回主菜单
@@ -229,21 +317,25 @@ public class Main {
     private static void searchBooks() {
         // 图书查询子菜单循环
         while (true) {
-            library.showSearchMenu();
+            showSearchMenu();
             int choice = getIntInput("请选择查询方式：");
 
             switch (choice) {
                 case 1:
                     // 按书名查询
-                    library.searchByTitle();
+                    searchByTitle();
                     break;
                 case 2:
                     // 按作者查询
-                    library.searchByAuthor();
+                    searchByAuthor();
                     break;
                 case 3:
                     // 按ISBN查询
-                    library.searchByIsbn();
+                    searchByIsbn();
+                    break;
+                case 4:
+                    // 按开头联想
+                    suggestBooks();
                     break;
                 case 0:
                     // 返回主菜单
@@ -266,11 +358,38 @@ public class Main {
     private static void borrowBook() {
         System.out.println("\n=== 借阅图书 ===");
         // 先显示所有可借图书
-        library.listAllBooks();
-        // 获取用户要借阅的图书ISBN
-        String isbn = getStringInput("请输入要借阅的图书ISBN：");
+        showAllBooks();
+        // 获取用户要借阅的图书ISBN，多本时整批借阅
+        List<String> isbns = parseIsbns(getStringInput("请输入要借阅的图书ISBN（多本用逗号分隔）："));
+        if (isbns.size() > 1) {
+            OpResult[] results = library.borrowBooks(session, isbns);
+            if (printBatchFailures(isbns, results)) {
+                System.out.println("批量借阅成功！共" + isbns.size() + "本，到期时间：" +
+                        library.findLoan(session.getUser().getStudentId(), isbns.get(0)).getDueDate());
+            }
+            return;
+        }
+        String isbn = isbns.isEmpty() ? "" : isbns.get(0);
         // 执行借阅操作
-        library.borrowBook(isbn);
+        OpResult result = library.borrowBook(session, isbn);
+        if (result == OpResult.OUT_OF_STOCK) {
+            System.out.println(result.getMessage());
+            // 没有库存时可以排队预约，有书归还时为您保留
+            if ("y".equalsIgnoreCase(getStringInput("是否预约这本书？(y/n)：").trim())) {
+                placeHold(isbn);
+            }
+            return;
+        }
+        if (!result.isOk()) {
+            System.out.println(result.getMessage());
+            return;
+        }
+        LoanRecord record = library.findLoan(session.getUser().getStudentId(), isbn);
+        System.out.println("借阅成功！");
+        System.out.println("图书：" + library.getBook(isbn).getTitle());
+        if (record != null) {
+            System.out.println("到期时间：" + record.getDueDate());
+        }
     }
 
     /**
@@ -281,15 +400,606 @@ public class Main {
     private static void returnBook() {
         System.out.println("\n=== 归还图书 ===");
         // 先显示用户当前的借阅记录
-        library.showMyLoans();
-        // 获取用户要归还的图书ISBN
-        String isbn = getStringInput("请输入要归还的图书ISBN：");
+        showMyLoans();
+        // 获取用户要归还的图书ISBN，多本时整批归还
+        List<String> isbns = parseIsbns(getStringInput("请输入要归还的图书ISBN（多本用逗号分隔）："));
+        if (isbns.size() > 1) {
+            if (printBatchFailures(isbns, library.returnBooks(session, isbns))) {
+                System.out.println("批量归还成功！共" + isbns.size() + "本");
+            }
+            return;
+        }
+        String isbn = isbns.isEmpty() ? "" : isbns.get(0);
         // 执行归还操作
-        library.returnBook(isbn);
+        OpResult result = library.returnBook(session, isbn);
+        if (!result.isOk()) {
+            System.out.println(result.getMessage());
+            return;
+        }
+        Book book = library.getBook(isbn);
+        System.out.println("归还成功！图书：" + (book != null ? book.getTitle() : isbn));
+    }
+
+    /**
+     * 拆分用逗号分隔的多个ISBN
+     */
+    private static List<String> parseIsbns(String input) {
+        List<String> isbns = new ArrayList<>();
+        for (String part : input.split("[,，]")) {
+            if (!part.trim().isEmpty()) {
+                isbns.add(part.trim());
+            }
+        }
+        return isbns;
+    }
+
+    /**
+     * 显示批量操作中失败的项
+     * @return 全部成功返回true
+     */
+    private static boolean printBatchFailures(List<String> isbns, OpResult[] results) {
+        boolean ok = true;
+        for (int i = 0; i < results.length; i++) {
+            if (!results[i].isOk()) {
+                System.out.println(isbns.get(i) + "：" + results[i].getMessage());
+                ok = false;
+            }
+        }
+        if (!ok) {
+            System.out.println("以上图书无法办理，整批均未办理");
+        }
+        return ok;
+    }
+
+    // ==================== 图书管理 ====================
+
+    /**
+     * 显示图书管理菜单
+     * 提供图书管理的各种操作选项
+     */
+    private static void showBookManagementMenu() {
+        System.out.println("\n=== 图书管理 ===");
+        System.out.println("1. 添加图书");
+        System.out.println("2. 删除图书");
+        System.out.println("3. 修改库存");
+        System.out.println("4. 查看所有图书");
+        System.out.println("5. 批量导入图书");
+        System.out.println("0. 返回主菜单");
+    }
+
+    /**
+     * 从用户输入添加图书
+     * 提示用户输入图书信息，然后调用Library的addBook方法
+     */
+    private static void addBookFromInput() {
+        System.out.println("\n=== 添加图书 ===");
+        String title = getStringInput("请输入书名：");
+        String author = getStringInput("请输入作者：");
+        String isbn = getStringInput("请输入ISBN：");
+        int stock;
+        try {
+            stock = Integer.parseInt(getStringInput("请输入库存数量："));
+        } catch (NumberFormatException e) {
+            System.out.println("错误：库存数量必须是数字！");
+            return;
+        }
+        OpResult result = library.addBook(title, author, isbn, stock);
+        System.out.println(result.isOk() ? "成功添加图书：" + title : result.getMessage());
+    }
+
+    /**
+     * 从用户输入删除图书
+     * 先显示所有图书，让用户选择要删除的图书，并确认删除操作
+     */
+    private static void removeBookFromInput() {
+        System.out.println("\n=== 删除图书 ===");
+        showAllBooks();
+        String isbn = getStringInput("请输入要删除的图书ISBN：");
+        String confirm = getStringInput("确认删除？(y/n)：");
+        if ("y".equalsIgnoreCase(confirm)) {
+            OpResult result = library.removeBook(isbn);
+            System.out.println(result.isOk() ? "成功删除图书，ISBN：" + isbn : result.getMessage());
+        } else {
+            System.out.println("取消删除");
+        }
+    }
+
+    /**
+     * 从用户输入更新库存
+     * 先显示所有图书，让用户选择要修改的图书，然后输入新库存数量
+     */
+    private static void updateStockFromInput() {
+        System.out.println("\n=== 修改库存 ===");
+        showAllBooks();
+        String isbn = getStringInput("请输入图书ISBN：");
+        int newStock;
+        try {
+            newStock = Integer.parseInt(getStringInput("请输入新库存数量："));
+        } catch (NumberFormatException e) {
+            System.out.println("错误：库存数量必须是数字！");
+            return;
+        }
+        OpResult result = library.updateStock(isbn, newStock);
+        if (result.isOk()) {
+            System.out.println("成功更新库存：" + library.getBook(isbn).getTitle() + " -> " + newStock + "本");
+        } else {
+            System.out.println(result.getMessage());
+        }
+    }
+
+    /**
+     * 从文件批量导入图书
+     * 支持CSV（书名,作者,ISBN,库存）和MARC文本格式（.mrk），导入后显示统计和部分错误明细
+     */
+    private static void importBooksFromFile() {
+        System.out.println("\n=== 批量导入图书 ===");
+        Path file = Paths.get(getStringInput("请输入文件路径："));
+        if (!Files.isRegularFile(file)) {
+            System.out.println("错误：文件不存在！");
+            return;
+        }
+        CatalogImporter importer = new CatalogImporter(library, Runtime.getRuntime().availableProcessors(), 1);
+        ImportReport report;
+        try {
+            report = importer.importFile(file, CatalogImporter.detectFormat(file));
+        } catch (IOException e) {
+            System.out.println("导入失败：" + e.getMessage());
+            return;
+        }
+        System.out.println("读取记录：" + report.getRecords() + "条");
+        System.out.println("成功导入：" + report.getImported() + "条");
+        System.out.println("ISBN重复：" + report.getDuplicates() + "条");
+        System.out.println("格式错误：" + report.getInvalid() + "条");
+        List<String> errors = report.getErrors();
+        for (int i = 0; i < errors.size() && i < 20; i++) {
+            System.out.println("  " + errors.get(i));
+        }
+        if (errors.size() > 20) {
+            System.out.println("  ……（共" + (report.getDuplicates() + report.getInvalid()) + "条错误）");
+        }
+    }
+
+    // ==================== 用户管理 ====================
+
+    /**
+     * 显示用户管理菜单
+     * 提供用户管理的各种操作选项
+     */
+    private static void showUserManagementMenu() {
+        System.out.println("\n=== 用户管理 ===");
+        System.out.println("1. 注册新用户");
+        System.out.println("2. 查看所有用户");
+        System.out.println("0. 返回主菜单");
+    }
+
+    /**
+     * 从用户输入注册新用户
+     * 提示用户输入姓名和学号，然后调用Library的registerUser方法
+     */
+    private static void registerUserFromInput() {
+        System.out.println("\n=== 注册新用户 ===");
+        String name = getStringInput("请输入姓名：");
+        String studentId = getStringInput("请输入学号：");
+        OpResult result = library.registerUser(name, studentId);
+        if (result.isOk()) {
+            System.out.println("成功注册用户：" + name + " (学号：" + studentId + ")");
+        } else {
+            System.out.println(result.getMessage());
+        }
+    }
+
+    /**
+     * 显示所有用户信息
+     */
+    private static void listAllUsers() {
+        System.out.println("\n=== 所有用户 ===");
+        boolean empty = true;
+        for (User user : library.listUsers()) {
+            System.out.println(user);
+            empty = false;
+        }
+        if (empty) {
+            System.out.println("暂无用户");
+        }
+    }
+
+    // ==================== 借阅管理 ====================
+
+    /**
+     * 显示借阅管理菜单
+     * 提供借阅相关的各种操作选项
+     */
+    private static void showBorrowManagementMenu() {
+        System.out.println("\n=== 借阅管理 ===");
+        System.out.println("1. 借阅图书");
+        System.out.println("2. 归还图书");
+        System.out.println("3. 查看我的借阅记录");
+        System.out.println("4. 查看所有借阅记录（管理员）");
+        System.out.println("5. 查看逾期借阅（管理员）");
+        System.out.println("6. 预约图书");
+        System.out.println("7. 查看我的预约");
+        System.out.println("8. 取消预约");
+        System.out.println("0. 返回主菜单");
+    }
+
+    /**
+     * 显示当前用户的借阅记录
+     * 只显示未归还的图书
+     */
+    private static void showMyLoans() {
+        Collection<LoanRecord> myLoans = library.getMyLoans(session);
+        if (myLoans == null) {
+            System.out.println(OpResult.NOT_LOGGED_IN.getMessage());
+            return;
+        }
+
+        System.out.println("\n=== 我的借阅记录 ===");
+        if (myLoans.isEmpty()) {
+            System.out.println("暂无借阅记录");
+            return;
+        }
+        for (LoanRecord record : myLoans) {
+            Book book = library.getBook(record.getIsbn());
+            System.out.println("图书：" + (book != null ? book.getTitle() : "未知") +
+                    " | 借阅日期：" + record.getBorrowDate() +
+                    " | 到期日期：" + record.getDueDate());
+        }
+    }
+
+    /**
+     * 显示所有借阅记录（管理员功能）
+     * 显示所有用户的借阅记录，包括已归还和未归还的
+     */
+    private static void showAllLoanRecords() {
+        System.out.println("\n=== 所有借阅记录 ===");
+        boolean empty = true;
+        for (LoanRecord record : library.listLoanRecords()) {
+            Book book = library.getBook(record.getIsbn());
+            User user = library.getUser(record.getStudentId());
+            String status = record.isReturned() ? "已归还" : "未归还";
+
+            System.out.println("用户：" + (user != null ? user.getName() : "未知") +
+                    " | 图书：" + (book != null ? book.getTitle() : "未知") +
+                    " | 借阅日期：" + record.getBorrowDate() +
+                    " | 到期日期：" + record.getDueDate() +
+                    " | 状态：" + status);
+            empty = false;
+        }
+        if (empty) {
+            System.out.println("暂无借阅记录");
+        }
+    }
+
+    /**
+     * 显示截至今天的逾期借阅，以及3天内到期的借阅
+     */
+    private static void showOverdueLoans() {
+        System.out.println("\n=== 逾期借阅 ===");
+        LocalDate today = LocalDate.now();
+        List<LoanRecord> overdue = library.getOverdueLoans(today);
+        if (overdue.isEmpty()) {
+            System.out.println("暂无逾期借阅");
+        }
+        for (LoanRecord record : overdue) {
+            printLoanReminder(record, "已逾期" + ChronoUnit.DAYS.between(record.getDueDate(), today) + "天");
+        }
+
+        System.out.println("\n=== 即将到期（" + OverdueTracker.DEFAULT_NEAR_DUE_DAYS + "天内） ===");
+        List<LoanRecord> nearDue = library.getLoansDueWithin(today, OverdueTracker.DEFAULT_NEAR_DUE_DAYS);
+        if (nearDue.isEmpty()) {
+            System.out.println("暂无即将到期的借阅");
+        }
+        for (LoanRecord record : nearDue) {
+            printLoanReminder(record, "还剩" + ChronoUnit.DAYS.between(today, record.getDueDate()) + "天");
+        }
+    }
+
+    /**
+     * 预约图书，显示排在前面的人数
+     * @param isbn 图书ISBN
+     */
+    private static void placeHold(String isbn) {
+        OpResult result = library.placeHold(session, isbn.trim());
+        if (!result.isOk()) {
+            System.out.println(result.getMessage());
+            return;
+        }
+        Hold hold = library.getHoldQueue().find(session.getUser().getStudentId(), isbn.trim());
+        System.out.println("预约成功！" + (hold != null && !hold.isClaimed()
+                ? "前面还有" + library.getHoldQueue().aheadOf(hold) + "人排队，轮到您时会为您保留" +
+                  HoldQueue.DEFAULT_CLAIM_MILLIS / (60 * 60 * 1000) + "小时"
+                : "已为您保留一本"));
+    }
+
+    /**
+     * 显示当前用户的预约：排队中的显示前面的人数，已保留的显示保留截止时间
+     */
+    private static void showMyHolds() {
+        List<Hold> myHolds = library.getMyHolds(session);
+        if (myHolds == null) {
+            System.out.println(OpResult.NOT_LOGGED_IN.getMessage());
+            return;
+        }
+
+        System.out.println("\n=== 我的预约 ===");
+        if (myHolds.isEmpty()) {
+            System.out.println("暂无预约");
+            return;
+        }
+        for (Hold hold : myHolds) {
+            Book book = library.getBook(hold.getIsbn());
+            String status = hold.isClaimed()
+                    ? "已保留，请在" + formatTime(hold.getClaimExpiresAt()) + "之前借阅"
+                    : "排队中，前面还有" + library.getHoldQueue().aheadOf(hold) + "人";
+            System.out.println("图书：" + (book != null ? book.getTitle() : "未知") +
+                    " | ISBN：" + hold.getIsbn() +
+                    " | " + status);
+        }
+    }
+
+    /**
+     * 取消预约
+     */
+    private static void cancelHold() {
+        showMyHolds();
+        OpResult result = library.cancelHold(session, getStringInput("请输入要取消预约的图书ISBN：").trim());
+        System.out.println(result.isOk() ? "已取消预约" : result.getMessage());
+    }
+
+    private static String formatTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())
+                .truncatedTo(ChronoUnit.MINUTES).toString().replace('T', ' ');
+    }
+
+    private static void printLoanReminder(LoanRecord record, String status) {
+        Book book = library.getBook(record.getIsbn());
+        User user = library.getUser(record.getStudentId());
+        System.out.println("用户：" + (user != null ? user.getName() : "未知") +
+                " | 图书：" + (book != null ? book.getTitle() : "未知") +
+                " | 到期日期：" + record.getDueDate() +
+                " | " + status);
+    }
+
+    // ==================== 图书查询 ====================
+
+    /**
+     * 显示图书查询菜单
+     * 提供不同的查询方式选项
+     */
+    private static void showSearchMenu() {
+        System.out.println("\n=== 图书查询 ===");
+        System.out.println("1. 按书名查询");
+        System.out.println("2. 按作者查询");
+        System.out.println("3. 按ISBN查询");
+        System.out.println("4. 按开头联想（ISBN或书名）");
+        System.out.println("0. 返回主菜单");
+    }
+
+    /**
+     * 按书名查询图书
+     * 支持模糊查询，不区分大小写
+     */
+    private static void searchByTitle() {
+        System.out.println("\n=== 按书名查询 ===");
+        String keyword = getStringInput("请输入书名关键词：");
+        printSearchResult(library.findByTitle(keyword));
+    }
+
+    /**
+     * 按作者查询图书
+     * 支持模糊查询，不区分大小写
+     */
+    private static void searchByAuthor() {
+        System.out.println("\n=== 按作者查询 ===");
+        String keyword = getStringInput("请输入作者关键词：");
+        printSearchResult(library.findByAuthor(keyword));
+    }
+
+    /**
+     * 按ISBN精确查询图书
+     */
+    private static void searchByIsbn() {
+        System.out.println("\n=== 按ISBN查询 ===");
+        String isbn = getStringInput("请输入ISBN：");
+
+        Book book = library.getBook(isbn);
+        if (book != null) {
+            System.out.println("\n查询结果：");
+            System.out.println(book);
+            return;
+        }
+        System.out.println("未找到该图书");
+        // 可能只输入了一部分，列出以它开头的ISBN
+        List<Book> suggestions = isbn.trim().isEmpty()
+                ? Collections.emptyList()
+                : library.suggestByIsbn(isbn.trim(), SUGGEST_LIMIT);
+        if (!suggestions.isEmpty()) {
+            System.out.println("\n您要找的是不是：");
+            for (Book suggestion : suggestions) {
+                System.out.println(suggestion);
+            }
+        }
+    }
+
+    /**
+     * 按开头联想：列出ISBN或书名以输入开头的图书，借阅次数多的在前
+     */
+    private static void suggestBooks() {
+        System.out.println("\n=== 按开头联想 ===");
+        String prefix = getStringInput("请输入ISBN或书名的开头：");
+        List<Book> byIsbn = library.suggestByIsbn(prefix, SUGGEST_LIMIT);
+        List<Book> byTitle = library.suggestByTitle(prefix, SUGGEST_LIMIT);
+        if (!byIsbn.isEmpty()) {
+            System.out.println("\nISBN以此开头：");
+            for (Book book : byIsbn) {
+                System.out.println(book);
+            }
+        }
+        if (!byTitle.isEmpty()) {
+            System.out.println("\n书名以此开头：");
+            for (Book book : byTitle) {
+                System.out.println(book);
+            }
+        }
+        if (byIsbn.isEmpty() && byTitle.isEmpty()) {
+            System.out.println("未找到相关图书");
+        }
+    }
+
+    /**
+     * 打印查询结果
+     * @param result 查询到的图书
+     */
+    private static void printSearchResult(List<Book> result) {
+        System.out.println("\n查询结果：");
+        for (Book book : result) {
+            System.out.println(book);
+        }
+        if (result.isEmpty()) {
+            System.out.println("未找到相关图书");
+        }
+    }
+
+    // ==================== 系统统计 ====================
+
+    /**
+     * 显示系统统计信息
+     * 包括图书总数、用户总数、借阅统计、最受欢迎图书等
+     */
+    private static void showStatistics() {
+        StatisticsReport report = library.getStatisticsReport();
+        System.out.println("\n=== 系统统计 ===");
+        System.out.println("图书总数：" + report.getBookCount());
+        System.out.println("用户总数：" + report.getUserCount());
+        System.out.println("总借阅次数：" + report.getTotalLoans());
+        System.out.println("当前借出图书：" + report.getActiveLoans());
+
+        if (!report.getPopularBooks().isEmpty()) {
+            System.out.println("\n最受欢迎的图书：");
+            for (Map.Entry<Book, Long> entry : report.getPopularBooks()) {
+                System.out.println(entry.getKey().getTitle() + " - 借阅次数：" + entry.getValue());
+            }
+        }
+        showOperationMetrics();
+
+        // 分析要遍历全部借阅历史，由用户决定是否进行
+        if ("y".equalsIgnoreCase(getStringInput("\n是否生成借阅历史分析？(y/n)：").trim())) {
+            showLoanAnalytics();
+        }
+    }
+
+    /**
+     * 显示借阅历史分析：每月借阅次数、作者排行、平均借阅天数、各年级逾期率、从未被借过的图书
+     */
+    private static void showLoanAnalytics() {
+        AnalyticsReport report = library.getAnalyticsReport(LocalDate.now(), LoanAnalytics.DEFAULT_COHORT_PREFIX);
+        System.out.println("\n=== 借阅历史分析 ===");
+        if (report.getLoanCount() == 0) {
+            System.out.println("暂无借阅记录");
+            return;
+        }
+        System.out.println("借阅记录：" + report.getLoanCount());
+
+        System.out.println("\n每月借阅次数：");
+        for (Map.Entry<YearMonth, Long> entry : report.getBorrowsByMonth().entrySet()) {
+            System.out.println(entry.getKey() + "  " + entry.getValue());
+        }
+
+        if (!report.getPopularAuthors().isEmpty()) {
+            System.out.println("\n最受欢迎的作者：");
+            for (Map.Entry<String, Long> entry : report.getPopularAuthors()) {
+                System.out.println(entry.getKey() + " - 借阅次数：" + entry.getValue());
+            }
+        }
+
+        if (report.getDurationSamples() > 0) {
+            System.out.printf("%n平均借阅天数：%.1f（%d条有归还日期的记录）%n",
+                    report.getAverageLoanDays(), report.getDurationSamples());
+        }
+
+        if (!report.getCohorts().isEmpty()) {
+            System.out.println("\n按学号前" + LoanAnalytics.DEFAULT_COHORT_PREFIX + "位分组的逾期率：");
+            for (AnalyticsReport.Cohort cohort : report.getCohorts()) {
+                System.out.printf("%s  借阅%d次，逾期%d次，逾期率%.1f%%%n", cohort.getPrefix(),
+                        cohort.getLoans(), cohort.getOverdue(), cohort.getOverdueRate() * 100);
+            }
+        }
+
+        System.out.println("\n从未被借过的图书：" + report.getNeverBorrowed().size() + "本");
+        int shown = 0;
+        for (Book book : report.getNeverBorrowed()) {
+            if (shown++ == 20) {
+                System.out.println("……");
+                break;
+            }
+            System.out.println(book);
+        }
+    }
+
+    /**
+     * 显示各操作的次数、失败次数和耗时分位数（微秒）
+     */
+    private static void showOperationMetrics() {
+        LibraryMetrics metrics = library.getMetrics();
+        System.out.println("\n操作耗时（微秒）：");
+        System.out.printf("%-16s %8s %8s %9s %9s %9s %9s%n", "操作", "次数", "失败", "p50", "p99", "p99.9", "最大");
+        for (int op = 0; op < LibraryMetrics.operationCount(); op++) {
+            LatencyHistogram.Snapshot latency = metrics.latency(op);
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-16s %8d %8d %9.1f %9.1f %9.1f %9.1f%n", LibraryMetrics.nameOf(op),
+                    latency.getCount(), latency.getCount() - metrics.count(op, OpResult.OK),
+                    latency.percentile(0.50) / 1000.0, latency.percentile(0.99) / 1000.0,
+                    latency.percentile(0.999) / 1000.0, latency.getMax() / 1000.0);
+        }
+        for (int op = 0; op < LibraryMetrics.operationCount(); op++) {
+            for (OpResult result : OpResult.values()) {
+                long n = result.isOk() ? 0 : metrics.count(op, result);
+                if (n > 0) {
+                    System.out.println("  " + LibraryMetrics.nameOf(op) + " 失败原因 " + result.name() + "：" + n + "次");
+                }
+            }
+        }
     }
 
     // ==================== 辅助方法 ====================
 
+    /**
+     * 打开图书馆
+     * 优先使用数据目录恢复上次的数据，数据目录不可用时退回纯内存模式
+     * @return 图书馆实例
+     */
+    private static Library openLibrary() {
+        try {
+            return Library.open(Paths.get(DATA_DIR));
+        } catch (IOException e) {
+            System.out.println("警告：无法打开数据目录（" + e.getMessage() + "），本次数据不会保存");
+            return new Library();
+        }
+    }
+
+    /**
+     * 打印积攒的提醒
+     */
+    private static void showReminders() {
+        String reminder;
+        while ((reminder = reminders.poll()) != null) {
+            System.out.println(reminder);
+        }
+    }
+
+    /**
+     * 关闭图书馆，保存最后一次快照
+     */
+    private static void closeLibrary() {
+        try {
+            library.close();
+        } catch (IOException e) {
+            System.out.println("错误：保存数据失败：" + e.getMessage());
+        }
+    }
+
     /**
      * 获取用户输入的整数
      * 处理用户输入，确保输入的是有效数字
@@ -0,0 +1,58 @@
+/**
+ * 内存映射存储中的一本书
+ * 只是指向MappedBookStore中某条记录的轻量视图：
+ * 书名、作者在用到时才从文件解码；库存先看存储里还没写入文件的修改，没有再读文件中的int区域
+ * 视图记下了创建时的那一代文件、槽位和记录偏移：书被删除后槽位可能被别的书占用，存储整理后槽位也会变，
+ * 这时按ISBN重新查找，不会读到或改到另一本书
+ */
+public class MappedBook extends Book {
+    // 所在的存储、文件代、槽位和记录偏移
+    private final MappedBookStore store;
+    private final MappedBookStore.Tables tables;
+    private final int slot;
+    private final long offset;
+
+    // 构造方法（只由MappedBookStore创建）
+    MappedBook(MappedBookStore store, MappedBookStore.Tables tables, int slot, long offset, String isbn) {
+        super(null, null, isbn, 0);
+        this.store = store;
+        this.tables = tables;
+        this.slot = slot;
+        this.offset = offset;
+    }
+
+    @Override
+    public String getTitle() {
+        return store.titleOf(tables, offset);
+    }
+
+    @Override
+    public String getAuthor() {
+        return store.authorOf(tables, offset);
+    }
+
+    @Override
+    public int getStock() {
+        return store.stockOf(tables, slot, offset, getIsbn());
+    }
+
+    @Override
+    public void setStock(int stock) {
+        store.setStock(tables, slot, offset, getIsbn(), stock);
+    }
+
+    @Override
+    public void setTitle(String title) {
+        throw new UnsupportedOperationException("映射存储中的书名不能修改");
+    }
+
+    @Override
+    public void setAuthor(String author) {
+        throw new UnsupportedOperationException("映射存储中的作者不能修改");
+    }
+
+    @Override
+    public void setIsbn(String isbn) {
+        throw new UnsupportedOperationException("映射存储中的ISBN不能修改");
+    }
+}
@@ -0,0 +1,651 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于内存映射文件的图书存储
+ * 适合几千万本书的大目录：数据都在映射文件里，堆上几乎不占空间，打开时也不需要加载
+ *
+ * 数据目录中有三个文件：
+ * books.idx  文件头 + 开放寻址哈希表，每个槽位16字节：[状态int][哈希int][数据偏移long]
+ * books.stk  库存区：每个槽位一个int
+ * books.dat  字符串区：每本书一条记录 [ISBN长度][书名长度][作者长度][UTF-8字节...]
+ *
+ * 借还书改的库存不直接写文件，先记在内存里（pendingStock），Library做快照时把这些库存写进快照，
+ * 快照落盘后才写入库存区（flushStock）并落盘（force）。这样库存区总是某一次快照时的状态，
+ * 重启时先按快照改库存，再重放之后的日志，借还不会被重复计算或丢失；用户、借阅、预约由同一份快照和日志恢复
+ * 只有添加、删除图书直接改文件：重放日志时已存在的图书不再添加，不存在的不再删除
+ *
+ * 哈希表容量在创建时确定，装载因子超过0.75时拒绝添加
+ * 删除把槽位标记为已删除，并记下字符串区里不再使用的字节数；已删除的槽位超过容量的1/8，
+ * 或者字符串区一半以上不再使用时，后台线程整理存储（见compact）：把现有图书拷贝到新一代文件
+ * （books-代号.idx/.stk/.dat），落盘后改写books.gen指向新一代，再删除旧文件。
+ * 整理期间读不受影响，添加、删除等整理完成
+ */
+public class MappedBookStore implements BookStore, Closeable {
+    // 文件头标识 "LMSB"
+    private static final int MAGIC = 0x4C4D5342;
+
+    // 文件头布局
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_CAPACITY = 4;
+    private static final int H_SIZE = 8;
+    private static final int H_DELETED = 12;
+    private static final int H_DATA_END = 16;
+    private static final int H_GARBAGE = 24;
+
+    // 槽位布局
+    private static final int SLOT_SIZE = 16;
+    private static final int S_STATE = 0;
+    private static final int S_HASH = 4;
+    private static final int S_OFFSET = 8;
+
+    // 槽位状态
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+    private static final int DELETED = 2;
+
+    // 哈希表最大容量（索引文件要能整个映射进一个MappedByteBuffer）
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    // 字符串区按256MB分段映射，一条记录不会跨段
+    private static final int CHUNK_SIZE = 1 << 28;
+
+    // 字符串区不再使用的字节少于这个数时不为回收空间整理
+    private static final long COMPACT_MIN_GARBAGE = 16L << 20;
+
+    // 记录当前是哪一代文件
+    private static final String GENERATION_FILE = "books.gen";
+
+    // 以int为单位、带内存屏障地读写映射区（槽位状态和库存）
+    private static final VarHandle INT =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path dir;
+
+    // 当前一代文件，整理后整个换掉；读线程先取一次，之后都用取到的这一代
+    private volatile Tables tables;
+
+    // 还没有写入库存区的库存：ISBN -> 库存，删除图书时一起删除
+    private final ConcurrentHashMap<String, Integer> pending = new ConcurrentHashMap<>();
+
+    // 是否已有后台线程在整理
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    private boolean closed;
+
+    /**
+     * 打开（或创建）映射存储
+     * @param dir 数据目录
+     * @param capacity 哈希表容量，只在创建时使用，会向上取到2的幂，最大2^26
+     */
+    public MappedBookStore(Path dir, int capacity) throws IOException {
+        Files.createDirectories(dir);
+        this.dir = dir;
+        Path genFile = dir.resolve(GENERATION_FILE);
+        long generation = Files.exists(genFile)
+                ? Long.parseLong(new String(Files.readAllBytes(genFile), StandardCharsets.US_ASCII).trim())
+                : 0;
+        // 上次整理到一半（新一代没写完）或者整理完来不及删除旧文件时留下的文件
+        deleteFiles(generation + 1);
+        if (generation > 0) {
+            deleteFiles(generation - 1);
+        }
+        this.tables = new Tables(dir, generation, capacity);
+    }
+
+    @Override
+    public Book get(String isbn) {
+        Tables t = tables;
+        int slot = t.find(isbn, isbn.getBytes(StandardCharsets.UTF_8));
+        return slot < 0 ? null : new MappedBook(this, t, slot, t.offsetOf(slot), isbn);
+    }
+
+    @Override
+    public boolean containsKey(String isbn) {
+        return tables.find(isbn, isbn.getBytes(StandardCharsets.UTF_8)) >= 0;
+    }
+
+    @Override
+    public boolean add(Book book) {
+        return insert(book, true);
+    }
+
+    @Override
+    public boolean addAbsent(Book book) {
+        return insert(book, false);
+    }
+
+    /**
+     * 添加图书
+     * @param book 新图书
+     * @param checkExisting 是否先查重：调用者确认ISBN一定不存在时跳过，省掉一次探测索引文件
+     * @return 添加成功返回true，ISBN已存在返回false
+     */
+    private synchronized boolean insert(Book book, boolean checkExisting) {
+        byte[] isbn = book.getIsbn().getBytes(StandardCharsets.UTF_8);
+        byte[] title = book.getTitle().getBytes(StandardCharsets.UTF_8);
+        byte[] author = book.getAuthor().getBytes(StandardCharsets.UTF_8);
+        if (isbn.length > 0xFFFF || title.length > 0xFFFF || author.length > 0xFFFF) {
+            throw new IllegalArgumentException("书名、作者或ISBN太长");
+        }
+        Tables t = tables;
+        if (checkExisting && t.find(book.getIsbn(), isbn) >= 0) {
+            return false;
+        }
+        if (t.size() + 1 > t.capacity * 3L / 4) {
+            throw new IllegalStateException("图书存储已满，容量：" + t.capacity);
+        }
+        t.put(hash(book.getIsbn()), record(isbn, title, author), book.getStock());
+        return true;
+    }
+
+    @Override
+    public synchronized Book remove(String isbn) {
+        Tables t = tables;
+        int slot = t.find(isbn, isbn.getBytes(StandardCharsets.UTF_8));
+        if (slot < 0) {
+            return null;
+        }
+        // 返回一个普通Book作为删除前的副本
+        long offset = t.offsetOf(slot);
+        Integer stock = pending.remove(isbn);
+        Book removed = new Book(t.readString(offset, 1), t.readString(offset, 2), isbn,
+                stock != null ? stock : t.stock(slot));
+        t.delete(slot);
+        if (t.needsCompaction() && compacting.compareAndSet(false, true)) {
+            Thread compactor = new Thread(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.err.println("整理图书存储失败：" + e.getMessage());
+                } finally {
+                    compacting.set(false);
+                }
+            }, "book-store-compactor");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return tables.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Iterable<Book> values() {
+        return () -> new Iterator<Book>() {
+            private final Tables t = tables;
+            private int next = advance(0);
+
+            private int advance(int from) {
+                for (int i = from; i < t.capacity; i++) {
+                    if (t.state(i) == USED) {
+                        return i;
+                    }
+                }
+                return t.capacity;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < t.capacity;
+            }
+
+            @Override
+            public Book next() {
+                if (next >= t.capacity) {
+                    throw new NoSuchElementException();
+                }
+                int slot = next;
+                next = advance(slot + 1);
+                long offset = t.offsetOf(slot);
+                return new MappedBook(MappedBookStore.this, t, slot, offset, t.readString(offset, 0));
+            }
+        };
+    }
+
+    /**
+     * 映射文件存储不提供不可变快照（几千万本书的目录无法在堆上保留多个版本），
+     * 返回存储本身：遍历是弱一致的，但不会抛出并发修改异常
+     * @return 存储本身
+     */
+    @Override
+    public BookCatalog snapshot() {
+        return this;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    @Override
+    public Map<String, Integer> pendingStock() {
+        return new HashMap<>(pending);
+    }
+
+    /**
+     * 把快照里的库存写入库存区（调用者持有这本书的ISBN锁）
+     * 快照之后这本书又被删除时不再写；又借还过时库存区写入快照时的值，内存里仍是最新的库存
+     */
+    @Override
+    public synchronized void flushStock(String isbn, int stock) {
+        if (!pending.containsKey(isbn)) {
+            return;
+        }
+        Tables t = tables;
+        int slot = t.find(isbn, isbn.getBytes(StandardCharsets.UTF_8));
+        if (slot >= 0) {
+            t.setStock(slot, stock);
+        }
+        pending.remove(isbn, stock);
+    }
+
+    @Override
+    public synchronized void force() {
+        tables.force();
+    }
+
+    /**
+     * 整理存储：把现有图书按顺序拷贝到新一代文件，去掉已删除的槽位和字符串区里不再使用的记录
+     * 新一代落盘后才改写books.gen，中途宕机时下次打开仍使用旧一代，并删除写了一半的新文件
+     * 整理期间添加、删除、写入库存等待；读线程继续读旧一代，旧一代的映射在没有线程使用后才释放
+     */
+    public synchronized void compact() throws IOException {
+        if (closed) {
+            return;
+        }
+        Tables old = tables;
+        deleteFiles(old.generation + 1);
+        Tables fresh = new Tables(dir, old.generation + 1, old.capacity);
+        for (int slot = 0; slot < old.capacity; slot++) {
+            if (old.state(slot) == USED) {
+                fresh.put(old.hashOf(slot), old.readRecord(old.offsetOf(slot)), old.stock(slot));
+            }
+        }
+        fresh.force();
+
+        Path tmp = dir.resolve(GENERATION_FILE + ".tmp");
+        Files.write(tmp, Long.toString(fresh.generation).getBytes(StandardCharsets.US_ASCII));
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(GENERATION_FILE), StandardCopyOption.ATOMIC_MOVE);
+
+        tables = fresh;
+        old.close();
+        deleteFiles(old.generation);
+    }
+
+    /**
+     * 把文件落盘并关闭
+     * 还没有写入库存区的库存不在这里写：它们由Library关闭时的最后一次快照写入（见flushStock）
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        tables.force();
+        tables.close();
+    }
+
+    // ==================== 供MappedBook使用 ====================
+
+    String titleOf(Tables t, long offset) {
+        return t.readString(offset, 1);
+    }
+
+    String authorOf(Tables t, long offset) {
+        return t.readString(offset, 2);
+    }
+
+    int stockOf(Tables t, int slot, long offset, String isbn) {
+        Integer stock = pending.get(isbn);
+        if (stock != null) {
+            return stock;
+        }
+        Tables current = tables;
+        int resolved = resolve(current, t, slot, offset, isbn);
+        return resolved < 0 ? 0 : current.stock(resolved);
+    }
+
+    /**
+     * 修改库存（调用者持有这本书的ISBN锁）
+     * 这本书已经被删除时忽略，不会改到占用了同一个槽位的另一本书
+     */
+    void setStock(Tables t, int slot, long offset, String isbn, int stock) {
+        if (resolve(tables, t, slot, offset, isbn) >= 0) {
+            pending.put(isbn, stock);
+        }
+    }
+
+    // ==================== 内部实现 ====================
+
+    /**
+     * 找到一本书现在所在的槽位：槽位还是创建视图时的那条记录就直接用，
+     * 否则（槽位已被删除、被别的书重新占用，或者存储整理过）按ISBN重新查找
+     * @return 槽位下标，这本书已不存在返回-1
+     */
+    private static int resolve(Tables current, Tables t, int slot, long offset, String isbn) {
+        if (current == t && t.state(slot) == USED && t.offsetOf(slot) == offset) {
+            return slot;
+        }
+        return current.find(isbn, isbn.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void deleteFiles(long generation) throws IOException {
+        for (String suffix : new String[]{".idx", ".stk", ".dat"}) {
+            Files.deleteIfExists(dir.resolve(fileName(generation, suffix)));
+        }
+    }
+
+    private static String fileName(long generation, String suffix) {
+        return generation == 0 ? "books" + suffix : "books-" + generation + suffix;
+    }
+
+    /**
+     * 一条字符串区记录：[ISBN长度][书名长度][作者长度][UTF-8字节...]
+     */
+    private static byte[] record(byte[] isbn, byte[] title, byte[] author) {
+        byte[] record = new byte[6 + isbn.length + title.length + author.length];
+        putShort(record, 0, isbn.length);
+        putShort(record, 2, title.length);
+        putShort(record, 4, author.length);
+        System.arraycopy(isbn, 0, record, 6, isbn.length);
+        System.arraycopy(title, 0, record, 6 + isbn.length, title.length);
+        System.arraycopy(author, 0, record, 6 + isbn.length + title.length, author.length);
+        return record;
+    }
+
+    private static void putShort(byte[] bytes, int pos, int value) {
+        bytes[pos] = (byte) value;
+        bytes[pos + 1] = (byte) (value >>> 8);
+    }
+
+    private static int slotPos(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int hash(String isbn) {
+        int h = isbn.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 一代存储文件：哈希表、库存区和字符串区
+     * 同一代里字符串区只追加不覆盖，一条记录的偏移始终指向同一本书
+     */
+    static final class Tables {
+        final long generation;
+
+        // 哈希表容量（2的幂）
+        final int capacity;
+
+        private final FileChannel idxChannel;
+        private final FileChannel stkChannel;
+        private final FileChannel datChannel;
+        private final MappedByteBuffer index;
+        private final MappedByteBuffer stocks;
+        private volatile MappedByteBuffer[] chunks;
+
+        /**
+         * 打开一代文件，文件不存在时按给定容量创建（向上取到2的幂，最大2^26）
+         */
+        Tables(Path dir, long generation, int capacity) throws IOException {
+            this.generation = generation;
+            this.idxChannel = open(dir.resolve(fileName(generation, ".idx")));
+            this.stkChannel = open(dir.resolve(fileName(generation, ".stk")));
+            this.datChannel = open(dir.resolve(fileName(generation, ".dat")));
+
+            boolean created = idxChannel.size() == 0;
+            int cap;
+            if (created) {
+                if (capacity > MAX_CAPACITY) {
+                    throw new IllegalArgumentException("容量不能超过" + MAX_CAPACITY);
+                }
+                cap = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+            } else {
+                MappedByteBuffer header = idxChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(H_MAGIC) != MAGIC) {
+                    throw new IOException("不是有效的图书存储文件：" + dir);
+                }
+                cap = header.getInt(H_CAPACITY);
+            }
+            this.capacity = cap;
+
+            this.index = idxChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) cap * SLOT_SIZE);
+            index.order(ByteOrder.LITTLE_ENDIAN);
+            this.stocks = stkChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) cap * 4);
+            stocks.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (created) {
+                index.putInt(H_MAGIC, MAGIC);
+                index.putInt(H_CAPACITY, cap);
+                index.putInt(H_SIZE, 0);
+                index.putInt(H_DELETED, 0);
+                index.putLong(H_DATA_END, 0L);
+                index.putLong(H_GARBAGE, 0L);
+            }
+
+            long dataEnd = index.getLong(H_DATA_END);
+            int chunkCount = (int) (dataEnd / CHUNK_SIZE) + 1;
+            MappedByteBuffer[] mapped = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                mapped[i] = mapChunk(i);
+            }
+            this.chunks = mapped;
+        }
+
+        int size() {
+            return (int) INT.getAcquire(index, H_SIZE);
+        }
+
+        int state(int slot) {
+            return (int) INT.getAcquire(index, slotPos(slot) + S_STATE);
+        }
+
+        int hashOf(int slot) {
+            return index.getInt(slotPos(slot) + S_HASH);
+        }
+
+        long offsetOf(int slot) {
+            return index.getLong(slotPos(slot) + S_OFFSET);
+        }
+
+        int stock(int slot) {
+            return (int) INT.getVolatile(stocks, slot * 4);
+        }
+
+        void setStock(int slot, int stock) {
+            INT.setVolatile(stocks, slot * 4, stock);
+        }
+
+        /**
+         * 已删除的槽位太多（查找不存在的ISBN要探测很远），或者字符串区一半以上不再使用
+         */
+        boolean needsCompaction() {
+            long garbage = index.getLong(H_GARBAGE);
+            return index.getInt(H_DELETED) > capacity / 8
+                    || (garbage > COMPACT_MIN_GARBAGE && garbage * 2 > index.getLong(H_DATA_END));
+        }
+
+        /**
+         * 线性探测查找ISBN所在的槽位
+         * @return 槽位下标，不存在返回-1
+         */
+        int find(String isbn, byte[] key) {
+            int hash = hash(isbn);
+            int slot = hash & (capacity - 1);
+            for (int probes = 0; probes < capacity; probes++) {
+                int state = state(slot);
+                if (state == EMPTY) {
+                    return -1;
+                }
+                if (state == USED && hashOf(slot) == hash && keyEquals(offsetOf(slot), key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            return -1;
+        }
+
+        /**
+         * 写入一条记录（调用者持有存储的锁）
+         * 先写字符串，再写槽位，最后用release写状态，读线程看到USED时数据已经完整
+         */
+        void put(int hash, byte[] record, int stock) {
+            long offset = appendData(record);
+            int slot = hash & (capacity - 1);
+            while (true) {
+                int state = state(slot);
+                if (state != USED) {
+                    if (state == DELETED) {
+                        index.putInt(H_DELETED, index.getInt(H_DELETED) - 1);
+                    }
+                    break;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            int pos = slotPos(slot);
+            index.putInt(pos + S_HASH, hash);
+            index.putLong(pos + S_OFFSET, offset);
+            setStock(slot, stock);
+            INT.setRelease(index, pos + S_STATE, USED);
+            index.putInt(H_SIZE, size() + 1);
+        }
+
+        /**
+         * 删除槽位中的记录（调用者持有存储的锁），记下不再使用的字节数
+         */
+        void delete(int slot) {
+            long offset = offsetOf(slot);
+            INT.setRelease(index, slotPos(slot) + S_STATE, DELETED);
+            index.putInt(H_SIZE, size() - 1);
+            index.putInt(H_DELETED, index.getInt(H_DELETED) + 1);
+            index.putLong(H_GARBAGE, index.getLong(H_GARBAGE) + readRecord(offset).length);
+        }
+
+        private boolean keyEquals(long offset, byte[] key) {
+            MappedByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)];
+            int pos = (int) (offset % CHUNK_SIZE);
+            int len = Short.toUnsignedInt(chunk.getShort(pos));
+            if (len != key.length) {
+                return false;
+            }
+            int start = pos + 6;
+            for (int i = 0; i < len; i++) {
+                if (chunk.get(start + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 读取一条记录中的第field个字符串（0=ISBN，1=书名，2=作者）
+         */
+        String readString(long offset, int field) {
+            MappedByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)];
+            int pos = (int) (offset % CHUNK_SIZE);
+            int start = pos + 6;
+            for (int i = 0; i < field; i++) {
+                start += Short.toUnsignedInt(chunk.getShort(pos + i * 2));
+            }
+            byte[] bytes = new byte[Short.toUnsignedInt(chunk.getShort(pos + field * 2))];
+            chunk.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 读取整条记录的字节（整理时原样拷贝）
+         */
+        byte[] readRecord(long offset) {
+            MappedByteBuffer chunk = chunks[(int) (offset / CHUNK_SIZE)];
+            int pos = (int) (offset % CHUNK_SIZE);
+            int length = 6 + Short.toUnsignedInt(chunk.getShort(pos)) + Short.toUnsignedInt(chunk.getShort(pos + 2))
+                    + Short.toUnsignedInt(chunk.getShort(pos + 4));
+            byte[] record = new byte[length];
+            chunk.get(pos, record);
+            return record;
+        }
+
+        /**
+         * 在字符串区末尾追加一条记录（调用者持有存储的锁）
+         * @return 记录的起始偏移
+         */
+        private long appendData(byte[] record) {
+            long offset = index.getLong(H_DATA_END);
+            if (offset % CHUNK_SIZE + record.length > CHUNK_SIZE) {
+                // 当前段放不下，从下一段开头写
+                offset = (offset / CHUNK_SIZE + 1) * CHUNK_SIZE;
+            }
+            int chunkIndex = (int) (offset / CHUNK_SIZE);
+            if (chunkIndex >= chunks.length) {
+                MappedByteBuffer[] grown = Arrays.copyOf(chunks, chunkIndex + 1);
+                try {
+                    grown[chunkIndex] = mapChunk(chunkIndex);
+                } catch (IOException e) {
+                    throw new IllegalStateException("扩展字符串区失败", e);
+                }
+                chunks = grown;
+            }
+            chunks[chunkIndex].put((int) (offset % CHUNK_SIZE), record);
+            index.putLong(H_DATA_END, offset + record.length);
+            return offset;
+        }
+
+        private MappedByteBuffer mapChunk(int chunkIndex) throws IOException {
+            MappedByteBuffer chunk = datChannel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) chunkIndex * CHUNK_SIZE, CHUNK_SIZE);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            return chunk;
+        }
+
+        void force() {
+            index.force();
+            stocks.force();
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+
+        /**
+         * 关闭文件；已经映射的区域在没有线程使用后才释放，还拿着旧视图的读线程不受影响
+         */
+        void close() throws IOException {
+            idxChannel.close();
+            stkChannel.close();
+            datChannel.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 内存中的图书存储（默认）
+ * 整个目录是一个不可变的CatalogSnapshot，添加、删除时生成新版本再用CAS发布，
+ * 读取总是拿到某个完整的版本：列表、查询、统计不加锁，也不会和目录修改互相等待
+ * 版本只包含有哪些书和书名作者，库存在Book对象上原地修改，不生成新版本（见CatalogSnapshot）
+ * 不同ISBN的修改可能在不同的分段锁下同时进行，CAS失败时基于最新版本重做
+ */
+public class MemoryBookStore implements BookStore {
+    // 当前版本
+    private final AtomicReference<CatalogSnapshot> current = new AtomicReference<>(CatalogSnapshot.EMPTY);
+
+    @Override
+    public Book get(String isbn) {
+        return current.get().get(isbn);
+    }
+
+    @Override
+    public boolean add(Book book) {
+        while (true) {
+            CatalogSnapshot snapshot = current.get();
+            if (snapshot.get(book.getIsbn()) != null) {
+                return false;
+            }
+            if (current.compareAndSet(snapshot, snapshot.with(book))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean addAbsent(Book book) {
+        while (true) {
+            CatalogSnapshot snapshot = current.get();
+            if (current.compareAndSet(snapshot, snapshot.with(book))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public Book remove(String isbn) {
+        while (true) {
+            CatalogSnapshot snapshot = current.get();
+            Book book = snapshot.get(isbn);
+            if (book == null) {
+                return null;
+            }
+            if (current.compareAndSet(snapshot, snapshot.without(isbn))) {
+                return book;
+            }
+        }
+    }
+
+    @Override
+    public boolean containsKey(String isbn) {
+        return get(isbn) != null;
+    }
+
+    @Override
+    public int size() {
+        return current.get().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return current.get().isEmpty();
+    }
+
+    @Override
+    public Iterable<Book> values() {
+        return current.get().values();
+    }
+
+    /**
+     * 取当前版本，O(1)
+     * @return 不可变快照
+     */
+    @Override
+    public CatalogSnapshot snapshot() {
+        return current.get();
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * N-gram倒排索引，用于书名、作者的模糊（子串）查询
+ * 把文本转成小写后切成所有的单字和相邻两字（bigram），
+ * 每个片段对应一个倒排表，保存包含它的所有图书ISBN
+ * 查询时取关键词的所有片段，对倒排表求交集得到候选图书，
+ * 最后再用contains()核对一遍，排除片段都出现但不相邻的情况
+ * 按字符切分，所以中文书名（如"算法导论"）同样适用
+ */
+public class NGramIndex {
+    // 片段 -> 包含该片段的ISBN集合
+    private final Map<String, Set<String>> postings = new ConcurrentHashMap<>();
+
+    /**
+     * 把一本书的文本加入索引
+     * @param isbn 图书ISBN
+     * @param text 要索引的文本（书名或作者）
+     */
+    public void add(String isbn, String text) {
+        for (String gram : gramsOf(normalize(text))) {
+            postings.compute(gram, (g, set) -> {
+                if (set == null) {
+                    set = ConcurrentHashMap.newKeySet();
+                }
+                set.add(isbn);
+                return set;
+            });
+        }
+    }
+
+    /**
+     * 批量加入索引（批量导入时使用）
+     * 先按片段把ISBN分组，每个片段只更新一次倒排表；
+     * 常见片段（如单个字母）被成千上万本书共享，逐本add会在同一个片段上反复竞争
+     * @param isbns 图书ISBN
+     * @param texts 与isbns一一对应的文本
+     */
+    public void addAll(List<String> isbns, List<String> texts) {
+        Map<String, List<String>> grouped = new HashMap<>();
+        for (int i = 0; i < isbns.size(); i++) {
+            for (String gram : gramsOf(normalize(texts.get(i)))) {
+                grouped.computeIfAbsent(gram, g -> new ArrayList<>()).add(isbns.get(i));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : grouped.entrySet()) {
+            postings.compute(entry.getKey(), (g, set) -> {
+                if (set == null) {
+                    set = ConcurrentHashMap.newKeySet();
+                }
+                set.addAll(entry.getValue());
+                return set;
+            });
+        }
+    }
+
+    /**
+     * 把一本书的文本从索引中移除
+     * 倒排表为空时整个删掉，避免索引只增不减
+     * @param isbn 图书ISBN
+     * @param text 之前索引过的文本
+     */
+    public void remove(String isbn, String text) {
+        for (String gram : gramsOf(normalize(text))) {
+            postings.computeIfPresent(gram, (g, set) -> {
+                set.remove(isbn);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    /**
+     * 查找可能包含关键词的图书
+     * 返回的是候选集合，调用者还需要用contains()核对
+     * @param keyword 关键词
+     * @return 候选ISBN列表；关键词为空时返回null，表示所有图书都匹配
+     */
+    public List<String> candidates(String keyword) {
+        String query = normalize(keyword);
+        if (query.isEmpty()) {
+            return null;
+        }
+
+        // 取出每个片段的倒排表，有一个片段不存在就说明没有结果
+        Set<String> grams = gramsOf(query);
+        if (query.length() > 1) {
+            // 多字查询只用bigram，单字片段已被bigram覆盖
+            grams.removeIf(g -> g.length() == 1);
+        }
+        List<Set<String>> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            Set<String> set = postings.get(gram);
+            if (set == null) {
+                return Collections.emptyList();
+            }
+            lists.add(set);
+        }
+
+        // 从最短的倒排表开始求交集
+        lists.sort(Comparator.comparingInt(Set::size));
+        List<String> result = new ArrayList<>();
+        Set<String> smallest = lists.get(0);
+        for (String isbn : smallest) {
+            boolean inAll = true;
+            for (int i = 1; i < lists.size(); i++) {
+                if (!lists.get(i).contains(isbn)) {
+                    inAll = false;
+                    break;
+                }
+            }
+            if (inAll) {
+                result.add(isbn);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 统一转成小写，查询和建索引用同样的规则
+     * @param text 原始文本
+     * @return 小写文本，null当作空串
+     */
+    public static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 切出文本中所有的单字和相邻两字片段（去重）
+     * @param text 已经小写化的文本
+     * @return 片段集合
+     */
+    private static Set<String> gramsOf(String text) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (i + 2 <= text.length()) {
+                grams.add(text.substring(i, i + 2));
+            }
+        }
+        return grams;
+    }
+}
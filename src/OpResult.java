@@ -0,0 +1,41 @@
+/**
+ * 图书馆操作的结果
+ * Library的方法只返回结果，不直接打印，由调用者（控制台、网络服务等）决定如何显示
+ */
+public enum OpResult {
+    OK("操作成功"),
+    BOOK_EXISTS("错误：ISBN已存在！"),
+    BOOK_NOT_FOUND("错误：找不到该图书！"),
+    OUT_OF_STOCK("错误：图书库存不足！"),
+    ALREADY_BORROWED("错误：您已经借过这本书了！"),
+    NOT_BORROWED("错误：您没有借过这本书！"),
+    HOLD_EXISTS("错误：您已经预约过这本书了！"),
+    NOT_ON_HOLD("错误：您没有预约这本书！"),
+    BOOK_AVAILABLE("错误：这本书还有库存，可以直接借阅！"),
+    USER_EXISTS("错误：学号已存在！"),
+    USER_NOT_FOUND("错误：用户不存在！"),
+    NOT_LOGGED_IN("错误：请先登录！"),
+    SHARD_UNAVAILABLE("错误：分馆暂时无法访问，请稍后再试！"),
+    READ_ONLY("错误：这里是只读副本，借还、注册请到主馆办理！"),
+    REPLICA_STALE("错误：副本数据落后太多，请稍后再试或到主馆查询！"),
+    BUSY("错误：请求太多，请稍后再试！");
+
+    // 显示给用户的提示信息
+    private final String message;
+
+    OpResult(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 操作是否成功
+     * @return 成功返回true
+     */
+    public boolean isOk() {
+        return this == OK;
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 未归还借阅表
+ * 按学生编号（IdInterner分配的连续整数）直接定位，每个学生一个小数组保存他未归还的借阅记录
+ * 一个学生同时借的书通常不超过十几本，查重、归还时顺序比较图书编号即可，不需要字符串哈希
+ *
+ * 学生编号分块存放，每块CHUNK_SIZE个位置，用到时才分配
+ * 每个位置的数组只读不改：修改时复制出新数组再用CAS替换，
+ * 同一学生的两本不同的书可能在不同的ISBN锁下同时借还，CAS保证不会互相覆盖
+ */
+class OpenLoanTable {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private static final LoanRecord[] EMPTY = new LoanRecord[0];
+
+    // 分块目录：下标为 学生编号 >>> CHUNK_BITS
+    private volatile AtomicReferenceArray<AtomicReferenceArray<LoanRecord[]>> chunks =
+            new AtomicReferenceArray<>(16);
+
+    /**
+     * 加入一条借阅记录
+     * @param record 带有学生编号和图书编号的借阅记录
+     */
+    void add(LoanRecord record) {
+        AtomicReferenceArray<LoanRecord[]> chunk = chunkFor(record.getStudentHandle(), true);
+        int slot = record.getStudentHandle() & (CHUNK_SIZE - 1);
+        while (true) {
+            LoanRecord[] current = chunk.get(slot);
+            LoanRecord[] next;
+            if (current == null) {
+                next = new LoanRecord[] {record};
+            } else {
+                next = Arrays.copyOf(current, current.length + 1);
+                next[current.length] = record;
+            }
+            if (chunk.compareAndSet(slot, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 移除一条借阅记录
+     * @param student 学生编号
+     * @param book 图书编号
+     * @return 被移除的记录，没有则返回null
+     */
+    LoanRecord remove(int student, int book) {
+        AtomicReferenceArray<LoanRecord[]> chunk = chunkFor(student, false);
+        if (chunk == null) {
+            return null;
+        }
+        int slot = student & (CHUNK_SIZE - 1);
+        while (true) {
+            LoanRecord[] current = chunk.get(slot);
+            int index = indexOf(current, book);
+            if (index < 0) {
+                return null;
+            }
+            LoanRecord[] next = null;
+            if (current.length > 1) {
+                next = new LoanRecord[current.length - 1];
+                System.arraycopy(current, 0, next, 0, index);
+                System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            }
+            if (chunk.compareAndSet(slot, current, next)) {
+                return current[index];
+            }
+        }
+    }
+
+    /**
+     * 查找一条借阅记录
+     * @param student 学生编号
+     * @param book 图书编号
+     * @return 借阅记录，没有则返回null
+     */
+    LoanRecord find(int student, int book) {
+        LoanRecord[] loans = loansOf(student);
+        int index = indexOf(loans, book);
+        return index < 0 ? null : loans[index];
+    }
+
+    /**
+     * 获取某个学生的全部未归还记录
+     * @param student 学生编号
+     * @return 记录数组（只读快照，不要修改），没有则返回空数组
+     */
+    LoanRecord[] loansOf(int student) {
+        AtomicReferenceArray<LoanRecord[]> chunk = chunkFor(student, false);
+        LoanRecord[] loans = chunk == null ? null : chunk.get(student & (CHUNK_SIZE - 1));
+        return loans == null ? EMPTY : loans;
+    }
+
+    /**
+     * 遍历所有未归还记录
+     * @param action 处理每条记录的回调
+     */
+    void forEach(Consumer<LoanRecord> action) {
+        AtomicReferenceArray<AtomicReferenceArray<LoanRecord[]>> directory = chunks;
+        for (int c = 0; c < directory.length(); c++) {
+            AtomicReferenceArray<LoanRecord[]> chunk = directory.get(c);
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                LoanRecord[] loans = chunk.get(i);
+                if (loans != null) {
+                    for (LoanRecord record : loans) {
+                        action.accept(record);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int indexOf(LoanRecord[] loans, int book) {
+        if (loans != null) {
+            for (int i = 0; i < loans.length; i++) {
+                if (loans[i].getBookHandle() == book) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 取学生编号所在的块
+     * @param create 块不存在时是否创建
+     */
+    private AtomicReferenceArray<LoanRecord[]> chunkFor(int student, boolean create) {
+        int index = student >>> CHUNK_BITS;
+        AtomicReferenceArray<AtomicReferenceArray<LoanRecord[]>> directory = chunks;
+        AtomicReferenceArray<LoanRecord[]> chunk = index < directory.length() ? directory.get(index) : null;
+        if (chunk != null || !create) {
+            return chunk;
+        }
+        synchronized (this) {
+            directory = chunks;
+            if (index >= directory.length()) {
+                int length = directory.length();
+                while (length <= index) {
+                    length *= 2;
+                }
+                AtomicReferenceArray<AtomicReferenceArray<LoanRecord[]>> grown = new AtomicReferenceArray<>(length);
+                for (int i = 0; i < directory.length(); i++) {
+                    grown.set(i, directory.get(i));
+                }
+                chunks = grown;
+                directory = grown;
+            }
+            chunk = directory.get(index);
+            if (chunk == null) {
+                chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+                directory.set(index, chunk);
+            }
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 逾期借阅跟踪
+ * 未归还的借阅按到期日分桶：到期日（epochDay）-> 当天到期的借阅记录
+ * 桶按日期有序，查询"某天为止已逾期的借阅"只取该日期之前的桶，
+ * 归还时记录从桶中删除，所以查询和提醒都不会碰到已归还的记录
+ *
+ * 后台线程定期调用tick()：只处理上次tick之后新进入"即将到期"或"已逾期"的那几天的桶，
+ * 每条借阅在每种状态下只提醒一次，一次tick的开销与当天变化的借阅数成正比
+ */
+public class OverdueTracker {
+    // 默认提前提醒的天数
+    public static final int DEFAULT_NEAR_DUE_DAYS = 3;
+
+    // 默认检查间隔：1小时（日期变化后最迟1小时发出提醒）
+    public static final long DEFAULT_TICK_MILLIS = 60 * 60 * 1000L;
+
+    /**
+     * 逾期提醒的接收者
+     */
+    public interface Listener {
+        /**
+         * 借阅即将到期
+         * @param record 借阅记录
+         * @param today 当前日期
+         */
+        void onNearDue(LoanRecord record, LocalDate today);
+
+        /**
+         * 借阅已逾期
+         * @param record 借阅记录
+         * @param today 当前日期
+         */
+        void onOverdue(LoanRecord record, LocalDate today);
+    }
+
+    // 到期日 -> 当天到期的未归还借阅
+    private final ConcurrentSkipListMap<Long, Set<LoanRecord>> buckets = new ConcurrentSkipListMap<>();
+
+    // 提前提醒的天数
+    private final int nearDueDays;
+
+    // 提醒接收者
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // 上次tick的日期，之前从未tick过时为Long.MIN_VALUE
+    private long lastTickDay = Long.MIN_VALUE;
+
+    // 后台检查线程和检查间隔（毫秒）
+    private final ScheduledExecutorService ticker;
+    private final long tickMillis;
+
+    /**
+     * 构造函数：使用默认的提醒天数和检查间隔
+     */
+    public OverdueTracker() {
+        this(DEFAULT_NEAR_DUE_DAYS, DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * 构造函数：后台检查由start()启动
+     * @param nearDueDays 到期前几天开始提醒
+     * @param tickMillis 后台检查间隔（毫秒）
+     */
+    public OverdueTracker(int nearDueDays, long tickMillis) {
+        this.nearDueDays = nearDueDays;
+        this.tickMillis = tickMillis;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "overdue-ticker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 启动后台检查线程
+     */
+    public void start() {
+        // 第一次稍后执行，让启动恢复先把未归还的借阅加进来
+        ticker.scheduleWithFixedDelay(() -> tick(LocalDate.now()), 1000L, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 添加提醒接收者
+     * @param listener 接收者
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 加入一条未归还的借阅（借阅时调用）
+     * @param record 借阅记录
+     */
+    public void add(LoanRecord record) {
+        buckets.compute((long) record.getDueDay(), (day, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(record);
+            return set;
+        });
+    }
+
+    /**
+     * 移除一条借阅（归还时调用），桶空了就整个删掉
+     * @param record 借阅记录
+     */
+    public void remove(LoanRecord record) {
+        buckets.computeIfPresent((long) record.getDueDay(), (day, set) -> {
+            set.remove(record);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * 查询截至某天已逾期的借阅（到期日早于date且未归还）
+     * @param date 日期
+     * @return 逾期借阅，按到期日从早到晚排列
+     */
+    public List<LoanRecord> overdueAsOf(LocalDate date) {
+        return collect(buckets.headMap(date.toEpochDay(), false));
+    }
+
+    /**
+     * 查询到期日在[from, to]之间的未归还借阅
+     * @param from 起始日期
+     * @param to 结束日期
+     * @return 借阅记录，按到期日从早到晚排列
+     */
+    public List<LoanRecord> dueBetween(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            return new ArrayList<>();
+        }
+        return collect(buckets.subMap(from.toEpochDay(), true, to.toEpochDay(), true));
+    }
+
+    /**
+     * 获取跟踪中的未归还借阅数量
+     * @return 数量（遍历各个桶，只用于统计显示）
+     */
+    public int size() {
+        int n = 0;
+        for (Set<LoanRecord> set : buckets.values()) {
+            n += set.size();
+        }
+        return n;
+    }
+
+    /**
+     * 检查一次并发出提醒
+     * 即将到期：到期日落在(上次tick + nearDueDays, today + nearDueDays]的借阅
+     * 已逾期：到期日落在[上次tick, today)的借阅
+     * 同一天重复调用不会重复提醒；tick之后才借出且已在提醒范围内的借阅不再单独提醒
+     * 没有接收者时什么也不做，也不记下这次tick，之后加入的接收者仍会收到这些提醒
+     * @param today 当前日期
+     */
+    public synchronized void tick(LocalDate today) {
+        long day = today.toEpochDay();
+        if (day <= lastTickDay || listeners.isEmpty()) {
+            return;
+        }
+        Map<Long, Set<LoanRecord>> nearDue;
+        Map<Long, Set<LoanRecord>> overdue;
+        if (lastTickDay == Long.MIN_VALUE) {
+            nearDue = buckets.subMap(day, true, day + nearDueDays, true);
+            overdue = buckets.headMap(day, false);
+        } else {
+            long from = Math.max(lastTickDay + nearDueDays, day - 1);
+            nearDue = buckets.subMap(from, false, day + nearDueDays, true);
+            overdue = buckets.subMap(lastTickDay, true, day, false);
+        }
+        lastTickDay = day;
+        for (Set<LoanRecord> set : nearDue.values()) {
+            for (LoanRecord record : set) {
+                for (Listener listener : listeners) {
+                    listener.onNearDue(record, today);
+                }
+            }
+        }
+        for (Set<LoanRecord> set : overdue.values()) {
+            for (LoanRecord record : set) {
+                for (Listener listener : listeners) {
+                    listener.onOverdue(record, today);
+                }
+            }
+        }
+    }
+
+    /**
+     * 停止后台检查线程
+     */
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    private static List<LoanRecord> collect(Map<Long, Set<LoanRecord>> range) {
+        List<LoanRecord> result = new ArrayList<>();
+        for (Set<LoanRecord> set : range.values()) {
+            result.addAll(set);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 持久化引擎：快照 + 预写日志
+ * 数据目录中有一个快照文件snapshot.dat和若干代日志wal-<代号>.log
+ * 启动时先读快照，再按代号顺序重放快照之后的日志
+ * 做快照时切换到新一代日志，快照写完后删除旧日志，日志不会无限增长
+ */
+public class PersistenceEngine implements Closeable {
+    // 默认每10分钟做一次快照
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 10 * 60 * 1000L;
+
+    private static final String SNAPSHOT_NAME = "snapshot.dat";
+
+    // 数据目录
+    private final Path dir;
+
+    // 修改操作持有读锁（互不阻塞），做快照时持有写锁，保证快照和日志切换点一致
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+    // 当前日志及其代号
+    private WriteAheadLog wal;
+    private long generation;
+
+    // 定期做快照的后台线程
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 构造函数
+     * @param dir 数据目录，不存在时自动创建
+     */
+    public PersistenceEngine(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * 从磁盘恢复图书馆状态，然后打开日志准备接收新的修改
+     * @param library 要恢复到的图书馆（应当是空的）
+     * @return 是否读到了之前保存的数据
+     */
+    public boolean recover(Library library) throws IOException {
+        boolean found = false;
+        long gen = 0;
+        SnapshotFile snapshot = SnapshotFile.readFrom(dir.resolve(SNAPSHOT_NAME));
+        if (snapshot != null) {
+            library.restoreSnapshot(snapshot);
+            gen = snapshot.getGeneration();
+            found = true;
+        }
+
+        // 删除快照已经包含的旧日志（上次做快照后来不及删除的）
+        for (long g = gen - 1; g >= 0 && Files.deleteIfExists(walFile(g)); g--) {
+            // 继续往前删
+        }
+
+        // 按代号顺序重放快照之后的日志
+        long last = gen;
+        for (long g = gen; Files.exists(walFile(g)); g++) {
+            if (WriteAheadLog.replay(walFile(g), library::applyOp) > 0) {
+                found = true;
+            }
+            last = g;
+        }
+
+        this.generation = last;
+        this.wal = new WriteAheadLog(walFile(generation));
+        return found;
+    }
+
+    /**
+     * 开始定期做快照
+     * @param library 图书馆
+     * @param periodMillis 间隔（毫秒）
+     */
+    public void startPeriodicCheckpoints(Library library, long periodMillis) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint(library);
+            } catch (IOException e) {
+                System.err.println("错误：保存快照失败：" + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 修改操作开始（持有读锁，做快照时会等待）
+     */
+    public void beginMutation() {
+        checkpointLock.readLock().lock();
+    }
+
+    /**
+     * 修改操作结束
+     */
+    public void endMutation() {
+        checkpointLock.readLock().unlock();
+    }
+
+    /**
+     * 暂停所有修改，执行task后恢复（给只读副本拷贝状态时使用，与做快照时一样持有写锁）
+     * @param task 要执行的操作
+     * @return task的结果
+     */
+    public <T> T exclusive(Supplier<T> task) {
+        checkpointLock.writeLock().lock();
+        try {
+            return task.get();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把一条修改写入日志队列
+     * 必须在beginMutation()和endMutation()之间调用
+     * @param op 修改操作
+     * @return 日志序号
+     */
+    public long append(LibraryOp op) {
+        return wal.append(op);
+    }
+
+    /**
+     * 把一批修改作为一条日志记录追加，宕机恢复时整批生效或整批丢弃
+     * 必须在beginMutation()和endMutation()之间调用
+     * @param ops 修改操作
+     * @return 日志序号
+     */
+    public long appendAll(List<LibraryOp> ops) {
+        return wal.appendAll(ops);
+    }
+
+    /**
+     * 等待日志落盘（应在释放所有锁之后调用，这样等待期间其他线程可以继续提交）
+     * @param seq append()返回的序号
+     */
+    public void awaitDurable(long seq) {
+        wal.awaitDurable(seq);
+    }
+
+    /**
+     * 做一次快照
+     * 在写锁内切换到新一代日志并拷贝内存状态，然后释放写锁再慢慢写文件
+     * @param library 图书馆
+     */
+    public synchronized void checkpoint(Library library) throws IOException {
+        SnapshotFile snapshot;
+        checkpointLock.writeLock().lock();
+        try {
+            generation++;
+            wal.rotate(walFile(generation));
+            snapshot = library.copyState(generation);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+
+        snapshot.writeTo(dir.resolve(SNAPSHOT_NAME));
+        library.checkpointWritten(snapshot);
+        for (long g = generation - 1; g >= 0 && Files.deleteIfExists(walFile(g)); g--) {
+            // 旧日志已经包含在快照里
+        }
+    }
+
+    /**
+     * 做最后一次快照并关闭日志
+     * @param library 图书馆
+     */
+    public void close(Library library) throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        checkpoint(library);
+        close();
+    }
+
+    /**
+     * 关闭日志（已提交的记录都会写完）
+     */
+    @Override
+    public void close() throws IOException {
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    private Path walFile(long gen) {
+        return dir.resolve("wal-" + gen + ".log");
+    }
+}
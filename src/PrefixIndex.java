@@ -0,0 +1,706 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntToLongFunction;
+
+/**
+ * 前缀联想索引：输入ISBN或书名的开头几个字，按借阅次数从多到少给出最多MAX_COMPLETIONS本书
+ * 结构是压缩前缀树（radix trie）：只有一个孩子的节点合并到边上，每条边保存一段文字，
+ * 节点数不超过键数的两倍；键的末尾节点保存以它结尾的图书编号（不同的书书名可能相同）
+ *
+ * 排序：子树里超过TOP_THRESHOLD本书的节点保存一个候选集合，就是子树里借阅次数最多的MAX_COMPLETIONS本，
+ * 查询时不管前缀下有多少本书，都只需要对这几本排序；小子树不保存候选集合，查询时直接遍历（最多TOP_THRESHOLD本）。
+ * 小子树不保存是因为借阅次数还都很小、很接近时，小集合的成员换得很频繁，每次都要进锁更新
+ * 借阅次数只增不减（见LoanStatistics），借书时沿这本书的路径检查，只有超过了某个节点候选集合中的最小值才需要更新；
+ * 删除图书时从孩子们的候选集合重新选出这条路径上受影响节点的候选集合
+ *
+ * 并发：增删图书和更新候选集合在索引的锁内进行，节点的孩子、图书、候选集合都是整个数组换新后发布，
+ * 查询不加锁；查询只读数组、比较字符，结果写入调用者提供的Completions，不分配对象
+ *
+ * 键的规范化逐个字符进行：转成小写；ISBN索引还忽略'-'和空格，"9787115"和"978-7-115"查到的一样
+ */
+public class PrefixIndex {
+    // 每次最多给出的联想条数，也是每个节点候选集合的大小
+    public static final int MAX_COMPLETIONS = 10;
+
+    // 子树超过这么多本书的节点才保存候选集合
+    private static final int TOP_THRESHOLD = 256;
+
+    private static final int[] NO_BOOKS = new int[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    // 门槛表每块的图书数
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    // 图书编号与ISBN的对应关系
+    private final IdInterner ids;
+
+    // 图书编号 -> 借阅次数
+    private final IntToLongFunction borrowCounts;
+
+    // 是否是ISBN索引（忽略'-'和空格）
+    private final boolean isbnKeys;
+
+    // 根节点，边上的文字为空
+    private final Node root = new Node("");
+
+    // 每次移除图书后加一：移除可能让候选集合的最小借阅次数变小，之前记下的门槛都作废
+    // 从1开始，门槛表里的0表示没有记录
+    private volatile long version = 1;
+
+    // 门槛表：每本书两个long，[0] 路径上其余候选集合的最小借阅次数，[1] 记下时的版本号
+    // 借阅次数低于门槛的借书不用读书名、不用走路径；被挤出候选集合或路径上新建了候选集合时版本号位置改成负数，表示作废
+    // 和LoanStatistics的借阅次数一样按块分配，块一旦分配就不再移动
+    private volatile AtomicLongArray[] floorChunks = new AtomicLongArray[16];
+    private final Object chunkLock = new Object();
+
+    // 已作废的门槛数，用来生成互不相同的作废标记（在索引的锁内修改）
+    private long invalidations;
+
+    /**
+     * 构造函数
+     * @param ids 图书编号表
+     * @param borrowCounts 按图书编号查借阅次数
+     * @param isbnKeys true表示键是ISBN，规范化时忽略'-'和空格
+     */
+    public PrefixIndex(IdInterner ids, IntToLongFunction borrowCounts, boolean isbnKeys) {
+        this.ids = ids;
+        this.borrowCounts = borrowCounts;
+        this.isbnKeys = isbnKeys;
+    }
+
+    /**
+     * 图书数量
+     * @return 索引中的图书数
+     */
+    public int size() {
+        return root.size;
+    }
+
+    // ==================== 增删 ====================
+
+    /**
+     * 加入一本书，同一本书用同样的文本重复加入不会重复计数
+     * @param text ISBN或书名
+     * @param book 图书编号
+     */
+    public synchronized void add(String text, int book) {
+        String key = keyOf(text);
+        Node[] path = new Node[key.length() + 1];
+        int depth = 0;
+        Node node = root;
+        path[depth++] = node;
+        int i = 0;
+        while (i < key.length()) {
+            Node[] children = node.children;
+            int c = indexOf(children, key.charAt(i));
+            if (c < 0) {
+                Node leaf = new Node(key.substring(i));
+                node.children = insert(children, -c - 1, leaf);
+                node = leaf;
+                path[depth++] = node;
+                break;
+            }
+            Node child = children[c];
+            String label = child.label;
+            int m = 1;
+            while (m < label.length() && i + m < key.length() && label.charAt(m) == key.charAt(i + m)) {
+                m++;
+            }
+            if (m < label.length()) {
+                // 键在这条边的中间分叉或结束：把边拆成两段，中间加一个节点
+                Node middle = new Node(label.substring(0, m));
+                middle.children = new Node[]{child.withLabel(label.substring(m))};
+                middle.size = child.size;
+                middle.top = child.top;
+                middle.topCounts = child.topCounts == null ? null : child.topCounts.clone();
+                middle.topMin = child.topMin;
+                Node[] replaced = children.clone();
+                replaced[c] = middle;
+                node.children = replaced;
+                child = middle;
+            }
+            node = child;
+            path[depth++] = node;
+            i += m;
+        }
+
+        if (contains(node.books, book)) {
+            return;
+        }
+        int[] books = Arrays.copyOf(node.books, node.books.length + 1);
+        books[books.length - 1] = book;
+        node.books = books;
+        for (int d = depth - 1; d >= 0; d--) {
+            Node n = path[d];
+            n.size++;
+            if (n.size <= TOP_THRESHOLD) {
+                n.top = null;
+            } else if (n.top == null) {
+                selectTop(n);
+                // 子树里的书路径上多了一个候选集合，之前记下的门槛不再可靠（刚超过TOP_THRESHOLD，只有这么多本）
+                invalidateFloors(n);
+            } else {
+                offer(n, book, borrowCounts.applyAsLong(book));
+            }
+        }
+
+        // 新书的门槛，第一次借阅时就不用走路径
+        long floor = Long.MAX_VALUE;
+        for (int d = 0; d < depth; d++) {
+            int[] top = path[d].top;
+            if (top != null && !contains(top, book)) {
+                floor = Math.min(floor, path[d].topMin);
+            }
+        }
+        AtomicLongArray chunk = floorChunk(book, true);
+        int slot = (book & (CHUNK_SIZE - 1)) * 2;
+        chunk.set(slot, floor);
+        chunk.set(slot + 1, version);
+    }
+
+    /**
+     * 移除一本书，不在索引中时什么也不做
+     * @param text 加入时的ISBN或书名
+     * @param book 图书编号
+     */
+    public synchronized void remove(String text, int book) {
+        String key = keyOf(text);
+        Node[] path = new Node[key.length() + 1];
+        int depth = 0;
+        Node node = root;
+        path[depth++] = node;
+        int i = 0;
+        while (i < key.length()) {
+            int c = indexOf(node.children, key.charAt(i));
+            if (c < 0) {
+                return;
+            }
+            node = node.children[c];
+            if (!key.startsWith(node.label, i)) {
+                return;
+            }
+            path[depth++] = node;
+            i += node.label.length();
+        }
+        if (!contains(node.books, book)) {
+            return;
+        }
+
+        node.books = without(node.books, book);
+        for (int d = depth - 1; d >= 0; d--) {
+            Node n = path[d];
+            n.size--;
+            if (n.size <= TOP_THRESHOLD) {
+                n.top = null;
+            } else if (contains(n.top, book)) {
+                selectTop(n);
+            }
+        }
+
+        // 去掉空的叶子，合并只剩一个孩子的中间节点，保持树的紧凑
+        if (depth > 1 && node.books.length == 0) {
+            Node parent = path[depth - 2];
+            if (node.children.length == 0) {
+                parent.children = without(parent.children, node);
+                if (depth > 2 && parent.books.length == 0 && parent.children.length == 1) {
+                    merge(path[depth - 3], parent);
+                }
+            } else if (node.children.length == 1) {
+                merge(parent, node);
+            }
+        }
+        // 候选集合改完再加版本号：读到新版本号的线程一定也看得到新的候选集合
+        version++;
+    }
+
+    /**
+     * 把只有一个孩子、本身没有图书的节点和孩子合并成一条边
+     */
+    private static void merge(Node parent, Node node) {
+        Node child = node.children[0];
+        Node merged = child.withLabel(node.label + child.label);
+        Node[] replaced = parent.children.clone();
+        replaced[indexOf(replaced, node.first)] = merged;
+        parent.children = replaced;
+    }
+
+    /**
+     * 一本书的借阅次数增加了，更新它路径上各节点的候选集合
+     * 借阅次数没超过门槛（见floorChunks）时只读一次门槛表就返回；
+     * 否则不加锁地沿路径检查，子树越往下越小，走到第一个没有候选集合的节点就可以停下；
+     * 确实排进了某个候选集合才进锁更新
+     * 同一本书的调用不能并发（Library在这本书的锁内调用）
+     * @param text ISBN或书名
+     * @param book 图书编号
+     * @param count 新的借阅次数
+     */
+    public void recordBorrow(String text, int book, long count) {
+        AtomicLongArray chunk = floorChunk(book, false);
+        int slot = (book & (CHUNK_SIZE - 1)) * 2;
+        long stamp = chunk == null ? 0 : chunk.get(slot + 1);
+        if (stamp == version && count <= chunk.get(slot)) {
+            return;
+        }
+        // 先读版本号再走路径：走的过程中有移除的话，记下的门槛下次检查时作废
+        long seenVersion = version;
+        long floor = pathFloor(text, book, count);
+        if (floor >= 0) {
+            // 走路径期间门槛被作废的话，版本号位置已经改成作废标记，这里的记录不会生效
+            chunk = floorChunk(book, true);
+            chunk.set(slot, floor);
+            chunk.compareAndSet(slot + 1, stamp, seenVersion);
+            return;
+        }
+        synchronized (this) {
+            Node node = root;
+            int pos = 0;
+            for (int i = 0; i < text.length(); i++) {
+                int ch = normalize(text.charAt(i));
+                if (ch < 0) {
+                    continue;
+                }
+                if (pos == node.label.length()) {
+                    if (node.top == null) {
+                        return;
+                    }
+                    offer(node, book, count);
+                    int c = indexOf(node.children, (char) ch);
+                    if (c < 0) {
+                        return;
+                    }
+                    node = node.children[c];
+                    pos = 1;
+                } else if (node.label.charAt(pos++) != ch) {
+                    return;
+                }
+            }
+            if (pos == node.label.length() && node.top != null) {
+                offer(node, book, count);
+            }
+        }
+    }
+
+    /**
+     * 沿路径检查各节点的候选集合，到第一个没有候选集合的节点为止
+     * 已经在候选集合里的节点不算门槛：借阅次数增加不会让它出去，被别的书挤出去时门槛会作废
+     * @return 有节点可能需要加入这本书时为-1，否则是其余候选集合的最小借阅次数（没有时为Long.MAX_VALUE）
+     */
+    private long pathFloor(String text, int book, long count) {
+        long floor = Long.MAX_VALUE;
+        Node node = root;
+        int pos = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int ch = normalize(text.charAt(i));
+            if (ch < 0) {
+                continue;
+            }
+            if (pos == node.label.length()) {
+                if (node.top == null) {
+                    return floor;
+                }
+                floor = floorAt(node, book, count, floor);
+                if (floor < 0) {
+                    return -1;
+                }
+                node = child(node, (char) ch);
+                if (node == null) {
+                    return floor;
+                }
+                pos = 1;
+            } else if (node.label.charAt(pos++) != ch) {
+                return floor;
+            }
+        }
+        return pos == node.label.length() ? floorAt(node, book, count, floor) : floor;
+    }
+
+    /**
+     * 把一个节点计入门槛
+     * @return 这本书可能需要加入这个节点的候选集合时为-1
+     */
+    private static long floorAt(Node node, int book, long count, long floor) {
+        // 先读候选集合再读最小次数：换新时先写最小次数，读到新集合时一定也读到它的最小次数
+        int[] top = node.top;
+        if (top == null || contains(top, book)) {
+            return floor;
+        }
+        long min = node.topMin;
+        return count > min ? -1 : Math.min(floor, min);
+    }
+
+    /**
+     * 在锁内：作废一本书记下的门槛
+     */
+    private void invalidateFloor(int book) {
+        floorChunk(book, true).set((book & (CHUNK_SIZE - 1)) * 2 + 1, -1 - ++invalidations);
+    }
+
+    /**
+     * 在锁内：作废子树里所有书记下的门槛（子树里没有候选集合）
+     */
+    private void invalidateFloors(Node node) {
+        for (int book : node.books) {
+            invalidateFloor(book);
+        }
+        for (Node child : node.children) {
+            invalidateFloors(child);
+        }
+    }
+
+    private AtomicLongArray floorChunk(int book, boolean create) {
+        int index = book >>> CHUNK_BITS;
+        AtomicLongArray[] chunks = floorChunks;
+        AtomicLongArray chunk = index < chunks.length ? chunks[index] : null;
+        if (chunk != null || !create) {
+            return chunk;
+        }
+        synchronized (chunkLock) {
+            chunks = floorChunks;
+            if (index < chunks.length && chunks[index] != null) {
+                return chunks[index];
+            }
+            chunks = Arrays.copyOf(chunks, Math.max(chunks.length, Integer.highestOneBit(index) << 1));
+            chunk = new AtomicLongArray(CHUNK_SIZE * 2);
+            chunks[index] = chunk;
+            floorChunks = chunks;
+            return chunk;
+        }
+    }
+
+    /**
+     * 在锁内：这本书的借阅次数超过了候选集合中最少的一本时替换掉它
+     * 和LoanStatistics一样，次数相同时不替换：借阅次数都还很小的时候，相同次数的书很多，换来换去没有意义
+     * 成员的借阅次数用节点上记下的值（只会偏小）找最少的一本，只重新读这一本的次数：
+     * 读到的和记下的一样，它就确实是最少的，否则更新记下的值再找，不用每次读全部成员（多半不在缓存里）
+     */
+    private void offer(Node node, int book, long count) {
+        int[] top = node.top;
+        if (contains(top, book)) {
+            return;
+        }
+        long[] counts = node.topCounts;
+        int worst;
+        long worstCount;
+        while (true) {
+            worst = 0;
+            for (int i = 1; i < top.length; i++) {
+                if (!better(top[i], counts[i], top[worst], counts[worst])) {
+                    worst = i;
+                }
+            }
+            worstCount = borrowCounts.applyAsLong(top[worst]);
+            if (worstCount == counts[worst]) {
+                break;
+            }
+            counts[worst] = worstCount;
+        }
+        if (count <= worstCount) {
+            node.topMin = worstCount;
+            return;
+        }
+        int[] replaced = top.clone();
+        replaced[worst] = book;
+        counts[worst] = count;
+        node.topMin = min(counts);
+        node.top = replaced;
+        invalidateFloor(top[worst]);
+    }
+
+    /**
+     * 在锁内：从节点自己的图书和孩子们的候选集合（小子树是全部图书）中重新选出候选集合
+     * 节点的最优MAX_COMPLETIONS本一定在各个孩子的最优MAX_COMPLETIONS本之中
+     */
+    private void selectTop(Node node) {
+        Completions candidates = new Completions();
+        candidates.reset(this);
+        for (int book : node.books) {
+            candidates.offer(book, borrowCounts.applyAsLong(book));
+        }
+        for (Node child : node.children) {
+            collect(child, candidates);
+        }
+        node.topCounts = Arrays.copyOf(candidates.counts, candidates.size);
+        node.topMin = min(node.topCounts);
+        node.top = Arrays.copyOf(candidates.books, candidates.size);
+    }
+
+    private static long min(long[] counts) {
+        long min = Long.MAX_VALUE;
+        for (long count : counts) {
+            min = Math.min(min, count);
+        }
+        return min;
+    }
+
+    // ==================== 查询 ====================
+
+    /**
+     * 联想：以prefix开头（规范化后）的图书中借阅次数最多的几本，次数相同时先加入索引的在前
+     * （次数相同的书比名额多时，给出的是其中哪几本不固定）
+     * 不分配对象，结果写入out（之前的内容被清掉），用out.next()逐条读取
+     * @param prefix 前缀，空串表示所有图书
+     * @param limit 最多几条（不超过MAX_COMPLETIONS）
+     * @param out 结果
+     * @return 结果条数
+     */
+    public int complete(CharSequence prefix, int limit, Completions out) {
+        out.reset(this);
+        Node node = root;
+        int pos = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            int ch = normalize(prefix.charAt(i));
+            if (ch < 0) {
+                continue;
+            }
+            if (pos == node.label.length()) {
+                node = child(node, (char) ch);
+                if (node == null) {
+                    return 0;
+                }
+                pos = 1;
+            } else if (node.label.charAt(pos++) != ch) {
+                return 0;
+            }
+        }
+        collect(node, out);
+        out.truncate(limit);
+        return out.size;
+    }
+
+    /**
+     * 把子树中的最优几本放入out：有候选集合的直接用，否则遍历子树
+     */
+    private void collect(Node node, Completions out) {
+        int[] top = node.top;
+        if (top != null) {
+            for (int book : top) {
+                out.offer(book, borrowCounts.applyAsLong(book));
+            }
+            return;
+        }
+        for (int book : node.books) {
+            out.offer(book, borrowCounts.applyAsLong(book));
+        }
+        for (Node child : node.children) {
+            collect(child, out);
+        }
+    }
+
+    // ==================== 辅助方法 ====================
+
+    /**
+     * 规范化一个字符
+     * @return 规范化后的字符，应忽略时返回-1
+     */
+    private int normalize(char ch) {
+        if (isbnKeys && (ch == '-' || ch == ' ')) {
+            return -1;
+        }
+        return Character.toLowerCase(ch);
+    }
+
+    private String keyOf(String text) {
+        StringBuilder key = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            int ch = normalize(text.charAt(i));
+            if (ch >= 0) {
+                key.append((char) ch);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * 排序规则：借阅次数多的在前，相同时编号小（先加入）的在前
+     */
+    private static boolean better(int book, long count, int other, long otherCount) {
+        return count > otherCount || (count == otherCount && book < other);
+    }
+
+    private static Node child(Node node, char ch) {
+        Node[] children = node.children;
+        int c = indexOf(children, ch);
+        return c < 0 ? null : children[c];
+    }
+
+    /**
+     * 按边的第一个字符二分查找孩子
+     * @return 下标，找不到时为 -(插入位置) - 1
+     */
+    private static int indexOf(Node[] children, char ch) {
+        int low = 0;
+        int high = children.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char c = children[mid].first;
+            if (c < ch) {
+                low = mid + 1;
+            } else if (c > ch) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static Node[] insert(Node[] children, int at, Node child) {
+        Node[] result = new Node[children.length + 1];
+        System.arraycopy(children, 0, result, 0, at);
+        result[at] = child;
+        System.arraycopy(children, at, result, at + 1, children.length - at);
+        return result;
+    }
+
+    private static Node[] without(Node[] children, Node child) {
+        if (children.length == 1) {
+            return NO_CHILDREN;
+        }
+        Node[] result = new Node[children.length - 1];
+        int j = 0;
+        for (Node c : children) {
+            if (c != child) {
+                result[j++] = c;
+            }
+        }
+        return result;
+    }
+
+    private static int[] without(int[] books, int book) {
+        if (books.length == 1) {
+            return NO_BOOKS;
+        }
+        int[] result = new int[books.length - 1];
+        int j = 0;
+        for (int b : books) {
+            if (b != book && j < result.length) {
+                result[j++] = b;
+            }
+        }
+        return result;
+    }
+
+    private static boolean contains(int[] books, int book) {
+        if (books == null) {
+            return false;
+        }
+        for (int b : books) {
+            if (b == book) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 树的节点：进入它的那条边上的文字、孩子、以它结尾的图书、子树的图书数和候选集合
+     * 边上的文字不变（拆分、合并时换成新节点）；其余字段只在索引的锁内修改，数组整个换新
+     */
+    private static final class Node {
+        final String label;
+        // 边上的第一个字符，按它查找孩子时不用再读label（每读一个对象都可能是一次缓存未命中）
+        final char first;
+        volatile Node[] children = NO_CHILDREN;
+        volatile int[] books = NO_BOOKS;
+        volatile int size;
+        // 子树超过TOP_THRESHOLD本书时的候选集合，否则为null
+        volatile int[] top;
+        // 候选集合中的最小借阅次数（可能偏小，只用来快速跳过不可能进入集合的书）
+        volatile long topMin;
+        // 在锁内使用：候选集合各成员上次读到的借阅次数（可能偏小），和top一一对应
+        long[] topCounts;
+
+        Node(String label) {
+            this.label = label;
+            this.first = label.isEmpty() ? 0 : label.charAt(0);
+        }
+
+        /**
+         * 复制出一个边上文字不同、其余相同的节点
+         */
+        Node withLabel(String newLabel) {
+            Node copy = new Node(newLabel);
+            copy.children = children;
+            copy.books = books;
+            copy.size = size;
+            copy.top = top;
+            copy.topMin = topMin;
+            copy.topCounts = topCounts;
+            return copy;
+        }
+    }
+
+    /**
+     * 联想结果，可以反复使用（每个线程一个），查询时不分配对象
+     * 用法：index.complete(prefix, limit, out); while (out.next()) { out.isbn(); out.borrowCount(); }
+     */
+    public static final class Completions {
+        // 按排序规则从前到后排好的图书编号和借阅次数
+        private final int[] books = new int[MAX_COMPLETIONS];
+        private final long[] counts = new long[MAX_COMPLETIONS];
+        private int size;
+        private int position;
+        private IdInterner ids;
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 移到下一条结果
+         * @return 还有结果时返回true
+         */
+        public boolean next() {
+            return ++position < size;
+        }
+
+        /**
+         * 当前结果的图书编号
+         */
+        public int book() {
+            return books[position];
+        }
+
+        /**
+         * 当前结果的ISBN（编号表中保存的实例，不复制）
+         */
+        public String isbn() {
+            return ids.nameOf(books[position]);
+        }
+
+        /**
+         * 当前结果的借阅次数
+         */
+        public long borrowCount() {
+            return counts[position];
+        }
+
+        private void reset(PrefixIndex index) {
+            ids = index.ids;
+            size = 0;
+            position = -1;
+        }
+
+        /**
+         * 按排序规则插入，已满时挤掉最后一名
+         */
+        private void offer(int book, long count) {
+            if (size == MAX_COMPLETIONS && !better(book, count, books[size - 1], counts[size - 1])) {
+                return;
+            }
+            int i = size < MAX_COMPLETIONS ? size++ : size - 1;
+            while (i > 0 && better(book, count, books[i - 1], counts[i - 1])) {
+                books[i] = books[i - 1];
+                counts[i] = counts[i - 1];
+                i--;
+            }
+            books[i] = book;
+            counts[i] = count;
+        }
+
+        private void truncate(int limit) {
+            size = Math.max(0, Math.min(size, limit));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.function.Consumer;
+
+/**
+ * 提醒输出：接收逾期提醒（OverdueTracker）和预约提醒（HoldQueue），
+ * 每条提醒格式化成一行文字交给输出（服务器写到标准输出，控制台程序在菜单上方显示）
+ * 可能在后台线程或Library的锁内调用，这里只格式化，不做耗时的操作
+ */
+public class ReminderLog implements OverdueTracker.Listener, HoldQueue.Listener {
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // 提醒的去处
+    private final Consumer<String> out;
+
+    /**
+     * @param out 接收一行提醒文字
+     */
+    public ReminderLog(Consumer<String> out) {
+        this.out = out;
+    }
+
+    /**
+     * 接到图书馆的逾期跟踪和预约队列上
+     * @param library 图书馆
+     */
+    public void attachTo(Library library) {
+        library.getOverdueTracker().addListener(this);
+        library.getHoldQueue().addListener(this);
+    }
+
+    @Override
+    public void onNearDue(LoanRecord record, LocalDate today) {
+        out.accept("[提醒] 学号" + record.getStudentId() + "借阅的" + record.getIsbn()
+                + "将于" + record.getDueDate() + "到期");
+    }
+
+    @Override
+    public void onOverdue(LoanRecord record, LocalDate today) {
+        out.accept("[提醒] 学号" + record.getStudentId() + "借阅的" + record.getIsbn()
+                + "已逾期（应于" + record.getDueDate() + "归还）");
+    }
+
+    @Override
+    public void onClaimGranted(Hold hold) {
+        LocalDateTime until = LocalDateTime.ofInstant(Instant.ofEpochMilli(hold.getClaimExpiresAt()),
+                ZoneId.systemDefault());
+        out.accept("[提醒] 学号" + hold.getStudentId() + "预约的" + hold.getIsbn()
+                + "已保留，请在" + until.format(TIME) + "之前借走");
+    }
+
+    @Override
+    public void onClaimExpired(Hold hold) {
+        out.accept("[提醒] 学号" + hold.getStudentId() + "预约的" + hold.getIsbn() + "保留已过期，预约已取消");
+    }
+}
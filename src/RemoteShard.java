@@ -0,0 +1,245 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 其他进程中的分片：通过网络协议访问以--shard=true启动的LibraryServer
+ * 每次调用从连接池取一条空闲连接，发一个请求、读一个响应后放回；没有空闲连接时新建，
+ * 所以同时发起的调用不会互相等待，空闲连接最多保留MAX_IDLE条
+ *
+ * 网络出错时连接被丢弃：修改类操作返回SHARD_UNAVAILABLE（请求可能已经在分片上执行了），
+ * 查询类操作抛出UncheckedIOException
+ */
+public class RemoteShard implements LibraryShard, Closeable {
+    // 最多保留的空闲连接数
+    private static final int MAX_IDLE = 16;
+
+    // 连接的读写缓冲区大小
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final String host;
+    private final int port;
+    private final BlockingQueue<Connection> idle = new ArrayBlockingQueue<>(MAX_IDLE);
+
+    // 构造方法
+    public RemoteShard(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteShard{" + host + ':' + port + '}';
+    }
+
+    // ==================== 修改 ====================
+
+    @Override
+    public OpResult addBook(String title, String author, String isbn, int stock) {
+        return update(LibraryProtocol.ADDBOOK, title, author, isbn, String.valueOf(stock));
+    }
+
+    @Override
+    public OpResult registerUser(String name, String studentId) {
+        return update(LibraryProtocol.REGISTER, name, studentId);
+    }
+
+    @Override
+    public OpResult borrowBook(String studentId, String isbn) {
+        return update(LibraryProtocol.BORROW_FOR, studentId, isbn);
+    }
+
+    @Override
+    public OpResult returnBook(String studentId, String isbn) {
+        return update(LibraryProtocol.RETURN_FOR, studentId, isbn);
+    }
+
+    @Override
+    public OpResult placeHold(String studentId, String isbn) {
+        return update(LibraryProtocol.HOLD_FOR, studentId, isbn);
+    }
+
+    @Override
+    public OpResult cancelHold(String studentId, String isbn) {
+        return update(LibraryProtocol.UNHOLD_FOR, studentId, isbn);
+    }
+
+    private OpResult update(String... request) {
+        try {
+            return resultOf(call(request));
+        } catch (IOException e) {
+            return OpResult.SHARD_UNAVAILABLE;
+        }
+    }
+
+    // ==================== 查询 ====================
+
+    @Override
+    public Book getBook(String isbn) {
+        List<String> response = query(LibraryProtocol.BOOK, isbn);
+        if (resultOf(response) == OpResult.BOOK_NOT_FOUND) {
+            return null;
+        }
+        return new Book(response.get(1), response.get(2), isbn, Integer.parseInt(response.get(3)));
+    }
+
+    @Override
+    public User getUser(String studentId) {
+        List<String> response = query(LibraryProtocol.USER, studentId);
+        if (resultOf(response) == OpResult.USER_NOT_FOUND) {
+            return null;
+        }
+        return new User(response.get(1), studentId);
+    }
+
+    @Override
+    public List<Book> findByTitle(String keyword) {
+        return search("T", keyword);
+    }
+
+    @Override
+    public List<Book> findByAuthor(String keyword) {
+        return search("A", keyword);
+    }
+
+    /**
+     * 搜索，响应：OK 条数 然后每本书依次是ISBN、书名、作者、库存
+     */
+    private List<Book> search(String field, String keyword) {
+        List<String> response = query(LibraryProtocol.SEARCH, field, keyword, String.valueOf(Integer.MAX_VALUE));
+        resultOf(response);
+        int count = Integer.parseInt(response.get(1));
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int base = 2 + i * 4;
+            books.add(new Book(response.get(base + 1), response.get(base + 2), response.get(base),
+                    Integer.parseInt(response.get(base + 3))));
+        }
+        return books;
+    }
+
+    /**
+     * 统计，响应：OK 图书种类 用户数 累计借阅 当前借出，然后是热门图书的ISBN、书名、借阅次数
+     * 热门图书再逐本取一次完整信息
+     */
+    @Override
+    public StatisticsReport getStatisticsReport() {
+        List<String> response = query(LibraryProtocol.STATS);
+        resultOf(response);
+        List<Map.Entry<Book, Long>> popular = new ArrayList<>();
+        for (int i = 5; i + 2 < response.size(); i += 3) {
+            String isbn = response.get(i);
+            Book book = getBook(isbn);
+            if (book == null) {
+                // 统计之后刚被删除
+                book = new Book(response.get(i + 1), "", isbn, 0);
+            }
+            popular.add(new AbstractMap.SimpleEntry<>(book, Long.parseLong(response.get(i + 2))));
+        }
+        return new StatisticsReport(Integer.parseInt(response.get(1)), Integer.parseInt(response.get(2)),
+                Long.parseLong(response.get(3)), Long.parseLong(response.get(4)), popular);
+    }
+
+    private List<String> query(String... request) {
+        try {
+            return call(request);
+        } catch (IOException e) {
+            throw new UncheckedIOException("分片" + host + ":" + port + "无法访问", e);
+        }
+    }
+
+    /**
+     * 解析响应的状态
+     * @return OK或错误代码对应的OpResult
+     */
+    private static OpResult resultOf(List<String> response) {
+        if (LibraryProtocol.OK.equals(response.get(0))) {
+            return OpResult.OK;
+        }
+        if (response.size() > 1 && !LibraryProtocol.BAD_REQUEST.equals(response.get(1))) {
+            return OpResult.valueOf(response.get(1));
+        }
+        throw new IllegalStateException("分片拒绝了请求：" + response);
+    }
+
+    // ==================== 连接 ====================
+
+    /**
+     * 发送一个请求并读回响应
+     * @param request 请求字段
+     * @return 响应字段
+     */
+    private List<String> call(String... request) throws IOException {
+        Connection connection = idle.poll();
+        if (connection == null) {
+            connection = new Connection(host, port);
+        }
+        String response;
+        try {
+            response = connection.call(LibraryProtocol.join(request));
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        if (!idle.offer(connection)) {
+            connection.close();
+        }
+        return LibraryProtocol.split(response);
+    }
+
+    /**
+     * 关闭所有空闲连接
+     */
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 到分片的一条连接
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final LibraryProtocol.LineReader reader;
+        private final OutputStream out;
+
+        Connection(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            reader = new LibraryProtocol.LineReader(socket.getInputStream(), BUFFER_SIZE);
+            out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        }
+
+        String call(String line) throws IOException {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+            out.flush();
+            String response = reader.readLine();
+            if (response == null) {
+                throw new IOException("分片关闭了连接");
+            }
+            return response;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 丢弃的连接，关闭失败也无所谓
+            }
+        }
+    }
+}
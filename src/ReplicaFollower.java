@@ -0,0 +1,274 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+
+/**
+ * 只读副本：连接主馆的复制服务（ReplicationServer），先收快照建立一个纯内存的Library，
+ * 之后按序号顺序应用主馆发来的每一条修改，副本上的搜索、图书列表、借阅记录、统计和主馆一致，只是稍有延迟
+ *
+ * 连接断开后每隔RETRY_MILLIS重连，从已应用序号的下一条接着收；
+ * 主馆发来快照而副本已经有数据时（主馆非正常关闭过，或副本落后太多），说明不能再接着应用，
+ * 副本停止复制并报告错误，需要重启副本从新的快照开始（之后getStalenessMillis()不断增长，查询会被拒绝）
+ *
+ * 延迟有两种衡量：
+ *   落后条数：主馆最近告知的最后一条序号 - 已应用的序号
+ *   落后时间：副本最后一次确认自己追上主馆以来经过的时间。每一帧带着主馆发送时的最后一条序号，
+ *   应用到这个序号后，副本的数据至少和主馆在收到这一帧时一样新（同一台机器或局域网内网络延迟可以忽略）；
+ *   主馆空闲时每HEARTBEAT_MILLIS发一次心跳，正常连接时落后时间不会超过几百毫秒
+ */
+public class ReplicaFollower implements Closeable {
+    // 重连间隔（毫秒）
+    private static final long RETRY_MILLIS = 500;
+
+    // 最多记住几个还没追上的主馆序号
+    private static final int MAX_PENDING = 1024;
+
+    private final String host;
+    private final int port;
+    private final Thread thread;
+
+    // 副本的数据，收到第一个快照之前是null
+    private volatile Library library;
+
+    // 主馆账本的纪元，还没有数据时为-1
+    private long epoch = -1;
+
+    // 已应用的最后一条序号，以及它在主馆发生的时间
+    private volatile long appliedSeq;
+    private volatile long appliedTimestamp;
+
+    // 主馆最近告知的最后一条序号
+    private volatile long leaderSeq;
+
+    // 最后一次确认追上主馆的时间（毫秒）
+    private volatile long freshAt;
+
+    // 还没追上的 [主馆序号, 收到的时间]，只由复制线程访问
+    private final ArrayDeque<long[]> pending = new ArrayDeque<>();
+
+    private volatile boolean connected;
+    private volatile boolean diverged;
+    private volatile boolean closed;
+    private volatile Socket socket;
+
+    /**
+     * 构造函数，调用start()后开始复制
+     * @param host 主馆复制服务的主机
+     * @param port 主馆复制服务的端口
+     */
+    public ReplicaFollower(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.thread = new Thread(this::run, "replica-follower");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * 开始复制
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * 等待收到第一个快照
+     * @param timeoutMillis 最长等待时间（毫秒），0表示一直等
+     * @return 副本的数据，超时时为null
+     */
+    public synchronized Library awaitLibrary(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (library == null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (timeoutMillis > 0 && remaining <= 0) {
+                return null;
+            }
+            wait(timeoutMillis > 0 ? remaining : 0);
+        }
+        return library;
+    }
+
+    public Library getLibrary() {
+        return library;
+    }
+
+    public long getAppliedSequence() {
+        return appliedSeq;
+    }
+
+    /**
+     * 获取已应用的最后一条修改在主馆发生的时间
+     * @return 毫秒，还没有应用过事件时为0
+     */
+    public long getAppliedTimestamp() {
+        return appliedTimestamp;
+    }
+
+    public long getLeaderSequence() {
+        return leaderSeq;
+    }
+
+    /**
+     * 获取落后的事件数
+     * @return 主馆最近告知的最后一条序号 - 已应用的序号
+     */
+    public long getLagEvents() {
+        return Math.max(0, leaderSeq - appliedSeq);
+    }
+
+    /**
+     * 获取落后的时间
+     * @return 距离最后一次确认追上主馆的毫秒数，还没有数据时为Long.MAX_VALUE
+     */
+    public long getStalenessMillis() {
+        if (library == null) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, System.currentTimeMillis() - freshAt);
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * 是否已停止复制（收到了无法接着应用的快照）
+     * @return 是否需要重启副本
+     */
+    public boolean isDiverged() {
+        return diverged;
+    }
+
+    /**
+     * 把复制进度登记到性能指标
+     * @param metrics 性能指标
+     */
+    public void registerMetrics(LibraryMetrics metrics) {
+        metrics.addGauge("replica_applied_sequence", "Last ledger event applied on this replica.",
+                this::getAppliedSequence);
+        metrics.addGauge("replica_leader_sequence", "Last ledger event reported by the leader.",
+                this::getLeaderSequence);
+        metrics.addGauge("replica_lag_events", "Events the replica is behind the leader.", this::getLagEvents);
+        metrics.addGauge("replica_staleness_seconds", "Time since the replica was last known to be caught up.",
+                () -> library == null ? Double.NaN : getStalenessMillis() / 1000.0);
+    }
+
+    /**
+     * 停止复制（不关闭副本的Library）
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Socket s = socket;
+        if (s != null) {
+            s.close();
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==================== 复制线程 ====================
+
+    private void run() {
+        while (!closed && !diverged) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(new InetSocketAddress(host, port));
+                s.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                out.writeInt(ReplicationServer.MAGIC);
+                out.writeLong(epoch);
+                out.writeLong(library == null ? 0 : appliedSeq + 1);
+                out.flush();
+                connected = true;
+                receive(new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16)));
+            } catch (IOException e) {
+                // 主馆不可用或连接断开，稍后重连
+            } finally {
+                connected = false;
+                socket = null;
+            }
+            if (closed || diverged) {
+                break;
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 接收并应用主馆发来的帧，直到连接断开
+     */
+    private void receive(DataInputStream in) throws IOException {
+        while (!closed) {
+            byte type = in.readByte();
+            long frameLeaderSeq = in.readLong();
+            in.readLong();  // 主馆时间，两台机器的时钟不一定一致，只用本地收到的时间
+            long receivedAt = System.currentTimeMillis();
+            switch (type) {
+                case ReplicationServer.SNAPSHOT:
+                    long snapshotEpoch = in.readLong();
+                    SnapshotFile snapshot = SnapshotFile.readFrom(in, "主馆" + host + ":" + port);
+                    if (library != null) {
+                        diverged = true;
+                        System.err.println("只读副本停止复制：主馆要求从快照重新开始（纪元" + epoch + " -> "
+                                + snapshotEpoch + "），请重启副本");
+                        return;
+                    }
+                    epoch = snapshotEpoch;
+                    appliedSeq = snapshot.getGeneration();
+                    publish(Library.newReplica(snapshot));
+                    break;
+                case ReplicationServer.EVENTS:
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        LedgerEvent event = LedgerEvent.readFrom(in);
+                        if (event.getSequence() != appliedSeq + 1) {
+                            throw new IOException("事件序号不连续：应为" + (appliedSeq + 1) + "，收到" + event.getSequence());
+                        }
+                        library.applyReplicated(event.getOp());
+                        appliedTimestamp = event.getTimestamp();
+                        appliedSeq = event.getSequence();
+                    }
+                    break;
+                case ReplicationServer.HEARTBEAT:
+                    break;
+                default:
+                    throw new IOException("未知的复制帧类型：" + type);
+            }
+            leaderSeq = Math.max(leaderSeq, frameLeaderSeq);
+            markFresh(frameLeaderSeq, receivedAt);
+        }
+    }
+
+    /**
+     * 记录主馆在receivedAt时的最后一条序号，并更新最后一次追上主馆的时间
+     */
+    private void markFresh(long frameLeaderSeq, long receivedAt) {
+        pending.addLast(new long[]{frameLeaderSeq, receivedAt});
+        if (pending.size() > MAX_PENDING) {
+            // 丢掉最早的：之后的序号更大，追上它们也就追上了被丢掉的，只会让落后时间偏大
+            pending.removeFirst();
+        }
+        while (!pending.isEmpty() && pending.peekFirst()[0] <= appliedSeq) {
+            freshAt = Math.max(freshAt, pending.removeFirst()[1]);
+        }
+    }
+
+    private synchronized void publish(Library replica) {
+        library = replica;
+        notifyAll();
+    }
+}
@@ -0,0 +1,437 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 主馆-只读副本复制的本地多进程测试
+ * 在本机启动一个主馆进程（--replication-port，以分片模式运行，方便测试直接添加图书、代学生借还）
+ * 和若干个副本进程（--follow）。副本0在添加图书之前就启动（跟着事件流从头复制），其余副本之后才启动（从快照开始）
+ * 多个线程在主馆上随机借还（一半的操作是还掉自己借着的书）一段时间，同时每隔SAMPLE_MILLIS向各副本查询复制进度（LAG），然后检查：
+ *   1. 负载期间副本落后的时间不超过--max-lag-ms
+ *   2. 停止写入后各副本很快追上主馆，统计（STATS）、图书列表和库存（LIST）、借阅记录数（LOANS）与主馆一致
+ *   3. 副本拒绝修改（READ_ONLY）
+ *   4. 强制结束（kill -9）一个副本再重新启动，它从新的快照追上主馆
+ *   5. 正常重启主馆，副本自动重连，从原来的位置接着复制，之后的修改也能追上
+ *
+ * 用法：java ReplicaHarness [--replicas=2] [--books=500] [--users=200] [--threads=4] [--seconds=10]
+ *                          [--base-port=7200] [--data=replica-test] [--max-lag-ms=2000]
+ * 端口：主馆base-port，复制服务base-port+1，副本i在base-port+2+i
+ * 图书列表整个放在一行响应里（最长64KB），books不宜超过1000
+ */
+public class ReplicaHarness {
+    // 等待进程开始监听的最长时间（毫秒）
+    private static final long START_TIMEOUT_MILLIS = 60_000;
+
+    // 等待副本追上主馆的最长时间（毫秒）
+    private static final long CATCH_UP_TIMEOUT_MILLIS = 30_000;
+
+    // 查询副本复制进度的间隔（毫秒）
+    private static final long SAMPLE_MILLIS = 100;
+
+    // 比较借阅记录时最多取几条
+    private static final int LOANS_LIMIT = 200;
+
+    private final int bookCount;
+    private final int userCount;
+    private final int[] initialStock;
+    private final int basePort;
+    private final Path dataDir;
+
+    // 测试记下的未归还借阅："学号\tISBN"
+    private final Set<String> outstanding = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong unexpected = new AtomicLong();
+    private int failures;
+
+    private Process leaderProcess;
+    private final List<Process> replicaProcesses = new ArrayList<>();
+    private RemoteShard leader;
+
+    // 构造方法
+    private ReplicaHarness(int bookCount, int userCount, int basePort, Path dataDir) {
+        this.bookCount = bookCount;
+        this.userCount = userCount;
+        this.basePort = basePort;
+        this.dataDir = dataDir;
+        this.initialStock = new int[bookCount];
+        Random random = new Random(42);
+        for (int i = 0; i < bookCount; i++) {
+            initialStock[i] = 1 + random.nextInt(3);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLine.parseArgs(args);
+        int replicas = Integer.parseInt(options.getOrDefault("replicas", "2"));
+        int books = Integer.parseInt(options.getOrDefault("books", "500"));
+        int users = Integer.parseInt(options.getOrDefault("users", "200"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        long seconds = Long.parseLong(options.getOrDefault("seconds", "10"));
+        int basePort = Integer.parseInt(options.getOrDefault("base-port", "7200"));
+        Path dataDir = Paths.get(options.getOrDefault("data", "replica-test"));
+        long maxLagMillis = Long.parseLong(options.getOrDefault("max-lag-ms", "2000"));
+
+        ReplicaHarness harness = new ReplicaHarness(books, users, basePort, dataDir);
+        try {
+            deleteRecursively(dataDir);
+            harness.startLeader();
+            harness.leader = new RemoteShard("localhost", basePort);
+            harness.startReplica(0);
+            System.out.println("已启动主馆（端口" + basePort + "，复制端口" + (basePort + 1) + "）和副本0");
+
+            harness.load();
+            for (int i = 1; i < replicas; i++) {
+                harness.startReplica(i);
+            }
+            System.out.println("已启动副本1~" + (replicas - 1) + "（从快照开始）");
+
+            long maxStaleness = harness.runWorkload(threads, seconds, replicas);
+            System.out.println("\n检查（借还之后）：");
+            harness.report("负载期间副本落后不超过" + maxLagMillis + "毫秒", maxStaleness <= maxLagMillis,
+                    "最多落后" + maxStaleness + "毫秒");
+            harness.verifyAll(replicas);
+            harness.verifyReadOnly(0);
+
+            System.out.println("\n强制结束副本" + (replicas - 1) + "并重新启动……");
+            harness.replicaProcesses.get(replicas - 1).destroyForcibly().waitFor();
+            harness.startReplica(replicas - 1);
+            harness.verifyAll(replicas);
+
+            System.out.println("\n正常重启主馆……");
+            harness.leaderProcess.destroy();
+            harness.leaderProcess.waitFor();
+            harness.leader.close();
+            harness.startLeader();
+            harness.runWorkload(threads, Math.max(1, seconds / 5), replicas);
+            System.out.println("\n检查（主馆重启之后）：");
+            harness.verifyAll(replicas);
+        } finally {
+            if (harness.leader != null) {
+                harness.leader.close();
+            }
+            List<Process> processes = new ArrayList<>(harness.replicaProcesses);
+            if (harness.leaderProcess != null) {
+                processes.add(harness.leaderProcess);
+            }
+            for (Process process : processes) {
+                process.destroy();
+            }
+            for (Process process : processes) {
+                process.waitFor();
+            }
+        }
+
+        System.out.println(harness.failures == 0 ? "\n全部检查通过" : "\n" + harness.failures + "项检查失败");
+        System.exit(harness.failures == 0 ? 0 : 1);
+    }
+
+    // ==================== 进程 ====================
+
+    private void startLeader() throws Exception {
+        Path dir = dataDir.resolve("leader");
+        leaderProcess = startServer(dir, "--port=" + basePort, "--data=" + dir, "--shard=true",
+                "--replication-port=" + (basePort + 1));
+        awaitListening(basePort);
+    }
+
+    /**
+     * 启动（或重新启动）副本i，等它收到快照、开始监听
+     */
+    private void startReplica(int i) throws Exception {
+        Path dir = dataDir.resolve("replica-" + i);
+        Process process = startServer(dir, "--port=" + replicaPort(i), "--data=" + dir,
+                "--follow=localhost:" + (basePort + 1));
+        if (i < replicaProcesses.size()) {
+            replicaProcesses.set(i, process);
+        } else {
+            replicaProcesses.add(process);
+        }
+        awaitListening(replicaPort(i));
+    }
+
+    private int replicaPort(int i) {
+        return basePort + 2 + i;
+    }
+
+    /**
+     * 用当前的java和类路径启动一个LibraryServer进程，输出写到目录下的server.log
+     */
+    private static Process startServer(Path dir, String... args) throws IOException {
+        Files.createDirectories(dir);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path"),
+                "LibraryServer"));
+        command.addAll(List.of(args));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(dir.resolve("server.log").toFile()));
+        return builder.start();
+    }
+
+    private static void awaitListening(int port) throws Exception {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 1000);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("服务器没有在规定时间内启动，端口：" + port, e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * 发一个请求并读回响应（每次新建连接，只用于检查和采样）
+     */
+    private static List<String> call(int port, String... request) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            LibraryProtocol.LineReader reader = new LibraryProtocol.LineReader(socket.getInputStream(), 8192);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(LibraryProtocol.join(request).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+            out.flush();
+            String response = reader.readLine();
+            if (response == null) {
+                throw new IOException("服务器关闭了连接，端口：" + port);
+            }
+            return LibraryProtocol.split(response);
+        }
+    }
+
+    // ==================== 测试数据和负载 ====================
+
+    private static String isbnOf(int i) {
+        return "978-7-300-" + String.format("%06d", i);
+    }
+
+    private static String studentOf(int i) {
+        return "2025" + String.format("%05d", i);
+    }
+
+    private void load() {
+        long start = System.nanoTime();
+        for (int i = 0; i < bookCount; i++) {
+            expect(leader.addBook("副本测试 第" + i + "册", "作者" + (i % 50), isbnOf(i), initialStock[i]), "添加图书");
+        }
+        for (int i = 0; i < userCount; i++) {
+            expect(leader.registerUser("学生" + i, studentOf(i)), "注册用户");
+        }
+        System.out.printf("已添加%d本书、%d个用户，耗时%.1f秒%n", bookCount, userCount,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    private void expect(OpResult result, String what) {
+        if (!result.isOk()) {
+            throw new IllegalStateException(what + "失败：" + result);
+        }
+    }
+
+    /**
+     * 多个线程在主馆上随机借还（线程t只使用下标 % threads == t 的学生），同时采样各副本的落后时间
+     * 上一轮留下的借阅不会被这一轮还掉
+     * @return 采样到的最大落后时间（毫秒）
+     */
+    private long runWorkload(int threads, long seconds, int replicas) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + seconds * 1000;
+        long before = operations.get();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int self = t;
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int mine = (userCount - self + threads - 1) / threads;
+                // 本线程借着的，一半的操作是随机还掉其中一本，库存不会被借光
+                List<String> held = new ArrayList<>();
+                while (mine > 0 && System.currentTimeMillis() < deadline) {
+                    if (!held.isEmpty() && random.nextBoolean()) {
+                        int k = random.nextInt(held.size());
+                        String key = held.get(k);
+                        int tab = key.indexOf('\t');
+                        if (check(leader.returnBook(key.substring(0, tab), key.substring(tab + 1)), OpResult.OK, null)) {
+                            held.set(k, held.get(held.size() - 1));
+                            held.remove(held.size() - 1);
+                            outstanding.remove(key);
+                        }
+                    } else {
+                        String studentId = studentOf(self + threads * random.nextInt(mine));
+                        String isbn = isbnOf(random.nextInt(bookCount));
+                        String key = studentId + '\t' + isbn;
+                        if (!outstanding.contains(key)
+                                && check(leader.borrowBook(studentId, isbn), OpResult.OK, OpResult.OUT_OF_STOCK)) {
+                            outstanding.add(key);
+                            held.add(key);
+                        }
+                    }
+                    operations.incrementAndGet();
+                }
+            }, "harness-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long maxStaleness = 0;
+        long maxLagEvents = 0;
+        while (System.currentTimeMillis() < deadline) {
+            for (int i = 0; i < replicas; i++) {
+                try {
+                    List<String> lag = call(replicaPort(i), LibraryProtocol.LAG);
+                    maxLagEvents = Math.max(maxLagEvents, Long.parseLong(lag.get(3)));
+                    maxStaleness = Math.max(maxStaleness, Long.parseLong(lag.get(4)));
+                } catch (IOException e) {
+                    System.out.println("查询副本" + i + "失败：" + e.getMessage());
+                }
+            }
+            Thread.sleep(SAMPLE_MILLIS);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long done = operations.get() - before;
+        System.out.printf("%d个线程借还%d秒：%d次操作（%.0f次/秒），未借出%d本，意外结果%d次%n",
+                threads, seconds, done, done / (double) seconds, outstanding.size(), unexpected.get());
+        System.out.printf("副本最多落后%d条事件、%d毫秒%n", maxLagEvents, maxStaleness);
+        return maxStaleness;
+    }
+
+    private boolean check(OpResult result, OpResult expected, OpResult alsoFine) {
+        if (result == expected) {
+            return true;
+        }
+        if (result != alsoFine) {
+            if (unexpected.incrementAndGet() <= 10) {
+                System.out.println("意外结果：" + result + "，期望" + expected);
+            }
+        }
+        return false;
+    }
+
+    // ==================== 检查 ====================
+
+    /**
+     * 等所有副本追上主馆，再逐个与主馆比较
+     */
+    private void verifyAll(int replicas) throws Exception {
+        report("借还结果都符合预期", unexpected.get() == 0, unexpected.get() + "次意外结果");
+        long leaderSeq = Long.parseLong(call(basePort, LibraryProtocol.LAG).get(1));
+        List<String> leaderStats = call(basePort, LibraryProtocol.STATS);
+        List<String> leaderBooks = call(basePort, LibraryProtocol.LIST, String.valueOf(bookCount + 1));
+        List<String> leaderLoans = call(basePort, LibraryProtocol.LOANS, String.valueOf(LOANS_LIMIT));
+
+        // 主馆的库存应与测试记下的未归还借阅一致
+        int[] borrowed = new int[bookCount];
+        for (String key : outstanding) {
+            String isbn = key.substring(key.indexOf('\t') + 1);
+            borrowed[Integer.parseInt(isbn.substring(isbn.lastIndexOf('-') + 1))]++;
+        }
+        int wrongStock = 0;
+        for (int i = 2; i + 3 < leaderBooks.size(); i += 4) {
+            String isbn = leaderBooks.get(i);
+            int index = Integer.parseInt(isbn.substring(isbn.lastIndexOf('-') + 1));
+            if (Integer.parseInt(leaderBooks.get(i + 3)) != initialStock[index] - borrowed[index]) {
+                wrongStock++;
+            }
+        }
+        report("主馆库存 = 初始库存 - 未归还",
+                wrongStock == 0 && Integer.parseInt(leaderBooks.get(1)) == bookCount, wrongStock + "本书不符");
+
+        for (int i = 0; i < replicas; i++) {
+            long start = System.currentTimeMillis();
+            long applied = awaitCatchUp(i, leaderSeq);
+            report("副本" + i + "追上主馆（序号" + leaderSeq + "，用时" + (System.currentTimeMillis() - start) + "毫秒）",
+                    applied >= leaderSeq, "只应用到" + applied);
+            List<String> stats = call(replicaPort(i), LibraryProtocol.STATS);
+            report("副本" + i + "的统计与主馆一致", statsKey(stats).equals(statsKey(leaderStats)),
+                    stats + "，主馆" + leaderStats);
+            List<String> books = call(replicaPort(i), LibraryProtocol.LIST, String.valueOf(bookCount + 1));
+            report("副本" + i + "的图书和库存与主馆一致", bookMap(books).equals(bookMap(leaderBooks)),
+                    "副本" + books.get(1) + "本，主馆" + leaderBooks.get(1) + "本");
+            List<String> loans = call(replicaPort(i), LibraryProtocol.LOANS, String.valueOf(LOANS_LIMIT));
+            report("副本" + i + "的借阅记录数与主馆一致", loans.get(1).equals(leaderLoans.get(1)),
+                    "副本" + loans.get(1) + "条，主馆" + leaderLoans.get(1) + "条");
+        }
+    }
+
+    /**
+     * STATS响应中要比较的部分：各项数量和热门图书的借阅次数（借阅次数相同的图书先后顺序不固定）
+     */
+    private static List<String> statsKey(List<String> response) {
+        List<String> key = new ArrayList<>(response.subList(0, Math.min(5, response.size())));
+        for (int i = 7; i < response.size(); i += 3) {
+            key.add(response.get(i));
+        }
+        return key;
+    }
+
+    /**
+     * 把LIST的响应整理成 ISBN -> 书名、作者、库存（两边遍历图书的顺序可以不同）
+     */
+    private static Map<String, List<String>> bookMap(List<String> response) {
+        Map<String, List<String>> books = new HashMap<>();
+        for (int i = 2; i + 3 < response.size(); i += 4) {
+            books.put(response.get(i), response.subList(i + 1, i + 4));
+        }
+        return books;
+    }
+
+    /**
+     * 等副本应用到指定序号
+     * @return 副本已应用的序号
+     */
+    private long awaitCatchUp(int replica, long seq) throws Exception {
+        long deadline = System.currentTimeMillis() + CATCH_UP_TIMEOUT_MILLIS;
+        while (true) {
+            long applied = Long.parseLong(call(replicaPort(replica), LibraryProtocol.LAG).get(1));
+            if (applied >= seq || System.currentTimeMillis() > deadline) {
+                return applied;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private void verifyReadOnly(int replica) throws IOException {
+        List<String> register = call(replicaPort(replica), LibraryProtocol.REGISTER, "学生X", "202599999");
+        List<String> borrow = call(replicaPort(replica), LibraryProtocol.BORROW, isbnOf(0));
+        report("副本拒绝修改",
+                register.size() > 1 && OpResult.READ_ONLY.name().equals(register.get(1))
+                        && borrow.size() > 1 && OpResult.READ_ONLY.name().equals(borrow.get(1)),
+                register + " " + borrow);
+    }
+
+    private void report(String name, boolean ok, String detail) {
+        System.out.println((ok ? "  通过  " : "  失败  ") + name + (ok ? "" : "：" + detail));
+        if (!ok) {
+            failures++;
+        }
+    }
+}
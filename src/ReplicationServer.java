@@ -0,0 +1,217 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 主馆的复制服务：把事件账本里的修改按顺序发给只读副本（ReplicaFollower）
+ * 每个副本一条连接、一个事件账本的订阅，慢的副本只影响自己，不会拖慢主馆的借还
+ *
+ * 副本连上后先发 [MAGIC int][纪元 long][下一条要的序号 long]，之后只由主馆单向发送，每一帧是：
+ *   [类型 byte][主馆最后一条序号 long][主馆时间 long][内容]
+ *   SNAPSHOT   内容是 [纪元 long][快照]，快照格式与快照文件相同，generation字段是快照对应的最后一条事件序号
+ *   EVENTS     内容是 [条数 int][事件...]，序号连续
+ *   HEARTBEAT  没有内容，没有新事件时每HEARTBEAT_MILLIS发一次，副本据此知道自己没有落后
+ * 副本是新的（序号0）、纪元不同（主馆上次非正常关闭过，序号不再可靠）或者要的事件已不在账本里时，先发快照再接着发事件
+ *
+ * 主馆必须有数据目录和事件账本（LibraryServer --replication-port 会自动打开账本）
+ * 连接不做认证，快照里有全部图书、用户和借阅，所以默认只监听本机回环地址；副本在别的机器上时要指定监听地址
+ */
+public class ReplicationServer implements Closeable {
+    // 连接开头的标识 "LREP"
+    static final int MAGIC = 0x4C524550;
+
+    // 帧类型
+    static final byte SNAPSHOT = 1;
+    static final byte EVENTS = 2;
+    static final byte HEARTBEAT = 3;
+
+    // 没有新事件时发送心跳的间隔（毫秒）
+    static final long HEARTBEAT_MILLIS = 200;
+
+    // 每帧最多的事件数
+    private static final int MAX_BATCH = 1024;
+
+    // 发送缓冲区大小
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // 接受连接失败（例如文件描述符用完）后等待多久再试（毫秒）
+    private static final long ACCEPT_RETRY_MILLIS = 100;
+
+    private final Library library;
+    private final EventLedger ledger;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+
+    // 当前连接的副本
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger followerIds = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    /**
+     * 构造函数：在本机回环地址上监听端口，调用start()后开始接受副本的连接
+     * @param library 主馆
+     * @param port 端口，0表示随机分配
+     */
+    public ReplicationServer(Library library, int port) throws IOException {
+        this(library, InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * 构造函数：在指定地址上监听端口，调用start()后开始接受副本的连接
+     * @param library 主馆
+     * @param bindAddress 监听的地址，null表示所有地址
+     * @param port 端口，0表示随机分配
+     */
+    public ReplicationServer(Library library, InetAddress bindAddress, int port) throws IOException {
+        if (library.getLedger() == null) {
+            throw new IllegalStateException("主馆需要数据目录和事件账本");
+        }
+        this.library = library;
+        this.ledger = library.getLedger();
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        this.acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+    }
+
+    /**
+     * 开始接受副本的连接
+     */
+    public void start() {
+        acceptor.start();
+    }
+
+    /**
+     * 获取实际监听的端口
+     * @return 端口
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * 获取当前连接的副本数
+     * @return 副本数
+     */
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    /**
+     * 把副本数和最慢的订阅者落后的事件数登记到性能指标
+     * @param metrics 性能指标
+     */
+    public void registerMetrics(LibraryMetrics metrics) {
+        metrics.addGauge("replication_followers", "Connected read replicas.", this::getFollowerCount);
+        metrics.addGauge("replication_max_lag_events", "Events not yet shipped to the slowest ledger subscriber.",
+                ledger::getMaxLag);
+    }
+
+    /**
+     * 停止接受新的副本并断开所有副本
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : followers) {
+            socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (closed || serverSocket.isClosed()) {
+                    return;
+                }
+                System.err.println("接受副本连接失败：" + e.getMessage());
+                try {
+                    Thread.sleep(ACCEPT_RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            followers.add(socket);
+            // 用系统线程：订阅等待新事件时在账本的锁上wait()，虚拟线程会占住载体线程；副本一般只有几个
+            Thread thread = new Thread(() -> ship(socket), "replication-" + followerIds.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 给一个副本发送快照和事件，直到对方断开或出错
+     */
+    private void ship(Socket socket) {
+        EventLedger.Subscription subscription = null;
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), BUFFER_SIZE));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            long epoch = in.readLong();
+            long fromSeq = in.readLong();
+
+            if (fromSeq <= 0 || epoch != ledger.getEpoch()
+                    || fromSeq < ledger.getFirstSequence() || fromSeq > ledger.getLastSequence() + 1) {
+                SnapshotFile snapshot = library.copyStateForReplica();
+                writeHeader(out, SNAPSHOT, snapshot.getGeneration());
+                out.writeLong(ledger.getEpoch());
+                snapshot.writeTo(out);
+                out.flush();
+                fromSeq = snapshot.getGeneration() + 1;
+            }
+            subscription = ledger.subscribe(fromSeq);
+
+            while (!closed) {
+                // 先读主馆的序号再拉取：这一帧发完后副本至少追到了这个序号
+                long leaderSeq = ledger.getLastSequence();
+                List<LedgerEvent> events = subscription.poll(MAX_BATCH, HEARTBEAT_MILLIS);
+                if (events.isEmpty()) {
+                    writeHeader(out, HEARTBEAT, leaderSeq);
+                } else {
+                    writeHeader(out, EVENTS, leaderSeq);
+                    out.writeInt(events.size());
+                    for (LedgerEvent event : events) {
+                        event.writeTo(out);
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // 副本断开，或账本写文件出错，副本稍后重连
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (subscription != null) {
+                subscription.close();
+            }
+            followers.remove(socket);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, byte type, long leaderSeq) throws IOException {
+        out.writeByte(type);
+        out.writeLong(leaderSeq);
+        out.writeLong(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * 登录会话
+ * login()成功后返回一个会话对象，之后借书、还书、查看借阅都带上它
+ * 每个终端持有自己的会话，多个用户可以同时登录同一个Library
+ */
+public class Session {
+    // 定义成员变量
+    private final String token;             // 会话令牌（随机生成，唯一）
+    private final User user;                // 登录的用户
+    private final long createdAt;           // 登录时间（毫秒）
+    private volatile long lastAccessTime;   // 最近一次使用时间（毫秒），用于空闲过期
+
+    // 构造方法
+    public Session(String token, User user, long now) {
+        this.token = token;
+        this.user = user;
+        this.createdAt = now;
+        this.lastAccessTime = now;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * 刷新最近使用时间
+     * 只是一次volatile写，不需要加锁
+     * @param now 当前时间（毫秒）
+     */
+    public void touch(long now) {
+        this.lastAccessTime = now;
+    }
+
+    // 对象转换成字符串
+    @Override
+    public String toString() {
+        return "Session{user=" + user.getStudentId() +
+                ", token='" + token + '\'' +
+                '}';
+    }
+}
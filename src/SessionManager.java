@@ -0,0 +1,137 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话表
+ * 用ConcurrentHashMap按令牌保存所有在线会话，查找和刷新都不加全局锁
+ * 空闲超过idleTimeoutMillis的会话会失效：使用时发现过期立即删除，
+ * 另外有一个后台线程定期清理没人再用的过期会话
+ */
+public class SessionManager {
+    // 默认空闲超时：30分钟
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+
+    // 令牌 -> 会话
+    private final Map<String, Session> sessions;
+
+    // 空闲超时时间（毫秒）
+    private final long idleTimeoutMillis;
+
+    // 后台清理线程
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * 构造函数：使用默认的空闲超时时间
+     */
+    public SessionManager() {
+        this(DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 构造函数：后台清理由start()启动
+     * @param idleTimeoutMillis 空闲超时时间（毫秒）
+     */
+    public SessionManager(long idleTimeoutMillis) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 启动后台清理线程：每隔半个空闲超时（至少1秒）清理一次过期会话
+     */
+    public void start() {
+        long period = Math.max(1000L, idleTimeoutMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::removeExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 为用户创建新会话
+     * @param user 登录的用户
+     * @return 新会话
+     */
+    public Session open(User user) {
+        Session session = new Session(UUID.randomUUID().toString(), user, System.currentTimeMillis());
+        sessions.put(session.getToken(), session);
+        return session;
+    }
+
+    /**
+     * 检查会话是否有效，有效则刷新使用时间
+     * @param session 要检查的会话
+     * @return 会话有效返回true，已退出或已过期返回false
+     */
+    public boolean validate(Session session) {
+        if (session == null || sessions.get(session.getToken()) != session) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (isExpired(session, now)) {
+            sessions.remove(session.getToken(), session);
+            return false;
+        }
+        session.touch(now);
+        return true;
+    }
+
+    /**
+     * 根据令牌查找有效会话（供网络等只持有令牌的客户端使用）
+     * @param token 会话令牌
+     * @return 有效会话，不存在或已过期返回null
+     */
+    public Session find(String token) {
+        Session session = token == null ? null : sessions.get(token);
+        return validate(session) ? session : null;
+    }
+
+    /**
+     * 关闭会话（退出登录）
+     * @param session 要关闭的会话
+     * @return 会话之前是否在线
+     */
+    public boolean close(Session session) {
+        return session != null && sessions.remove(session.getToken(), session);
+    }
+
+    /**
+     * 获取在线会话数量
+     * @return 在线会话数量（可能包含还没被清理的过期会话）
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 清理所有过期会话
+     * 由后台线程定期调用
+     */
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Session> it = sessions.values().iterator();
+        while (it.hasNext()) {
+            if (isExpired(it.next(), now)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 停止后台清理线程
+     */
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    private boolean isExpired(Session session, long now) {
+        return now - session.getLastAccessTime() > idleTimeoutMillis;
+    }
+}
@@ -0,0 +1,315 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 分片部署的本地多进程测试
+ * 在本机启动若干个以--shard=true运行的LibraryServer进程（每个分片一个端口、一个数据目录），
+ * 用RemoteShard连上组成路由器，添加图书、注册用户后由多个线程随机借还一段时间，然后检查：
+ *   1. 每本书只在路由器算出的那个分片上
+ *   2. 每本书的库存 = 初始库存 - 测试记下的未归还借阅数（借还既没有丢失也没有重复）
+ *   3. 汇总统计的图书数、用户数、当前借出数与测试记下的一致
+ *   4. 合并后的搜索结果与按书名算出的一致
+ *   5. 强制结束（kill -9）一个分片进程再重新启动，它从日志恢复后以上检查仍然通过
+ * 每个线程只操作分给自己的学生，同一个(学生, 图书)不会被两个线程同时借还，每次操作的结果都可以预期
+ *
+ * 用法：java ShardHarness [--shards=3] [--books=2000] [--users=500] [--threads=8] [--seconds=10]
+ *                        [--base-port=7100] [--data=shard-test] [--in-process=false]
+ * --in-process=true 时分片在本进程内（LocalShard），不启动其他进程，也不做重启检查
+ */
+public class ShardHarness {
+    // 等待分片进程开始监听的最长时间（毫秒）
+    private static final long START_TIMEOUT_MILLIS = 60_000;
+
+    // 搜索检查用的关键词：每三本书有一本书名里带它
+    private static final String KEYWORD = "java";
+
+    private final int bookCount;
+    private final int userCount;
+    private final int[] initialStock;
+
+    // 测试记下的未归还借阅："学号\tISBN"
+    private final Set<String> outstanding = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong unexpected = new AtomicLong();
+    private int failures;
+
+    private LibraryRouter router;
+
+    // 构造方法
+    private ShardHarness(int bookCount, int userCount) {
+        this.bookCount = bookCount;
+        this.userCount = userCount;
+        this.initialStock = new int[bookCount];
+        Random random = new Random(42);
+        for (int i = 0; i < bookCount; i++) {
+            initialStock[i] = 1 + random.nextInt(3);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLine.parseArgs(args);
+        int shardCount = Integer.parseInt(options.getOrDefault("shards", "3"));
+        int books = Integer.parseInt(options.getOrDefault("books", "2000"));
+        int users = Integer.parseInt(options.getOrDefault("users", "500"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        long seconds = Long.parseLong(options.getOrDefault("seconds", "10"));
+        int basePort = Integer.parseInt(options.getOrDefault("base-port", "7100"));
+        Path dataDir = Paths.get(options.getOrDefault("data", "shard-test"));
+        boolean inProcess = Boolean.parseBoolean(options.getOrDefault("in-process", "false"));
+
+        ShardHarness harness = new ShardHarness(books, users);
+        List<Process> processes = new ArrayList<>();
+        try {
+            if (inProcess) {
+                harness.router = LibraryRouter.inProcess(shardCount);
+                System.out.println("已创建" + shardCount + "个进程内分片");
+            } else {
+                List<LibraryShard> shards = new ArrayList<>();
+                for (int i = 0; i < shardCount; i++) {
+                    Path shardDir = dataDir.resolve("shard-" + i);
+                    deleteRecursively(shardDir);
+                    processes.add(startShard(basePort + i, shardDir));
+                    shards.add(new RemoteShard("localhost", basePort + i));
+                }
+                for (int i = 0; i < shardCount; i++) {
+                    awaitListening(basePort + i);
+                }
+                harness.router = new LibraryRouter(shards);
+                System.out.println("已启动" + shardCount + "个分片进程，端口" + basePort + "~" + (basePort + shardCount - 1));
+            }
+
+            harness.load();
+            harness.runWorkload(threads, seconds);
+            harness.verify("借还之后");
+
+            if (!inProcess) {
+                System.out.println("\n强制结束分片0并重新启动……");
+                processes.get(0).destroyForcibly().waitFor();
+                ((RemoteShard) harness.router.getShard(0)).close();
+                processes.set(0, startShard(basePort, dataDir.resolve("shard-0")));
+                awaitListening(basePort);
+                harness.verify("分片0重启之后");
+            }
+        } finally {
+            if (harness.router != null) {
+                harness.router.close();
+            }
+            for (Process process : processes) {
+                process.destroy();
+            }
+            for (Process process : processes) {
+                process.waitFor();
+            }
+        }
+
+        System.out.println(harness.failures == 0 ? "\n全部检查通过" : "\n" + harness.failures + "项检查失败");
+        System.exit(harness.failures == 0 ? 0 : 1);
+    }
+
+    // ==================== 分片进程 ====================
+
+    /**
+     * 用当前的java和类路径启动一个分片进程，输出写到数据目录下的server.log
+     */
+    private static Process startShard(int port, Path dataDir) throws IOException {
+        Files.createDirectories(dataDir);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "LibraryServer", "--port=" + port, "--data=" + dataDir, "--shard=true");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(ProcessBuilder.Redirect.appendTo(dataDir.resolve("server.log").toFile()));
+        return builder.start();
+    }
+
+    /**
+     * 等待端口可以连接（分片恢复数据完成后才开始监听）
+     */
+    private static void awaitListening(int port) throws Exception {
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 1000);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("分片没有在规定时间内启动，端口：" + port, e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    // ==================== 测试数据和负载 ====================
+
+    private static String isbnOf(int i) {
+        return "978-7-200-" + String.format("%06d", i);
+    }
+
+    private static String titleOf(int i) {
+        return i % 3 == 0 ? "分片测试 " + KEYWORD + " 第" + i + "册" : "分片测试 第" + i + "册";
+    }
+
+    private static String studentOf(int i) {
+        return "2024" + String.format("%05d", i);
+    }
+
+    private void load() {
+        long start = System.nanoTime();
+        for (int i = 0; i < bookCount; i++) {
+            expect(router.addBook(titleOf(i), "作者" + (i % 50), isbnOf(i), initialStock[i]), "添加图书");
+        }
+        for (int i = 0; i < userCount; i++) {
+            expect(router.registerUser("学生" + i, studentOf(i)), "注册用户");
+        }
+        System.out.printf("已添加%d本书、%d个用户，耗时%.1f秒%n", bookCount, userCount,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    private void expect(OpResult result, String what) {
+        if (!result.isOk()) {
+            throw new IllegalStateException(what + "失败：" + result);
+        }
+    }
+
+    /**
+     * 多个线程随机借还：线程t只使用下标 % threads == t 的学生
+     * 没借着的书就借（OK或OUT_OF_STOCK），借着的就还（必须OK）；偶尔用未注册的学号借书（必须USER_NOT_FOUND）
+     */
+    private void runWorkload(int threads, long seconds) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + seconds * 1000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int self = t;
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int mine = (userCount - self + threads - 1) / threads;
+                while (mine > 0 && System.currentTimeMillis() < deadline) {
+                    String studentId = studentOf(self + threads * random.nextInt(mine));
+                    String isbn = isbnOf(random.nextInt(bookCount));
+                    String key = studentId + '\t' + isbn;
+                    if (random.nextInt(100) == 0) {
+                        check(router.borrowBook("X" + studentId, isbn), OpResult.USER_NOT_FOUND, null);
+                    } else if (outstanding.contains(key)) {
+                        if (check(router.returnBook(studentId, isbn), OpResult.OK, null)) {
+                            outstanding.remove(key);
+                        }
+                    } else if (check(router.borrowBook(studentId, isbn), OpResult.OK, OpResult.OUT_OF_STOCK)) {
+                        outstanding.add(key);
+                    }
+                    operations.incrementAndGet();
+                }
+            }, "harness-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        System.out.printf("%d个线程借还%d秒：%d次操作（%.0f次/秒），未借出%d本，意外结果%d次%n",
+                threads, seconds, operations.get(), operations.get() / (double) seconds,
+                outstanding.size(), unexpected.get());
+    }
+
+    /**
+     * 检查操作结果
+     * @return 结果是expected时返回true
+     */
+    private boolean check(OpResult result, OpResult expected, OpResult alsoFine) {
+        if (result == expected) {
+            return true;
+        }
+        if (result != alsoFine) {
+            if (unexpected.incrementAndGet() <= 10) {
+                System.out.println("意外结果：" + result + "，期望" + expected);
+            }
+        }
+        return false;
+    }
+
+    // ==================== 检查 ====================
+
+    private void verify(String stage) {
+        System.out.println("\n检查（" + stage + "）：");
+        report("借还结果都符合预期", unexpected.get() == 0, unexpected.get() + "次意外结果");
+
+        // 1. 抽查图书的位置
+        int misplaced = 0;
+        for (int i = 0; i < bookCount; i += Math.max(1, bookCount / 200)) {
+            String isbn = isbnOf(i);
+            for (int s = 0; s < router.getShardCount(); s++) {
+                boolean present = router.getShard(s).getBook(isbn) != null;
+                if (present != (s == router.shardOf(isbn))) {
+                    misplaced++;
+                }
+            }
+        }
+        report("图书只在所属分片上", misplaced == 0, misplaced + "处不符");
+
+        // 2. 库存守恒
+        int[] borrowed = new int[bookCount];
+        for (String key : outstanding) {
+            String isbn = key.substring(key.indexOf('\t') + 1);
+            borrowed[Integer.parseInt(isbn.substring(isbn.lastIndexOf('-') + 1))]++;
+        }
+        int wrongStock = 0;
+        for (int i = 0; i < bookCount; i++) {
+            Book book = router.getBook(isbnOf(i));
+            if (book == null || book.getStock() != initialStock[i] - borrowed[i]) {
+                wrongStock++;
+            }
+        }
+        report("库存 = 初始库存 - 未归还", wrongStock == 0, wrongStock + "本书不符");
+
+        // 3. 汇总统计
+        StatisticsReport stats = router.getStatisticsReport();
+        report("汇总统计的图书数、用户数、借出数",
+                stats.getBookCount() == bookCount && stats.getUserCount() == userCount
+                        && stats.getActiveLoans() == outstanding.size(),
+                stats + "，期望books=" + bookCount + ", users=" + userCount + ", activeLoans=" + outstanding.size());
+
+        // 4. 合并搜索
+        Set<String> found = new HashSet<>();
+        for (Book book : router.findByTitle(KEYWORD)) {
+            found.add(book.getIsbn());
+        }
+        int expected = (bookCount + 2) / 3;
+        boolean allMatch = found.size() == expected;
+        for (int i = 0; i < bookCount && allMatch; i += 3) {
+            allMatch = found.contains(isbnOf(i));
+        }
+        report("合并搜索结果", allMatch, "找到" + found.size() + "本，期望" + expected + "本");
+    }
+
+    private void report(String name, boolean ok, String detail) {
+        System.out.println((ok ? "  通过  " : "  失败  ") + name + (ok ? "" : "：" + detail));
+        if (!ok) {
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 图书馆状态的二进制快照
+ * 保存某一时刻的全部图书、用户、借阅记录和预约，以及快照之后的日志从哪一代开始
+ * 先写临时文件并fsync，再原子改名，宕机时不会留下写了一半的快照
+ */
+public class SnapshotFile {
+    // 文件头标识 "LMS3"（在LMS2之后借阅记录增加了归还日期）
+    private static final int MAGIC = 0x4C4D5333;
+
+    // 旧格式 "LMS2"：借阅记录没有归还日期，仍然可以读取
+    private static final int MAGIC_V2 = 0x4C4D5332;
+
+    // 旧格式 "LMS1"：也没有预约部分，仍然可以读取
+    private static final int MAGIC_V1 = 0x4C4D5331;
+
+    // 快照之后的日志代号，恢复时从这一代日志开始重放
+    private final long generation;
+
+    // 快照内容（都是拷贝或只读视图，写文件时不受并发修改影响）
+    private final List<Book> books;
+    private final List<User> users;
+    private final Collection<LoanRecord> loanRecords;
+    private final List<Hold> holds;
+
+    // 构造方法
+    public SnapshotFile(long generation, List<Book> books, List<User> users, Collection<LoanRecord> loanRecords) {
+        this(generation, books, users, loanRecords, new ArrayList<>());
+    }
+
+    public SnapshotFile(long generation, List<Book> books, List<User> users, Collection<LoanRecord> loanRecords,
+                        List<Hold> holds) {
+        this.generation = generation;
+        this.books = books;
+        this.users = users;
+        this.loanRecords = loanRecords;
+        this.holds = holds;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public Collection<LoanRecord> getLoanRecords() {
+        return loanRecords;
+    }
+
+    /**
+     * 获取预约（按排队先后顺序）
+     * @return 预约列表
+     */
+    public List<Hold> getHolds() {
+        return holds;
+    }
+
+    /**
+     * 把快照写入文件
+     * @param file 目标文件
+     */
+    public void writeTo(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            writeTo(out);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 把快照写入输出流（例如发给只读副本），格式与快照文件相同
+     * @param out 输出流
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(generation);
+
+        out.writeInt(books.size());
+        for (Book book : books) {
+            out.writeUTF(book.getTitle());
+            out.writeUTF(book.getAuthor());
+            out.writeUTF(book.getIsbn());
+            out.writeInt(book.getStock());
+        }
+
+        out.writeInt(users.size());
+        for (User user : users) {
+            out.writeUTF(user.getName());
+            out.writeUTF(user.getStudentId());
+        }
+
+        out.writeInt(loanRecords.size());
+        for (LoanRecord record : loanRecords) {
+            out.writeUTF(record.getStudentId());
+            out.writeUTF(record.getIsbn());
+            out.writeLong(record.getBorrowDay());
+            out.writeLong(record.getDueDay());
+            out.writeBoolean(record.isReturned());
+            out.writeInt(record.getReturnDay());
+        }
+
+        out.writeInt(holds.size());
+        for (Hold hold : holds) {
+            out.writeUTF(hold.getStudentId());
+            out.writeUTF(hold.getIsbn());
+            out.writeLong(hold.getClaimExpiresAt());
+        }
+    }
+
+    /**
+     * 从文件读取快照
+     * @param file 快照文件
+     * @return 快照内容，文件不存在时返回null
+     */
+    public static SnapshotFile readFrom(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            return readFrom(in, file.toString());
+        }
+    }
+
+    /**
+     * 从输入流读取快照（例如只读副本接收主馆发来的快照）
+     * @param in 输入流
+     * @param source 来源，只用于错误信息
+     * @return 快照内容
+     */
+    public static SnapshotFile readFrom(DataInputStream in, String source) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC && magic != MAGIC_V2 && magic != MAGIC_V1) {
+            throw new IOException("不是有效的快照：" + source);
+        }
+        long generation = in.readLong();
+
+        int bookCount = in.readInt();
+        List<Book> books = new ArrayList<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            String title = in.readUTF();
+            String author = in.readUTF();
+            String isbn = in.readUTF();
+            books.add(new Book(title, author, isbn, in.readInt()));
+        }
+
+        int userCount = in.readInt();
+        List<User> users = new ArrayList<>(userCount);
+        for (int i = 0; i < userCount; i++) {
+            String name = in.readUTF();
+            users.add(new User(name, in.readUTF()));
+        }
+
+        int loanCount = in.readInt();
+        List<LoanRecord> loanRecords = new ArrayList<>(loanCount);
+        for (int i = 0; i < loanCount; i++) {
+            String studentId = in.readUTF();
+            String isbn = in.readUTF();
+            LoanRecord record = new LoanRecord(studentId, isbn,
+                    LocalDate.ofEpochDay(in.readLong()),
+                    LocalDate.ofEpochDay(in.readLong()));
+            boolean returned = in.readBoolean();
+            int returnDay = magic == MAGIC ? in.readInt() : LoanRecord.NO_DAY;
+            if (returned) {
+                record.markReturned(returnDay);
+            }
+            loanRecords.add(record);
+        }
+
+        List<Hold> holds = new ArrayList<>();
+        if (magic != MAGIC_V1) {
+            int holdCount = in.readInt();
+            for (int i = 0; i < holdCount; i++) {
+                String studentId = in.readUTF();
+                String isbn = in.readUTF();
+                holds.add(new Hold(studentId, isbn, in.readLong()));
+            }
+        }
+        return new SnapshotFile(generation, books, users, loanRecords, holds);
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 系统统计结果
+ * 由Library.getStatisticsReport()生成，只包含数据，显示由调用者负责
+ */
+public class StatisticsReport {
+    // 定义成员变量
+    private final int bookCount;        // 图书总数
+    private final int userCount;        // 用户总数
+    private final long totalLoans;      // 总借阅次数
+    private final long activeLoans;     // 当前借出数量
+    private final List<Map.Entry<Book, Long>> popularBooks;  // 最受欢迎的图书及借阅次数
+
+    // 构造方法
+    public StatisticsReport(int bookCount, int userCount, long totalLoans, long activeLoans,
+                            List<Map.Entry<Book, Long>> popularBooks) {
+        this.bookCount = bookCount;
+        this.userCount = userCount;
+        this.totalLoans = totalLoans;
+        this.activeLoans = activeLoans;
+        this.popularBooks = popularBooks;
+    }
+
+    public int getBookCount() {
+        return bookCount;
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    public long getTotalLoans() {
+        return totalLoans;
+    }
+
+    public long getActiveLoans() {
+        return activeLoans;
+    }
+
+    public List<Map.Entry<Book, Long>> getPopularBooks() {
+        return popularBooks;
+    }
+
+    // 对象转换成字符串
+    @Override
+    public String toString() {
+        return "StatisticsReport{books=" + bookCount +
+                ", users=" + userCount +
+                ", totalLoans=" + totalLoans +
+                ", activeLoans=" + activeLoans +
+                '}';
+    }
+}
@@ -0,0 +1,248 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 借还书的多线程压力测试（进程内，纯内存）
+ * 多个线程随机借还同一组图书，库存很少（1~3本），同一本书经常被几个线程同时借还；
+ * 每个线程只操作分给自己的学生，同一个(学生, 图书)不会被两个线程同时借还，每次操作的结果都可以预期。
+ * 每轮所有线程停下来后检查：
+ *   1. 每本书的库存 + 未归还借阅数 = 初始库存，库存不为负（借还既没有丢失也没有重复）
+ *   2. 未归还借阅与测试记下的成功借阅（减去成功归还）完全一致
+ * 另外做“抢最后一本”测试：所有线程在栅栏处同时借同一本只剩一本的书，每次只能有一个成功
+ *
+ * 用法：java StockHarness [--books=50] [--users=200] [--threads=16] [--rounds=100] [--ops=500] [--races=200]
+ * --ops 是每个线程每轮的借还次数，--races 是抢最后一本的次数
+ */
+public class StockHarness {
+    private final Library library;
+    private final int bookCount;
+    private final int userCount;
+    private final int[] initialStock;
+
+    // 测试记下的未归还借阅："学号\tISBN"
+    private final Set<String> outstanding = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong unexpected = new AtomicLong();
+    private int failures;
+
+    // 构造方法
+    private StockHarness(int bookCount, int userCount) {
+        this.library = new Library();
+        this.bookCount = bookCount;
+        this.userCount = userCount;
+        this.initialStock = new int[bookCount];
+        Random random = new Random(42);
+        for (int i = 0; i < bookCount; i++) {
+            initialStock[i] = 1 + random.nextInt(3);
+            library.addBook("压力测试" + i, "作者" + i, isbnOf(i), initialStock[i]);
+        }
+        for (int i = 0; i < userCount; i++) {
+            library.registerUser("学生" + i, studentIdOf(i));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = CommandLine.parseArgs(args);
+        int books = Integer.parseInt(options.getOrDefault("books", "50"));
+        int users = Integer.parseInt(options.getOrDefault("users", "200"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        int rounds = Integer.parseInt(options.getOrDefault("rounds", "100"));
+        int ops = Integer.parseInt(options.getOrDefault("ops", "500"));
+        int races = Integer.parseInt(options.getOrDefault("races", "200"));
+        if (users < threads) {
+            throw new IllegalArgumentException("学生数不能少于线程数");
+        }
+
+        StockHarness harness = new StockHarness(books, users);
+        harness.runWorkload(threads, rounds, ops);
+        harness.raceForLastCopy(threads, races);
+        harness.library.close();
+
+        System.out.println(harness.failures == 0 ? "\n全部检查通过" : "\n" + harness.failures + "项检查失败");
+        System.exit(harness.failures == 0 ? 0 : 1);
+    }
+
+    // ==================== 随机借还 ====================
+
+    /**
+     * 多个线程随机借还rounds轮，每轮结束时所有线程在栅栏处停下，由最后到达的线程检查一致性
+     */
+    private void runWorkload(int threads, int rounds, int ops) throws InterruptedException {
+        System.out.println(threads + "个线程随机借还" + rounds + "轮，每轮每个线程" + ops + "次……");
+        AtomicInteger round = new AtomicInteger();
+        CyclicBarrier barrier = new CyclicBarrier(threads, () -> verify("第" + round.incrementAndGet() + "轮之后"));
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int r = 0; r < rounds; r++) {
+                        for (int i = 0; i < ops; i++) {
+                            borrowOrReturn(thread, threads, ThreadLocalRandom.current());
+                        }
+                        barrier.await();
+                    }
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "stock-worker-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        System.out.println("共" + operations.get() + "次操作，结果与预期不符" + unexpected.get() + "次");
+        if (unexpected.get() > 0) {
+            failures++;
+        }
+    }
+
+    /**
+     * 随机一个本线程的学生和一本书：测试记下他借着这本书就还（必须成功），否则借（只能因为没有库存而失败）
+     */
+    private void borrowOrReturn(int thread, int threads, Random random) {
+        String studentId = studentIdOf(thread + threads * random.nextInt(userCount / threads));
+        String isbn = isbnOf(random.nextInt(bookCount));
+        String key = studentId + "\t" + isbn;
+        operations.incrementAndGet();
+        if (outstanding.contains(key)) {
+            OpResult result = library.returnBook(studentId, isbn);
+            if (result.isOk()) {
+                outstanding.remove(key);
+            } else {
+                unexpected.incrementAndGet();
+            }
+        } else {
+            OpResult result = library.borrowBook(studentId, isbn);
+            if (result.isOk()) {
+                outstanding.add(key);
+            } else if (result != OpResult.OUT_OF_STOCK) {
+                unexpected.incrementAndGet();
+            }
+        }
+    }
+
+    // ==================== 抢最后一本 ====================
+
+    /**
+     * 每次把一本书的库存设为1，所有线程在栅栏处同时用不同的学生去借，只能有一个成功，之后还回去
+     */
+    private void raceForLastCopy(int threads, int races) throws InterruptedException {
+        System.out.println("\n" + threads + "个线程同时借最后一本，共" + races + "次……");
+        // 先还掉所有未归还的借阅，每次抢的书库存都从1开始
+        for (String key : outstanding) {
+            String[] parts = key.split("\t");
+            library.returnBook(parts[0], parts[1]);
+        }
+        outstanding.clear();
+
+        String[] isbn = new String[1];
+        AtomicInteger winners = new AtomicInteger();
+        int[] doubleLent = new int[1];
+        CyclicBarrier start = new CyclicBarrier(threads, () -> {
+            isbn[0] = isbnOf(ThreadLocalRandom.current().nextInt(bookCount));
+            library.updateStock(isbn[0], 1);
+            winners.set(0);
+        });
+        CyclicBarrier end = new CyclicBarrier(threads, () -> {
+            if (winners.get() != 1 || library.getBook(isbn[0]).getStock() != 0) {
+                doubleLent[0]++;
+            }
+            // 赢家还书，库存恢复成初始值
+            for (int t = 0; t < threads; t++) {
+                library.returnBook(studentIdOf(t), isbn[0]);
+            }
+            library.updateStock(isbn[0], initialStock[indexOf(isbn[0])]);
+        });
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            String studentId = studentIdOf(t);
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int r = 0; r < races; r++) {
+                        start.await();
+                        if (library.borrowBook(studentId, isbn[0]).isOk()) {
+                            winners.incrementAndGet();
+                        }
+                        end.await();
+                    }
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "stock-racer-" + t);
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        check(doubleLent[0] == 0, "最后一本只借出一次（" + doubleLent[0] + "次不是恰好一个人借到）");
+        verify("抢最后一本之后");
+    }
+
+    // ==================== 检查 ====================
+
+    /**
+     * 所有线程都停下时检查库存和未归还借阅
+     */
+    private void verify(String stage) {
+        Map<String, Integer> open = new HashMap<>();
+        int matched = 0;
+        int openCount = 0;
+        for (LoanRecord record : library.listLoanRecords()) {
+            if (record.isReturned()) {
+                continue;
+            }
+            openCount++;
+            open.merge(record.getIsbn(), 1, Integer::sum);
+            if (outstanding.contains(record.getStudentId() + "\t" + record.getIsbn())) {
+                matched++;
+            }
+        }
+        int inconsistent = 0;
+        for (int i = 0; i < bookCount; i++) {
+            int stock = library.getBook(isbnOf(i)).getStock();
+            if (stock < 0 || stock + open.getOrDefault(isbnOf(i), 0) != initialStock[i]) {
+                inconsistent++;
+            }
+        }
+        boolean ok = check(inconsistent == 0, stage + "：库存 + 未归还 = 初始库存（" + inconsistent + "本不一致）");
+        ok &= check(openCount == outstanding.size() && matched == openCount,
+                stage + "：未归还借阅与记录一致（图书馆" + openCount + "条，测试记录" + outstanding.size() + "条）");
+        if (ok && !stage.startsWith("第")) {
+            System.out.println("  " + stage + "：检查通过");
+        }
+    }
+
+    /**
+     * 检查一项，失败时打印并计数
+     * @return 是否通过
+     */
+    private boolean check(boolean passed, String description) {
+        if (!passed) {
+            failures++;
+            System.out.println("  [失败] " + description);
+        }
+        return passed;
+    }
+
+    private static String isbnOf(int i) {
+        return "STRESS-" + i;
+    }
+
+    private static int indexOf(String isbn) {
+        return Integer.parseInt(isbn.substring("STRESS-".length()));
+    }
+
+    private static String studentIdOf(int i) {
+        return "T" + i;
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按学号分道的请求执行器
+ * 同一个学号的请求进入同一条道（邮箱），按提交顺序一个接一个执行：
+ * 先借后还、借阅查重不会被同一学生从别的终端发来的请求插队；
+ * 不同学号的道各由一个虚拟线程执行，互不等待，执行器本身没有全局锁
+ * （Library内部借还书也只锁对应ISBN的分段锁），吞吐量随核数扩展
+ *
+ * 道只在有请求时存在：第一个请求到来时创建并启动一个虚拟线程，队列取空后虚拟线程结束、道从表中删除；
+ * 入队、出队、删除都在ConcurrentHashMap.compute里完成，只锁这个学号所在的桶
+ * call()遇到空闲的道时直接在调用者的线程里执行，之后还有别人排进来的请求才交给虚拟线程，
+ * 同一学生没有并发请求的常见情况下不用切换线程
+ *
+ * 背压：
+ *     每条道最多排队laneCapacity个请求，满了立即拒绝，一个学生的请求堆积不影响别人；
+ *     全部道合计最多maxPending个请求，满了提交者最多等待offerTimeoutMillis，仍然没有空位再拒绝
+ * 取消：submit返回的Future可以取消，还没开始的请求不再执行，cancel(true)会中断正在执行的虚拟线程
+ */
+public class StudentLanes implements Closeable {
+    // 默认每条道的排队上限、全部道合计的排队上限、等待空位的最长时间（毫秒）
+    public static final int DEFAULT_LANE_CAPACITY = 64;
+    public static final int DEFAULT_MAX_PENDING = 65536;
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 1000;
+
+    // 学号 -> 道，只包含有请求在排队或执行的学号
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final int laneCapacity;
+    private final long offerTimeoutMillis;
+
+    // 全部道合计的排队名额：提交时取得，请求执行完（或取消后被跳过）时归还
+    private final Semaphore pending;
+
+    // 执行各条道的虚拟线程
+    private final ExecutorService workers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("student-lane-", 0).factory());
+
+    private volatile boolean closed;
+
+    /**
+     * 一条道：排队中的请求，只在lanes.compute里访问
+     */
+    private static final class Lane {
+        final ArrayDeque<FutureTask<?>> queue = new ArrayDeque<>();
+    }
+
+    /**
+     * 构造函数：使用默认的排队上限
+     */
+    public StudentLanes() {
+        this(DEFAULT_LANE_CAPACITY, DEFAULT_MAX_PENDING, DEFAULT_OFFER_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param laneCapacity 每条道的排队上限
+     * @param maxPending 全部道合计的排队上限
+     * @param offerTimeoutMillis 全部道都满时提交者等待空位的最长时间（毫秒）
+     */
+    public StudentLanes(int laneCapacity, int maxPending, long offerTimeoutMillis) {
+        if (laneCapacity <= 0 || maxPending <= 0) {
+            throw new IllegalArgumentException("排队上限必须大于0");
+        }
+        this.laneCapacity = laneCapacity;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    /**
+     * 把请求放入学号对应的道，排在这个学号之前提交的请求之后执行
+     * @param studentId 学号
+     * @param task 请求
+     * @return 请求的结果，可以取消
+     * @throws RejectedExecutionException 这条道已满、全部道都满且等待超时，或执行器已关闭
+     */
+    public <T> Future<T> submit(String studentId, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        if (enqueue(studentId, future)) {
+            startWorker(studentId);
+        }
+        return future;
+    }
+
+    /**
+     * 放入学号对应的道并等待执行完
+     * 道空闲时直接在调用者的线程里执行；等待时被中断会取消这个请求（正在执行的也会被中断）
+     * @param studentId 学号
+     * @param task 请求
+     * @return 请求的返回值
+     * @throws RejectedExecutionException 见submit
+     * @throws CancellationException 请求被取消或等待时被中断
+     */
+    public <T> T call(String studentId, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        if (enqueue(studentId, future)) {
+            runFirst(studentId);
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("等待请求时被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * 当前有请求在排队或执行的学号数
+     * @return 道数
+     */
+    public int getLaneCount() {
+        return lanes.size();
+    }
+
+    /**
+     * 关闭：不再接受新请求，取消还没开始的请求，等待正在执行的请求完成
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workers.shutdown();
+        for (String studentId : lanes.keySet()) {
+            lanes.computeIfPresent(studentId, (id, lane) -> {
+                for (FutureTask<?> task : lane.queue) {
+                    task.cancel(false);
+                }
+                return lane;
+            });
+        }
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 取得排队名额并放入道
+     * @return 新建了这条道（请求排在队首，需要有人来执行）返回true
+     */
+    private boolean enqueue(String studentId, FutureTask<?> task) {
+        if (closed) {
+            throw new RejectedExecutionException("执行器已关闭");
+        }
+        try {
+            if (!pending.tryAcquire(offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException("排队的请求太多");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("等待排队时被中断");
+        }
+        // 0：排在已有的请求后面，1：新建了这条道，2：这条道已满
+        int[] outcome = new int[1];
+        lanes.compute(studentId, (id, lane) -> {
+            if (lane == null) {
+                lane = new Lane();
+                outcome[0] = 1;
+            } else if (lane.queue.size() >= laneCapacity) {
+                outcome[0] = 2;
+                return lane;
+            }
+            lane.queue.add(task);
+            return lane;
+        });
+        if (outcome[0] == 2) {
+            pending.release();
+            throw new RejectedExecutionException("学号" + studentId + "排队的请求太多");
+        }
+        return outcome[0] == 1;
+    }
+
+    /**
+     * 启动一个虚拟线程执行这条道
+     */
+    private void startWorker(String studentId) {
+        try {
+            workers.execute(() -> drain(studentId));
+        } catch (RejectedExecutionException e) {
+            // 关闭期间新建的道：没有线程执行它，取消其中的请求
+            abandon(studentId);
+            throw e;
+        }
+    }
+
+    /**
+     * 在调用者的线程里执行新建的道的第一个请求（就是调用者自己的）
+     * 执行期间道留在表中，别人的请求排在后面；执行完道已空就删除，否则交给虚拟线程
+     */
+    private void runFirst(String studentId) {
+        FutureTask<?>[] first = new FutureTask<?>[1];
+        lanes.computeIfPresent(studentId, (id, lane) -> {
+            first[0] = lane.queue.poll();
+            return lane;
+        });
+        if (first[0] != null) {
+            try {
+                first[0].run();
+            } finally {
+                pending.release();
+            }
+        }
+        boolean[] more = new boolean[1];
+        lanes.computeIfPresent(studentId, (id, lane) -> {
+            if (lane.queue.isEmpty()) {
+                return null;
+            }
+            more[0] = true;
+            return lane;
+        });
+        if (more[0]) {
+            try {
+                startWorker(studentId);
+            } catch (RejectedExecutionException e) {
+                // 正在关闭，后面的请求已被取消，调用者自己的请求已经执行完
+            }
+        }
+    }
+
+    /**
+     * 一条道的虚拟线程：按顺序执行道里的请求，取空后删除这条道并结束
+     */
+    private void drain(String studentId) {
+        FutureTask<?> next;
+        while ((next = poll(studentId)) != null) {
+            try {
+                // 已取消的请求run()直接返回
+                next.run();
+            } finally {
+                pending.release();
+                // cancel(true)留下的中断标记不能带到下一个请求
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * 取出道里的下一个请求，道已空时在同一次compute里删除这条道
+     * 之后同一学号的新请求会新建一条道
+     */
+    private FutureTask<?> poll(String studentId) {
+        FutureTask<?>[] next = new FutureTask<?>[1];
+        lanes.computeIfPresent(studentId, (id, lane) -> {
+            next[0] = lane.queue.poll();
+            return next[0] == null ? null : lane;
+        });
+        return next[0];
+    }
+
+    /**
+     * 删除一条没有线程执行的道，取消其中的请求并归还名额
+     */
+    private void abandon(String studentId) {
+        Lane lane = lanes.remove(studentId);
+        if (lane != null) {
+            for (FutureTask<?> task : lane.queue) {
+                task.cancel(false);
+                pending.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 预写日志（只追加）
+ * 每条记录格式：[长度int][CRC32 int][一个或多个LibraryOp二进制]
+ * 批量操作的所有LibraryOp放在同一条记录里，共用一个校验和，宕机时要么整批重放，要么整批丢弃
+ *
+ * 组提交：append()只把记录放进内存队列并返回序号，
+ * 后台写线程一次取走队列里的所有记录，写入文件后只做一次fsync，
+ * 然后通知所有在awaitDurable()上等待的线程
+ * 这样并发借书时，多次借阅共享一次fsync，吞吐量不受磁盘同步次数限制
+ */
+public class WriteAheadLog implements Closeable {
+    // 当前写入的日志文件
+    private FileChannel channel;
+
+    // 等待写入的记录，以及最后分配的序号、已落盘的序号
+    private List<byte[]> pending = new ArrayList<>();
+    private long lastSeq;
+    private long durableSeq;
+
+    // 写线程遇到的IO错误，出错后所有等待者都会收到异常
+    private IOException failure;
+    private boolean closed;
+
+    // 后台写线程
+    private final Thread writer;
+
+    /**
+     * 打开日志文件并启动写线程，新记录追加到文件末尾
+     * @param file 日志文件
+     */
+    public WriteAheadLog(Path file) throws IOException {
+        this.channel = openForAppend(file);
+        this.writer = new Thread(this::writeLoop, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 追加一条操作记录（只放入内存队列，不等待落盘）
+     * @param op 操作
+     * @return 该记录的序号，传给awaitDurable()可等待它落盘
+     */
+    public long append(LibraryOp op) {
+        byte[] record = encode(op);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("日志已关闭");
+            }
+            pending.add(record);
+            lastSeq++;
+            notifyAll();
+            return lastSeq;
+        }
+    }
+
+    /**
+     * 把一批操作作为一条记录追加（批量借还时使用）
+     * @param ops 操作，不能为空
+     * @return 该记录的序号
+     */
+    public long appendAll(List<LibraryOp> ops) {
+        byte[] record = encode(ops);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("日志已关闭");
+            }
+            pending.add(record);
+            lastSeq++;
+            notifyAll();
+            return lastSeq;
+        }
+    }
+
+    /**
+     * 等待指定序号及之前的记录全部落盘
+     * @param seq append()返回的序号
+     */
+    public synchronized void awaitDurable(long seq) {
+        while (durableSeq < seq && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待日志落盘时被中断", e);
+            }
+        }
+        if (durableSeq < seq) {
+            throw new UncheckedIOException("写入日志失败", failure);
+        }
+    }
+
+    /**
+     * 等待所有已追加的记录落盘
+     */
+    public void flush() {
+        long seq;
+        synchronized (this) {
+            seq = lastSeq;
+        }
+        awaitDurable(seq);
+    }
+
+    /**
+     * 切换到新的日志文件（做快照时使用）
+     * 调用者必须保证切换期间没有新的append()
+     * @param newFile 新日志文件
+     */
+    public void rotate(Path newFile) throws IOException {
+        flush();
+        FileChannel old;
+        synchronized (this) {
+            old = channel;
+            channel = openForAppend(newFile);
+        }
+        old.close();
+    }
+
+    /**
+     * 写完剩余记录后关闭日志
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    /**
+     * 重放日志文件中的所有完整记录
+     * 遇到不完整或校验失败的尾部记录（写到一半时宕机）就停止，并把文件截断到最后一条完整记录
+     * @param file 日志文件
+     * @param consumer 处理每条记录的回调
+     * @return 重放的操作条数
+     */
+    public static int replay(Path file, Consumer<LibraryOp> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int count = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length;
+                int crc;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    crc = in.readInt();
+                    if (length < 0) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (checksum(payload) != crc) {
+                    break;
+                }
+                DataInputStream ops = new DataInputStream(new ByteArrayInputStream(payload));
+                while (ops.available() > 0) {
+                    consumer.accept(LibraryOp.readFrom(ops));
+                    count++;
+                }
+                validLength += 8 + length;
+            }
+        }
+        if (validLength < Files.size(file)) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(validLength);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 写线程主循环：取走队列中的所有记录，一次写入一次fsync
+     */
+    private void writeLoop() {
+        while (true) {
+            List<byte[]> batch;
+            long upTo;
+            FileChannel ch;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                upTo = lastSeq;
+                ch = channel;
+            }
+
+            try {
+                int size = 0;
+                for (byte[] record : batch) {
+                    size += record.length;
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                for (byte[] record : batch) {
+                    buffer.put(record);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    ch.write(buffer);
+                }
+                ch.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                durableSeq = upTo;
+                notifyAll();
+            }
+        }
+    }
+
+    private static FileChannel openForAppend(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * 把操作编码成一条带长度和校验和的日志记录
+     */
+    private static byte[] encode(LibraryOp op) {
+        return encode(Collections.singletonList(op));
+    }
+
+    /**
+     * 把一批操作编码成一条日志记录
+     */
+    private static byte[] encode(List<LibraryOp> ops) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64 * ops.size());
+            DataOutputStream out = new DataOutputStream(body);
+            for (LibraryOp op : ops) {
+                op.writeTo(out);
+            }
+            byte[] payload = body.toByteArray();
+            ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+            record.putInt(payload.length);
+            record.putInt(checksum(payload));
+            record.put(payload);
+            return record.array();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+}